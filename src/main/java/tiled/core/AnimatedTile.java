@@ -16,6 +16,7 @@ import tiled.core.Sprite.KeyFrame;
 import tiled.util.TiledConfiguration;
 
 import java.awt.*;
+import java.awt.image.ImageObserver;
 import java.util.Iterator;
 
 /**
@@ -91,10 +92,11 @@ public class AnimatedTile extends Tile {
      * Handles drawing the correct frame, and iterating by the
      * frame rate
      *
-     * @see tiled.core.Tile#draw(Graphics, int, int, double)
+     * @see tiled.core.Tile#draw(Graphics, int, int, double, ImageObserver)
      */
-    public void draw(Graphics g, int x, int y, double zoom) {
-        sprite.getCurrentFrame().draw(g, x, y, zoom);
+    public void draw(Graphics g, int x, int y, double zoom,
+                     ImageObserver observer) {
+        sprite.getCurrentFrame().draw(g, x, y, zoom, observer);
         sprite.iterateFrame();
     }
 }
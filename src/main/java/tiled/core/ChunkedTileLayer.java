@@ -0,0 +1,812 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import java.awt.*;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A GidTileLayer that divides its area into square chunks of
+ * {@link #CHUNK_SIZE} tiles. A chunk is only allocated when the first tile
+ * is placed in it and is released again once its last tile is removed, so
+ * memory use and the cost of scanning the layer depend on the painted
+ * content rather than on the size of the map.
+ * <p>
+ * Chunks are aligned to the top left corner of the layer bounds. Cloning a
+ * layer or copying it to another chunked layer shares the chunks between
+ * both layers. A shared chunk is only duplicated when either layer writes
+ * to it, which makes the snapshots taken for undo cheap.
+ *
+ * @version $Id$
+ */
+public class ChunkedTileLayer extends GidTileLayer {
+    /**
+     * The width and height of a chunk in tiles.
+     */
+    public static final int CHUNK_SIZE = 32;
+    private static final int CHUNK_SHIFT = 5;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The chunks, row by row. A <code>null</code> entry is an empty chunk.
+     * Not initialized here, since <code>allocate</code> is called from the
+     * constructor of MapLayer.
+     */
+    protected int[][] chunks;
+
+    /**
+     * The number of tiles in each chunk.
+     */
+    protected int[] chunkCounts;
+
+    /**
+     * Whether each chunk may also be referenced by another layer, in which
+     * case it has to be copied before it is modified.
+     */
+    protected boolean[] chunkShared;
+
+    /**
+     * The number of chunks in a row.
+     */
+    protected int chunkColumns;
+
+    /**
+     * The source of modification stamps. Stamps are unique among all
+     * layers, so that a clone shares the stamp of its layer exactly as long
+     * as neither of them changes.
+     */
+    private static final AtomicLong stamps = new AtomicLong();
+
+    /**
+     * For each chunk, the value of <code>modificationStamp</code> at its
+     * last change, so that views can tell whether a cached rendering of a
+     * chunk is still valid.
+     */
+    private long[] chunkStamps;
+    private long modificationStamp;
+
+    /**
+     * The stamp shared by the changes made within the current bulk change
+     * (see {@link #beginRegionChange()}), or 0 when none was taken yet.
+     */
+    private long bulkStamp;
+    private int bulkDepth;
+
+    /**
+     * Default contructor.
+     */
+    public ChunkedTileLayer() {
+    }
+
+    /**
+     * Construct a ChunkedTileLayer from the given width and height.
+     *
+     * @param w width in tiles
+     * @param h height in tiles
+     */
+    public ChunkedTileLayer(int w, int h, int tileWidth, int tileHeight) {
+        super(w, h, tileWidth, tileHeight);
+    }
+
+    /**
+     * Create a tile layer using the given bounds.
+     *
+     * @param r the bounds of the tile layer.
+     */
+    public ChunkedTileLayer(Rectangle r, int tileWidth, int tileHeight) {
+        super(r, tileWidth, tileHeight);
+    }
+
+    /**
+     * @param m the map this layer is part of
+     * @param w width in tiles
+     * @param h height in tiles
+     */
+    public ChunkedTileLayer(Map m, int w, int h) {
+        super(m, w, h);
+    }
+
+    protected void allocate(int width, int height) {
+        map = null;
+        gids = null;
+        chunkColumns = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        chunks = new int[chunkColumns * ((height + CHUNK_MASK) >> CHUNK_SHIFT)][];
+        chunkCounts = new int[chunks.length];
+        chunkShared = new boolean[chunks.length];
+        chunkStamps = new long[chunks.length];
+        Arrays.fill(chunkStamps, modificationStamp = stamps.incrementAndGet());
+    }
+
+    /**
+     * Returns the tile-space x coordinate at which the chunk containing the
+     * given column starts.
+     *
+     * @param tx Tile-space x coordinate
+     * @return the x coordinate of the first column of the chunk
+     */
+    public int getChunkStartX(int tx) {
+        return bounds.x + (Math.floorDiv(tx - bounds.x, CHUNK_SIZE) << CHUNK_SHIFT);
+    }
+
+    /**
+     * Returns the tile-space y coordinate at which the chunk containing the
+     * given row starts.
+     *
+     * @param ty Tile-space y coordinate
+     * @return the y coordinate of the first row of the chunk
+     */
+    public int getChunkStartY(int ty) {
+        return bounds.y + (Math.floorDiv(ty - bounds.y, CHUNK_SIZE) << CHUNK_SHIFT);
+    }
+
+    /**
+     * Returns whether the chunk containing the given position holds any
+     * tiles. When it doesn't, all positions in that chunk can be skipped.
+     *
+     * @param tx Tile-space x coordinate
+     * @param ty Tile-space y coordinate
+     * @return <code>true</code> if the position is within this layer and
+     * its chunk is allocated
+     */
+    public boolean hasChunkAt(int tx, int ty) {
+        return bounds.contains(tx, ty) &&
+                chunks[chunkIndex(tx - bounds.x, ty - bounds.y)] != null;
+    }
+
+    /**
+     * Returns the number of chunks in a row of chunks.
+     */
+    public int getChunkColumns() {
+        return chunkColumns;
+    }
+
+    /**
+     * Returns the number of rows of chunks.
+     */
+    public int getChunkRows() {
+        return chunkColumns > 0 ? chunks.length / chunkColumns : 0;
+    }
+
+    /**
+     * Returns whether the given chunk holds any tiles.
+     *
+     * @param cx the column of the chunk
+     * @param cy the row of the chunk
+     * @return <code>true</code> if the chunk is allocated
+     */
+    public boolean hasChunk(int cx, int cy) {
+        return chunks[cy * chunkColumns + cx] != null;
+    }
+
+    /**
+     * Returns a value that changes whenever the tiles of the given chunk
+     * change. Stamps are never reused by a layer.
+     *
+     * @param cx the column of the chunk
+     * @param cy the row of the chunk
+     * @return the modification stamp of the chunk
+     */
+    public long getChunkStamp(int cx, int cy) {
+        return chunkStamps[cy * chunkColumns + cx];
+    }
+
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    /**
+     * Returns the number of chunks that currently hold tiles.
+     */
+    public int getAllocatedChunkCount() {
+        int count = 0;
+        for (int[] chunk : chunks) {
+            if (chunk != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y >> CHUNK_SHIFT) * chunkColumns + (x >> CHUNK_SHIFT);
+    }
+
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+    }
+
+    /**
+     * Returns the layer-relative x coordinate of a cell of a chunk.
+     */
+    private int cellX(int chunk, int cell) {
+        return ((chunk % chunkColumns) << CHUNK_SHIFT) + (cell & CHUNK_MASK);
+    }
+
+    /**
+     * Returns the layer-relative y coordinate of a cell of a chunk.
+     */
+    private int cellY(int chunk, int cell) {
+        return ((chunk / chunkColumns) << CHUNK_SHIFT) + (cell >> CHUNK_SHIFT);
+    }
+
+    public int getGidAt(int tx, int ty) {
+        if (!bounds.contains(tx, ty)) {
+            return 0;
+        }
+        final int x = tx - bounds.x;
+        final int y = ty - bounds.y;
+        final int[] chunk = chunks[chunkIndex(x, y)];
+        return chunk != null ? chunk[cellIndex(x, y)] : 0;
+    }
+
+    protected void storeGid(int tx, int ty, int gid) {
+        putGid(tx - bounds.x, ty - bounds.y, gid);
+    }
+
+    /**
+     * Stores a global id at a layer-relative position, allocating or
+     * releasing its chunk as needed.
+     */
+    private void putGid(int x, int y, int gid) {
+        final int c = chunkIndex(x, y);
+        int[] chunk = chunks[c];
+        if (chunk == null) {
+            if (gid == 0) {
+                return;
+            }
+            chunk = chunks[c] = new int[CHUNK_SIZE * CHUNK_SIZE];
+        }
+
+        final int i = cellIndex(x, y);
+        final int old = chunk[i];
+        if (old == gid) {
+            return;
+        }
+        chunkStamps[c] = modificationStamp = nextStamp();
+        if (old != 0 && gid == 0 && chunkCounts[c] == 1) {
+            // Last tile removed, no need to copy a shared chunk for that
+            releaseChunk(c);
+            return;
+        }
+        if (chunkShared[c]) {
+            chunk = unshareChunk(c);
+        }
+        chunk[i] = gid;
+        if (old == 0) {
+            chunkCounts[c]++;
+        } else if (gid == 0) {
+            chunkCounts[c]--;
+        }
+    }
+
+    /**
+     * Returns the stamp for a change of the tiles of this layer. All
+     * changes made within one bulk change share a single stamp, so that
+     * changing many tiles does not contend on the shared stamp counter.
+     */
+    private long nextStamp() {
+        if (bulkStamp != 0) {
+            return bulkStamp;
+        }
+        final long stamp = stamps.incrementAndGet();
+        if (bulkDepth > 0) {
+            bulkStamp = stamp;
+        }
+        return stamp;
+    }
+
+    protected void beginRegionChange() {
+        bulkDepth++;
+        super.beginRegionChange();
+    }
+
+    protected void endRegionChange() {
+        // Listeners see the final stamps, and get new ones for their own
+        // changes
+        endBulkChange();
+        super.endRegionChange();
+    }
+
+    private void endBulkChange() {
+        if (--bulkDepth == 0) {
+            bulkStamp = 0;
+        }
+    }
+
+    /**
+     * Gives this layer its own copy of a shared chunk.
+     *
+     * @param c the index of the chunk
+     * @return the chunk, now owned by this layer only
+     */
+    private int[] unshareChunk(int c) {
+        chunks[c] = chunks[c].clone();
+        chunkShared[c] = false;
+        return chunks[c];
+    }
+
+    private void releaseChunk(int c) {
+        chunks[c] = null;
+        chunkCounts[c] = 0;
+        chunkShared[c] = false;
+    }
+
+    /**
+     * Marks all chunks of this layer as shared with another layer.
+     */
+    private void shareChunks() {
+        for (int c = 0; c < chunks.length; c++) {
+            chunkShared[c] = chunks[c] != null;
+        }
+    }
+
+    public void getGidRow(int tx, int ty, int[] row) {
+        Arrays.fill(row, 0);
+        if (ty < bounds.y || ty >= bounds.y + bounds.height) {
+            return;
+        }
+        final int y = ty - bounds.y;
+        final int end = Math.min(tx + row.length, bounds.x + bounds.width) - bounds.x;
+        int x = Math.max(tx, bounds.x) - bounds.x;
+        while (x < end) {
+            final int length = Math.min(CHUNK_SIZE - (x & CHUNK_MASK), end - x);
+            final int[] chunk = chunks[chunkIndex(x, y)];
+            if (chunk != null) {
+                System.arraycopy(chunk, cellIndex(x, y),
+                        row, x + bounds.x - tx, length);
+            }
+            x += length;
+        }
+    }
+
+    /**
+     * Replaces the global ids of this layer by those read from the given
+     * buffer. Each row is copied into its chunks with bulk reads, one band
+     * of chunk rows at a time, and chunks that turn out to be empty are
+     * reused for the next band instead of being kept.
+     */
+    public void readGids(IntBuffer buffer) {
+        final int width = bounds.width;
+        final int height = bounds.height;
+        final long stamp = modificationStamp = stamps.incrementAndGet();
+        final ArrayList<int[]> spare = new ArrayList<int[]>();
+
+        for (int c = 0; c < chunks.length; c++) {
+            releaseChunk(c);
+            chunkStamps[c] = stamp;
+        }
+
+        for (int y0 = 0; y0 < height; y0 += CHUNK_SIZE) {
+            final int base = (y0 >> CHUNK_SHIFT) * chunkColumns;
+            for (int cx = 0; cx < chunkColumns; cx++) {
+                chunks[base + cx] = spare.isEmpty() ?
+                        new int[CHUNK_SIZE * CHUNK_SIZE] :
+                        spare.remove(spare.size() - 1);
+            }
+
+            final int y1 = Math.min(y0 + CHUNK_SIZE, height);
+            for (int y = y0; y < y1; y++) {
+                final int offset = (y & CHUNK_MASK) << CHUNK_SHIFT;
+                for (int x = 0, cx = 0; x < width; x += CHUNK_SIZE, cx++) {
+                    buffer.get(chunks[base + cx], offset,
+                            Math.min(CHUNK_SIZE, width - x));
+                }
+            }
+
+            for (int cx = 0; cx < chunkColumns; cx++) {
+                final int[] chunk = chunks[base + cx];
+                int count = 0;
+                for (int gid : chunk) {
+                    if (gid != 0) {
+                        count++;
+                    }
+                }
+                if (count == 0) {
+                    // Still all zeroes, so it can be filled again as is
+                    spare.add(chunk);
+                    chunks[base + cx] = null;
+                } else {
+                    chunkCounts[base + cx] = count;
+                }
+            }
+        }
+    }
+
+    void remapGids(int[] firstGids, int[] deltas) {
+        final long stamp = stamps.incrementAndGet();
+        for (int c = 0; c < chunks.length; c++) {
+            if (chunks[c] == null) {
+                continue;
+            }
+            final int[] chunk = chunkShared[c] ? unshareChunk(c) : chunks[c];
+            chunkStamps[c] = modificationStamp = stamp;
+            int count = 0;
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = remapGid(chunk[i], firstGids, deltas);
+                if (chunk[i] != 0) {
+                    count++;
+                }
+            }
+            chunkCounts[c] = count;
+            if (count == 0) {
+                releaseChunk(c);
+            }
+        }
+    }
+
+    public void rotate(int angle) {
+        int xtrans = 0, ytrans = 0;
+        int newWidth, newHeight;
+
+        if (!canEdit())
+            return;
+
+        switch (angle) {
+            case ROTATE_90:
+                newWidth = bounds.height;
+                newHeight = bounds.width;
+                xtrans = bounds.height - 1;
+                break;
+            case ROTATE_180:
+                newWidth = bounds.width;
+                newHeight = bounds.height;
+                xtrans = bounds.width - 1;
+                ytrans = bounds.height - 1;
+                break;
+            case ROTATE_270:
+                newWidth = bounds.height;
+                newHeight = bounds.width;
+                ytrans = bounds.width - 1;
+                break;
+            default:
+                return;
+        }
+
+        double ra = Math.toRadians(angle);
+        int cos_angle = (int) Math.round(Math.cos(ra));
+        int sin_angle = (int) Math.round(Math.sin(ra));
+
+        beginRegionChange();
+        fireRegionChanged(bounds);
+        final ChunkedTileLayer old = detachChunks();
+        allocate(newWidth, newHeight);
+        bounds.width = newWidth;
+        bounds.height = newHeight;
+        fireRegionChanged(bounds);
+
+        for (int c = 0; c < old.chunks.length; c++) {
+            final int[] chunk = old.chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < chunk.length; i++) {
+                if (chunk[i] != 0) {
+                    int x = old.cellX(c, i);
+                    int y = old.cellY(c, i);
+                    int xrot = x * cos_angle - y * sin_angle;
+                    int yrot = x * sin_angle + y * cos_angle;
+                    putGid(xrot + xtrans, yrot + ytrans, chunk[i]);
+                }
+            }
+        }
+        endRegionChange();
+    }
+
+    public void mirror(int dir) {
+        if (!canEdit())
+            return;
+
+        final int w = bounds.width;
+        final int h = bounds.height;
+        final ChunkedTileLayer old = detachChunks();
+        allocate(w, h);
+
+        beginRegionChange();
+        for (int c = 0; c < old.chunks.length; c++) {
+            final int[] chunk = old.chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < chunk.length; i++) {
+                if (chunk[i] != 0) {
+                    int x = old.cellX(c, i);
+                    int y = old.cellY(c, i);
+                    if (dir == MIRROR_VERTICAL) {
+                        putGid(x, h - 1 - y, chunk[i]);
+                    } else {
+                        putGid(w - 1 - x, y, chunk[i]);
+                    }
+                }
+            }
+        }
+        fireRegionChanged(bounds);
+        endRegionChange();
+    }
+
+    /**
+     * Moves the chunks of this layer to a new, otherwise empty layer
+     * object, to be redistributed by a transformation.
+     */
+    private ChunkedTileLayer detachChunks() {
+        ChunkedTileLayer old = new ChunkedTileLayer();
+        old.chunks = chunks;
+        old.chunkCounts = chunkCounts;
+        old.chunkShared = chunkShared;
+        old.chunkStamps = chunkStamps;
+        old.chunkColumns = chunkColumns;
+        return old;
+    }
+
+    public boolean isUsed(Tile t) {
+        final int gid = gidOf(t);
+        if (gid == 0) {
+            return false;
+        }
+        for (int[] chunk : chunks) {
+            if (chunk != null) {
+                for (int g : chunk) {
+                    if (g == gid) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        for (int[] chunk : chunks) {
+            if (chunk != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Point locationOf(Tile t) {
+        final int gid = gidOf(t);
+        if (gid == 0) {
+            return super.locationOf(t);
+        }
+
+        // Chunks are not visited in row order, so keep the first match
+        int bestX = 0, bestY = -1;
+        for (int c = 0; c < chunks.length; c++) {
+            final int[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < chunk.length; i++) {
+                if (chunk[i] == gid) {
+                    int x = cellX(c, i);
+                    int y = cellY(c, i);
+                    if (bestY < 0 || y < bestY || (y == bestY && x < bestX)) {
+                        bestX = x;
+                        bestY = y;
+                    }
+                    break;
+                }
+            }
+        }
+        return bestY >= 0 ? new Point(bounds.x + bestX, bounds.y + bestY) : null;
+    }
+
+    protected void replaceGid(int find, int replace) {
+        if (find == replace) {
+            return;
+        }
+        beginRegionChange();
+        if (find == 0) {
+            // Empty cells live in absent chunks too
+            for (int y = 0; y < bounds.height; y++) {
+                for (int x = 0; x < bounds.width; x++) {
+                    final int[] chunk = chunks[chunkIndex(x, y)];
+                    if (chunk == null || chunk[cellIndex(x, y)] == 0) {
+                        putGid(x, y, replace);
+                        fireRegionChanged(bounds.x + x, bounds.y + y, 1, 1);
+                    }
+                }
+            }
+        } else {
+            for (int c = 0; c < chunks.length; c++) {
+                final int[] chunk = chunks[c];
+                if (chunk == null) {
+                    continue;
+                }
+                for (int i = 0; i < chunk.length; i++) {
+                    if (chunk[i] == find) {
+                        final int x = cellX(c, i);
+                        final int y = cellY(c, i);
+                        putGid(x, y, replace);
+                        fireRegionChanged(bounds.x + x, bounds.y + y, 1, 1);
+                    }
+                }
+            }
+        }
+        endRegionChange();
+    }
+
+    protected Rectangle replaceGids(java.util.Map<Integer, Integer> replacements) {
+        Rectangle changed = null;
+        bulkDepth++;
+        for (int c = 0; c < chunks.length; c++) {
+            final int[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            // A shared chunk is only copied once one of its cells changes
+            for (int i = 0; i < chunk.length; i++) {
+                if (chunk[i] != 0) {
+                    final Integer replace = replacements.get(chunk[i]);
+                    if (replace != null) {
+                        final int x = cellX(c, i);
+                        final int y = cellY(c, i);
+                        putGid(x, y, replace);
+                        changed = addCell(changed, bounds.x + x, bounds.y + y);
+                    }
+                }
+            }
+        }
+        endBulkChange();
+        return changed;
+    }
+
+    public MapLayer createDiff(MapLayer ml) {
+        if (!(ml instanceof ChunkedTileLayer) || !sharesGids(ml) ||
+                !bounds.equals(ml.getBounds())) {
+            return super.createDiff(ml);
+        }
+
+        final ChunkedTileLayer other = (ChunkedTileLayer) ml;
+        updateGids();
+        other.updateGids();
+        Rectangle r = null;
+
+        for (int c = 0; c < chunks.length; c++) {
+            final int[] chunk = chunks[c];
+            final int[] otherChunk = other.chunks[c];
+            if (chunk == otherChunk) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SIZE * CHUNK_SIZE; i++) {
+                int gid = chunk != null ? chunk[i] : 0;
+                int otherGid = otherChunk != null ? otherChunk[i] : 0;
+                if (gid != otherGid) {
+                    int x = bounds.x + cellX(c, i);
+                    int y = bounds.y + cellY(c, i);
+                    if (r != null) {
+                        r.add(x, y);
+                    } else {
+                        r = new Rectangle(new Point(x, y));
+                    }
+                }
+            }
+        }
+
+        if (r != null) {
+            ChunkedTileLayer diff = new ChunkedTileLayer(
+                    new Rectangle(r.x, r.y, r.width + 1, r.height + 1), ml.getTileWidth(), ml.getTileHeight());
+            diff.setMap(getMap());
+            diff.copyFrom(ml);
+            return diff;
+        } else {
+            return new TileLayer();
+        }
+    }
+
+    public void mergeOnto(MapLayer other) {
+        if (!sharesGids(other)) {
+            super.mergeOnto(other);
+            return;
+        }
+        if (!other.canEdit())
+            return;
+
+        final GidTileLayer tl = (GidTileLayer) other;
+        updateGids();
+        tl.beginRegionChange();
+        for (int c = 0; c < chunks.length; c++) {
+            final int[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < chunk.length; i++) {
+                if (chunk[i] != 0) {
+                    tl.setGidAt(bounds.x + cellX(c, i), bounds.y + cellY(c, i),
+                            chunk[i]);
+                }
+            }
+        }
+        tl.endRegionChange();
+    }
+
+    protected void copyGidsTo(GidTileLayer tl) {
+        if (tl instanceof ChunkedTileLayer) {
+            final ChunkedTileLayer ctl = (ChunkedTileLayer) tl;
+            shareChunks();
+            System.arraycopy(chunks, 0, ctl.chunks, 0, chunks.length);
+            System.arraycopy(chunkCounts, 0, ctl.chunkCounts, 0, chunkCounts.length);
+            System.arraycopy(chunkShared, 0, ctl.chunkShared, 0, chunkShared.length);
+            Arrays.fill(ctl.chunkStamps, ctl.modificationStamp = stamps.incrementAndGet());
+            return;
+        }
+
+        for (int c = 0; c < chunks.length; c++) {
+            final int[] chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < chunk.length; i++) {
+                if (chunk[i] != 0) {
+                    tl.storeGid(bounds.x + cellX(c, i), bounds.y + cellY(c, i),
+                            chunk[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of this layer. The chunks are shared with the copy
+     * until either layer modifies them, so this takes time proportional to
+     * the number of chunks rather than the number of tiles.
+     *
+     * @return a clone of this layer, as complete as possible
+     * @throws CloneNotSupportedException
+     * @see Object#clone
+     */
+    public Object clone() throws CloneNotSupportedException {
+        ChunkedTileLayer clone = (ChunkedTileLayer) super.clone();
+        shareChunks();
+        // Later changes in a bulk change in progress need a stamp of their
+        // own, since the clone has the current one
+        bulkStamp = 0;
+        clone.bulkStamp = 0;
+        clone.bulkDepth = 0;
+        clone.chunks = chunks.clone();
+        clone.chunkCounts = chunkCounts.clone();
+        clone.chunkShared = chunkShared.clone();
+        clone.chunkStamps = chunkStamps.clone();
+        return clone;
+    }
+
+    public void resize(int width, int height, int dx, int dy) {
+        if (getLocked())
+            return;
+
+        final ChunkedTileLayer old = detachChunks();
+        allocate(width, height);
+
+        for (int c = 0; c < old.chunks.length; c++) {
+            final int[] chunk = old.chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < chunk.length; i++) {
+                if (chunk[i] != 0) {
+                    int x = old.cellX(c, i) + dx;
+                    int y = old.cellY(c, i) + dy;
+                    if (x >= 0 && y >= 0 && x < width && y < height) {
+                        putGid(x, y, chunk[i]);
+                    }
+                }
+            }
+        }
+
+        resizeTileInstanceProperties(width, height, dx, dy);
+        bounds.width = width;
+        bounds.height = height;
+    }
+}
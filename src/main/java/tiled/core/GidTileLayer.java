@@ -0,0 +1,650 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import java.awt.*;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A TileLayer that stores its tile data as a flat array of global tile ids
+ * instead of an array of {@link Tile} references. Global ids are resolved
+ * through the tilesets of the map this layer is part of, so tiles only
+ * become visible through {@link #getTileAt(int, int)} once the layer has
+ * been given a map. A global id of 0 means there is no tile.
+ * <p>
+ * Compared to the default storage this halves the memory needed per cell
+ * on 64-bit VMs with compressed references, and makes whole layer scans a
+ * linear walk over a primitive array.
+ *
+ * @version $Id$
+ */
+public class GidTileLayer extends TileLayer {
+    /**
+     * The global tile ids, row by row. Not initialized here, since
+     * <code>allocate</code> is called from the constructor of MapLayer.
+     */
+    protected int[] gids;
+
+    /**
+     * Receives the changes made through <code>setGidAt</code> while a
+     * recording is in progress.
+     */
+    private TileLayerDelta recorder;
+
+    /**
+     * The generation of the global ids of the map stored in this layer.
+     *
+     * @see Map#getGidGeneration()
+     */
+    private int gidGeneration;
+
+    /**
+     * Default contructor.
+     */
+    public GidTileLayer() {
+        allocate(0, 0);
+    }
+
+    /**
+     * Construct a GidTileLayer from the given width and height.
+     *
+     * @param w width in tiles
+     * @param h height in tiles
+     */
+    public GidTileLayer(int w, int h, int tileWidth, int tileHeight) {
+        super(w, h, tileWidth, tileHeight);
+    }
+
+    /**
+     * Create a tile layer using the given bounds.
+     *
+     * @param r the bounds of the tile layer.
+     */
+    public GidTileLayer(Rectangle r, int tileWidth, int tileHeight) {
+        super(r, tileWidth, tileHeight);
+    }
+
+    /**
+     * @param m the map this layer is part of
+     * @param w width in tiles
+     * @param h height in tiles
+     */
+    public GidTileLayer(Map m, int w, int h) {
+        super(m, w, h);
+    }
+
+    /**
+     * Returns the global id of the given tile, or 0 for <code>null</code>.
+     *
+     * @param tile a tile or <code>null</code>
+     * @return the global id to store for the tile
+     */
+    protected static int gidOf(Tile tile) {
+        return tile != null ? tile.getGid() : 0;
+    }
+
+    /**
+     * Resolves a global tile id through the tilesets of the map this layer
+     * is part of.
+     *
+     * @param gid a global tile id
+     * @return the tile with the given global id, or <code>null</code> when
+     * the id is 0, there is no such tile or this layer has no map
+     */
+    public Tile resolveGid(int gid) {
+        if (gid == 0) {
+            return null;
+        }
+        Map m = getMap();
+        if (m == null) {
+            return null;
+        }
+        if (gidGeneration != m.getGidGeneration()) {
+            gid = m.updateGid(gid, gidGeneration);
+        }
+        return m.resolveGid(gid);
+    }
+
+    public void setMap(Map map) {
+        if (map != getMap()) {
+            super.setMap(map);
+            gidGeneration = map != null ? map.getGidGeneration() : 0;
+        }
+    }
+
+    /**
+     * Returns the generation of the global ids stored in this layer.
+     *
+     * @see Map#getGidGeneration()
+     */
+    public int getGidGeneration() {
+        return gidGeneration;
+    }
+
+    /**
+     * Remaps the global ids stored in this layer for the renumberings of
+     * the tilesets of its map that were done while this layer was not part
+     * of the map, for example while it was kept for undo.
+     */
+    public void updateGids() {
+        final Map m = getMap();
+        if (m == null) {
+            return;
+        }
+        while (gidGeneration < m.getGidGeneration()) {
+            final int[][] step = m.getGidRenumbering(gidGeneration);
+            remapGids(step[0], step[1]);
+            gidGeneration++;
+        }
+    }
+
+    protected void allocate(int width, int height) {
+        map = null;
+        gids = new int[width * height];
+    }
+
+    /**
+     * Returns the global tile id at the specified position.
+     *
+     * @param tx Tile-space x coordinate
+     * @param ty Tile-space y coordinate
+     * @return the global id at (tx, ty), or 0 when there is no tile or the
+     * position falls outside this layer
+     */
+    public int getGidAt(int tx, int ty) {
+        return bounds.contains(tx, ty) ?
+                gids[(ty - bounds.y) * bounds.width + tx - bounds.x] : 0;
+    }
+
+    /**
+     * Sets the global tile id at the specified position. Does nothing if
+     * (tx, ty) falls outside of this layer or the layer is locked.
+     *
+     * @param tx  x position of tile
+     * @param ty  y position of tile
+     * @param gid the global tile id to store, 0 for no tile
+     */
+    public void setGidAt(int tx, int ty, int gid) {
+        if (bounds.contains(tx, ty) && !getLocked()) {
+            final int oldGid = getGidAt(tx, ty);
+            if (oldGid == gid) {
+                return;
+            }
+            if (recorder != null) {
+                recorder.record(tx, ty, oldGid, gid);
+            }
+            storeGid(tx, ty, gid);
+            fireRegionChanged(tx, ty, 1, 1);
+        }
+    }
+
+    /**
+     * Starts recording the tiles set on this layer, which includes tiles
+     * placed by brushes and merged from other layers. Any recording that
+     * was still in progress is discarded.
+     *
+     * @see #stopRecording()
+     */
+    public void startRecording() {
+        recorder = new TileLayerDelta(bounds, gidGeneration);
+    }
+
+    /**
+     * Stops recording the tiles set on this layer.
+     *
+     * @return the changes made since recording started, or
+     * <code>null</code> when no recording was in progress
+     */
+    public TileLayerDelta stopRecording() {
+        TileLayerDelta delta = recorder;
+        recorder = null;
+        return delta;
+    }
+
+    /**
+     * Stores a global tile id without checking the bounds or the lock of
+     * this layer.
+     *
+     * @param tx  x position of tile, within the bounds of this layer
+     * @param ty  y position of tile, within the bounds of this layer
+     * @param gid the global tile id to store, 0 for no tile
+     */
+    protected void storeGid(int tx, int ty, int gid) {
+        gids[(ty - bounds.y) * bounds.width + tx - bounds.x] = gid;
+    }
+
+    /**
+     * Reads a row of global tile ids, starting at the given position. Cells
+     * that fall outside this layer read as 0.
+     *
+     * @param tx  Tile-space x coordinate of the first cell
+     * @param ty  Tile-space y coordinate of the row
+     * @param row the array to fill, one id per cell
+     */
+    public void getGidRow(int tx, int ty, int[] row) {
+        Arrays.fill(row, 0);
+        if (ty < bounds.y || ty >= bounds.y + bounds.height) {
+            return;
+        }
+        int from = Math.max(tx, bounds.x);
+        int to = Math.min(tx + row.length, bounds.x + bounds.width);
+        if (from < to) {
+            System.arraycopy(gids, (ty - bounds.y) * bounds.width + from - bounds.x,
+                    row, from - tx, to - from);
+        }
+    }
+
+    /**
+     * Sets a row of global tile ids, starting at the given position, as a
+     * single bulk change. Cells that fall outside this layer are skipped.
+     *
+     * @param tx  Tile-space x coordinate of the first cell
+     * @param ty  Tile-space y coordinate of the row
+     * @param row the global tile ids to store, 0 for no tile
+     * @see #setGidAt(int, int, int)
+     */
+    public void setGidRow(int tx, int ty, int[] row) {
+        beginRegionChange();
+        for (int i = 0; i < row.length; i++) {
+            setGidAt(tx + i, ty, row[i]);
+        }
+        endRegionChange();
+    }
+
+    /**
+     * Replaces the global ids of this layer by those read from the given
+     * buffer, row by row starting at the top left corner of the layer. The
+     * lock of the layer is ignored and the change is not recorded.
+     *
+     * @param buffer the buffer to read the ids from, holding at least
+     *               <code>width * height</code> ids from its position
+     */
+    public void readGids(IntBuffer buffer) {
+        buffer.get(gids, 0, bounds.width * bounds.height);
+    }
+
+    public Tile getTileAt(int tx, int ty) {
+        return resolveGid(getGidAt(tx, ty));
+    }
+
+    public void setTileAt(int tx, int ty, Tile ti) {
+        setGidAt(tx, ty, gidOf(ti));
+    }
+
+    /**
+     * Shifts the global ids stored in this layer after the tilesets of the
+     * map have been renumbered. For each stored id, the largest entry of
+     * <code>firstGids</code> not greater than the id determines the delta
+     * to apply. Ids below the first entry are cleared.
+     *
+     * @param firstGids the old first global ids, sorted ascending
+     * @param deltas    the shift to apply to ids of each range
+     */
+    void remapGids(int[] firstGids, int[] deltas) {
+        for (int i = 0; i < gids.length; i++) {
+            gids[i] = remapGid(gids[i], firstGids, deltas);
+        }
+    }
+
+    static int remapGid(int gid, int[] firstGids, int[] deltas) {
+        if (gid == 0) {
+            return 0;
+        }
+        int lo = 0, hi = firstGids.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (firstGids[mid] <= gid) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found >= 0 ? gid + deltas[found] : 0;
+    }
+
+    public void rotate(int angle) {
+        int xtrans = 0, ytrans = 0;
+        int newWidth, newHeight;
+
+        if (!canEdit())
+            return;
+
+        switch (angle) {
+            case ROTATE_90:
+                newWidth = bounds.height;
+                newHeight = bounds.width;
+                xtrans = bounds.height - 1;
+                break;
+            case ROTATE_180:
+                newWidth = bounds.width;
+                newHeight = bounds.height;
+                xtrans = bounds.width - 1;
+                ytrans = bounds.height - 1;
+                break;
+            case ROTATE_270:
+                newWidth = bounds.height;
+                newHeight = bounds.width;
+                ytrans = bounds.width - 1;
+                break;
+            default:
+                return;
+        }
+
+        double ra = Math.toRadians(angle);
+        int cos_angle = (int) Math.round(Math.cos(ra));
+        int sin_angle = (int) Math.round(Math.sin(ra));
+
+        int[] trans = new int[newWidth * newHeight];
+        for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+                int xrot = x * cos_angle - y * sin_angle;
+                int yrot = x * sin_angle + y * cos_angle;
+                trans[(yrot + ytrans) * newWidth + xrot + xtrans] =
+                        gids[y * bounds.width + x];
+            }
+        }
+
+        beginRegionChange();
+        fireRegionChanged(bounds);
+        bounds.width = newWidth;
+        bounds.height = newHeight;
+        gids = trans;
+        fireRegionChanged(bounds);
+        endRegionChange();
+    }
+
+    public void mirror(int dir) {
+        if (!canEdit())
+            return;
+
+        final int w = bounds.width;
+        final int h = bounds.height;
+        int[] mirror = new int[gids.length];
+        for (int y = 0; y < h; y++) {
+            if (dir == MIRROR_VERTICAL) {
+                System.arraycopy(gids, (h - 1 - y) * w, mirror, y * w, w);
+            } else {
+                for (int x = 0; x < w; x++) {
+                    mirror[y * w + x] = gids[y * w + w - 1 - x];
+                }
+            }
+        }
+        gids = mirror;
+        fireRegionChanged(bounds);
+    }
+
+    public boolean isUsed(Tile t) {
+        final int gid = gidOf(t);
+        if (gid == 0) {
+            return false;
+        }
+        for (int g : gids) {
+            if (g == gid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        for (int g : gids) {
+            if (g != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void removeTile(Tile tile) throws LayerLockedException {
+        if (getLocked()) {
+            throw new LayerLockedException(
+                    "Attempted to remove tile when this layer is locked.");
+        }
+        replaceGid(gidOf(tile), 0);
+    }
+
+    public Point locationOf(Tile t) {
+        final int gid = gidOf(t);
+        for (int i = 0; i < gids.length; i++) {
+            if (gids[i] == gid) {
+                return new Point(bounds.x + i % bounds.width,
+                        bounds.y + i / bounds.width);
+            }
+        }
+        return null;
+    }
+
+    public void replaceTile(Tile find, Tile replace) {
+        if (!canEdit())
+            return;
+
+        replaceGid(gidOf(find), gidOf(replace));
+    }
+
+    /**
+     * Replaces all occurences of one global id by another.
+     *
+     * @param find    the global id to replace
+     * @param replace the replacement global id
+     */
+    protected void replaceGid(int find, int replace) {
+        if (find == replace) {
+            return;
+        }
+        boolean changed = false;
+        for (int i = 0; i < gids.length; i++) {
+            if (gids[i] == find) {
+                gids[i] = replace;
+                changed = true;
+            }
+        }
+        if (changed) {
+            fireRegionChanged(bounds);
+        }
+    }
+
+    public Rectangle replaceTiles(java.util.Map<Tile, Tile> replacements)
+            throws LayerLockedException {
+        if (getLocked()) {
+            throw new LayerLockedException(
+                    "Attempted to replace tiles when this layer is locked.");
+        }
+
+        java.util.Map<Integer, Integer> gidReplacements =
+                new HashMap<Integer, Integer>();
+        for (java.util.Map.Entry<Tile, Tile> entry : replacements.entrySet()) {
+            final int find = gidOf(entry.getKey());
+            final int replace = gidOf(entry.getValue());
+            if (find != 0 && find != replace) {
+                gidReplacements.put(find, replace);
+            }
+        }
+        return gidReplacements.isEmpty() ? null :
+                replaceGids(gidReplacements);
+    }
+
+    /**
+     * Replaces all occurences of each key of <code>replacements</code> by
+     * its value, in a single pass. Empty cells are never replaced.
+     *
+     * @param replacements the replacement of each global id to replace
+     * @return the region containing the changed cells, in tile coordinates,
+     * or <code>null</code> when no cell changed
+     */
+    protected Rectangle replaceGids(java.util.Map<Integer, Integer> replacements) {
+        Rectangle changed = null;
+        for (int i = 0; i < gids.length; i++) {
+            if (gids[i] != 0) {
+                final Integer replace = replacements.get(gids[i]);
+                if (replace != null) {
+                    gids[i] = replace;
+                    changed = addCell(changed, bounds.x + i % bounds.width,
+                            bounds.y + i / bounds.width);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns whether the other layer shares the global id space of this
+     * layer, so that its ids can be copied without resolving them.
+     */
+    protected boolean sharesGids(MapLayer other) {
+        return other instanceof GidTileLayer && other.getMap() == getMap();
+    }
+
+    public MapLayer createDiff(MapLayer ml) {
+        if (!sharesGids(ml)) {
+            return super.createDiff(ml);
+        }
+
+        GidTileLayer other = (GidTileLayer) ml;
+        updateGids();
+        other.updateGids();
+        Rectangle r = null;
+
+        for (int y = bounds.y; y < bounds.height + bounds.y; y++) {
+            for (int x = bounds.x; x < bounds.width + bounds.x; x++) {
+                if (other.getGidAt(x, y) != getGidAt(x, y)) {
+                    if (r != null) {
+                        r.add(x, y);
+                    } else {
+                        r = new Rectangle(new Point(x, y));
+                    }
+                }
+            }
+        }
+
+        if (r != null) {
+            GidTileLayer diff = new GidTileLayer(
+                    new Rectangle(r.x, r.y, r.width + 1, r.height + 1), ml.getTileWidth(), ml.getTileHeight());
+            diff.setMap(getMap());
+            diff.copyFrom(ml);
+            return diff;
+        } else {
+            return new TileLayer();
+        }
+    }
+
+    public void mergeOnto(MapLayer other) {
+        if (!sharesGids(other)) {
+            super.mergeOnto(other);
+            return;
+        }
+        if (!other.canEdit())
+            return;
+
+        GidTileLayer tl = (GidTileLayer) other;
+        updateGids();
+        tl.beginRegionChange();
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                int gid = getGidAt(x, y);
+                if (gid != 0) {
+                    tl.setGidAt(x, y, gid);
+                }
+            }
+        }
+        tl.endRegionChange();
+    }
+
+    public void copyFrom(MapLayer other) {
+        if (!sharesGids(other)) {
+            super.copyFrom(other);
+            return;
+        }
+        if (!canEdit())
+            return;
+
+        GidTileLayer tl = (GidTileLayer) other;
+        tl.updateGids();
+        beginRegionChange();
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                setGidAt(x, y, tl.getGidAt(x, y));
+            }
+        }
+        endRegionChange();
+    }
+
+    public void copyTo(MapLayer other) {
+        if (!(other instanceof GidTileLayer)) {
+            super.copyTo(other);
+            return;
+        }
+        if (!other.canEdit())
+            return;
+
+        GidTileLayer tl = (GidTileLayer) other;
+        updateGids();
+        copyLayerSettingsTo(tl);
+        tl.allocate(bounds.width, bounds.height);
+        copyGidsTo(tl);
+        tl.gidGeneration = gidGeneration;
+    }
+
+    /**
+     * Copies all global ids of this layer to a layer that has just been
+     * given the same bounds and has no tiles yet.
+     *
+     * @param tl the layer to copy the ids to
+     */
+    protected void copyGidsTo(GidTileLayer tl) {
+        if (tl.gids != null) {
+            System.arraycopy(gids, 0, tl.gids, 0, gids.length);
+            return;
+        }
+        for (int i = 0; i < gids.length; i++) {
+            if (gids[i] != 0) {
+                tl.storeGid(bounds.x + i % bounds.width,
+                        bounds.y + i / bounds.width, gids[i]);
+            }
+        }
+    }
+
+    public Object clone() throws CloneNotSupportedException {
+        GidTileLayer clone = (GidTileLayer) super.clone();
+        clone.recorder = null;
+        if (gids != null) {
+            clone.gids = gids.clone();
+        }
+        return clone;
+    }
+
+    public void resize(int width, int height, int dx, int dy) {
+        if (getLocked())
+            return;
+
+        int[] newGids = new int[width * height];
+
+        int maxX = Math.min(width, bounds.width + dx);
+        int maxY = Math.min(height, bounds.height + dy);
+        int minX = Math.max(0, dx);
+
+        if (minX < maxX) {
+            for (int y = Math.max(0, dy); y < maxY; y++) {
+                System.arraycopy(gids, (y - dy) * bounds.width + minX - dx,
+                        newGids, y * width + minX, maxX - minX);
+            }
+        }
+
+        resizeTileInstanceProperties(width, height, dx, dy);
+        gids = newGids;
+        bounds.width = width;
+        bounds.height = height;
+    }
+}
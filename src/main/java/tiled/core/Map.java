@@ -14,7 +14,12 @@ package tiled.core;
 
 import tiled.mapeditor.Resources;
 
+import java.awt.*;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The Map class is the focal point of the <code>tiled.core</code> package.
@@ -40,10 +45,41 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
      * Shifted (used for iso and hex).
      */
     public static final int MDO_SHIFTED = 5;
-    private final List<MapChangeListener> mapChangeListeners = new LinkedList<MapChangeListener>();
-    private final List<MapParallaxChangeListener> mapParallaxChangeListeners = new LinkedList<MapParallaxChangeListener>();
+
+    /**
+     * The listeners are kept in arrays that are replaced, rather than
+     * changed, when a listener is added or removed. Events are delivered to
+     * the array as it was when firing started, so listeners may add or
+     * remove listeners while being notified.
+     */
+    private MapChangeListener[] mapChangeListeners = new MapChangeListener[0];
+    private MapParallaxChangeListener[] mapParallaxChangeListeners =
+            new MapParallaxChangeListener[0];
+
+    /**
+     * The event passed for changes that carry no details. It has no state
+     * besides the map, so it is shared.
+     */
+    private final MapChangedEvent changeEvent = new MapChangedEvent(this);
+
+    /**
+     * The nesting depth of {@link #beginUpdate()} calls, and the changes
+     * held back until the outermost update ends.
+     */
+    private int updateDepth;
+    private boolean updateChanged;
+    private final java.util.Map<MapLayer, Rectangle> updateRegions =
+            new LinkedHashMap<MapLayer, Rectangle>();
     private Vector<MapLayer> specialLayers;
     private Vector<TileSet> tilesets;
+
+    /**
+     * The tilesets sorted by first global id, for resolving global ids by
+     * binary search. Rebuilt on demand after the tilesets or their first
+     * global ids changed.
+     */
+    private TileSet[] gidIndexTilesets;
+    private int[] gidIndexFirstGids;
     private LinkedList<MapObject> objects;
     private int tileWidth, tileHeight;
     private int orientation = MDO_ORTHO;
@@ -53,6 +89,30 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
     private int viewportWidth = 640;
     private int viewportHeight = 480;
 
+    /**
+     * The renumberings of the global ids done by
+     * {@link #assignTilesetFirstGids()}, each holding the old first global
+     * ids sorted ascending and the shift applied to the ids of each range.
+     * Ids kept outside the layers of this map, for example for undo,
+     * remember how many renumberings had been done when they were copied.
+     */
+    private final List<int[][]> gidRenumberings = new ArrayList<int[][]>();
+
+    /**
+     * Keeps the global id ranges valid when a tileset grows.
+     */
+    private final TilesetChangeListener tilesetGidGuard = new TilesetChangeListener() {
+        public void tilesetChanged(TilesetChangedEvent event) {
+            assignTilesetFirstGids();
+        }
+
+        public void nameChanged(TilesetChangedEvent event, String oldName, String newName) {
+        }
+
+        public void sourceChanged(TilesetChangedEvent event, String oldSource, String newSource) {
+        }
+    };
+
     /**
      * @param width  the map width in tiles.
      * @param height the map height in tiles.
@@ -74,7 +134,10 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
      * @see MapChangeListener#mapChanged(MapChangedEvent)
      */
     public void addMapChangeListener(MapChangeListener listener) {
-        mapChangeListeners.add(listener);
+        MapChangeListener[] listeners =
+                Arrays.copyOf(mapChangeListeners, mapChangeListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        mapChangeListeners = listeners;
     }
 
     /**
@@ -83,32 +146,110 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
      * @param listener the listener to remove
      */
     public void removeMapChangeListener(MapChangeListener listener) {
-        mapChangeListeners.remove(listener);
+        final int index = Arrays.asList(mapChangeListeners).indexOf(listener);
+        if (index == -1) {
+            return;
+        }
+        MapChangeListener[] listeners =
+                new MapChangeListener[mapChangeListeners.length - 1];
+        System.arraycopy(mapChangeListeners, 0, listeners, 0, index);
+        System.arraycopy(mapChangeListeners, index + 1, listeners, index,
+                listeners.length - index);
+        mapChangeListeners = listeners;
     }
 
     public void addMapParallaxChangeListener(MapParallaxChangeListener listener) {
-        mapParallaxChangeListeners.add(listener);
+        MapParallaxChangeListener[] listeners = Arrays.copyOf(
+                mapParallaxChangeListeners, mapParallaxChangeListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        mapParallaxChangeListeners = listeners;
     }
 
     public void removeMapParallaxChangeListener(MapParallaxChangeListener listener) {
-        mapParallaxChangeListeners.remove(listener);
+        final int index = Arrays.asList(mapParallaxChangeListeners).indexOf(listener);
+        if (index == -1) {
+            return;
+        }
+        MapParallaxChangeListener[] listeners =
+                new MapParallaxChangeListener[mapParallaxChangeListeners.length - 1];
+        System.arraycopy(mapParallaxChangeListeners, 0, listeners, 0, index);
+        System.arraycopy(mapParallaxChangeListeners, index + 1, listeners, index,
+                listeners.length - index);
+        mapParallaxChangeListeners = listeners;
+    }
+
+    /**
+     * Starts an update of the map, which holds back change notifications
+     * until the matching call to {@link #endUpdate()}. Any number of
+     * {@link MapChangeListener#mapChanged(MapChangedEvent) map changes} is
+     * then reported as one, and the changed regions of each layer are
+     * reported as a single region covering all of them. Events about added,
+     * removed and moved layers and tilesets are still delivered right away,
+     * since listeners need them to keep track of indices.
+     * <p>
+     * Updates may be nested. Callers should end the update in a
+     * <code>finally</code> block:
+     * <pre>
+     * map.beginUpdate();
+     * try {
+     *     ...
+     * } finally {
+     *     map.endUpdate();
+     * }
+     * </pre>
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    /**
+     * Ends an update started with {@link #beginUpdate()}. When this ends
+     * the outermost update, the changes made during the update are
+     * reported.
+     */
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException("No update in progress");
+        }
+        if (--updateDepth > 0) {
+            return;
+        }
+
+        if (updateChanged) {
+            updateChanged = false;
+            fireMapChanged();
+        }
+        if (!updateRegions.isEmpty()) {
+            MapLayer[] layers = updateRegions.keySet().toArray(
+                    new MapLayer[updateRegions.size()]);
+            Rectangle[] regions = updateRegions.values().toArray(
+                    new Rectangle[layers.length]);
+            updateRegions.clear();
+            for (int i = 0; i < layers.length; i++) {
+                deliverRegionChanged(layers[i], regions[i]);
+            }
+        }
     }
 
+    /**
+     * Returns whether an update is in progress.
+     *
+     * @see #beginUpdate()
+     */
+    public boolean isUpdating() {
+        return updateDepth > 0;
+    }
 
     /**
      * Notifies all registered map change listeners about a change.
      */
     protected void fireMapChanged() {
-        MapChangedEvent event = null;
-        // clone mapChangeListeners first, because otherwise we'll get
-        // concurrent modification exceptions if a listener calls something
-        // that add or removes listeners
-        Iterable<MapChangeListener> mapChangeListenersClone = new Vector<MapChangeListener>(mapChangeListeners);
-
-        for (MapChangeListener l : mapChangeListenersClone) {
-            if (event == null)
-                event = new MapChangedEvent(this);
-            l.mapChanged(event);
+        if (updateDepth > 0) {
+            updateChanged = true;
+            return;
+        }
+        for (MapChangeListener l : mapChangeListeners) {
+            l.mapChanged(changeEvent);
         }
     }
 
@@ -139,6 +280,44 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
             l.layerChanged(e, mlce);
     }
 
+    /**
+     * Notifies all registered map change listeners about a change to the
+     * tiles in a region of a layer. Changes to layers that are not part of
+     * this map are ignored.
+     *
+     * @param layer  the changed layer, which may be a special layer
+     * @param region the changed region, in tile coordinates of the layer
+     */
+    void fireRegionChanged(MapLayer layer, Rectangle region) {
+        if (findLayerIndex(layer) == -1 && !specialLayers.contains(layer)) {
+            return;
+        }
+        if (updateDepth > 0) {
+            Rectangle dirty = updateRegions.get(layer);
+            if (dirty == null) {
+                updateRegions.put(layer, new Rectangle(region));
+            } else {
+                dirty.add(region);
+            }
+            return;
+        }
+        deliverRegionChanged(layer, region);
+    }
+
+    /**
+     * Notifies the listeners about a changed region without checking that
+     * the layer is still part of the map, since a region changed during an
+     * update may belong to a layer removed later on. Such a layer is
+     * reported with layer index -1.
+     */
+    private void deliverRegionChanged(MapLayer layer, Rectangle region) {
+        final int layerIndex = findLayerIndex(layer);
+        MapChangedEvent e = new MapChangedEvent(this, layer, layerIndex, region);
+        for (MapChangeListener l : mapChangeListeners) {
+            l.regionChanged(e);
+        }
+    }
+
     /**
      * Notifies all registered map change listeners about the removal of a
      * tileset.
@@ -146,12 +325,8 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
      * @param index the index of the removed tileset
      */
     protected void fireTilesetRemoved(int index) {
-        Iterator<MapChangeListener> iterator = mapChangeListeners.iterator();
-        MapChangedEvent event = null;
-
-        while (iterator.hasNext()) {
-            if (event == null) event = new MapChangedEvent(this);
-            ((MapChangeListener) iterator.next()).tilesetRemoved(event, index);
+        for (MapChangeListener l : mapChangeListeners) {
+            l.tilesetRemoved(changeEvent, index);
         }
     }
 
@@ -162,12 +337,8 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
      * @param tileset the new tileset
      */
     protected void fireTilesetAdded(TileSet tileset) {
-        Iterator<MapChangeListener> iterator = mapChangeListeners.iterator();
-        MapChangedEvent event = null;
-
-        while (iterator.hasNext()) {
-            if (event == null) event = new MapChangedEvent(this);
-            ((MapChangeListener) iterator.next()).tilesetAdded(event, tileset);
+        for (MapChangeListener l : mapChangeListeners) {
+            l.tilesetAdded(changeEvent, tileset);
         }
     }
 
@@ -176,12 +347,8 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
      * tilesets.
      */
     protected void fireTilesetsSwapped(int index0, int index1) {
-        Iterator<MapChangeListener> iterator = mapChangeListeners.iterator();
-        MapChangedEvent event = null;
-
-        while (iterator.hasNext()) {
-            if (event == null) event = new MapChangedEvent(this);
-            ((MapChangeListener) iterator.next()).tilesetsSwapped(event, index0, index1);
+        for (MapChangeListener l : mapChangeListeners) {
+            l.tilesetsSwapped(changeEvent, index0, index1);
         }
     }
 
@@ -195,12 +362,15 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
     public void addLayerSpecial(MapLayer layer) {
         layer.setMap(this);
         specialLayers.add(layer);
-        fireMapChanged();
+        if (layer.isVisible()) {
+            fireRegionChanged(layer, layer.getContentBounds());
+        }
     }
 
     @Override
     public MapLayer addLayer(MapLayer layer) {
         layer.setMap(this);
+        updateGids(layer);
         super.addLayer(layer);
         layer.addMapLayerChangeListener(this);
         fireMapChanged();
@@ -215,7 +385,7 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
      * @return The new TileLayer instance.
      */
     public MapLayer addLayer() {
-        MapLayer layer = new TileLayer(this, bounds.width, bounds.height);
+        MapLayer layer = new ChunkedTileLayer(this, bounds.width, bounds.height);
         layer.setName(Resources.getString("general.layer.layer") +
                 " " + super.getTotalLayers());
         insertLayer(getTotalLayers(), layer);
@@ -223,6 +393,7 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
     }
 
     public void insertLayer(int index, MapLayer layer) {
+        updateGids(layer);
         super.insertLayer(index, layer);
         layer.addMapLayerChangeListener(this);
         fireMapChanged();
@@ -231,6 +402,7 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
 
     public void setLayer(int index, MapLayer layer) {
         layer.setMap(this);
+        updateGids(layer);
         super.setLayer(index, layer);
         fireMapChanged();
         fireLayerRemoved(index);
@@ -276,10 +448,133 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
             }
         }
 
+        if (tileset.getFirstGid() < 1) {
+            tileset.setFirstGid(getNextFirstGid());
+        }
+
         tilesets.add(tileset);
+        tileset.addGidIndex(this);
+        invalidateGidIndex();
+        tileset.addTilesetChangeListener(tilesetGidGuard);
         fireTilesetAdded(tileset);
     }
 
+    /**
+     * Returns the first global id following the id ranges of all tilesets
+     * currently attached to this map.
+     *
+     * @return the lowest global id that is free for a new tileset
+     */
+    private int getNextFirstGid() {
+        int next = 1;
+        for (TileSet tileset : tilesets) {
+            next = Math.max(next, tileset.getFirstGid() + tileset.getMaxTileId() + 1);
+        }
+        return next;
+    }
+
+    /**
+     * Makes sure the global id ranges of the tilesets don't overlap. When
+     * they do, for example because a tileset grew into the range of the next
+     * one, all tilesets are renumbered contiguously in their current order
+     * and the ids stored in {@link GidTileLayer}s are remapped to match.
+     * Copies of the ids kept elsewhere, like the layers and changes held
+     * for undo, are remapped when they are used again.
+     * As long as the ranges are valid the first global ids are left alone,
+     * so that stored ids remain stable.
+     */
+    public void assignTilesetFirstGids() {
+        final int count = tilesets.size();
+        TileSet[] sorted = tilesets.toArray(new TileSet[count]);
+        Arrays.sort(sorted, new Comparator<TileSet>() {
+            public int compare(TileSet a, TileSet b) {
+                return Integer.compare(a.getFirstGid(), b.getFirstGid());
+            }
+        });
+
+        boolean valid = true;
+        int next = 1;
+        for (TileSet tileset : sorted) {
+            if (tileset.getFirstGid() < next) {
+                valid = false;
+                break;
+            }
+            next = tileset.getFirstGid() + tileset.getMaxTileId() + 1;
+        }
+        if (valid) {
+            return;
+        }
+
+        int[] oldFirstGids = new int[count];
+        int[] deltas = new int[count];
+        int firstgid = 1;
+        for (TileSet tileset : tilesets) {
+            int i = Arrays.asList(sorted).indexOf(tileset);
+            oldFirstGids[i] = tileset.getFirstGid();
+            deltas[i] = firstgid - tileset.getFirstGid();
+            firstgid += tileset.getMaxTileId() + 1;
+        }
+
+        gidRenumberings.add(new int[][]{oldFirstGids, deltas});
+        for (MapLayer layer : getLayerVector()) {
+            updateGids(layer);
+        }
+
+        firstgid = 1;
+        for (TileSet tileset : tilesets) {
+            tileset.setFirstGid(firstgid);
+            firstgid += tileset.getMaxTileId() + 1;
+        }
+    }
+
+    /**
+     * Returns the number of times the tilesets of this map have been
+     * renumbered. Global ids copied from the layers of this map are valid
+     * for the generation at the time they were copied, and can be brought
+     * up to date with {@link #updateGid(int, int)}.
+     *
+     * @return the current global id generation
+     */
+    public int getGidGeneration() {
+        return gidRenumberings.size();
+    }
+
+    /**
+     * Returns the global id that refers to the same tile as the given id
+     * did in the given generation, after the renumberings done since.
+     *
+     * @param gid        a global tile id
+     * @param generation the generation the id is valid for
+     * @return the global id in the current generation
+     * @see #getGidGeneration()
+     */
+    public int updateGid(int gid, int generation) {
+        for (int i = generation; i < gidRenumberings.size(); i++) {
+            final int[][] step = gidRenumberings.get(i);
+            gid = GidTileLayer.remapGid(gid, step[0], step[1]);
+        }
+        return gid;
+    }
+
+    /**
+     * Returns the renumbering that turned the given generation of global
+     * ids into the next one.
+     */
+    int[][] getGidRenumbering(int generation) {
+        return gidRenumberings.get(generation);
+    }
+
+    /**
+     * Brings the global ids of a layer up to date with the renumberings done
+     * while it was not part of this map, like a deleted layer being
+     * restored.
+     */
+    private static void updateGids(MapLayer layer) {
+        if (layer instanceof GidTileLayer) {
+            ((GidTileLayer) layer).updateGids();
+        }
+    }
+
     /**
      * Removes a {@link TileSet} from the map, and removes any tiles in the set
      * from the map layers. A {@link MapChangedEvent} is fired when all
@@ -296,22 +591,92 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
             return;
 
         // Go through the map and remove any instances of the tiles in the set
-        Iterator<Object> tileIterator = tileset.iterator();
-        while (tileIterator.hasNext()) {
-            Tile tile = (Tile) tileIterator.next();
-            Iterator<MapLayer> layerIterator = getLayers();
-            while (layerIterator.hasNext()) {
-                MapLayer ml = (MapLayer) layerIterator.next();
-                if (ml instanceof TileLayer) {
-                    ((TileLayer) ml).removeTile(tile);
+        beginUpdate();
+        try {
+            Iterator<Object> tileIterator = tileset.iterator();
+            while (tileIterator.hasNext()) {
+                Tile tile = (Tile) tileIterator.next();
+                Iterator<MapLayer> layerIterator = getLayers();
+                while (layerIterator.hasNext()) {
+                    MapLayer ml = (MapLayer) layerIterator.next();
+                    if (ml instanceof TileLayer) {
+                        ((TileLayer) ml).removeTile(tile);
+                    }
                 }
             }
+        } finally {
+            endUpdate();
         }
 
         tilesets.remove(tileset);
+        tileset.removeGidIndex(this);
+        invalidateGidIndex();
+        tileset.removeTilesetChangeListener(tilesetGidGuard);
         fireTilesetRemoved(tilesetIndex);
     }
 
+    /**
+     * Merges the tiles of a tileset that duplicate another tile of the set,
+     * as found by {@link TileSet#findDuplicateTiles()}. The layers of the
+     * map are remapped to the remaining tiles in parallel, one task per
+     * layer, after which the duplicates are removed from the tileset. This
+     * can not be undone.
+     *
+     * @param tileset the tileset to remove duplicate tiles from
+     * @return the number of tiles that were removed
+     * @throws LayerLockedException when a tile layer is locked, in which
+     *                              case nothing is changed
+     */
+    public int mergeDuplicateTiles(TileSet tileset) throws LayerLockedException {
+        final java.util.Map<Tile, Tile> duplicates = tileset.findDuplicateTiles();
+        if (duplicates.isEmpty()) {
+            return 0;
+        }
+
+        final List<TileLayer> tileLayers = new ArrayList<TileLayer>();
+        Iterator<MapLayer> layerIterator = getLayers();
+        while (layerIterator.hasNext()) {
+            MapLayer ml = layerIterator.next();
+            if (ml instanceof TileLayer) {
+                if (ml.getLocked()) {
+                    throw new LayerLockedException(
+                            "Attempted to merge tiles when a layer is locked.");
+                }
+                tileLayers.add((TileLayer) ml);
+            }
+        }
+
+        List<ForkJoinTask<Rectangle>> tasks = new ArrayList<ForkJoinTask<Rectangle>>();
+        for (final TileLayer layer : tileLayers) {
+            tasks.add(ForkJoinPool.commonPool().submit(new Callable<Rectangle>() {
+                public Rectangle call() {
+                    try {
+                        return layer.replaceTiles(duplicates);
+                    } catch (LayerLockedException e) {
+                        // Checked above
+                        return null;
+                    }
+                }
+            }));
+        }
+
+        // The layers don't notify the map from the worker threads
+        beginUpdate();
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                final Rectangle changed = tasks.get(i).join();
+                if (changed != null) {
+                    fireRegionChanged(tileLayers.get(i), changed);
+                }
+            }
+            tileset.removeTiles(duplicates.keySet());
+            fireMapChanged();
+        } finally {
+            endUpdate();
+        }
+        return duplicates.size();
+    }
+
     public void addObject(MapObject o) {
         objects.add(o);
     }
@@ -345,26 +710,33 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
     }
 
     public void removeLayerSpecial(MapLayer layer) {
-        if (specialLayers.remove(layer)) {
-            fireMapChanged();
+        if (specialLayers.contains(layer) && layer.isVisible()) {
+            // Fired while the layer is still known as a special layer
+            fireRegionChanged(layer, layer.getContentBounds());
         }
+        specialLayers.remove(layer);
     }
 
     public void removeAllSpecialLayers() {
-        specialLayers.clear();
-        fireMapChanged();
+        while (!specialLayers.isEmpty()) {
+            removeLayerSpecial(specialLayers.get(specialLayers.size() - 1));
+        }
     }
 
     /**
-     * Calls super method, and additionally fires a {@link MapChangedEvent}.
+     * Removes all layers, notifying the listeners about each removed layer
+     * and firing a single {@link MapChangedEvent}.
      *
      * @see MultilayerPlane#removeAllLayers
      */
     public void removeAllLayers() {
-        while (getTotalLayers() > 0) {
-            getLayer(0).removeMapLayerChangeListener(this);
-            removeLayer(0);
-            fireLayerRemoved(0);
+        beginUpdate();
+        try {
+            while (getTotalLayers() > 0) {
+                removeLayer(0);
+            }
+        } finally {
+            endUpdate();
         }
     }
 
@@ -374,6 +746,9 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
      * @see MultilayerPlane#setLayerVector
      */
     public void setLayerVector(Vector<MapLayer> layers) {
+        for (MapLayer layer : layers) {
+            updateGids(layer);
+        }
         super.setLayerVector(layers);
         fireMapChanged();
     }
@@ -428,6 +803,59 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
         this.filename = filename;
     }
 
+    /**
+     * Creates a copy of this map that is not affected by later changes to
+     * this map, for writing it to a file in the background. The layers are
+     * cloned, which is cheap for chunked tile layers since they share their
+     * chunks until either copy changes them. The tilesets are copied with
+     * {@link TileSet#createSnapshot()}, so that their first global ids and
+     * tile images stay as they are now while the snapshot is written. The
+     * snapshot has no listeners and does not register itself with the
+     * layers or tilesets of this map.
+     * <p>
+     * Overlapping global id ranges are resolved before the snapshot is
+     * taken, so that writing the snapshot does not need to renumber them.
+     *
+     * @return a snapshot of this map
+     * @throws CloneNotSupportedException when a layer cannot be cloned
+     */
+    public Map createSnapshot() throws CloneNotSupportedException {
+        assignTilesetFirstGids();
+
+        Map snapshot = new Map(bounds.width, bounds.height);
+        snapshot.bounds.setBounds(bounds);
+        snapshot.tileWidth = tileWidth;
+        snapshot.tileHeight = tileHeight;
+        snapshot.orientation = orientation;
+        snapshot.filename = filename;
+        snapshot.eyeDistance = eyeDistance;
+        snapshot.viewportWidth = viewportWidth;
+        snapshot.viewportHeight = viewportHeight;
+        snapshot.properties = (Properties) properties.clone();
+
+        final java.util.Map<TileSet, TileSet> copies =
+                new HashMap<TileSet, TileSet>();
+        for (TileSet tileset : tilesets) {
+            TileSet copy = tileset.createSnapshot();
+            copies.put(tileset, copy);
+            snapshot.tilesets.add(copy);
+            copy.addGidIndex(snapshot);
+        }
+
+        for (MapLayer layer : getLayerVector()) {
+            MapLayer clone = (MapLayer) layer.clone();
+            clone.setMap(snapshot);
+            if (clone instanceof TileLayer) {
+                ((TileLayer) clone).replaceTileSets(copies);
+            }
+            snapshot.getLayerVector().add(clone);
+        }
+        for (MapObject object : objects) {
+            snapshot.objects.add((MapObject) object.clone());
+        }
+        return snapshot;
+    }
+
     public Iterator<MapLayer> getLayersSpecial() {
         return specialLayers.iterator();
     }
@@ -442,21 +870,69 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
     }
 
     /**
-     * Get the tile set that matches the given global tile id, only to be used
-     * when loading a map.
+     * Get the tile set that matches the given global tile id. This is the
+     * tileset with the highest first global id not above the given id, found
+     * by a binary search over the tilesets sorted by first global id.
      *
      * @param gid a global tile id
      * @return the tileset containing the tile with the given global tile id,
      * or <code>null</code> when no such tileset exists
      */
     public TileSet findTileSetForTileGID(int gid) {
-        TileSet has = null;
-        for (TileSet tileset : tilesets) {
-            if (tileset.getFirstGid() <= gid) {
-                has = tileset;
+        TileSet[] sorted = gidIndexTilesets;
+        int[] firstGids = gidIndexFirstGids;
+        if (sorted == null) {
+            sorted = tilesets.toArray(new TileSet[tilesets.size()]);
+            // The sort is stable, so of tilesets sharing a first global id
+            // the last one in the list wins, like before
+            Arrays.sort(sorted, new Comparator<TileSet>() {
+                public int compare(TileSet a, TileSet b) {
+                    return Integer.compare(a.getFirstGid(), b.getFirstGid());
+                }
+            });
+            firstGids = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                firstGids[i] = sorted[i].getFirstGid();
             }
+            gidIndexFirstGids = firstGids;
+            gidIndexTilesets = sorted;
         }
-        return has;
+
+        // Find the last first global id not above gid
+        int low = 0;
+        int high = firstGids.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (firstGids[mid] <= gid) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 ? sorted[high] : null;
+    }
+
+    /**
+     * Returns the tile with the given global id.
+     *
+     * @param gid a global tile id
+     * @return the tile with the given global id, or <code>null</code> when
+     * the id is 0 or there is no such tile
+     */
+    public Tile resolveGid(int gid) {
+        if (gid <= 0) {
+            return null;
+        }
+        TileSet ts = findTileSetForTileGID(gid);
+        return ts != null ? ts.getTile(gid - ts.getFirstGid()) : null;
+    }
+
+    /**
+     * Makes the next global id lookup rebuild the index of the tilesets.
+     * Called when a tileset of this map changes its first global id.
+     */
+    void invalidateGidIndex() {
+        gidIndexTilesets = null;
     }
 
     /**
@@ -555,6 +1031,7 @@ public class Map extends MultilayerPlane implements MapLayerChangeListener {
         TileSet set = tilesets.get(index0);
         tilesets.set(index0, tilesets.get(index1));
         tilesets.set(index1, set);
+        invalidateGidIndex();
 
         if (index0 > index1) {
             int temp = index1;
@@ -33,4 +33,7 @@ public class MapChangeAdapter implements MapChangeListener {
 
     public void layerChanged(MapChangedEvent e, MapLayerChangeEvent mlce) {
     }
+
+    public void regionChanged(MapChangedEvent e) {
+    }
 }
@@ -49,6 +49,13 @@ public interface MapChangeListener extends EventListener {
     /// This event is fired every time the name of a layer is changed.
     public void layerChanged(MapChangedEvent e, MapLayerChangeEvent layerChangeEvent);
 
+    /// called after the tiles in a region of a layer have changed, or the
+    /// layer was shown, hidden or changed opacity. e.getLayer() returns the
+    /// layer, which may be a special layer, in which case e.getLayerIndex()
+    /// returns -1. e.getRegion() returns the changed region, in tile
+    /// coordinates of the layer. Everything outside it looks as before.
+    public void regionChanged(MapChangedEvent e);
+
     public void tilesetAdded(MapChangedEvent e, TileSet tileset);
 
     public void tilesetRemoved(MapChangedEvent e, int index);
@@ -12,6 +12,7 @@
 
 package tiled.core;
 
+import java.awt.*;
 import java.util.EventObject;
 
 /**
@@ -20,6 +21,8 @@ import java.util.EventObject;
 public class MapChangedEvent extends EventObject {
     private int layerIndex;
     private int oldLayerIndex = -1;
+    private MapLayer layer;
+    private Rectangle region;
 
     public MapChangedEvent(Map map) {
         this(map, -1);
@@ -36,6 +39,21 @@ public class MapChangedEvent extends EventObject {
         this.oldLayerIndex = oldLayerIndex;
     }
 
+    /**
+     * Creates an event about a change to the tiles in a region of a layer.
+     *
+     * @param map        the map the layer is part of
+     * @param layer      the layer that changed
+     * @param layerIndex the index of the layer, or -1 for a special layer
+     * @param region     the changed region, in tile coordinates of the layer
+     */
+    public MapChangedEvent(Map map, MapLayer layer, int layerIndex,
+                           Rectangle region) {
+        this(map, layerIndex, -1);
+        this.layer = layer;
+        this.region = region;
+    }
+
     public int getLayerIndex() {
         return layerIndex;
     }
@@ -44,6 +62,22 @@ public class MapChangedEvent extends EventObject {
         return oldLayerIndex;
     }
 
+    /**
+     * Returns the layer that changed, which may be a special layer without
+     * an index, or <code>null</code> when the event is not about a region.
+     */
+    public MapLayer getLayer() {
+        return layer;
+    }
+
+    /**
+     * Returns the region of the layer that changed, in tile coordinates of
+     * the layer, or <code>null</code> when the event is not about a region.
+     */
+    public Rectangle getRegion() {
+        return region;
+    }
+
     public Map getMap() {
         return (Map) getSource();
     }
@@ -12,6 +12,8 @@
 
 package tiled.core;
 
+import tiled.util.TileMask;
+
 import java.awt.*;
 import java.awt.geom.Area;
 import java.util.Properties;
@@ -57,6 +59,13 @@ public abstract class MapLayer implements Cloneable {
     private Properties properties = new Properties();
     private Vector<MapLayerChangeListener> listeners = new Vector<MapLayerChangeListener>();
 
+    /**
+     * While positive, changed regions are collected in
+     * <code>changedRegion</code> instead of being reported one by one.
+     */
+    private int regionChangeDepth;
+    private Rectangle changedRegion;
+
     public MapLayer() {
         bounds = new Rectangle();
         setMap(null);
@@ -235,8 +244,8 @@ public abstract class MapLayer implements Cloneable {
         if (this.opacity != opacity) {
             this.opacity = opacity;
 
-            if (isVisible() && getMap() != null) {
-                getMap().fireMapChanged();
+            if (isVisible()) {
+                fireRegionChanged(getContentBounds());
             }
         }
     }
@@ -261,9 +270,7 @@ public abstract class MapLayer implements Cloneable {
     public void setVisible(boolean visible) {
         if (isVisible != visible) {
             isVisible = visible;
-            if (getMap() != null) {
-                getMap().fireMapChanged();
-            }
+            fireRegionChanged(getContentBounds());
         }
     }
 
@@ -283,6 +290,30 @@ public abstract class MapLayer implements Cloneable {
 
     public abstract void maskedCopyFrom(MapLayer other, Area mask);
 
+    /**
+     * Like {@link #maskedMergeOnto(MapLayer, Area)}, but takes the mask as a
+     * {@link TileMask}. Layers that can test tiles one by one should override
+     * this, rather than having the mask converted to an area.
+     *
+     * @param other the layer to merge with
+     * @param mask  the tiles to merge
+     */
+    public void maskedMergeOnto(MapLayer other, TileMask mask) {
+        maskedMergeOnto(other, mask.toArea());
+    }
+
+    /**
+     * Like {@link #maskedCopyFrom(MapLayer, Area)}, but takes the mask as a
+     * {@link TileMask}.
+     *
+     * @param other the layer to copy from
+     * @param mask  the tiles to copy
+     * @see #maskedMergeOnto(MapLayer, TileMask)
+     */
+    public void maskedCopyFrom(MapLayer other, TileMask mask) {
+        maskedCopyFrom(other, mask.toArea());
+    }
+
     public abstract MapLayer createDiff(MapLayer ml);
 
     /**
@@ -324,6 +355,8 @@ public abstract class MapLayer implements Cloneable {
         // Create a new bounds object
         clone.bounds = new Rectangle(bounds);
         clone.properties = (Properties) properties.clone();
+        clone.regionChangeDepth = 0;
+        clone.changedRegion = null;
 
         return clone;
     }
@@ -412,6 +445,71 @@ public abstract class MapLayer implements Cloneable {
         getMap().fireParallaxChangeEvent(new MapParallaxChangeEvent(getMap(), getMap().getLayerVector().indexOf(this), MapParallaxChangeEvent.ChangeType.LAYER_VIEWPLANE_DISTANCE));
     }
 
+    /**
+     * Returns the part of this layer, in tiles, that can show anything. It
+     * is repainted when the layer is shown, hidden or changes opacity.
+     *
+     * @return the bounds of the content of this layer
+     */
+    public Rectangle getContentBounds() {
+        return new Rectangle(bounds);
+    }
+
+    /**
+     * Starts collecting the regions reported by {@link
+     * #fireRegionChanged(int, int, int, int)}, so that a change of many
+     * tiles notifies the map only once. Calls may be nested, the collected
+     * region is reported by the outermost {@link #endRegionChange()}.
+     */
+    protected void beginRegionChange() {
+        regionChangeDepth++;
+    }
+
+    /**
+     * Reports the region collected since the matching {@link
+     * #beginRegionChange()}.
+     */
+    protected void endRegionChange() {
+        if (--regionChangeDepth == 0 && changedRegion != null) {
+            final Rectangle region = changedRegion;
+            changedRegion = null;
+            if (myMap != null) {
+                myMap.fireRegionChanged(this, region);
+            }
+        }
+    }
+
+    /**
+     * Tells the map that the tiles in the given region of this layer
+     * changed, or collects the region when a bulk change is in progress.
+     *
+     * @param tx     Tile-space x coordinate of the region
+     * @param ty     Tile-space y coordinate of the region
+     * @param width  width of the region in tiles
+     * @param height height of the region in tiles
+     */
+    protected void fireRegionChanged(int tx, int ty, int width, int height) {
+        if (myMap == null || width <= 0 || height <= 0) {
+            return;
+        }
+        if (regionChangeDepth == 0) {
+            myMap.fireRegionChanged(this, new Rectangle(tx, ty, width, height));
+        } else if (changedRegion == null) {
+            changedRegion = new Rectangle(tx, ty, width, height);
+        } else {
+            final int x1 = Math.max(changedRegion.x + changedRegion.width, tx + width);
+            final int y1 = Math.max(changedRegion.y + changedRegion.height, ty + height);
+            changedRegion.x = Math.min(changedRegion.x, tx);
+            changedRegion.y = Math.min(changedRegion.y, ty);
+            changedRegion.width = x1 - changedRegion.x;
+            changedRegion.height = y1 - changedRegion.y;
+        }
+    }
+
+    protected void fireRegionChanged(Rectangle region) {
+        fireRegionChanged(region.x, region.y, region.width, region.height);
+    }
+
     private void fireRenamed(String newName, String oldName) {
         MapLayerChangeEvent e = MapLayerChangeEvent.createNameChangeEvent(oldName, newName);
         for (MapLayerChangeListener l : listeners)
@@ -12,7 +12,8 @@
 
 package tiled.core;
 
-import javax.imageio.ImageIO;
+import tiled.util.ImageCache;
+
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
@@ -80,7 +81,8 @@ public class MapObject implements Cloneable {
         // Attempt to read the image
         if (imageSource.length() > 0) {
             try {
-                image = ImageIO.read(new File(imageSource));
+                image = ImageCache.getInstance().getImage(
+                        new File(imageSource), null);
             } catch (IOException e) {
                 image = null;
             }
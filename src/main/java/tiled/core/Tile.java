@@ -12,8 +12,10 @@
 
 package tiled.core;
 
+import tiled.util.ScaledImageCache;
+
 import java.awt.*;
-import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
 import java.util.Properties;
 
 /**
@@ -23,11 +25,11 @@ import java.util.Properties;
  */
 public class Tile {
     protected int tileImageId = -1;
-    private Image internalImage, scaledImage;
+    private Image internalImage;
+    private ScaledImageCache internalScaledImages;
     private int id = -1;
     private int groundHeight;          // Height above/below "ground"
     private int tileOrientation;
-    private double myZoom = 1.0;
     private Properties properties;
     private TileSet tileset;
 
@@ -49,10 +51,28 @@ public class Tile {
         properties = (Properties) t.properties.clone();
         tileImageId = t.tileImageId;
         tileset = t.tileset;
-        if (tileset != null) {
-            scaledImage = getImage().getScaledInstance(
-                    -1, -1, Image.SCALE_DEFAULT);
-        }
+    }
+
+    /**
+     * Creates a copy of this tile for the given copy of its tileset, with
+     * the same id and image id. Animated tiles share their sprite with the
+     * copy.
+     *
+     * @param set the copy of the tileset of this tile
+     * @return the copy of this tile
+     * @see TileSet#createSnapshot()
+     */
+    Tile copyFor(TileSet set) {
+        Tile copy = this instanceof AnimatedTile ?
+                new AnimatedTile(((AnimatedTile) this).getSprite()) :
+                new Tile();
+        copy.properties = (Properties) properties.clone();
+        copy.tileImageId = tileImageId;
+        copy.id = id;
+        copy.groundHeight = groundHeight;
+        copy.tileOrientation = tileOrientation;
+        copy.tileset = set;
+        return copy;
     }
 
     public Properties getProperties() {
@@ -125,25 +145,39 @@ public class Tile {
 
     /**
      * This drawing function handles drawing the tile image at the
-     * specified zoom level. It will attempt to use a cached copy,
-     * but will rescale if the requested zoom does not equal the
-     * current cache zoom.
+     * specified zoom level. It will use a cached scaled copy when one is
+     * available, and otherwise draws the unscaled image stretched to the
+     * right size while the scaled copy is prepared in the background.
      *
-     * @param g    Graphics instance to draw to
-     * @param x    x-coord to draw tile at
-     * @param y    y-coord to draw tile at
-     * @param zoom Zoom level to draw the tile
+     * @param g        Graphics instance to draw to
+     * @param x        x-coord to draw tile at
+     * @param y        y-coord to draw tile at
+     * @param zoom     Zoom level to draw the tile
+     * @param observer notified when the scaled image becomes available,
+     *                 may be <code>null</code>
      */
-    public void drawRaw(Graphics g, int x, int y, double zoom) {
-        Image img = getScaledImage(zoom);
+    public void drawRaw(Graphics g, int x, int y, double zoom,
+                        ImageObserver observer) {
+        Image img = getScaledImage(zoom, observer);
         if (img != null) {
             g.drawImage(img, x, y - img.getHeight(null), null);
+        } else if ((img = getImage()) != null) {
+            final int w = (int) (getWidth() * zoom);
+            final int h = (int) (getHeight() * zoom);
+            g.drawImage(img, x, y - h, w, h, null);
         } else {
             // TODO: Allow drawing IDs when no image data exists as a
             // config option
         }
     }
 
+    /**
+     * @see #drawRaw(Graphics, int, int, double, ImageObserver)
+     */
+    public void drawRaw(Graphics g, int x, int y, double zoom) {
+        drawRaw(g, x, y, zoom, null);
+    }
+
     /**
      * Draws the tile at the given pixel coordinates in the given
      * graphics context, and at the given zoom level
@@ -152,11 +186,21 @@ public class Tile {
      * @param x
      * @param y
      * @param zoom
+     * @param observer notified when the scaled image becomes available,
+     *                 may be <code>null</code>
      */
-    public void draw(Graphics g, int x, int y, double zoom) {
+    public void draw(Graphics g, int x, int y, double zoom,
+                     ImageObserver observer) {
         // Invoke raw draw function
         int gnd_h = (int) (groundHeight * zoom);
-        drawRaw(g, x, y - gnd_h, zoom);
+        drawRaw(g, x, y - gnd_h, zoom, observer);
+    }
+
+    /**
+     * @see #draw(Graphics, int, int, double, ImageObserver)
+     */
+    public void draw(Graphics g, int x, int y, double zoom) {
+        draw(g, x, y, zoom, null);
     }
 
     public int getWidth() {
@@ -232,41 +276,61 @@ public class Tile {
     }
 
     /**
-     * Returns a scaled instance of the tile image. Using a MediaTracker
-     * instance, this function waits until the scaling operation is done.
+     * Returns a scaled instance of the tile image, scaling it on the calling
+     * thread when it is not cached yet.
      * <p/>
-     * Internally it caches the scaled image in order to optimize the common
-     * case, where the same scale is requested as the last time.
+     * Scaled images are cached by the tileset for each zoom level.
      *
      * @param zoom the requested zoom level
      * @return Image
+     * @see ScaledImageCache
      */
     public Image getScaledImage(double zoom) {
-        if (zoom == 1.0) {
-            return getImage();
-        } else if (zoom == myZoom && scaledImage != null) {
-            return scaledImage;
-        } else {
-            Image img = getImage();
-            if (img != null) {
-                scaledImage = img.getScaledInstance(
-                        (int) (getWidth() * zoom), (int) (getHeight() * zoom),
-                        BufferedImage.SCALE_SMOOTH);
-
-                MediaTracker mediaTracker = new MediaTracker(new Canvas());
-                mediaTracker.addImage(scaledImage, 0);
-                try {
-                    mediaTracker.waitForID(0);
-                } catch (InterruptedException ie) {
-                    System.err.println(ie);
-                }
-                mediaTracker.removeImage(scaledImage);
-                myZoom = zoom;
-                return scaledImage;
-            }
+        Image img = getImage();
+        if (zoom == 1.0 || img == null) {
+            return img;
         }
+        return getScaledImageCache().getScaledImage(img, zoom);
+    }
 
-        return null;
+    /**
+     * Returns a scaled instance of the tile image when it is cached, or
+     * starts scaling it in the background and returns <code>null</code>.
+     *
+     * @param zoom     the requested zoom level
+     * @param observer notified when the scaled image becomes available,
+     *                 may be <code>null</code>
+     * @return Image
+     */
+    public Image getScaledImage(double zoom, ImageObserver observer) {
+        Image img = getImage();
+        if (zoom == 1.0 || img == null) {
+            return img;
+        }
+        return getScaledImageCache().getScaledImage(img, zoom, observer);
+    }
+
+    /**
+     * Returns whether the tile image is available at the given zoom level
+     * without scaling it first.
+     *
+     * @param zoom the zoom level
+     * @return <code>true</code> if the scaled image is ready
+     */
+    public boolean isScaledImageReady(double zoom) {
+        Image img = getImage();
+        return zoom == 1.0 || img == null ||
+                getScaledImageCache().isReady(img, zoom);
+    }
+
+    private ScaledImageCache getScaledImageCache() {
+        if (tileset != null) {
+            return tileset.getScaledImageCache();
+        }
+        if (internalScaledImages == null) {
+            internalScaledImages = new ScaledImageCache();
+        }
+        return internalScaledImages;
     }
 
     /**
@@ -15,6 +15,7 @@ package tiled.core;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tiled.command.HelpCommand;
+import tiled.util.TileMask;
 
 import java.awt.*;
 import java.awt.geom.Area;
@@ -81,6 +82,25 @@ public class TileLayer extends MapLayer {
         return (Properties) tileInstanceProperties.get(key);
     }
 
+    /**
+     * Returns whether any tile of this layer has instance properties.
+     */
+    public boolean hasTileInstanceProperties() {
+        return !tileInstanceProperties.isEmpty();
+    }
+
+    /**
+     * Returns a value that changes whenever the tiles of this layer change,
+     * or -1 when this layer does not keep track of its changes. Layers with
+     * the same stamp have the same tiles, since a stamp is only shared by a
+     * layer and its clones for as long as none of them changes.
+     *
+     * @return the modification stamp of this layer, or -1 if unknown
+     */
+    public long getModificationStamp() {
+        return -1;
+    }
+
     public void setTileInstancePropertiesAt(int x, int y, Properties tip) {
         if (bounds.contains(x, y)) {
             Object key = new Point(x, y);
@@ -132,9 +152,14 @@ public class TileLayer extends MapLayer {
             }
         }
 
+        // Both the old and the new shape of the layer need repainting
+        beginRegionChange();
+        fireRegionChanged(bounds);
         bounds.width = trans[0].length;
         bounds.height = trans.length;
         map = trans;
+        fireRegionChanged(bounds);
+        endRegionChange();
     }
 
     /**
@@ -161,6 +186,7 @@ public class TileLayer extends MapLayer {
             }
         }
         map = mirror;
+        fireRegionChanged(bounds);
     }
 
     /**
@@ -203,7 +229,7 @@ public class TileLayer extends MapLayer {
      */
     protected void setBounds(Rectangle bounds) {
         super.setBounds(bounds);
-        map = new Tile[bounds.height][bounds.width];
+        allocate(bounds.width, bounds.height);
 
         // Tile instance properties is null when this method is called from
         // the constructor of MapLayer
@@ -212,6 +238,18 @@ public class TileLayer extends MapLayer {
         }
     }
 
+    /**
+     * Allocates empty tile data for a layer of the given size. Any previous
+     * data is discarded. Subclasses that store their tile data differently
+     * override this method.
+     *
+     * @param width  width in tiles
+     * @param height height in tiles
+     */
+    protected void allocate(int width, int height) {
+        map = new Tile[height][width];
+    }
+
     /**
      * Creates a diff of the two layers, <code>ml</code> is considered the
      * significant difference.
@@ -294,6 +332,7 @@ public class TileLayer extends MapLayer {
                     "Attempted to remove tile when this layer is locked.");
         }
 
+        beginRegionChange();
         for (int y = 0; y < bounds.height; y++) {
             for (int x = 0; x < bounds.width; x++) {
                 if (map[y][x] == tile) {
@@ -301,20 +340,41 @@ public class TileLayer extends MapLayer {
                 }
             }
         }
+        endRegionChange();
     }
 
     /**
      * Sets the tile at the specified position. Does nothing if (tx, ty) falls
-     * outside of this layer.
+     * outside of this layer. When the tile changes, the map is notified.
      *
      * @param tx x position of tile
      * @param ty y position of tile
      * @param ti the tile object to place
      */
     public void setTileAt(int tx, int ty, Tile ti) {
-        if (bounds.contains(tx, ty) && !getLocked()) {
+        if (bounds.contains(tx, ty) && !getLocked() &&
+                map[ty - bounds.y][tx - bounds.x] != ti) {
             map[ty - bounds.y][tx - bounds.x] = ti;
+            fireRegionChanged(tx, ty, 1, 1);
+        }
+    }
+
+    /**
+     * Sets all tiles in a region to the given tile, notifying the map once.
+     * The part of the region outside of this layer is ignored.
+     *
+     * @param region the region to fill, in tiles
+     * @param ti     the tile object to place
+     */
+    public void fillRegion(Rectangle region, Tile ti) {
+        final Rectangle r = region.intersection(bounds);
+        beginRegionChange();
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                setTileAt(x, y, ti);
+            }
         }
+        endRegionChange();
     }
 
     /**
@@ -360,6 +420,7 @@ public class TileLayer extends MapLayer {
         if (!canEdit())
             return;
 
+        beginRegionChange();
         for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
             for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
                 if (getTileAt(x, y) == find) {
@@ -367,6 +428,79 @@ public class TileLayer extends MapLayer {
                 }
             }
         }
+        endRegionChange();
+    }
+
+    /**
+     * Replaces the tiles of this layer by the tiles with the same id in the
+     * given copies of their tilesets. Used on the layers of a snapshot of a
+     * map, which are not part of any map yet.
+     *
+     * @param copies the copy of each tileset
+     * @see Map#createSnapshot()
+     */
+    void replaceTileSets(java.util.Map<TileSet, TileSet> copies) {
+        if (map == null) {
+            return;
+        }
+        for (Tile[] row : map) {
+            for (int x = 0; x < row.length; x++) {
+                if (row[x] != null) {
+                    final TileSet copy = copies.get(row[x].getTileSet());
+                    if (copy != null) {
+                        row[x] = copy.getTile(row[x].getId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces all occurences of each key of <code>replacements</code> by
+     * its value, in a single pass over the layer. Unlike
+     * {@link #replaceTile(Tile, Tile)} this also changes hidden layers, and
+     * the map is not notified, so that layers can be changed in parallel.
+     * The caller reports the returned region to the map afterwards.
+     *
+     * @param replacements the replacement of each tile to replace
+     * @return the region containing the changed cells, in tile coordinates,
+     * or <code>null</code> when no cell changed
+     * @throws LayerLockedException when this layer is locked
+     */
+    public Rectangle replaceTiles(java.util.Map<Tile, Tile> replacements)
+            throws LayerLockedException {
+        if (getLocked()) {
+            throw new LayerLockedException(
+                    "Attempted to replace tiles when this layer is locked.");
+        }
+
+        Rectangle changed = null;
+        for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+                final Tile tile = map[y][x];
+                if (tile != null && replacements.containsKey(tile)) {
+                    map[y][x] = replacements.get(tile);
+                    changed = addCell(changed, bounds.x + x, bounds.y + y);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Grows a region to include the given cell.
+     *
+     * @param region the region so far, or <code>null</code> if empty
+     * @param tx     Tile-space x coordinate of the cell
+     * @param ty     Tile-space y coordinate of the cell
+     * @return the grown region
+     */
+    protected static Rectangle addCell(Rectangle region, int tx, int ty) {
+        if (region == null) {
+            return new Rectangle(tx, ty, 1, 1);
+        }
+        region.add(new Rectangle(tx, ty, 1, 1));
+        return region;
     }
 
     /**
@@ -376,6 +510,7 @@ public class TileLayer extends MapLayer {
         if (!other.canEdit())
             return;
 
+        other.beginRegionChange();
         for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
             for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
                 Tile tile = getTileAt(x, y);
@@ -384,6 +519,7 @@ public class TileLayer extends MapLayer {
                 }
             }
         }
+        other.endRegionChange();
     }
 
     /**
@@ -399,6 +535,7 @@ public class TileLayer extends MapLayer {
 
         Rectangle boundBox = mask.getBounds();
 
+        beginRegionChange();
         for (int y = boundBox.y; y < boundBox.y + boundBox.height; y++) {
             for (int x = boundBox.x; x < boundBox.x + boundBox.width; x++) {
                 Tile tile = ((TileLayer) other).getTileAt(x, y);
@@ -407,6 +544,34 @@ public class TileLayer extends MapLayer {
                 }
             }
         }
+        endRegionChange();
+    }
+
+    /**
+     * Like mergeOnto, but will only copy the tiles set in the mask.
+     *
+     * @param other
+     * @param mask
+     * @see TileLayer#mergeOnto(MapLayer)
+     */
+    public void maskedMergeOnto(MapLayer other, TileMask mask) {
+        if (!canEdit())
+            return;
+
+        Rectangle boundBox = mask.getBounds();
+
+        beginRegionChange();
+        for (int y = boundBox.y; y < boundBox.y + boundBox.height; y++) {
+            for (int x = boundBox.x; x < boundBox.x + boundBox.width; x++) {
+                if (mask.contains(x, y)) {
+                    Tile tile = ((TileLayer) other).getTileAt(x, y);
+                    if (tile != null) {
+                        setTileAt(x, y, tile);
+                    }
+                }
+            }
+        }
+        endRegionChange();
     }
 
     /**
@@ -420,11 +585,13 @@ public class TileLayer extends MapLayer {
         if (!canEdit())
             return;
 
+        beginRegionChange();
         for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
             for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
                 setTileAt(x, y, ((TileLayer) other).getTileAt(x, y));
             }
         }
+        endRegionChange();
     }
 
     /**
@@ -440,6 +607,31 @@ public class TileLayer extends MapLayer {
 
         Rectangle boundBox = mask.getBounds();
 
+        beginRegionChange();
+        for (int y = boundBox.y; y < boundBox.y + boundBox.height; y++) {
+            for (int x = boundBox.x; x < boundBox.x + boundBox.width; x++) {
+                if (mask.contains(x, y)) {
+                    setTileAt(x, y, ((TileLayer) other).getTileAt(x, y));
+                }
+            }
+        }
+        endRegionChange();
+    }
+
+    /**
+     * Like copyFrom, but will only copy the tiles set in the mask.
+     *
+     * @param other
+     * @param mask
+     * @see TileLayer#copyFrom(MapLayer)
+     */
+    public void maskedCopyFrom(MapLayer other, TileMask mask) {
+        if (!canEdit())
+            return;
+
+        Rectangle boundBox = mask.getBounds();
+
+        beginRegionChange();
         for (int y = boundBox.y; y < boundBox.y + boundBox.height; y++) {
             for (int x = boundBox.x; x < boundBox.x + boundBox.width; x++) {
                 if (mask.contains(x, y)) {
@@ -447,6 +639,7 @@ public class TileLayer extends MapLayer {
                 }
             }
         }
+        endRegionChange();
     }
 
     /**
@@ -467,16 +660,27 @@ public class TileLayer extends MapLayer {
             return;    // can't copy to this layer
         }
 
-        super.copyTo(other);
-
-        tl.tileWidth = tileWidth;
-        tl.tileHeight = tileHeight;
+        copyLayerSettingsTo(tl);
+        tl.beginRegionChange();
         for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
             for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
                 tl.setTileAt(x, y, getTileAt(x, y));
             }
         }
+        tl.endRegionChange();
+    }
+
+    /**
+     * Copies the layer settings (name, visibility, bounds, properties and
+     * tile dimensions) but not the tile data to the given layer.
+     *
+     * @param tl the layer to copy the settings to
+     */
+    protected void copyLayerSettingsTo(TileLayer tl) {
+        super.copyTo(tl);
 
+        tl.tileWidth = tileWidth;
+        tl.tileHeight = tileHeight;
     }
 
     /**
@@ -489,21 +693,18 @@ public class TileLayer extends MapLayer {
     public Object clone() throws CloneNotSupportedException {
         TileLayer clone = (TileLayer) super.clone();
 
-        // Clone the layer data
-        clone.map = new Tile[map.length][];
+        // Clone the tile instance properties
         clone.tileInstanceProperties = new HashMap<Object, Properties>();
+        for (java.util.Map.Entry<Object, Properties> entry : tileInstanceProperties.entrySet()) {
+            clone.tileInstanceProperties.put(entry.getKey(), (Properties) entry.getValue().clone());
+        }
 
-        for (int i = 0; i < map.length; i++) {
-            clone.map[i] = new Tile[map[i].length];
-            System.arraycopy(map[i], 0, clone.map[i], 0, map[i].length);
-
-            for (int j = 0; j < map[i].length; j++) {
-                Properties p = getTileInstancePropertiesAt(i, j);
-
-                if (p != null) {
-                    Integer key = i + j * bounds.width;
-                    clone.tileInstanceProperties.put(key, (Properties) p.clone());
-                }
+        // Clone the layer data (subclasses may keep their data elsewhere)
+        if (map != null) {
+            clone.map = new Tile[map.length][];
+            for (int i = 0; i < map.length; i++) {
+                clone.map[i] = new Tile[map[i].length];
+                System.arraycopy(map[i], 0, clone.map[i], 0, map[i].length);
             }
         }
 
@@ -522,7 +723,6 @@ public class TileLayer extends MapLayer {
             return;
 
         Tile[][] newMap = new Tile[height][width];
-        HashMap<Object, Properties> newTileInstanceProperties = new HashMap<Object, Properties>();
 
         int maxX = Math.min(width, bounds.width + dx);
         int maxY = Math.min(height, bounds.height + dy);
@@ -530,20 +730,40 @@ public class TileLayer extends MapLayer {
         for (int x = Math.max(0, dx); x < maxX; x++) {
             for (int y = Math.max(0, dy); y < maxY; y++) {
                 newMap[y][x] = getTileAt(x - dx, y - dy);
-
-                Properties tip = getTileInstancePropertiesAt(x - dx, y - dy);
-                if (tip != null) {
-                    newTileInstanceProperties.put(new Point(x, y), tip);
-                }
             }
         }
 
+        resizeTileInstanceProperties(width, height, dx, dy);
         map = newMap;
-        tileInstanceProperties = newTileInstanceProperties;
         bounds.width = width;
         bounds.height = height;
     }
 
+    /**
+     * Moves the tile instance properties along with a resize of the layer,
+     * dropping those that fall outside of the new size.
+     *
+     * @param width  the new width of the layer
+     * @param height the new height of the layer
+     * @param dx     the shift in x direction
+     * @param dy     the shift in y direction
+     * @see TileLayer#resize
+     */
+    protected void resizeTileInstanceProperties(int width, int height, int dx, int dy) {
+        HashMap<Object, Properties> newTileInstanceProperties = new HashMap<Object, Properties>();
+
+        for (java.util.Map.Entry<Object, Properties> entry : tileInstanceProperties.entrySet()) {
+            Point p = (Point) entry.getKey();
+            int x = p.x + dx;
+            int y = p.y + dy;
+            if (bounds.contains(p) && x >= 0 && y >= 0 && x < width && y < height) {
+                newTileInstanceProperties.put(new Point(x, y), entry.getValue());
+            }
+        }
+
+        tileInstanceProperties = newTileInstanceProperties;
+    }
+
     /// sets both tile width and tile height for this layer. Equivalent to
     /// calling setTileWidth() and setTileHeight()
     public void setTileDimensions(int tileWidth, int tileHeight) {
@@ -0,0 +1,179 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import java.awt.*;
+
+/**
+ * The cells of a {@link GidTileLayer} changed during an edit, stored as
+ * packed (index, old global id, new global id) triples in the order in
+ * which the changes were made. The index of a cell is relative to the
+ * bounds the layer had when the recording started.
+ * <p>
+ * Reverting or applying a delta takes time proportional to the number of
+ * changed cells, independent of the size of the layer.
+ *
+ * @version $Id$
+ * @see GidTileLayer#startRecording()
+ */
+public class TileLayerDelta {
+    private final int originX;
+    private final int originY;
+    private final int width;
+    private int[] changes = new int[3 * 64];
+    private int length;
+    private Rectangle area;
+
+    /**
+     * The generation of the global ids of the map that the recorded ids
+     * are valid for.
+     */
+    private int gidGeneration;
+
+    /**
+     * @param bounds the bounds of the layer the changes are made to
+     */
+    public TileLayerDelta(Rectangle bounds) {
+        this(bounds, 0);
+    }
+
+    /**
+     * @param bounds        the bounds of the layer the changes are made to
+     * @param gidGeneration the generation of the global ids of the map
+     * @see Map#getGidGeneration()
+     */
+    public TileLayerDelta(Rectangle bounds, int gidGeneration) {
+        originX = bounds.x;
+        originY = bounds.y;
+        width = Math.max(1, bounds.width);
+        this.gidGeneration = gidGeneration;
+    }
+
+    /**
+     * Records the change of a single cell.
+     *
+     * @param tx     Tile-space x coordinate of the cell
+     * @param ty     Tile-space y coordinate of the cell
+     * @param oldGid the global id the cell had
+     * @param newGid the global id the cell has now
+     */
+    public void record(int tx, int ty, int oldGid, int newGid) {
+        if (length + 3 > changes.length) {
+            int[] grown = new int[changes.length * 2];
+            System.arraycopy(changes, 0, grown, 0, length);
+            changes = grown;
+        }
+        changes[length++] = (ty - originY) * width + tx - originX;
+        changes[length++] = oldGid;
+        changes[length++] = newGid;
+
+        if (area != null) {
+            area.add(tx, ty);
+        } else {
+            area = new Rectangle(tx, ty, 0, 0);
+        }
+    }
+
+    /**
+     * Returns whether no changes were recorded.
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Returns the number of recorded changes.
+     */
+    public int getChangeCount() {
+        return length / 3;
+    }
+
+    /**
+     * Returns the area of the layer touched by the recorded changes, in
+     * tiles, or <code>null</code> when there are none.
+     */
+    public Rectangle getArea() {
+        return area != null ?
+                new Rectangle(area.x, area.y, area.width + 1, area.height + 1) :
+                null;
+    }
+
+    /**
+     * Returns an estimate of the memory used by this delta in bytes.
+     */
+    public long getMemoryUsage() {
+        return 4L * changes.length + 64;
+    }
+
+    /**
+     * Releases the unused capacity of this delta. To be called when the
+     * recording is finished.
+     */
+    public void trimToSize() {
+        if (length < changes.length) {
+            int[] trimmed = new int[length];
+            System.arraycopy(changes, 0, trimmed, 0, length);
+            changes = trimmed;
+        }
+    }
+
+    /**
+     * Restores the old global ids of all changed cells, undoing the changes
+     * in reverse order.
+     *
+     * @param layer the layer the changes were recorded on
+     */
+    public void revert(GidTileLayer layer) {
+        updateGids(layer);
+        layer.beginRegionChange();
+        for (int i = length - 3; i >= 0; i -= 3) {
+            layer.setGidAt(originX + changes[i] % width,
+                    originY + changes[i] / width, changes[i + 1]);
+        }
+        layer.endRegionChange();
+    }
+
+    /**
+     * Stores the new global ids of all changed cells again, in the order in
+     * which they were recorded.
+     *
+     * @param layer the layer the changes were recorded on
+     */
+    public void apply(GidTileLayer layer) {
+        updateGids(layer);
+        layer.beginRegionChange();
+        for (int i = 0; i < length; i += 3) {
+            layer.setGidAt(originX + changes[i] % width,
+                    originY + changes[i] / width, changes[i + 2]);
+        }
+        layer.endRegionChange();
+    }
+
+    /**
+     * Remaps the recorded global ids, and those of the layer, for the
+     * renumberings of the tilesets of the map done since they were
+     * recorded.
+     */
+    private void updateGids(GidTileLayer layer) {
+        layer.updateGids();
+        final Map map = layer.getMap();
+        if (map == null || gidGeneration == map.getGidGeneration()) {
+            return;
+        }
+        for (int i = 0; i < length; i += 3) {
+            changes[i + 1] = map.updateGid(changes[i + 1], gidGeneration);
+            changes[i + 2] = map.updateGid(changes[i + 2], gidGeneration);
+        }
+        gidGeneration = map.getGidGeneration();
+    }
+}
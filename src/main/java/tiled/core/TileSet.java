@@ -12,18 +12,22 @@
 
 package tiled.core;
 
-import tiled.mapeditor.util.TransparentImageFilter;
 import tiled.mapeditor.util.cutter.BasicTileCutter;
 import tiled.mapeditor.util.cutter.TileCutter;
+import tiled.util.ImageCache;
+import tiled.util.ImageHash;
+import tiled.util.ImageSet;
 import tiled.util.NumberedSet;
+import tiled.util.ScaledImageCache;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.awt.image.FilteredImageSource;
+import java.awt.image.ColorModel;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * todo: Update documentation
@@ -36,8 +40,11 @@ import java.util.*;
  * <p>The other is the tile image.</p>
  */
 public class TileSet {
+    private static final int IMPORT_BATCH_SIZE = 64;
+
     private String base;
-    private final NumberedSet tiles, images;
+    private final NumberedSet tiles;
+    private final ImageSet images;
     private int firstGid;
     private long tilebmpFileLastModified;
     private TileCutter tileCutter;
@@ -53,16 +60,62 @@ public class TileSet {
     private Image tileSetImage;
     private LinkedList<TilesetChangeListener> tilesetChangeListeners;
     private java.util.Map<Integer, String> imageSources = new HashMap<Integer, String>();
+    private final ScaledImageCache scaledImages;
+    private final Vector<Map> gidIndexes = new Vector<Map>(1);
 
     /**
      * Default constructor
      */
     public TileSet() {
         tiles = new NumberedSet();
-        images = new NumberedSet();
+        images = new ImageSet();
         tileDimensions = new Rectangle();
         defaultTileProperties = new Properties();
         tilesetChangeListeners = new LinkedList();
+        scaledImages = new ScaledImageCache();
+    }
+
+    /**
+     * Creates a copy of the given tileset, see {@link #createSnapshot()}.
+     */
+    private TileSet(TileSet set) {
+        tiles = new NumberedSet();
+        images = new ImageSet(set.images);
+        tileDimensions = new Rectangle(set.tileDimensions);
+        defaultTileProperties = (Properties) set.defaultTileProperties.clone();
+        tilesetChangeListeners = new LinkedList<TilesetChangeListener>();
+        scaledImages = new ScaledImageCache();
+
+        base = set.base;
+        firstGid = set.firstGid;
+        tilebmpFileLastModified = set.tilebmpFileLastModified;
+        tileSpacing = set.tileSpacing;
+        tileMargin = set.tileMargin;
+        tilesPerRow = set.tilesPerRow;
+        externalSource = set.externalSource;
+        tilebmpFile = set.tilebmpFile;
+        name = set.name;
+        transparentColor = set.transparentColor;
+        tileSetImage = set.tileSetImage;
+        imageSources.putAll(set.imageSources);
+
+        for (Iterator<Object> it = set.tiles.iterator(); it.hasNext(); ) {
+            Tile tile = (Tile) it.next();
+            tiles.put(tile.getId(), tile.copyFor(this));
+        }
+    }
+
+    /**
+     * Creates a copy of this tileset as it is now, for writing it to a file
+     * in the background. The copy has its own tiles, first global id and
+     * table of images, so it is not affected when this tileset is
+     * renumbered or its tile images are replaced. The images themselves
+     * are shared. The copy has no listeners and can not cut tiles.
+     *
+     * @return a snapshot of this tileset
+     */
+    public TileSet createSnapshot() {
+        return new TileSet(this);
     }
 
     /**
@@ -77,27 +130,8 @@ public class TileSet {
             throws IOException {
         setTilesetImageFilename(imgFilename);
 
-        Image image = ImageIO.read(new File(imgFilename));
-        if (image == null) {
-            throw new IOException("Failed to load " + tilebmpFile);
-        }
-
-        Toolkit tk = Toolkit.getDefaultToolkit();
-
-        if (transparentColor != null) {
-            int rgb = transparentColor.getRGB();
-            image = tk.createImage(
-                    new FilteredImageSource(image.getSource(),
-                            new TransparentImageFilter(rgb)));
-        }
-
-        BufferedImage buffered = new BufferedImage(
-                image.getWidth(null),
-                image.getHeight(null),
-                BufferedImage.TYPE_INT_ARGB);
-        buffered.getGraphics().drawImage(image, 0, 0, null);
-
-        importTileBitmap(buffered, cutter);
+        importTileBitmap(ImageCache.getInstance().getImage(
+                new File(imgFilename), transparentColor), cutter);
     }
 
     /**
@@ -124,6 +158,13 @@ public class TileSet {
             tilesPerRow = basicTileCutter.getTilesPerRow();
         }
 
+        if (cutter instanceof BasicTileCutter) {
+            importTiles(tilebmp,
+                    ((BasicTileCutter) cutter).getTileLocations(),
+                    tileDimensions.width, tileDimensions.height);
+            return;
+        }
+
         Image tile = cutter.getNextTile();
         while (tile != null) {
             Tile newTile = new Tile();
@@ -134,63 +175,193 @@ public class TileSet {
     }
 
     /**
-     * Refreshes a tileset from a tileset image file.
+     * Copies the tiles at the given locations of the tileset image into
+     * images of their own and adds them to the set. The tiles are copied
+     * and hashed in parallel, raster to raster, so that the tile images
+     * have the format of the tileset image. Tiles with the same pixels
+     * share a single image.
+     *
+     * @param tilebmp   the tileset image
+     * @param locations the top left corner of each tile, in tile id order
+     * @param tw        the width of the tiles
+     * @param th        the height of the tiles
+     */
+    private void importTiles(final BufferedImage tilebmp,
+                             final java.util.List<Point> locations,
+                             final int tw, final int th) {
+        final int count = locations.size();
+        final BufferedImage[] tileImages = new BufferedImage[count];
+        final long[] hashes = new long[count];
+
+        java.util.List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int start = 0; start < count; start += IMPORT_BATCH_SIZE) {
+            final int from = start;
+            final int to = Math.min(count, start + IMPORT_BATCH_SIZE);
+            tasks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        Point p = locations.get(i);
+                        tileImages[i] = copyTile(tilebmp, p.x, p.y, tw, th);
+                        hashes[i] = ImageHash.hash(tileImages[i]);
+                    }
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+
+        for (int i = 0; i < count; i++) {
+            Tile newTile = new Tile();
+            newTile.setImage(images.findOrAdd(tileImages[i], hashes[i]));
+            addNewTile(newTile);
+        }
+    }
+
+    private static BufferedImage copyTile(BufferedImage tilebmp, int x, int y,
+                                          int tw, int th) {
+        ColorModel cm = tilebmp.getColorModel();
+        BufferedImage tile = new BufferedImage(cm,
+                cm.createCompatibleWritableRaster(tw, th),
+                cm.isAlphaPremultiplied(), null);
+        tile.getRaster().setDataElements(0, 0, tw, th,
+                tilebmp.getRaster().getDataElements(x, y, tw, th, null));
+        return tile;
+    }
+
+    /**
+     * Refreshes a tileset from a tileset image file, replacing the images
+     * of the tiles that changed.
      *
      * @throws IOException
-     * @see TileSet#importTileBitmap(BufferedImage, TileCutter)
+     * @see TileSet#findChangedTiles(BufferedImage, Image[])
      */
     private void refreshImportedTileBitmap()
             throws IOException {
-        String imgFilename = tilebmpFile.getPath();
-
-        Image image = ImageIO.read(new File(imgFilename));
-        if (image == null) {
-            throw new IOException("Failed to load " + tilebmpFile);
-        }
+        BufferedImage tilebmp = loadTileBitmap();
+        replaceTileImages(tilebmp, findChangedTiles(tilebmp, getTileImages()));
+    }
 
-        Toolkit tk = Toolkit.getDefaultToolkit();
+    /**
+     * Loads the current contents of the tileset image file. May be called
+     * on any thread.
+     *
+     * @return the tileset image
+     * @throws IOException when the tileset image can not be read
+     */
+    public BufferedImage loadTileBitmap() throws IOException {
+        return ImageCache.getInstance().getImage(tilebmpFile, transparentColor);
+    }
 
-        if (transparentColor != null) {
-            int rgb = transparentColor.getRGB();
-            image = tk.createImage(
-                    new FilteredImageSource(image.getSource(),
-                            new TransparentImageFilter(rgb)));
+    /**
+     * Returns the current image of each tile, by tile id. The tiles and
+     * images of the set are changed on the event dispatch thread, so this
+     * is to be called there. The images themselves are never changed, so
+     * the returned images may be compared on another thread.
+     *
+     * @return the tile images by tile id, with <code>null</code> for ids
+     *         without a tile or image
+     */
+    public Image[] getTileImages() {
+        Image[] result = new Image[getMaxTileId() + 1];
+        for (int id = 0; id < result.length; id++) {
+            Tile tile = getTile(id);
+            result[id] = tile != null ? getImageById(tile.tileImageId) : null;
         }
-
-        BufferedImage buffered = new BufferedImage(
-                image.getWidth(null),
-                image.getHeight(null),
-                BufferedImage.TYPE_INT_ARGB);
-        buffered.getGraphics().drawImage(image, 0, 0, null);
-
-        refreshImportedTileBitmap(buffered);
+        return result;
     }
 
     /**
-     * Refreshes a tileset from a buffered image. Tiles are cut by the passed
-     * cutter.
+     * Cuts a new version of the tileset image into tiles, and returns the
+     * tile images of which the pixels differ from the given current images
+     * of the tiles, as found by comparing their hashes. The tileset itself
+     * is not read or changed, so that this can be done off the event
+     * dispatch thread.
      *
-     * @param tilebmp the image to be used, must not be null
+     * @param tilebmp       the new tileset image, must not be null
+     * @param currentImages the current tile images, see
+     *                      {@link #getTileImages()}
+     * @return the changed tile images by tile id
+     * @see #replaceTileImages(BufferedImage, java.util.Map)
      */
-    private void refreshImportedTileBitmap(BufferedImage tilebmp) {
+    public java.util.Map<Integer, Image> findChangedTiles(BufferedImage tilebmp,
+                                                          Image[] currentImages) {
         assert tilebmp != null;
 
-        tileCutter.reset();
-        tileCutter.setImage(tilebmp);
+        java.util.Map<Integer, Image> changed = new TreeMap<Integer, Image>();
+        synchronized (tileCutter) {
+            tileCutter.reset();
+            tileCutter.setImage(tilebmp);
+
+            int id = 0;
+            Image tile = tileCutter.getNextTile();
+            while (tile != null) {
+                Image currentImage = id < currentImages.length ?
+                        currentImages[id] : null;
+                if (currentImage == null ||
+                        ImageHash.hash(currentImage) != ImageHash.hash(tile)) {
+                    changed.put(id, tile);
+                }
+                tile = tileCutter.getNextTile();
+                id++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces the images of the given tiles, adding tiles for ids that are
+     * not in use, and notifies the listeners of the tiles that changed.
+     *
+     * @param tilebmp the new tileset image, or <code>null</code> to keep the
+     *                current one
+     * @param changed the new tile images by tile id
+     * @return the tiles of which the image was replaced
+     */
+    public Collection<Tile> replaceTileImages(BufferedImage tilebmp,
+                                  java.util.Map<Integer, Image> changed) {
+        if (tilebmp != null) {
+            synchronized (tileCutter) {
+                tileCutter.setImage(tilebmp);
+            }
+            tileSetImage = tilebmp;
+            tilebmpFileLastModified = tilebmpFile.lastModified();
+        }
 
-        tileSetImage = tilebmp;
-        tileDimensions = new Rectangle(tileCutter.getTileDimensions());
+        // Tiles with the same pixels may share an image, which must then not
+        // be replaced for all of them
+        java.util.Map<Integer, Integer> imageUsers = new HashMap<Integer, Integer>();
+        for (Iterator<Object> it = tiles.iterator(); it.hasNext(); ) {
+            Tile tile = (Tile) it.next();
+            if (tile != null) {
+                Integer users = imageUsers.get(tile.tileImageId);
+                imageUsers.put(tile.tileImageId, users == null ? 1 : users + 1);
+            }
+        }
 
-        int id = 0;
-        Image tile = tileCutter.getNextTile();
-        while (tile != null) {
-            int imgId = getTile(id).tileImageId;
-            overlayImage(imgId, tile);
-            tile = tileCutter.getNextTile();
-            id++;
+        java.util.List<Tile> changedTiles = new ArrayList<Tile>(changed.size());
+        for (java.util.Map.Entry<Integer, Image> entry : changed.entrySet()) {
+            Tile tile = getTile(entry.getKey());
+            if (tile == null) {
+                tile = new Tile();
+                tile.setId(entry.getKey());
+                tile.setImage(addImage(entry.getValue()));
+                addTile(tile);
+            } else if (tile.tileImageId < 0 ||
+                    imageUsers.get(tile.tileImageId) > 1) {
+                imageUsers.put(tile.tileImageId,
+                        imageUsers.get(tile.tileImageId) - 1);
+                tile.setImage(addImage(entry.getValue()));
+            } else {
+                overlayImage(tile.tileImageId, entry.getValue());
+            }
+            changedTiles.add(tile);
         }
 
-        fireTilesetChanged();
+        if (!changedTiles.isEmpty()) {
+            fireTilesetChanged(changedTiles);
+        }
+        return changedTiles;
     }
 
     public void checkUpdate() throws IOException {
@@ -265,10 +436,6 @@ public class TileSet {
      * Removes a tile from this tileset. Does not invalidate other tile
      * indices. Removal is simply setting the reference at the specified
      * index to <b>null</b>.
-     * <p>
-     * todo: Fix the behaviour of this function? It actually does seem to
-     * todo: invalidate other tile indices due to implementation of
-     * todo: NumberedSet.
      *
      * @param i the index to remove
      */
@@ -277,6 +444,59 @@ public class TileSet {
         fireTilesetChanged();
     }
 
+    /**
+     * Removes the given tiles from this tileset, notifying the listeners
+     * once. Other tile indices stay valid.
+     *
+     * @param removed the tiles to remove
+     */
+    public void removeTiles(Collection<Tile> removed) {
+        for (Tile tile : removed) {
+            tiles.remove(tile.getId());
+        }
+        fireTilesetChanged();
+    }
+
+    /**
+     * Finds the tiles that are a duplicate of a tile with a lower id: they
+     * show an image with the same pixels and have equal properties.
+     * Animated tiles are never considered duplicates.
+     *
+     * @return the duplicate tiles in id order, each mapped to the tile with
+     * the lowest id it duplicates
+     */
+    public java.util.Map<Tile, Tile> findDuplicateTiles() {
+        java.util.Map<Tile, Tile> duplicates = new LinkedHashMap<Tile, Tile>();
+        java.util.Map<Integer, java.util.List<Tile>> originals =
+                new HashMap<Integer, java.util.List<Tile>>();
+
+        for (Iterator<Object> it = tiles.iterator(); it.hasNext(); ) {
+            Tile tile = (Tile) it.next();
+            if (tile instanceof AnimatedTile || tile.getImageId() < 0) {
+                continue;
+            }
+            final int imageId = images.getCanonicalId(tile.getImageId());
+            java.util.List<Tile> sameImage = originals.get(imageId);
+            if (sameImage == null) {
+                sameImage = new ArrayList<Tile>(1);
+                originals.put(imageId, sameImage);
+            }
+            Tile original = null;
+            for (Tile candidate : sameImage) {
+                if (candidate.getProperties().equals(tile.getProperties())) {
+                    original = candidate;
+                    break;
+                }
+            }
+            if (original != null) {
+                duplicates.put(tile, original);
+            } else {
+                sameImage.add(tile);
+            }
+        }
+        return duplicates;
+    }
+
     /**
      * Returns the amount of tiles in this tileset.
      *
@@ -477,7 +697,24 @@ public class TileSet {
      * @param firstGid first global id
      */
     public void setFirstGid(int firstGid) {
-        this.firstGid = firstGid;
+        if (this.firstGid != firstGid) {
+            this.firstGid = firstGid;
+            for (Map map : gidIndexes) {
+                map.invalidateGidIndex();
+            }
+        }
+    }
+
+    /**
+     * Registers a map that needs to know when the first global id of this
+     * tileset changes.
+     */
+    void addGidIndex(Map map) {
+        gidIndexes.add(map);
+    }
+
+    void removeGidIndex(Map map) {
+        gidIndexes.remove(map);
     }
 
     /**
@@ -582,6 +819,16 @@ public class TileSet {
         return imageSources.get(id);
     }
 
+    /**
+     * Returns the cache holding the scaled versions of the images in this
+     * tileset.
+     *
+     * @return the scaled image cache of this tileset
+     */
+    public ScaledImageCache getScaledImageCache() {
+        return scaledImages;
+    }
+
     /**
      * Overlays the image in the set referred to by the given key.
      *
@@ -613,9 +860,10 @@ public class TileSet {
     }
 
     /**
-     * Adds the specified image to the image cache. If the image already exists
-     * in the cache, returns the id of the existing image. If it does not
-     * exist, this function adds the image and returns the new id.
+     * Adds the specified image to the image cache. If the image, or an image
+     * with the same pixels, already exists in the cache, returns the id of
+     * the existing image. If it does not exist, this function adds the image
+     * and returns the new id.
      *
      * @param image       the java.awt.Image to add to the image cache
      * @param imageSource the path of the source image or null if none
@@ -708,7 +956,11 @@ public class TileSet {
     }
 
     private void fireTilesetChanged() {
-        TilesetChangedEvent event = new TilesetChangedEvent(this);
+        fireTilesetChanged(null);
+    }
+
+    private void fireTilesetChanged(Collection<Tile> changedTiles) {
+        TilesetChangedEvent event = new TilesetChangedEvent(this, changedTiles);
         for (TilesetChangeListener listener : tilesetChangeListeners) {
             listener.tilesetChanged(event);
         }
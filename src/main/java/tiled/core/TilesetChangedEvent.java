@@ -12,19 +12,44 @@
 
 package tiled.core;
 
+import java.util.Collection;
 import java.util.EventObject;
 
 /**
- * An event indicating that a certain tileset changed.
+ * An event indicating that a certain tileset changed. When only the images
+ * of some tiles changed, the event tells which ones.
  *
  * @version $Id$
  */
 public class TilesetChangedEvent extends EventObject {
+    private final Collection<Tile> changedTiles;
+
     public TilesetChangedEvent(TileSet set) {
+        this(set, null);
+    }
+
+    /**
+     * @param set          the tileset that changed
+     * @param changedTiles the tiles of which the images changed, or
+     *                     <code>null</code> when any part of the tileset
+     *                     may have changed
+     */
+    public TilesetChangedEvent(TileSet set, Collection<Tile> changedTiles) {
         super(set);
+        this.changedTiles = changedTiles;
     }
 
     public TileSet getTileset() {
         return (TileSet) getSource();
     }
+
+    /**
+     * Returns the tiles of which the images changed.
+     *
+     * @return the changed tiles, or <code>null</code> when any part of the
+     *         tileset may have changed
+     */
+    public Collection<Tile> getChangedTiles() {
+        return changedTiles;
+    }
 }
@@ -14,6 +14,8 @@ package tiled.io;
 
 import tiled.core.Map;
 import tiled.core.TileSet;
+import tiled.io.bin.BINMapReader;
+import tiled.io.bin.BINMapWriter;
 import tiled.io.xml.XMLMapReader;
 import tiled.io.xml.XMLMapWriter;
 import tiled.mapeditor.Resources;
@@ -60,6 +62,8 @@ public class MapHelper {
         if (filename.endsWith(".tmx") || filename.endsWith(".tmx.gz")) {
             // Override, so people can't overtake our format
             mw = new XMLMapWriter();
+        } else if (filename.endsWith(".bin")) {
+            mw = new BINMapWriter();
         } else {
             mw = (MapWriter) pluginLoader.getWriterFor(filename);
         }
@@ -67,6 +71,7 @@ public class MapHelper {
         if (mw != null) {
             PluginLogger logger = new PluginLogger();
             mw.setLogger(logger);
+            currentMap.assignTilesetFirstGids();
             mw.writeMap(currentMap, filename);
             currentMap.setFilename(filename);
             reportPluginMessages(logger);
@@ -122,6 +127,7 @@ public class MapHelper {
 
         PluginLogger logger = new PluginLogger();
         mw.setLogger(logger);
+        currentMap.assignTilesetFirstGids();
         mw.writeMap(currentMap, filename);
         currentMap.setFilename(filename);
         reportPluginMessages(logger);
@@ -144,6 +150,8 @@ public class MapHelper {
             if (file.endsWith(".tmx") || file.endsWith(".tmx.gz")) {
                 // Override, so people can't overtake our format
                 mapReader = new XMLMapReader();
+            } else if (file.endsWith(".bin")) {
+                mapReader = new BINMapReader();
             } else {
                 mapReader = (MapReader) pluginLoader.getReaderFor(file);
             }
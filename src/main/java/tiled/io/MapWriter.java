@@ -27,7 +27,10 @@ import java.io.OutputStream;
  */
 public interface MapWriter extends PluggableMapIO, FileFilter {
     /**
-     * Saves a map to a file.
+     * Saves a map to a file. The map may be a snapshot that is written on a
+     * background thread, so writers must not change it or its tilesets.
+     * The global id ranges of the tilesets are valid when this is called
+     * (see {@link Map#assignTilesetFirstGids()}).
      *
      * @param map
      * @param filename the filename of the map file
@@ -0,0 +1,155 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.bin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Constants and helpers shared by the reader and writer of the binary map
+ * format. All numbers are little-endian. A file consists of:
+ * <ul>
+ * <li>a header of {@link #HEADER_SIZE} bytes: the magic number, the format
+ * version, the length of the metadata, a reserved int, and the offset of
+ * the layer data as a long</li>
+ * <li>the metadata: the map attributes and properties, the tileset table
+ * and the layer table</li>
+ * <li>the layer data: for each tile layer, its global tile ids as ints,
+ * row by row. The data of every layer starts at a multiple of
+ * {@link #ALIGNMENT} bytes, so that a memory mapped file can be read as
+ * int arrays directly.</li>
+ * </ul>
+ * Each entry of the tileset table holds the first global id of the tileset
+ * and either the path of its external TSX file, relative to the map, or
+ * the tileset written as an embedded TSX document. Strings are stored as
+ * their length in UTF-8 bytes followed by those bytes, with a length of -1
+ * for <code>null</code>.
+ *
+ * @version $Id$
+ */
+final class BINFormat {
+    /**
+     * "TBIN" when read as little-endian bytes.
+     */
+    static final int MAGIC = 0x4E494254;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int ALIGNMENT = 4096;
+
+    static final byte LAYER_TILES = 0;
+    static final byte LAYER_OBJECTS = 1;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BINFormat() {
+    }
+
+    /**
+     * Rounds the given offset up to the next multiple of {@link #ALIGNMENT}.
+     */
+    static long align(long offset) {
+        return (offset + ALIGNMENT - 1) & ~(long) (ALIGNMENT - 1);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    static void getProperties(ByteBuffer buffer, Properties props) {
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final String key = getString(buffer);
+            props.setProperty(key, getString(buffer));
+        }
+    }
+
+    /**
+     * A growing little-endian buffer the metadata is written to before its
+     * length is known.
+     */
+    static class Output {
+        private ByteBuffer buffer =
+                ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+        private ByteBuffer reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            return buffer;
+        }
+
+        void putByte(int value) {
+            reserve(1).put((byte) value);
+        }
+
+        void putInt(int value) {
+            reserve(4).putInt(value);
+        }
+
+        void putLong(long value) {
+            reserve(8).putLong(value);
+        }
+
+        void putFloat(float value) {
+            reserve(4).putFloat(value);
+        }
+
+        void putBytes(byte[] bytes) {
+            putInt(bytes.length);
+            reserve(bytes.length).put(bytes);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+            } else {
+                putBytes(value.getBytes(UTF8));
+            }
+        }
+
+        void putProperties(Properties props) {
+            putInt(props.size());
+            for (Map.Entry<Object, Object> entry : props.entrySet()) {
+                putString(entry.getKey().toString());
+                putString(entry.getValue().toString());
+            }
+        }
+
+        int size() {
+            return buffer.position();
+        }
+
+        /**
+         * Returns the written bytes, ready to be passed to a channel.
+         */
+        ByteBuffer getBuffer() {
+            ByteBuffer result = buffer.duplicate();
+            result.flip();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.bin;
+
+import tiled.core.*;
+import tiled.io.MapReader;
+import tiled.io.PluginLogger;
+import tiled.io.xml.XMLMapReader;
+
+import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads maps in the binary map format described in {@link BINFormat}.
+ * Map files are memory mapped, and the global tile ids of each layer are
+ * copied straight from the mapped file into the chunks of the layer with
+ * bulk reads, one task per layer on the common fork/join pool.
+ * <p>
+ * The layers do not keep referring to the mapped file, so that they can be
+ * edited, and the file can be replaced when the map is saved again.
+ *
+ * @version $Id$
+ */
+public class BINMapReader implements MapReader {
+    private PluginLogger logger = new PluginLogger();
+
+    public Map readMap(String filename) throws Exception {
+        FileChannel channel = FileChannel.open(new File(filename).toPath(),
+                StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Map file is too large to be mapped");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            Map map = readMap(buffer, new File(filename).getAbsolutePath());
+            map.setFilename(filename);
+            return map;
+        } finally {
+            channel.close();
+        }
+    }
+
+    public Map readMap(InputStream in) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return readMap(ByteBuffer.wrap(bytes.toByteArray()),
+                new File(".").getAbsolutePath());
+    }
+
+    public TileSet readTileset(String filename) throws Exception {
+        throw new Exception("Binary map files contain no loose tilesets");
+    }
+
+    public TileSet readTileset(InputStream in) throws Exception {
+        throw new Exception("Binary map files contain no loose tilesets");
+    }
+
+    /**
+     * Reads a map from the given buffer, which holds a whole map file.
+     *
+     * @param filename the file paths in the map are relative to
+     */
+    private Map readMap(ByteBuffer buffer, String filename) throws Exception {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < BINFormat.HEADER_SIZE ||
+                buffer.getInt() != BINFormat.MAGIC) {
+            throw new Exception("Not a valid binary map file.");
+        }
+        final int version = buffer.getInt();
+        if (version != BINFormat.VERSION) {
+            throw new Exception("Unsupported binary map version " + version);
+        }
+        buffer.getInt();    // length of the metadata
+        buffer.getInt();    // reserved
+        final long dataOffset = buffer.getLong();
+        if (dataOffset < BINFormat.HEADER_SIZE ||
+                dataOffset % BINFormat.ALIGNMENT != 0 ||
+                dataOffset > buffer.limit()) {
+            throw new Exception("Not a valid binary map file.");
+        }
+
+        final String dir = filename.substring(0,
+                filename.lastIndexOf(File.separatorChar) + 1);
+
+        Map map = new Map(buffer.getInt(), buffer.getInt());
+        map.setTileWidth(buffer.getInt());
+        map.setTileHeight(buffer.getInt());
+        map.setOrientation(buffer.getInt());
+        map.setEyeDistance(buffer.getFloat());
+        map.setViewportWidth(buffer.getInt());
+        map.setViewportHeight(buffer.getInt());
+        BINFormat.getProperties(buffer, map.getProperties());
+
+        final int tilesetCount = buffer.getInt();
+        for (int i = 0; i < tilesetCount; i++) {
+            map.addTileset(readTileset(buffer, dir, filename));
+        }
+
+        final int layerCount = buffer.getInt();
+        List<MapLayer> layers = new ArrayList<MapLayer>(layerCount);
+        List<Boolean> visibilities = new ArrayList<Boolean>(layerCount);
+        List<ForkJoinTask<?>> decoders = new ArrayList<ForkJoinTask<?>>();
+        for (int i = 0; i < layerCount; i++) {
+            final byte type = buffer.get();
+            final String name = BINFormat.getString(buffer);
+            final Rectangle bounds = new Rectangle(buffer.getInt(),
+                    buffer.getInt(), buffer.getInt(), buffer.getInt());
+            final boolean visible = buffer.get() != 0;
+            final float opacity = buffer.getFloat();
+            final float viewPlaneDistance = buffer.getFloat();
+            final boolean infinitelyFarAway = buffer.get() != 0;
+            final Properties props = new Properties();
+            BINFormat.getProperties(buffer, props);
+
+            MapLayer layer;
+            if (type == BINFormat.LAYER_TILES) {
+                final ChunkedTileLayer tl = new ChunkedTileLayer(
+                        bounds.width, bounds.height,
+                        buffer.getInt(), buffer.getInt());
+                tl.setOffset(bounds.x, bounds.y);
+                final long relativeOffset = buffer.getLong();
+                if (relativeOffset < 0) {
+                    throw new Exception("Layer data of " + name +
+                            " lies before the layer data section of the file.");
+                }
+                if (relativeOffset % BINFormat.ALIGNMENT != 0) {
+                    throw new Exception("Layer data of " + name +
+                            " is not aligned to " + BINFormat.ALIGNMENT +
+                            " bytes.");
+                }
+                final long offset = dataOffset + relativeOffset;
+                if (relativeOffset > buffer.limit() ||
+                        offset + 4L * bounds.width * bounds.height > buffer.limit()) {
+                    throw new Exception("Layer data of " + name +
+                            " lies beyond the end of the file.");
+                }
+                readTileInstanceProperties(buffer, tl);
+
+                final ByteBuffer data = buffer.duplicate();
+                data.position((int) offset);
+                data.order(ByteOrder.LITTLE_ENDIAN);
+                decoders.add(ForkJoinPool.commonPool().submit(new Runnable() {
+                    public void run() {
+                        tl.readGids(data.asIntBuffer());
+                    }
+                }));
+                layer = tl;
+            } else if (type == BINFormat.LAYER_OBJECTS) {
+                ObjectGroup group = new ObjectGroup(bounds);
+                readObjects(buffer, group, dir);
+                layer = group;
+            } else {
+                throw new Exception("Unknown layer type " + type);
+            }
+
+            layer.setName(name);
+            layer.setOpacity(opacity);
+            layer.setProperties(props);
+            layer.setViewPlaneDistance(viewPlaneDistance);
+            layer.setViewPlaneInfinitelyFarAway(infinitelyFarAway);
+            layers.add(layer);
+            visibilities.add(visible);
+        }
+
+        for (ForkJoinTask<?> decoder : decoders) {
+            decoder.join();
+        }
+        map.beginUpdate();
+        try {
+            for (int i = 0; i < layers.size(); i++) {
+                // Invisible layers are locked, so this is done once their
+                // data has been read
+                layers.get(i).setVisible(visibilities.get(i));
+                map.addLayer(layers.get(i));
+            }
+        } finally {
+            map.endUpdate();
+        }
+        return map;
+    }
+
+    private TileSet readTileset(ByteBuffer buffer, String dir, String filename)
+            throws Exception {
+        final int firstGid = buffer.getInt();
+        final String source = BINFormat.getString(buffer);
+
+        XMLMapReader reader = new XMLMapReader();
+        reader.setLogger(logger);
+        TileSet set;
+        if (source != null) {
+            final String path = new File(source).isAbsolute() ?
+                    source : dir + source;
+            set = null;
+            try {
+                set = reader.readTileset(path);
+            } catch (IOException e) {
+                logger.error("Could not find external tileset file " + path);
+            }
+        } else {
+            final byte[] tsx = new byte[buffer.getInt()];
+            buffer.get(tsx);
+            set = reader.readTileset(new ByteArrayInputStream(tsx), filename);
+        }
+
+        if (set == null) {
+            logger.error("tileset " + source + " was not loaded correctly!");
+            set = new TileSet();
+        }
+        set.setFirstGid(firstGid);
+        return set;
+    }
+
+    private static void readTileInstanceProperties(ByteBuffer buffer,
+                                                   TileLayer tl) {
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final int x = buffer.getInt();
+            final int y = buffer.getInt();
+            Properties tip = new Properties();
+            BINFormat.getProperties(buffer, tip);
+            tl.setTileInstancePropertiesAt(x, y, tip);
+        }
+    }
+
+    private static void readObjects(ByteBuffer buffer, ObjectGroup group,
+                                    String dir) {
+        final int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            final String name = BINFormat.getString(buffer);
+            final String type = BINFormat.getString(buffer);
+            MapObject object = new MapObject(buffer.getInt(), buffer.getInt(),
+                    buffer.getInt(), buffer.getInt());
+            if (name != null) {
+                object.setName(name);
+            }
+            if (type != null) {
+                object.setType(type);
+            }
+            String imageSource = BINFormat.getString(buffer);
+            if (imageSource != null) {
+                if (!new File(imageSource).isAbsolute()) {
+                    imageSource = dir + imageSource;
+                }
+                object.setImageSource(imageSource);
+            }
+            Properties props = new Properties();
+            BINFormat.getProperties(buffer, props);
+            object.setProperties(props);
+            group.addObject(object);
+        }
+    }
+
+    public boolean accept(File pathname) {
+        try {
+            return pathname.getCanonicalPath().endsWith(".bin");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public String getFilter() throws Exception {
+        return "*.bin";
+    }
+
+    public String getName() {
+        return "Tiled binary map reader";
+    }
+
+    public String getDescription() {
+        return "Reads maps in the Tiled binary map format, memory mapping\n" +
+                "the file so that the layer data is copied without decoding.";
+    }
+
+    public String getPluginPackage() {
+        return "Tiled internal binary map reader/writer";
+    }
+
+    public void setLogger(PluginLogger logger) {
+        this.logger = logger;
+    }
+}
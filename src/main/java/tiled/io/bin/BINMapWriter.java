@@ -1,61 +1,391 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
 package tiled.io.bin;
 
-import tiled.core.Map;
-import tiled.core.TileSet;
+import tiled.core.*;
 import tiled.io.MapWriter;
 import tiled.io.PluginLogger;
+import tiled.io.xml.XMLMapWriter;
 
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Properties;
 
+/**
+ * Writes maps in the binary map format described in {@link BINFormat}.
+ * The global tile ids of the layers are written as they are, without any
+ * encoding, so that saving a large map costs little more than the I/O.
+ * <p>
+ * Tilesets that are not stored in a TSX file of their own are embedded as
+ * TSX documents, written by {@link XMLMapWriter} with its current saving
+ * preferences. Layers other than tile layers and object groups are not
+ * saved.
+ *
+ * @version $Id$
+ */
 public class BINMapWriter implements MapWriter {
-    @Override
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private PluginLogger logger = new PluginLogger();
+
+    /**
+     * Saves a map to a binary map file. The map is written to a temporary
+     * file first, which then replaces the file.
+     *
+     * @param filename the filename of the map file
+     */
     public void writeMap(Map map, String filename) throws Exception {
+        final File file = new File(filename);
+        final File temp = new File(file.getAbsoluteFile().getParentFile(),
+                "." + file.getName() + ".tmp");
 
+        boolean written = false;
+        FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            writeMap(map, channel, file.getAbsolutePath());
+            // Complete on disk before it replaces the target file
+            channel.force(true);
+            channel.close();
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                channel.close();
+                temp.delete();
+            }
+        }
     }
 
-    @Override
     public void writeTileset(TileSet set, String filename) throws Exception {
-
+        throw new Exception("Tilesets can not be saved as binary map files");
     }
 
-    @Override
     public void writeMap(Map map, OutputStream out) throws Exception {
-
+        writeMap(map, Channels.newChannel(out),
+                new File(".").getAbsolutePath());
     }
 
-    @Override
     public void writeTileset(TileSet set, OutputStream out) throws Exception {
+        throw new Exception("Tilesets can not be saved as binary map files");
+    }
+
+    /**
+     * Writes the header, the metadata and the layer data of a map in
+     * sequence, padding the gaps with zeroes.
+     *
+     * @param wp the file paths are made relative to
+     */
+    private void writeMap(Map map, WritableByteChannel channel, String wp)
+            throws Exception {
+        BINFormat.Output meta = new BINFormat.Output();
+        meta.putInt(map.getWidth());
+        meta.putInt(map.getHeight());
+        meta.putInt(map.getTileWidth());
+        meta.putInt(map.getTileHeight());
+        meta.putInt(map.getOrientation());
+        meta.putFloat(map.getEyeDistance());
+        meta.putInt(map.getViewportWidth());
+        meta.putInt(map.getViewportHeight());
+        meta.putProperties(map.getProperties());
+
+        meta.putInt(map.getTilesets().size());
+        for (TileSet set : map.getTilesets()) {
+            writeTileset(set, meta, wp);
+        }
+
+        // Tile layer data is placed relative to the start of the data
+        int layerCount = 0;
+        Iterator<MapLayer> it = map.getLayers();
+        while (it.hasNext()) {
+            MapLayer layer = it.next();
+            if (layer instanceof TileLayer || layer instanceof ObjectGroup) {
+                layerCount++;
+            } else {
+                logger.warn("Skipped layer " + layer.getName() +
+                        ", it is of an unsupported type");
+            }
+        }
+        meta.putInt(layerCount);
 
+        long dataSize = 0;
+        it = map.getLayers();
+        while (it.hasNext()) {
+            MapLayer layer = it.next();
+            if (layer instanceof TileLayer) {
+                writeLayerAttributes(layer, BINFormat.LAYER_TILES, meta);
+                final TileLayer tl = (TileLayer) layer;
+                meta.putInt(tl.getTileWidth());
+                meta.putInt(tl.getTileHeight());
+                meta.putLong(dataSize);
+                writeTileInstanceProperties(tl, meta);
+                dataSize += BINFormat.align(
+                        4L * tl.getWidth() * tl.getHeight());
+            } else if (layer instanceof ObjectGroup) {
+                writeLayerAttributes(layer, BINFormat.LAYER_OBJECTS, meta);
+                writeObjects((ObjectGroup) layer, meta, wp);
+            }
+        }
+
+        final long dataOffset =
+                BINFormat.align(BINFormat.HEADER_SIZE + meta.size());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(BINFormat.MAGIC);
+        buffer.putInt(BINFormat.VERSION);
+        buffer.putInt(meta.size());
+        buffer.putInt(0);
+        buffer.putLong(dataOffset);
+        buffer.flip();
+        writeFully(channel, buffer);
+        writeFully(channel, meta.getBuffer());
+
+        long position = BINFormat.HEADER_SIZE + meta.size();
+        position = pad(channel, buffer, position, dataOffset);
+
+        it = map.getLayers();
+        while (it.hasNext()) {
+            MapLayer layer = it.next();
+            if (layer instanceof TileLayer) {
+                position += writeLayerData((TileLayer) layer, channel, buffer);
+                position = pad(channel, buffer, position,
+                        BINFormat.align(position));
+            }
+        }
+    }
+
+    private void writeTileset(TileSet set, BINFormat.Output meta, String wp)
+            throws Exception {
+        meta.putInt(set.getFirstGid());
+        final String source = set.getSource();
+        if (source != null) {
+            meta.putString(XMLMapWriter.getRelativePath(wp, source));
+        } else {
+            meta.putString(null);
+            ByteArrayOutputStream tsx = new ByteArrayOutputStream();
+            XMLMapWriter writer = new XMLMapWriter();
+            writer.setLogger(logger);
+            writer.writeTileset(set, tsx, wp);
+            meta.putBytes(tsx.toByteArray());
+        }
+    }
+
+    private static void writeLayerAttributes(MapLayer layer, byte type,
+                                             BINFormat.Output meta) {
+        final Rectangle bounds = layer.getBounds();
+        meta.putByte(type);
+        meta.putString(layer.getName());
+        meta.putInt(bounds.x);
+        meta.putInt(bounds.y);
+        meta.putInt(bounds.width);
+        meta.putInt(bounds.height);
+        meta.putByte(layer.isVisible() ? 1 : 0);
+        meta.putFloat(layer.getOpacity());
+        meta.putFloat(layer.getViewPlaneDistance());
+        meta.putByte(layer.isViewPlaneInfinitelyFarAway() ? 1 : 0);
+        meta.putProperties(layer.getProperties());
+    }
+
+    /**
+     * Writes the tile instance properties of a layer, with their positions
+     * in map coordinates.
+     */
+    private static void writeTileInstanceProperties(TileLayer tl,
+                                                    BINFormat.Output meta) {
+        if (!tl.hasTileInstanceProperties()) {
+            meta.putInt(0);
+            return;
+        }
+
+        final Rectangle bounds = tl.getBounds();
+        int count = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                meta.putInt(count);
+            }
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                    Properties tip = tl.getTileInstancePropertiesAt(x, y);
+                    if (tip == null || tip.isEmpty()) {
+                        continue;
+                    }
+                    if (pass == 0) {
+                        count++;
+                    } else {
+                        meta.putInt(x);
+                        meta.putInt(y);
+                        meta.putProperties(tip);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeObjects(ObjectGroup group, BINFormat.Output meta,
+                                     String wp) {
+        int count = 0;
+        Iterator<MapObject> it = group.getObjects();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        meta.putInt(count);
+
+        it = group.getObjects();
+        while (it.hasNext()) {
+            MapObject object = it.next();
+            meta.putString(object.getName());
+            meta.putString(object.getType());
+            meta.putInt(object.getX());
+            meta.putInt(object.getY());
+            meta.putInt(object.getWidth());
+            meta.putInt(object.getHeight());
+            final String imageSource = object.getImageSource();
+            meta.putString(imageSource.length() > 0 ?
+                    XMLMapWriter.getRelativePath(wp, imageSource) : null);
+            meta.putProperties(object.getProperties());
+        }
+    }
+
+    /**
+     * Writes the global ids of a tile layer row by row, collecting them in
+     * the given buffer.
+     *
+     * @return the number of bytes written
+     */
+    private static long writeLayerData(TileLayer tl,
+                                       WritableByteChannel channel,
+                                       ByteBuffer buffer) throws IOException {
+        final Rectangle bounds = tl.getBounds();
+        final int[] row = new int[bounds.width];
+        buffer.clear();
+        IntBuffer ints = buffer.asIntBuffer();
+
+        for (int y = 0; y < bounds.height; y++) {
+            getGidRow(tl, bounds.x, y + bounds.y, row);
+            int i = 0;
+            while (i < row.length) {
+                final int count = Math.min(ints.remaining(), row.length - i);
+                ints.put(row, i, count);
+                i += count;
+                if (!ints.hasRemaining()) {
+                    buffer.limit(ints.position() * 4);
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                    ints.clear();
+                }
+            }
+        }
+        buffer.limit(ints.position() * 4);
+        writeFully(channel, buffer);
+        buffer.clear();
+
+        return 4L * bounds.width * bounds.height;
+    }
+
+    /**
+     * Reads a row of global tile ids from the given layer.
+     */
+    private static void getGidRow(TileLayer tl, int x, int y, int[] row) {
+        if (tl instanceof GidTileLayer) {
+            ((GidTileLayer) tl).getGidRow(x, y, row);
+            return;
+        }
+
+        for (int i = 0; i < row.length; i++) {
+            Tile tile = tl.getTileAt(x + i, y);
+            row[i] = tile != null ? tile.getGid() : 0;
+        }
+    }
+
+    /**
+     * Writes zeroes from the given position up to the given offset.
+     *
+     * @return the offset
+     */
+    private static long pad(WritableByteChannel channel, ByteBuffer buffer,
+                            long position, long offset) throws IOException {
+        while (position < offset) {
+            buffer.clear();
+            final int count = (int) Math.min(buffer.capacity(), offset - position);
+            for (int i = 0; i < count; i++) {
+                buffer.put((byte) 0);
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+            position += count;
+        }
+        buffer.clear();
+        return offset;
+    }
+
+    private static void writeFully(WritableByteChannel channel,
+                                   ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
     }
 
-    @Override
     public boolean accept(File pathname) {
-        return false;
+        try {
+            return pathname.getCanonicalPath().endsWith(".bin");
+        } catch (IOException e) {
+            return false;
+        }
     }
 
-    @Override
     public String getFilter() throws Exception {
         return "*.bin";
     }
 
-    @Override
     public String getName() {
-        return null;
+        return "Tiled binary map writer";
     }
 
-    @Override
     public String getDescription() {
-        return null;
+        return "Writes maps in the Tiled binary map format, which stores the\n" +
+                "layer data uncompressed so that it can be memory mapped\n" +
+                "when the map is loaded.";
     }
 
-    @Override
     public String getPluginPackage() {
-        return null;
+        return "Tiled internal binary map reader/writer";
     }
 
-    @Override
     public void setLogger(PluginLogger logger) {
-
+        this.logger = logger;
     }
 }
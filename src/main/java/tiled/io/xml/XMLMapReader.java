@@ -13,21 +13,23 @@
 package tiled.io.xml;
 
 import org.w3c.dom.*;
-import org.xml.sax.EntityResolver;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import tiled.core.*;
 import tiled.io.ImageHelper;
 import tiled.io.MapReader;
 import tiled.io.PluginLogger;
-import tiled.mapeditor.Resources;
 import tiled.mapeditor.util.cutter.BasicTileCutter;
 import tiled.util.Base64;
+import tiled.util.Base64InputStream;
+import tiled.util.ImageCache;
 import tiled.util.Util;
 
-import javax.imageio.ImageIO;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.awt.*;
 import java.io.*;
 import java.lang.reflect.Constructor;
@@ -35,22 +37,49 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.GZIPInputStream;
 
 /**
  * The standard map reader for TMX files.
+ * <p>
+ * Maps are read with a streaming parser. Layer data is decoded straight
+ * from the character stream into the layer, while the smaller parts of a
+ * map, like tilesets and object groups, are read into DOM elements first so
+ * that they are handled by the same code as external tileset files.
+ * <p>
+ * Compressed layer data is only base64 decoded while parsing. Inflating it
+ * into the layers is done on the common fork/join pool, so that the layers
+ * of a map are decompressed in parallel. The layers are attached to the map
+ * in document order once all of them are done.
  */
 public class XMLMapReader implements MapReader {
-    private final EntityResolver entityResolver = new MapEntityResolver();
     private Map map;
     private String xmlPath;
     private PluginLogger logger;
+    private ForkJoinPool decodePool = ForkJoinPool.commonPool();
 
     public XMLMapReader() {
         logger = new PluginLogger();
     }
 
+    /**
+     * Sets the pool on which compressed layer data is inflated. Used to
+     * compare against decoding on the parsing thread.
+     *
+     * @param pool the pool to use, or <code>null</code> to inflate the
+     *             layer data on the parsing thread
+     */
+    void setDecodePool(ForkJoinPool pool) {
+        decodePool = pool;
+    }
+
     private static String makeUrl(String filename) throws MalformedURLException {
         final String url;
         if (filename.indexOf("://") > 0 || filename.startsWith("file:")) {
@@ -119,6 +148,115 @@ public class XMLMapReader implements MapReader {
         }
     }
 
+    private static String getAttributeValue(XMLStreamReader reader, String attribname) {
+        return reader.getAttributeValue(null, attribname);
+    }
+
+    private static int getAttribute(XMLStreamReader reader, String attribname, int def) {
+        final String attr = getAttributeValue(reader, attribname);
+        if (attr != null) {
+            return Integer.parseInt(attr);
+        } else {
+            return def;
+        }
+    }
+
+    private static float getAttribute(XMLStreamReader reader, String attribname, float def) {
+        final String attr = getAttributeValue(reader, attribname);
+        if (attr != null) {
+            return Float.parseFloat(attr);
+        } else {
+            return def;
+        }
+    }
+
+    private static boolean getAttribute(XMLStreamReader reader, String attribname, boolean def) {
+        final String attr = getAttributeValue(reader, attribname);
+        if (attr != null) {
+            return Boolean.parseBoolean(attr);
+        } else {
+            return def;
+        }
+    }
+
+    /**
+     * Advances the stream reader to the next child element of the current
+     * element.
+     *
+     * @param reader the stream reader
+     * @return <code>true</code> when positioned at the start tag of a child,
+     *         <code>false</code> when positioned at the end tag of the parent
+     * @throws XMLStreamException
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    return true;
+                case XMLStreamConstants.END_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Skips the current element and its content, leaving the stream reader
+     * at its end tag.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        while (nextChild(reader)) {
+            skipElement(reader);
+        }
+    }
+
+    /**
+     * Reads the current element and its content into a DOM element, leaving
+     * the stream reader at its end tag. The element is wrapped in a
+     * fragment, so that it can be passed on as a list of children.
+     *
+     * @param reader the stream reader, positioned at a start tag
+     * @param doc    the document to create the nodes with
+     * @return a list holding only the read element
+     * @throws XMLStreamException
+     */
+    private static NodeList readElement(XMLStreamReader reader, Document doc)
+            throws XMLStreamException {
+        DocumentFragment fragment = doc.createDocumentFragment();
+        fragment.appendChild(readElementNode(reader, doc));
+        return fragment.getChildNodes();
+    }
+
+    private static Element readElementNode(XMLStreamReader reader, Document doc)
+            throws XMLStreamException {
+        Element element = doc.createElement(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(reader.getAttributeLocalName(i),
+                    reader.getAttributeValue(i));
+        }
+
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    element.appendChild(readElementNode(reader, doc));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    // The parser may report text in several pieces
+                    Node last = element.getLastChild();
+                    if (last instanceof Text) {
+                        ((Text) last).appendData(reader.getText());
+                    } else {
+                        element.appendChild(doc.createTextNode(reader.getText()));
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    return element;
+            }
+        }
+    }
+
     /**
      * Reads properties from amongst the given children. When a "properties"
      * element is encountered, it recursively calls itself with the children
@@ -250,7 +388,7 @@ public class XMLMapReader implements MapReader {
             } else {
                 source = makeUrl(baseDir + source);
             }
-            img = ImageIO.read(new URL(source));
+            img = ImageCache.getInstance().getImage(new URL(source), null);
             // todo: check whether external images would also be faster drawn
             // todo: from a scaled instance, see below
         } else {
@@ -576,104 +714,47 @@ public class XMLMapReader implements MapReader {
     }
 
     /**
-     * Loads a map layer from a layer node.
+     * Loads a map layer from a layer element.
      *
-     * @param t the node representing the "layer" element
-     * @return the loaded map layer
+     * @param reader the stream reader, positioned at the "layer" start tag
+     * @param doc    the document to read small child elements into
+     * @return the loaded map layer, whose data may still be decoded
      * @throws Exception
      */
-    private MapLayer readLayer(Node t) throws Exception {
-        final int layerWidth = getAttribute(t, "width", map.getWidth());
-        final int layerHeight = getAttribute(t, "height", map.getHeight());
-        final int layerTileWidth = getAttribute(t, "tileWidth", map.getTileWidth());
-        final int layerTileHeight = getAttribute(t, "tileHeight", map.getTileHeight());
+    private PendingLayer readLayer(XMLStreamReader reader, Document doc) throws Exception {
+        final int layerWidth = getAttribute(reader, "width", map.getWidth());
+        final int layerHeight = getAttribute(reader, "height", map.getHeight());
+        final int layerTileWidth = getAttribute(reader, "tileWidth", map.getTileWidth());
+        final int layerTileHeight = getAttribute(reader, "tileHeight", map.getTileHeight());
 
-        TileLayer ml = new TileLayer(layerWidth, layerHeight, layerTileWidth, layerTileHeight);
+        GidTileLayer ml = new ChunkedTileLayer(layerWidth, layerHeight, layerTileWidth, layerTileHeight);
 
-        final int offsetX = getAttribute(t, "x", 0);
-        final int offsetY = getAttribute(t, "y", 0);
-        final int visible = getAttribute(t, "visible", 1);
-        final float viewPlaneDistance = getAttribute(t, "viewPlaneDistance", 0.0f);
-        final boolean viewPlaneInfinitelyFarAway = getAttribute(t, "viewPlaneInfinitelyFarAway", false);
-        final String opacity = getAttributeValue(t, "opacity");
+        final int offsetX = getAttribute(reader, "x", 0);
+        final int offsetY = getAttribute(reader, "y", 0);
+        final int visible = getAttribute(reader, "visible", 1);
+        final float viewPlaneDistance = getAttribute(reader, "viewPlaneDistance", 0.0f);
+        final boolean viewPlaneInfinitelyFarAway = getAttribute(reader, "viewPlaneInfinitelyFarAway", false);
+        final String opacity = getAttributeValue(reader, "opacity");
 
-        ml.setName(getAttributeValue(t, "name"));
+        ml.setName(getAttributeValue(reader, "name"));
 
         if (opacity != null) {
             ml.setOpacity(Float.parseFloat(opacity));
         }
 
-        readProperties(t.getChildNodes(), ml.getProperties());
+        PendingLayer pending = new PendingLayer(ml);
+        pending.offsetX = offsetX;
+        pending.offsetY = offsetY;
+        pending.visible = visible == 1;
+        pending.viewPlaneDistance = viewPlaneDistance;
+        pending.viewPlaneInfinitelyFarAway = viewPlaneInfinitelyFarAway;
 
-        for (Node child = t.getFirstChild(); child != null;
-             child = child.getNextSibling()) {
-            String nodeName = child.getNodeName();
+        while (nextChild(reader)) {
+            String nodeName = reader.getLocalName();
             if ("data".equalsIgnoreCase(nodeName)) {
-                String encoding = getAttributeValue(child, "encoding");
-
-                if (encoding != null && "base64".equalsIgnoreCase(encoding)) {
-                    Node cdata = child.getFirstChild();
-                    if (cdata == null) {
-                        logger.warn("layer <data> tag enclosed no data. (empty data tag)");
-                    } else {
-                        char[] enc = cdata.getNodeValue().trim().toCharArray();
-                        byte[] dec = Base64.decode(enc);
-                        ByteArrayInputStream bais = new ByteArrayInputStream(dec);
-                        InputStream is;
-
-                        String comp = getAttributeValue(child, "compression");
-
-                        if (comp != null && "gzip".equalsIgnoreCase(comp)) {
-                            is = new GZIPInputStream(bais);
-                        } else {
-                            is = bais;
-                        }
-
-                        for (int y = 0; y < ml.getHeight(); y++) {
-                            for (int x = 0; x < ml.getWidth(); x++) {
-                                int tileId = 0;
-                                tileId |= is.read();
-                                tileId |= is.read() << 8;
-                                tileId |= is.read() << 16;
-                                tileId |= is.read() << 24;
-
-                                TileSet ts = map.findTileSetForTileGID(tileId);
-                                if (ts != null) {
-                                    ml.setTileAt(x, y,
-                                            ts.getTile(tileId - ts.getFirstGid()));
-                                } else {
-                                    ml.setTileAt(x, y, null);
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    int x = 0, y = 0;
-                    for (Node dataChild = child.getFirstChild();
-                         dataChild != null;
-                         dataChild = dataChild.getNextSibling()) {
-                        if ("tile".equalsIgnoreCase(dataChild.getNodeName())) {
-                            int tileId = getAttribute(dataChild, "gid", -1);
-                            TileSet ts = map.findTileSetForTileGID(tileId);
-                            if (ts != null) {
-                                ml.setTileAt(x, y,
-                                        ts.getTile(tileId - ts.getFirstGid()));
-                            } else {
-                                ml.setTileAt(x, y, null);
-                            }
-
-                            x++;
-                            if (x == ml.getWidth()) {
-                                x = 0;
-                                y++;
-                            }
-                            if (y == ml.getHeight()) {
-                                break;
-                            }
-                        }
-                    }
-                }
+                pending.decoder = readLayerData(reader, ml);
             } else if ("tileproperties".equalsIgnoreCase(nodeName)) {
+                Node child = readElement(reader, doc).item(0);
                 for (Node tpn = child.getFirstChild();
                      tpn != null;
                      tpn = tpn.getNextSibling()) {
@@ -687,53 +768,209 @@ public class XMLMapReader implements MapReader {
                         ml.setTileInstancePropertiesAt(x, y, tip);
                     }
                 }
+            } else if ("properties".equals(nodeName) ||
+                    "property".equalsIgnoreCase(nodeName)) {
+                readProperties(readElement(reader, doc), ml.getProperties());
+            } else {
+                skipElement(reader);
             }
         }
 
-        // This is done at the end, otherwise the offset is applied during
-        // the loading of the tiles.
-        ml.setOffset(offsetX, offsetY);
+        return pending;
+    }
+
+    /**
+     * Reads the global ids of a layer from a "data" element. The data is
+     * stored while it is being parsed, unless it is compressed and there
+     * is a decode pool. Then it is only base64 decoded, and inflated into
+     * the layer by a task on that pool.
+     *
+     * @param reader the stream reader, positioned at the "data" start tag
+     * @param ml     the layer to store the global ids in
+     * @return the task storing the global ids, or <code>null</code> when
+     *         they have been stored already
+     * @throws Exception
+     */
+    private ForkJoinTask<Boolean> readLayerData(XMLStreamReader reader,
+                                                final GidTileLayer ml)
+            throws Exception {
+        String encoding = getAttributeValue(reader, "encoding");
+
+        if (encoding != null && "base64".equalsIgnoreCase(encoding)) {
+            String comp = getAttributeValue(reader, "compression");
+            XMLTextReader text = new XMLTextReader(reader);
+            InputStream decoded = new Base64InputStream(text);
 
-        // Invisible layers are automatically locked, so it is important to
-        // set the layer to potentially invisible _after_ the layer data is
-        // loaded.
-        // todo: Shouldn't this be just a user interface feature, rather than
-        // todo: something to keep in mind at this level?
-        ml.setVisible(visible == 1);
+            final boolean gzip = comp != null && "gzip".equalsIgnoreCase(comp);
 
-        ml.setViewPlaneDistance(viewPlaneDistance);
-        ml.setViewPlaneInfinitelyFarAway(viewPlaneInfinitelyFarAway);
+            if (gzip && decodePool != null) {
+                final CompressedData compressed = new CompressedData();
+                final byte[] buffer = new byte[8192];
+                int count;
+                while ((count = decoded.read(buffer)) > 0) {
+                    compressed.write(buffer, 0, count);
+                }
+                text.skipToEnd();
+
+                if (compressed.size() == 0) {
+                    logger.warn("layer <data> tag enclosed no data. (empty data tag)");
+                    return null;
+                }
+
+                return decodePool.submit(new Callable<Boolean>() {
+                    public Boolean call() throws IOException {
+                        return readGids(new GZIPInputStream(
+                                compressed.toInputStream()), ml);
+                    }
+                });
+            }
 
-        return ml;
+            PushbackInputStream is = new PushbackInputStream(decoded);
+            final int first = is.read();
+            if (first < 0) {
+                logger.warn("layer <data> tag enclosed no data. (empty data tag)");
+            } else {
+                is.unread(first);
+                InputStream gids = gzip ? new GZIPInputStream(is, 8192) : is;
+                if (!readGids(gids, ml)) {
+                    logger.warn("layer <data> tag ended before all tiles were read.");
+                }
+            }
+            text.skipToEnd();
+        } else {
+            int x = 0, y = 0;
+            while (nextChild(reader)) {
+                if ("tile".equalsIgnoreCase(reader.getLocalName()) &&
+                        y < ml.getHeight()) {
+                    int tileId = getAttribute(reader, "gid", 0);
+                    ml.setGidAt(x, y, Math.max(0, tileId));
+
+                    x++;
+                    if (x == ml.getWidth()) {
+                        x = 0;
+                        y++;
+                    }
+                }
+                skipElement(reader);
+            }
+        }
+        return null;
     }
 
-    private void buildMap(Document doc) throws Exception {
-        Node item, mapNode;
+    /**
+     * Stores the little-endian global ids read from the given stream in the
+     * layer, one row at a time.
+     *
+     * @return <code>false</code> if the stream ended before all tiles were
+     *         read
+     */
+    private static boolean readGids(InputStream is, GidTileLayer ml)
+            throws IOException {
+        final int width = ml.getWidth();
+        final byte[] row = new byte[width * 4];
+        final int[] gids = new int[width];
+        for (int y = 0; y < ml.getHeight(); y++) {
+            int n = 0;
+            while (n < row.length) {
+                int count = is.read(row, n, row.length - n);
+                if (count < 0) {
+                    break;
+                }
+                n += count;
+            }
+
+            for (int x = 0, i = 0; i + 3 < n; x++, i += 4) {
+                int tileId = 0;
+                tileId |= row[i] & 0xff;
+                tileId |= (row[i + 1] & 0xff) << 8;
+                tileId |= (row[i + 2] & 0xff) << 16;
+                tileId |= (row[i + 3] & 0xff) << 24;
+
+                gids[x] = tileId;
+            }
+            if (n < row.length) {
+                Arrays.fill(gids, n / 4, width, 0);
+            }
+            ml.setGidRow(0, y, gids);
+
+            if (n < row.length) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        mapNode = doc.getDocumentElement();
+    private void buildMap(XMLStreamReader reader, Document doc) throws Exception {
+        while (reader.hasNext() &&
+                reader.next() != XMLStreamConstants.START_ELEMENT) {
+        }
 
-        if (!"map".equals(mapNode.getNodeName())) {
+        if (!reader.isStartElement() || !"map".equals(reader.getLocalName())) {
             throw new Exception("Not a valid tmx map file.");
         }
 
-        // Get the map dimensions and create the map
-        int mapWidth = getAttribute(mapNode, "width", 0);
-        int mapHeight = getAttribute(mapNode, "height", 0);
+        // Get the map dimensions and create the map. The other attributes
+        // are applied once the map exists, since it may still be using the
+        // dimensions element.
+        int mapWidth = getAttribute(reader, "width", 0);
+        int mapHeight = getAttribute(reader, "height", 0);
+        String orientation = getAttributeValue(reader, "orientation");
+        int tileWidth = getAttribute(reader, "tilewidth", 0);
+        int tileHeight = getAttribute(reader, "tileheight", 0);
+        float eyeDistance = getAttribute(reader, "eyeDistance", 10.f);
+        int viewportWidth = getAttribute(reader, "viewportWidth", 640);
+        int viewportHeight = getAttribute(reader, "viewportHeight", 480);
 
         if (mapWidth > 0 && mapHeight > 0) {
             map = new Map(mapWidth, mapHeight);
-        } else {
-            // Maybe this map is still using the dimensions element
-            NodeList l = doc.getElementsByTagName("dimensions");
-            for (int i = 0; (item = l.item(i)) != null; i++) {
-                if (item.getParentNode() == mapNode) {
-                    mapWidth = getAttribute(item, "width", 0);
-                    mapHeight = getAttribute(item, "height", 0);
-
-                    if (mapWidth > 0 && mapHeight > 0) {
-                        map = new Map(mapWidth, mapHeight);
-                    }
+        }
+
+        Properties properties = new Properties();
+        List<PendingLayer> layers = new ArrayList<PendingLayer>();
+        boolean attributesApplied = false;
+
+        while (nextChild(reader)) {
+            final String nodeName = reader.getLocalName();
+
+            if ("dimensions".equals(nodeName)) {
+                // Maybe this map is still using the dimensions element
+                mapWidth = getAttribute(reader, "width", 0);
+                mapHeight = getAttribute(reader, "height", 0);
+
+                if (map == null && mapWidth > 0 && mapHeight > 0) {
+                    map = new Map(mapWidth, mapHeight);
+                }
+                skipElement(reader);
+                continue;
+            } else if ("properties".equals(nodeName) ||
+                    "property".equalsIgnoreCase(nodeName)) {
+                readProperties(readElement(reader, doc), properties);
+                continue;
+            }
+
+            if (map == null) {
+                throw new Exception("Couldn't locate map dimensions.");
+            }
+
+            if (!attributesApplied) {
+                applyMapAttributes(orientation, tileWidth, tileHeight,
+                        eyeDistance, viewportWidth, viewportHeight);
+                attributesApplied = true;
+            }
+
+            if ("tileset".equals(nodeName)) {
+                Node tileset = readElement(reader, doc).item(0);
+                map.addTileset(unmarshalTileset(tileset));
+            } else if ("layer".equals(nodeName)) {
+                layers.add(readLayer(reader, doc));
+            } else if ("objectgroup".equals(nodeName)) {
+                Node objectGroup = readElement(reader, doc).item(0);
+                MapLayer layer = unmarshalObjectGroup(objectGroup);
+                if (layer != null) {
+                    layers.add(new PendingLayer(layer));
                 }
+            } else {
+                skipElement(reader);
             }
         }
 
@@ -741,11 +978,28 @@ public class XMLMapReader implements MapReader {
             throw new Exception("Couldn't locate map dimensions.");
         }
 
-        // Load other map attributes
-        String orientation = getAttributeValue(mapNode, "orientation");
-        int tileWidth = getAttribute(mapNode, "tilewidth", 0);
-        int tileHeight = getAttribute(mapNode, "tileheight", 0);
+        if (!attributesApplied) {
+            applyMapAttributes(orientation, tileWidth, tileHeight,
+                    eyeDistance, viewportWidth, viewportHeight);
+        }
+
+        map.getProperties().putAll(properties);
+
+        // Attach the layers in document order, waiting for their data
+        map.beginUpdate();
+        try {
+            for (PendingLayer layer : layers) {
+                map.addLayer(layer.finish());
+            }
+        } finally {
+            map.endUpdate();
+        }
+    }
 
+    private void applyMapAttributes(String orientation,
+                                    int tileWidth, int tileHeight,
+                                    float eyeDistance,
+                                    int viewportWidth, int viewportHeight) {
         if (tileWidth > 0) {
             map.setTileWidth(tileWidth);
         }
@@ -753,12 +1007,8 @@ public class XMLMapReader implements MapReader {
             map.setTileHeight(tileHeight);
         }
 
-        float eyeDistance = getAttribute(mapNode, "eyeDistance", 10.f);
         map.setEyeDistance(eyeDistance);
-
-        int viewportWidth = getAttribute(mapNode, "viewportWidth", 640);
         map.setViewportWidth(viewportWidth);
-        int viewportHeight = getAttribute(mapNode, "viewportHeight", 480);
         map.setViewportHeight(viewportHeight);
 
         if (orientation != null) {
@@ -766,53 +1016,30 @@ public class XMLMapReader implements MapReader {
         } else {
             setOrientation("orthogonal");
         }
-
-        // Load properties
-        readProperties(mapNode.getChildNodes(), map.getProperties());
-
-        // Load tilesets first, in case order is munged
-        NodeList l = doc.getElementsByTagName("tileset");
-        for (int i = 0; (item = l.item(i)) != null; i++) {
-            map.addTileset(unmarshalTileset(item));
-        }
-
-        // Load the layers and objectgroups
-        for (Node sibs = mapNode.getFirstChild(); sibs != null;
-             sibs = sibs.getNextSibling()) {
-            if ("layer".equals(sibs.getNodeName())) {
-                MapLayer layer = readLayer(sibs);
-                if (layer != null) {
-                    map.addLayer(layer);
-                }
-            } else if ("objectgroup".equals(sibs.getNodeName())) {
-                MapLayer layer = unmarshalObjectGroup(sibs);
-                if (layer != null) {
-                    map.addLayer(layer);
-                }
-            }
-        }
     }
 
     private Map unmarshal(InputStream inputStream) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        Document doc = null;
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+
+        XMLStreamReader reader = null;
         try {
-            factory.setIgnoringComments(true);
-            factory.setIgnoringElementContentWhitespace(true);
-            factory.setExpandEntityReferences(false);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            builder.setEntityResolver(entityResolver);
-            InputSource inputSource = new InputSource(inputStream);
-            inputSource.setSystemId(xmlPath);
-            inputSource.setEncoding("UTF-8");
-            doc = builder.parse(inputSource);
-        } catch (SAXException e) {
+            Document doc = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder().newDocument();
+            reader = factory.createXMLStreamReader(inputStream, "UTF-8");
+            buildMap(reader, doc);
+        } catch (XMLStreamException e) {
             e.printStackTrace();
             throw new Exception("Error while parsing map file: " +
                     e.toString());
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
         }
 
-        buildMap(doc);
         return map;
     }
 
@@ -869,6 +1096,25 @@ public class XMLMapReader implements MapReader {
         return unmarshalTilesetFile(in, ".");
     }
 
+    /**
+     * Loads a tileset from a stream, with the paths of the files it refers
+     * to resolved relative to the given file. Used to read tilesets that
+     * are embedded in files of other formats, so the returned tileset has
+     * no source.
+     *
+     * @param in       the stream to read the tileset from
+     * @param filename the file the paths are relative to
+     * @return the tileset, or <code>null</code> when it could not be parsed
+     * @throws Exception
+     */
+    public TileSet readTileset(InputStream in, String filename) throws Exception {
+        TileSet set = unmarshalTilesetFile(in, filename);
+        if (set != null) {
+            set.setSource(null);
+        }
+        return set;
+    }
+
     /**
      * @see tiled.io.PluggableMapIO#getFilter()
      */
@@ -911,12 +1157,65 @@ public class XMLMapReader implements MapReader {
         this.logger = logger;
     }
 
-    private class MapEntityResolver implements EntityResolver {
-        public InputSource resolveEntity(String publicId, String systemId) {
-            if (systemId.equals("http://mapeditor.org/dtd/1.0/map.dtd")) {
-                return new InputSource(Resources.getClassLoader().getResourceAsStream("map.dtd"));
+    /**
+     * A layer read from the map file whose data may still be decoded by a
+     * task. Since the layer data is stored relative to the origin of the
+     * layer, its offset is only applied once the task is done.
+     */
+    private class PendingLayer {
+        final MapLayer layer;
+        ForkJoinTask<Boolean> decoder;
+        boolean tileLayer;
+        int offsetX, offsetY;
+        boolean visible;
+        float viewPlaneDistance;
+        boolean viewPlaneInfinitelyFarAway;
+
+        PendingLayer(MapLayer layer) {
+            this.layer = layer;
+        }
+
+        PendingLayer(GidTileLayer layer) {
+            this((MapLayer) layer);
+            tileLayer = true;
+        }
+
+        MapLayer finish() {
+            if (decoder != null && !decoder.join()) {
+                logger.warn("layer <data> tag ended before all tiles were read.");
             }
-            return null;
+            if (!tileLayer) {
+                return layer;
+            }
+
+            // This is done at the end, otherwise the offset is applied during
+            // the loading of the tiles.
+            layer.setOffset(offsetX, offsetY);
+
+            // Invisible layers are automatically locked, so it is important to
+            // set the layer to potentially invisible _after_ the layer data is
+            // loaded.
+            // todo: Shouldn't this be just a user interface feature, rather than
+            // todo: something to keep in mind at this level?
+            layer.setVisible(visible);
+
+            layer.setViewPlaneDistance(viewPlaneDistance);
+            layer.setViewPlaneInfinitelyFarAway(viewPlaneInfinitelyFarAway);
+            return layer;
+        }
+    }
+
+    /**
+     * Collects the compressed data of a layer, and lets it be read back
+     * without first copying it into an array of its own.
+     */
+    private static class CompressedData extends ByteArrayOutputStream {
+        CompressedData() {
+            super(8192);
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
         }
     }
 }
@@ -19,20 +19,51 @@ import tiled.io.MapWriter;
 import tiled.io.PluginLogger;
 import tiled.mapeditor.selection.SelectionLayer;
 import tiled.util.Base64;
+import tiled.util.Base64OutputStream;
 import tiled.util.TiledConfiguration;
 
 import java.awt.*;
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.prefs.Preferences;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * A writer for Tiled's TMX map format.
+ * <p>
+ * The encoded data of tile layers and embedded images is kept after a map
+ * has been written, so that saving a map again only needs to encode the
+ * layers and images that changed in the meantime. Layer data is looked up
+ * by the modification stamp of the layer, which makes it available to
+ * clones of the layer as well, such as those in a map snapshot. The least
+ * recently used layer data is dropped when it exceeds the
+ * "layerDataCacheMemory" saving preference, given in kilobytes. Files are written to a
+ * temporary file first, which then replaces the target file, so that a
+ * failed save never leaves a partially written file behind.
  */
 public class XMLMapWriter implements MapWriter {
     private static final int LAST_BYTE = 0x000000FF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_LAYER_DATA_MEMORY = 32 * 1024;
+
+    /**
+     * The base64 encoded data last written for tile layers, by modification
+     * stamp and format.
+     */
+    private static final LinkedHashMap<String, EncodedData> encodedLayers =
+            new LinkedHashMap<String, EncodedData>(16, 0.75f, true);
+    private static long encodedLayersMemory;
+
+    /**
+     * The base64 encoded data last written for each embedded image.
+     */
+    private static final WeakHashMap<Image, EncodedData> encodedImages =
+            new WeakHashMap<Image, EncodedData>();
 
     private Preferences prefs = TiledConfiguration.node("saving");
 
@@ -200,26 +231,40 @@ public class XMLMapWriter implements MapWriter {
      * @param filename the filename of the map file
      */
     public void writeMap(Map map, String filename) throws Exception {
-        OutputStream os = new FileOutputStream(filename);
+        final File file = new File(filename);
+        final File temp = getTempFile(file);
+        final FileOutputStream fos = new FileOutputStream(temp);
+        OutputStream os = new BufferedOutputStream(fos, BUFFER_SIZE);
 
-        if (filename.endsWith(".tmx.gz")) {
-            os = new GZIPOutputStream(os);
-        }
+        boolean written = false;
+        try {
+            if (filename.endsWith(".tmx.gz")) {
+                os = new GZIPOutputStream(os, BUFFER_SIZE);
+            }
 
-        Writer writer = new OutputStreamWriter(os, Charset.forName("UTF-8"));
-        XMLWriter xmlWriter = new XMLWriter(writer);
+            Writer writer = createWriter(os);
+            XMLWriter xmlWriter = new XMLWriter(writer);
 
-        xmlWriter.startDocument();
-        writeMap(map, xmlWriter, filename);
-        xmlWriter.endDocument();
+            xmlWriter.startDocument();
+            writeMap(map, xmlWriter, filename);
+            xmlWriter.endDocument();
 
-        writer.flush();
+            writer.flush();
 
-        if (os instanceof GZIPOutputStream) {
-            ((GZIPOutputStream) os).finish();
+            if (os instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) os).finish();
+            }
+            os.flush();
+            fos.getChannel().force(true);
+            os.close();
+            replaceFile(temp, file);
+            written = true;
+        } finally {
+            if (!written) {
+                os.close();
+                temp.delete();
+            }
         }
-
-        os.close();
     }
 
     /**
@@ -228,19 +273,61 @@ public class XMLMapWriter implements MapWriter {
      * @param filename the filename of the tileset file
      */
     public void writeTileset(TileSet set, String filename) throws Exception {
-        OutputStream os = new FileOutputStream(filename);
-        Writer writer = new OutputStreamWriter(os, Charset.forName("UTF-8"));
-        XMLWriter xmlWriter = new XMLWriter(writer);
+        final File file = new File(filename);
+        final File temp = getTempFile(file);
+        final FileOutputStream os = new FileOutputStream(temp);
 
-        xmlWriter.startDocument();
-        writeTileset(set, xmlWriter, filename);
-        xmlWriter.endDocument();
+        boolean written = false;
+        try {
+            Writer writer = createWriter(os);
+            XMLWriter xmlWriter = new XMLWriter(writer);
+
+            xmlWriter.startDocument();
+            writeTileset(set, xmlWriter, filename);
+            xmlWriter.endDocument();
+
+            writer.flush();
+            os.getChannel().force(true);
+            os.close();
+            replaceFile(temp, file);
+            written = true;
+        } finally {
+            if (!written) {
+                os.close();
+                temp.delete();
+            }
+        }
+    }
 
-        writer.flush();
+    /**
+     * Returns the temporary file a file is written to before it replaces
+     * the file itself. It is placed in the same directory, so that it can
+     * be renamed to the target file.
+     */
+    private static File getTempFile(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(),
+                "." + file.getName() + ".tmp");
+    }
+
+    /**
+     * Replaces the target file by the given temporary file, atomically when
+     * the file system supports it. The temporary file must have been forced
+     * to the disk, so that a crash right after the move can not leave the
+     * target file incomplete.
+     */
+    private static void replaceFile(File temp, File file) throws IOException {
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
     public void writeMap(Map map, OutputStream out) throws Exception {
-        Writer writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+        Writer writer = createWriter(out);
         XMLWriter xmlWriter = new XMLWriter(writer);
 
         xmlWriter.startDocument();
@@ -251,16 +338,42 @@ public class XMLMapWriter implements MapWriter {
     }
 
     public void writeTileset(TileSet set, OutputStream out) throws Exception {
-        Writer writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+        writeTileset(set, out, "/.");
+    }
+
+    /**
+     * Writes a tileset to a stream, with the paths of the files it refers
+     * to made relative to the given file. Used to embed tilesets in files
+     * of other formats.
+     *
+     * @param set      the tileset to write
+     * @param out      the stream to write to
+     * @param filename the file the paths are made relative to
+     */
+    public void writeTileset(TileSet set, OutputStream out, String filename)
+            throws Exception {
+        Writer writer = createWriter(out);
         XMLWriter xmlWriter = new XMLWriter(writer);
 
         xmlWriter.startDocument();
-        writeTileset(set, xmlWriter, "/.");
+        writeTileset(set, xmlWriter, filename);
         xmlWriter.endDocument();
 
         writer.flush();
     }
 
+    /**
+     * Creates a buffered UTF-8 writer for the given stream. The buffer
+     * collects the many small writes made by {@link XMLWriter}, so that the
+     * character encoder and the stream are only called for large blocks.
+     */
+    private static Writer createWriter(OutputStream out) {
+        return new BufferedWriter(
+                new OutputStreamWriter(out, Charset.forName("UTF-8")),
+                BUFFER_SIZE);
+    }
+
+
     private void writeMap(Map map, XMLWriter w, String wp) throws IOException {
         w.writeDocType("map", null, "http://mapeditor.org/dtd/1.0/map.dtd");
         w.startElement("map");
@@ -293,11 +406,8 @@ public class XMLMapWriter implements MapWriter {
 
         writeProperties(map.getProperties(), w);
 
-        int firstgid = 1;
         for (TileSet tileset : map.getTilesets()) {
-            tileset.setFirstGid(firstgid);
             writeTilesetReference(tileset, w, wp);
-            firstgid += tileset.getMaxTileId() + 1;
         }
 
         if (prefs.getBoolean("encodeLayerData", true) && prefs.getBoolean("usefulComments", false))
@@ -356,12 +466,26 @@ public class XMLMapWriter implements MapWriter {
 
         w.writeAttribute("format", imageFormat.toString().toLowerCase());
 
+        // Images are only encoded again when they or the format changed
+        final String format = imageFormat + " " + pixelFormat + " " + imageIsBigEndian;
+        EncodedData encoded;
+        synchronized (encodedImages) {
+            encoded = encodedImages.get(image);
+        }
+        if (encoded != null && !encoded.format.equals(format)) {
+            encoded = null;
+        }
+
         switch (imageFormat) {
             default:
             case PNG:
+                if (encoded == null) {
+                    encoded = new EncodedData(0, format, new String(
+                            Base64.encode(ImageHelper.imageToPNG(image))));
+                }
                 w.startElement("data");
                 w.writeAttribute("encoding", "base64");
-                w.writeCDATA(new String(Base64.encode(ImageHelper.imageToPNG(image))));
+                w.writeCDATA(encoded.text);
                 w.endElement();
                 break;
             case RAW:
@@ -369,13 +493,21 @@ public class XMLMapWriter implements MapWriter {
                 w.writeAttribute("byteOrder", imageIsBigEndian ? "bigEndian" : "littleEndian");
                 w.writeAttribute("width", ImageHelper.getImageWidth(image));
                 w.writeAttribute("height", ImageHelper.getImageHeight(image));
+                if (encoded == null) {
+                    encoded = new EncodedData(0, format, new String(
+                            Base64.encode(ImageHelper.imageToRAW(image, pixelFormat, imageIsBigEndian))));
+                }
                 w.startElement("data");
                 w.writeAttribute("encoding", "base64");
-                w.writeCDATA(new String(Base64.encode(ImageHelper.imageToRAW(image, pixelFormat, imageIsBigEndian))));
+                w.writeCDATA(encoded.text);
                 w.endElement();
                 break;
         }
         w.endElement();
+
+        synchronized (encodedImages) {
+            encodedImages.put(image, encoded);
+        }
     }
 
     private void writeTileset(TileSet set, XMLWriter w, String wp)
@@ -543,95 +675,182 @@ public class XMLMapWriter implements MapWriter {
             w.writeAttribute("opacity", l.getOpacity());
         }
 
+        if (l instanceof TileLayer) {
+            // Attributes need to be written before any child elements
+            final TileLayer tl = (TileLayer) l;
+            w.writeAttribute("tileWidth", tl.getTileWidth());
+            w.writeAttribute("tileHeight", tl.getTileHeight());
+        }
+
         writeProperties(l.getProperties(), w);
 
         if (l instanceof ObjectGroup) {
             writeObjectGroup((ObjectGroup) l, w, wp);
         } else if (l instanceof TileLayer) {
             final TileLayer tl = (TileLayer) l;
-            w.writeAttribute("tileWidth", tl.getTileWidth());
-            w.writeAttribute("tileHeight", tl.getTileHeight());
             w.startElement("data");
+            final int[] row = new int[bounds.width];
             if (encodeLayerData) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                OutputStream out;
-
                 w.writeAttribute("encoding", "base64");
-
                 if (compressLayerData) {
                     w.writeAttribute("compression", "gzip");
-                    out = new GZIPOutputStream(baos);
-                } else {
-                    out = baos;
                 }
 
-                for (int y = 0; y < l.getHeight(); y++) {
-                    for (int x = 0; x < l.getWidth(); x++) {
-                        Tile tile = tl.getTileAt(x + bounds.x,
-                                y + bounds.y);
-                        int gid = 0;
-
-                        if (tile != null) {
-                            gid = tile.getGid();
-                        }
-
-                        out.write(gid & LAST_BYTE);
-                        out.write(gid >> 8 & LAST_BYTE);
-                        out.write(gid >> 16 & LAST_BYTE);
-                        out.write(gid >> 24 & LAST_BYTE);
+                final String format = compressLayerData ? "gzip" : "";
+                final long stamp = tl.getModificationStamp();
+                EncodedData encoded = null;
+                if (stamp != -1) {
+                    synchronized (encodedLayers) {
+                        encoded = encodedLayers.get(stamp + format);
                     }
                 }
-
-                if (compressLayerData) {
-                    ((GZIPOutputStream) out).finish();
+                if (encoded != null) {
+                    // The layer did not change since it was last written
+                    w.startCDATA().write(encoded.text);
+                    w.endCDATA();
+                } else {
+                    writeLayerData(tl, w, compressLayerData, stamp, format);
                 }
-
-                w.writeCDATA(new String(Base64.encode(baos.toByteArray())));
             } else {
                 for (int y = 0; y < l.getHeight(); y++) {
-                    for (int x = 0; x < l.getWidth(); x++) {
-                        Tile tile = tl.getTileAt(x + bounds.x, y + bounds.y);
-                        int gid = 0;
-
-                        if (tile != null) {
-                            gid = tile.getGid();
-                        }
-
+                    getGidRow(tl, bounds.x, y + bounds.y, row);
+                    for (int x = 0; x < row.length; x++) {
                         w.startElement("tile");
-                        w.writeAttribute("gid", gid);
+                        w.writeAttribute("gid", row[x]);
                         w.endElement();
                     }
                 }
             }
             w.endElement();
 
-            boolean tilePropertiesElementStarted = false;
+            writeTileInstanceProperties(tl, w);
+        }
+        w.endElement();
+    }
 
-            for (int y = 0; y < l.getHeight(); y++) {
-                for (int x = 0; x < l.getWidth(); x++) {
-                    Properties tip = tl.getTileInstancePropertiesAt(x, y);
+    /**
+     * Writes the global ids of a tile layer as base64 encoded, optionally
+     * compressed data. The gids are compressed and encoded row by row,
+     * straight into the output. A copy of the encoded text is kept for
+     * layers that keep track of their changes, to be reused when the layer
+     * is saved again unchanged.
+     */
+    private void writeLayerData(TileLayer tl, XMLWriter w,
+                                       boolean compressLayerData,
+                                       long stamp, String format)
+            throws IOException {
+        final Rectangle bounds = tl.getBounds();
+        final int[] row = new int[bounds.width];
+        Writer target = w.startCDATA();
+        StringWriter copy = null;
+        if (stamp != -1) {
+            copy = new StringWriter();
+            target = new CopyingWriter(target, copy);
+        }
+        Base64OutputStream base64 = new Base64OutputStream(target);
+        OutputStream out = base64;
+        if (compressLayerData) {
+            out = new GZIPOutputStream(base64, BUFFER_SIZE);
+        }
 
-                    if (tip != null && !tip.isEmpty()) {
-                        if (!tilePropertiesElementStarted) {
-                            w.startElement("tileproperties");
-                            tilePropertiesElementStarted = true;
-                        }
-                        w.startElement("tile");
+        final byte[] rowBytes = new byte[bounds.width * 4];
+        for (int y = 0; y < bounds.height; y++) {
+            getGidRow(tl, bounds.x, y + bounds.y, row);
+            for (int x = 0; x < row.length; x++) {
+                int gid = row[x];
 
-                        w.writeAttribute("x", x);
-                        w.writeAttribute("y", y);
+                rowBytes[x * 4] = (byte) (gid & LAST_BYTE);
+                rowBytes[x * 4 + 1] = (byte) (gid >> 8 & LAST_BYTE);
+                rowBytes[x * 4 + 2] = (byte) (gid >> 16 & LAST_BYTE);
+                rowBytes[x * 4 + 3] = (byte) (gid >> 24 & LAST_BYTE);
+            }
+            out.write(rowBytes);
+        }
 
-                        writeProperties(tip, w);
+        // Closes the base64 stream but not the underlying writer
+        out.close();
+        w.endCDATA();
 
-                        w.endElement();
+        if (copy != null) {
+            storeLayerData(new EncodedData(stamp, format, copy.toString()));
+        }
+    }
+
+    private void storeLayerData(EncodedData encoded) {
+        final long limit = 1024L *
+                prefs.getInt("layerDataCacheMemory", DEFAULT_LAYER_DATA_MEMORY);
+        final long size = 2L * encoded.text.length();
+        if (size > limit) {
+            return;
+        }
+
+        synchronized (encodedLayers) {
+            EncodedData old = encodedLayers.put(encoded.stamp + encoded.format, encoded);
+            if (old != null) {
+                encodedLayersMemory -= 2L * old.text.length();
+            }
+            encodedLayersMemory += size;
+
+            Iterator<EncodedData> it = encodedLayers.values().iterator();
+            while (encodedLayersMemory > limit && it.hasNext()) {
+                EncodedData evicted = it.next();
+                if (evicted == encoded) {
+                    break;
+                }
+                encodedLayersMemory -= 2L * evicted.text.length();
+                it.remove();
+            }
+        }
+    }
+
+    private static void writeTileInstanceProperties(TileLayer tl, XMLWriter w)
+            throws IOException {
+        if (!tl.hasTileInstanceProperties()) {
+            return;
+        }
+
+        boolean tilePropertiesElementStarted = false;
+
+        for (int y = 0; y < tl.getHeight(); y++) {
+            for (int x = 0; x < tl.getWidth(); x++) {
+                Properties tip = tl.getTileInstancePropertiesAt(x, y);
+
+                if (tip != null && !tip.isEmpty()) {
+                    if (!tilePropertiesElementStarted) {
+                        w.startElement("tileproperties");
+                        tilePropertiesElementStarted = true;
                     }
+                    w.startElement("tile");
+
+                    w.writeAttribute("x", x);
+                    w.writeAttribute("y", y);
+
+                    writeProperties(tip, w);
+
+                    w.endElement();
                 }
             }
+        }
 
-            if (tilePropertiesElementStarted)
-                w.endElement();
+        if (tilePropertiesElementStarted)
+            w.endElement();
+    }
+
+    /**
+     * Reads a row of global tile ids from the given layer. Layers that store
+     * global ids are read directly, without resolving the tiles, and empty
+     * chunks of a {@link ChunkedTileLayer} are skipped.
+     */
+    private static void getGidRow(TileLayer tl, int x, int y, int[] row) {
+        if (tl instanceof GidTileLayer) {
+            ((GidTileLayer) tl).getGidRow(x, y, row);
+            return;
+        }
+
+        for (int i = 0; i < row.length; i++) {
+            Tile tile = tl.getTileAt(x + i, y);
+            row[i] = tile != null ? tile.getGid() : 0;
         }
-        w.endElement();
     }
 
     /**
@@ -728,4 +947,47 @@ public class XMLMapWriter implements MapWriter {
 
     public void setLogger(PluginLogger logger) {
     }
+
+    /**
+     * Encoded data as it was last written, along with the modification
+     * stamp of its source and the format it was encoded in.
+     */
+    private static class EncodedData {
+        final long stamp;
+        final String format;
+        final String text;
+
+        EncodedData(long stamp, String format, String text) {
+            this.stamp = stamp;
+            this.format = format;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Passes the characters written to it on to a writer, while keeping a
+     * copy of them in another.
+     */
+    private static class CopyingWriter extends Writer {
+        private final Writer out;
+        private final Writer copy;
+
+        CopyingWriter(Writer out, Writer copy) {
+            this.out = out;
+            this.copy = copy;
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            copy.write(cbuf, off, len);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public void close() {
+            // The underlying writer is left open
+        }
+    }
 }
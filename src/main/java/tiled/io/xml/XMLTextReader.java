@@ -0,0 +1,98 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.xml;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the character content of the current element of a
+ * {@link XMLStreamReader} piece by piece, copying it straight out of the
+ * parser's buffer instead of building a string for it. Nested elements are
+ * skipped. The stream reader is left at the end tag of the element.
+ *
+ * @version $Id$
+ */
+class XMLTextReader extends Reader {
+    private final XMLStreamReader reader;
+    private int depth;
+    private int textPos;
+    private boolean inText;
+    private boolean done;
+
+    /**
+     * @param reader a stream reader positioned at a start tag
+     */
+    XMLTextReader(XMLStreamReader reader) {
+        this.reader = reader;
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        try {
+            while (!done) {
+                if (inText && textPos < reader.getTextLength()) {
+                    final int n = reader.getTextCharacters(textPos, cbuf, off,
+                            Math.min(len, reader.getTextLength() - textPos));
+                    textPos += n;
+                    return n;
+                }
+                inText = false;
+                advance();
+            }
+            return -1;
+        } catch (XMLStreamException e) {
+            IOException ioe = new IOException(e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Skips any remaining content, leaving the stream reader at the end tag
+     * of the element.
+     */
+    void skipToEnd() throws XMLStreamException {
+        while (!done) {
+            advance();
+        }
+    }
+
+    private void advance() throws XMLStreamException {
+        switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (depth-- == 0) {
+                    done = true;
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+                if (depth == 0) {
+                    inText = true;
+                    textPos = 0;
+                }
+                break;
+            case XMLStreamConstants.END_DOCUMENT:
+                done = true;
+                break;
+        }
+    }
+
+    public void close() {
+    }
+}
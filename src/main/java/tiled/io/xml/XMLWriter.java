@@ -53,8 +53,10 @@ public class XMLWriter {
     }
 
     public void startDocument(String version) throws IOException {
-        w.write("<?xml version=\"" + version + "\" encoding=\"UTF-8\"?>"
-                + newLine);
+        w.write("<?xml version=\"");
+        w.write(version);
+        w.write("\" encoding=\"UTF-8\"?>");
+        w.write(newLine);
         bDocumentOpen = true;
     }
 
@@ -68,18 +70,27 @@ public class XMLWriter {
                     "Can't write DocType, open elements exist.");
         }
 
-        w.write("<!DOCTYPE " + name + " ");
+        w.write("<!DOCTYPE ");
+        w.write(name);
+        w.write(' ');
 
         if (pubId != null) {
-            w.write("PUBLIC \"" + pubId + "\"");
+            w.write("PUBLIC \"");
+            w.write(pubId);
+            w.write('"');
             if (sysId != null) {
-                w.write(" \"" + sysId + "\"");
+                w.write(" \"");
+                w.write(sysId);
+                w.write('"');
             }
         } else if (sysId != null) {
-            w.write("SYSTEM \"" + sysId + "\"");
+            w.write("SYSTEM \"");
+            w.write(sysId);
+            w.write('"');
         }
 
-        w.write(">" + newLine);
+        w.write('>');
+        w.write(newLine);
     }
 
     public void startElement(String name)
@@ -90,11 +101,13 @@ public class XMLWriter {
         }
 
         if (bStartTagOpen) {
-            w.write(">" + newLine);
+            w.write('>');
+            w.write(newLine);
         }
 
         writeIndent();
-        w.write("<" + name);
+        w.write('<');
+        w.write(name);
 
         openElements.push(name);
         bStartTagOpen = true;
@@ -115,11 +128,15 @@ public class XMLWriter {
 
         // If start tag still open, end with />, else with </name>.
         if (bStartTagOpen) {
-            w.write("/>" + newLine);
+            w.write("/>");
+            w.write(newLine);
             bStartTagOpen = false;
         } else {
             writeIndent();
-            w.write("</" + name + ">" + newLine);
+            w.write("</");
+            w.write(name);
+            w.write('>');
+            w.write(newLine);
         }
 
         // Set document closed when last element is closed
@@ -132,9 +149,13 @@ public class XMLWriter {
     public void writeAttribute(String name, String content)
             throws IOException, XMLWriterException {
         if (bStartTagOpen) {
-            String escapedContent = (content != null) ?
-                    content.replaceAll("\"", "&quot;") : "";
-            w.write(" " + name + "=\"" + escapedContent + "\"");
+            w.write(' ');
+            w.write(name);
+            w.write("=\"");
+            if (content != null) {
+                writeEscaped(content);
+            }
+            w.write('"');
         } else {
             throw new XMLWriterException(
                     "Can't write attribute without open start tag.");
@@ -157,23 +178,52 @@ public class XMLWriter {
     }
 
     public void writeCDATA(String content) throws IOException {
+        startCDATA().write(content);
+        endCDATA();
+    }
+
+    /**
+     * Starts writing character data to the current element, returning the
+     * writer the data should be written to. This allows large amounts of
+     * data to be written without first building a string holding all of
+     * it. No other methods of this writer may be called until the data is
+     * ended with {@link #endCDATA()}.
+     *
+     * @return the underlying writer
+     * @throws IOException when an io error occurs
+     */
+    public Writer startCDATA() throws IOException {
         if (bStartTagOpen) {
-            w.write(">" + newLine);
+            w.write('>');
+            w.write(newLine);
             bStartTagOpen = false;
         }
 
         writeIndent();
-        w.write(content + newLine);
+        return w;
+    }
+
+    /**
+     * Ends character data started with {@link #startCDATA()}.
+     *
+     * @throws IOException when an io error occurs
+     */
+    public void endCDATA() throws IOException {
+        w.write(newLine);
     }
 
     public void writeComment(String content) throws IOException {
         if (bStartTagOpen) {
-            w.write(">" + newLine);
+            w.write('>');
+            w.write(newLine);
             bStartTagOpen = false;
         }
 
         writeIndent();
-        w.write("<!-- " + content + " -->" + newLine);
+        w.write("<!-- ");
+        w.write(content);
+        w.write(" -->");
+        w.write(newLine);
     }
 
     public void writeElement(String name, String content)
@@ -184,6 +234,21 @@ public class XMLWriter {
     }
 
 
+    /**
+     * Writes an attribute value, replacing quotes by entity references.
+     */
+    private void writeEscaped(String content) throws IOException {
+        int start = 0;
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '"') {
+                w.write(content, start, i - start);
+                w.write("&quot;");
+                start = i + 1;
+            }
+        }
+        w.write(content, start, content.length() - start);
+    }
+
     private void writeIndent() throws IOException {
         if (bIndent) {
             for (int i = 0; i < openElements.size(); i++) {
@@ -0,0 +1,224 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.zx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * The compression schemes available for exported ZX screens. All of them
+ * are byte oriented and decompress without any tables, so that a Z80
+ * decoder fits in a few dozen bytes. The decompressed length is known to
+ * the decoder, so there are no end markers.
+ * <p>
+ * The {@link #decompress(byte[], int)} methods are the reference decoders
+ * the engine side should match.
+ *
+ * @version $Id$
+ */
+public enum ZXCompression {
+    /**
+     * The screen data as it is.
+     */
+    NONE(0) {
+        public byte[] compress(byte[] data) {
+            return data.clone();
+        }
+
+        public byte[] decompress(byte[] data, int length) throws IOException {
+            if (data.length != length) {
+                throw new IOException("Expected " + length + " bytes");
+            }
+            return data.clone();
+        }
+    },
+
+    /**
+     * Run-length encoding. A control byte <code>n</code> with bit 7 clear
+     * is followed by <code>n + 1</code> literal bytes, one with bit 7 set
+     * by a single byte to repeat <code>(n &amp; 0x7f) + 3</code> times.
+     */
+    RLE(1) {
+        public byte[] compress(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            int literalStart = 0;
+            int i = 0;
+            while (i < data.length) {
+                int run = 1;
+                while (i + run < data.length && run < MAX_RUN &&
+                        data[i + run] == data[i]) {
+                    run++;
+                }
+                if (run >= MIN_RUN) {
+                    writeLiterals(out, data, literalStart, i);
+                    out.write(0x80 | (run - MIN_RUN));
+                    out.write(data[i]);
+                    i += run;
+                    literalStart = i;
+                } else {
+                    i++;
+                }
+            }
+            writeLiterals(out, data, literalStart, data.length);
+            return out.toByteArray();
+        }
+
+        public byte[] decompress(byte[] data, int length) throws IOException {
+            final byte[] out = new byte[length];
+            int in = 0;
+            int o = 0;
+            try {
+                while (o < length) {
+                    final int control = data[in++] & 0xff;
+                    if (control < 0x80) {
+                        final int count = control + 1;
+                        System.arraycopy(data, in, out, o, count);
+                        in += count;
+                        o += count;
+                    } else {
+                        final int count = (control & 0x7f) + MIN_RUN;
+                        final byte value = data[in++];
+                        for (int end = o + count; o < end; o++) {
+                            out[o] = value;
+                        }
+                    }
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt RLE data");
+            }
+            return out;
+        }
+    },
+
+    /**
+     * LZ77 with a 256 byte window. A control byte <code>n</code> with bit
+     * 7 clear is followed by <code>n + 1</code> literal bytes, one with bit
+     * 7 set by an offset byte <code>d</code>, and copies
+     * <code>(n &amp; 0x7f) + 3</code> bytes from <code>d + 1</code> bytes
+     * back. The copy may overlap the bytes it produces, which makes it a
+     * run when the offset is 1, so it can be done with a single LDIR.
+     */
+    LZ(2) {
+        public byte[] compress(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            int literalStart = 0;
+            int i = 0;
+            while (i < data.length) {
+                int bestLength = 0;
+                int bestOffset = 0;
+                final int maxLength = Math.min(MAX_RUN, data.length - i);
+                for (int from = Math.max(0, i - WINDOW); from < i; from++) {
+                    int length = 0;
+                    while (length < maxLength &&
+                            data[from + length] == data[i + length]) {
+                        length++;
+                    }
+                    // Prefer the nearest match among equally long ones
+                    if (length >= bestLength) {
+                        bestLength = length;
+                        bestOffset = i - from;
+                    }
+                }
+
+                if (bestLength >= MIN_RUN) {
+                    writeLiterals(out, data, literalStart, i);
+                    out.write(0x80 | (bestLength - MIN_RUN));
+                    out.write(bestOffset - 1);
+                    i += bestLength;
+                    literalStart = i;
+                } else {
+                    i++;
+                }
+            }
+            writeLiterals(out, data, literalStart, data.length);
+            return out.toByteArray();
+        }
+
+        public byte[] decompress(byte[] data, int length) throws IOException {
+            final byte[] out = new byte[length];
+            int in = 0;
+            int o = 0;
+            try {
+                while (o < length) {
+                    final int control = data[in++] & 0xff;
+                    if (control < 0x80) {
+                        final int count = control + 1;
+                        System.arraycopy(data, in, out, o, count);
+                        in += count;
+                        o += count;
+                    } else {
+                        final int count = (control & 0x7f) + MIN_RUN;
+                        int from = o - (data[in++] & 0xff) - 1;
+                        for (int end = o + count; o < end; o++) {
+                            out[o] = out[from++];
+                        }
+                    }
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt LZ data");
+            }
+            return out;
+        }
+    };
+
+    private static final int MIN_RUN = 3;
+    private static final int MAX_RUN = 0x7f + MIN_RUN;
+    private static final int MAX_LITERALS = 0x80;
+    private static final int WINDOW = 256;
+
+    private final int id;
+
+    ZXCompression(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the number identifying this scheme in exported files.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Compresses a block of data.
+     *
+     * @param data the data to compress
+     * @return the compressed data
+     */
+    public abstract byte[] compress(byte[] data);
+
+    /**
+     * Decompresses a block of data compressed with this scheme.
+     *
+     * @param data   the compressed data
+     * @param length the length of the data before compression
+     * @return the decompressed data
+     * @throws IOException when the data is not valid for this scheme
+     */
+    public abstract byte[] decompress(byte[] data, int length)
+            throws IOException;
+
+    /**
+     * Writes a range of bytes as literal runs of at most
+     * {@link #MAX_LITERALS} bytes.
+     */
+    private static void writeLiterals(ByteArrayOutputStream out, byte[] data,
+                                      int start, int end) {
+        while (start < end) {
+            final int count = Math.min(MAX_LITERALS, end - start);
+            out.write(count - 1);
+            out.write(data, start, count);
+            start += count;
+        }
+    }
+}
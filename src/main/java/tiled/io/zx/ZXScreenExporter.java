@@ -0,0 +1,236 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.zx;
+
+import tiled.core.*;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Exports the tile layers of a map as ZX Spectrum screens, ready to be
+ * included by a game engine. The map is cut into screens of
+ * {@link ZXScreen#getWidth()} by {@link ZXScreen#getHeight()} tiles, left
+ * to right and top to bottom, with the screens at the right and bottom
+ * edges padded with empty tiles.
+ * <p>
+ * The data of a screen holds the tile indices of each tile layer in turn,
+ * row by row. A tile index is the global id of the tile, 0 meaning no
+ * tile, stored in a byte when all ids fit and in a little-endian word
+ * otherwise. Every screen is compressed on its own, so that the engine can
+ * unpack any screen directly. The screens are compressed in parallel.
+ * <p>
+ * The exported file consists of:
+ * <ul>
+ * <li>the number of screens across and down, the number of layers and the
+ * flags, a byte each. Bits 0-1 of the flags hold the
+ * {@link ZXCompression#getId() compression scheme}, bit 7 is set for word
+ * sized tile indices.</li>
+ * <li>the length of a decompressed screen, as a word</li>
+ * <li>the offset table: for each screen the offset of its data from the
+ * end of the table, followed by the offset of the end of the data, as
+ * words. The compressed size of a screen is the difference between its
+ * offset and the next one.</li>
+ * <li>the compressed screens</li>
+ * </ul>
+ *
+ * @version $Id$
+ */
+public class ZXScreenExporter {
+    private final ZXCompression compression;
+
+    private int screensAcross;
+    private int screensDown;
+    private int screenLength;
+    private int[] compressedSizes;
+
+    /**
+     * @param compression the scheme to compress the screens with
+     */
+    public ZXScreenExporter(ZXCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Exports the screens of a map to a file.
+     *
+     * @param map      the map to export
+     * @param filename the file to write to
+     * @throws IOException when the file can not be written, or the map
+     *                     does not fit the limits of the format
+     */
+    public void export(Map map, String filename) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(filename));
+        try {
+            export(map, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Exports the screens of a map to a stream.
+     *
+     * @param map the map to export
+     * @param out the stream to write to
+     * @throws IOException when the stream can not be written to, or the
+     *                     map does not fit the limits of the format
+     */
+    public void export(Map map, OutputStream out) throws IOException {
+        final List<TileLayer> layers = new ArrayList<TileLayer>();
+        Iterator<MapLayer> it = map.getLayers();
+        while (it.hasNext()) {
+            MapLayer layer = it.next();
+            if (layer instanceof TileLayer) {
+                layers.add((TileLayer) layer);
+            }
+        }
+
+        map.assignTilesetFirstGids();
+        int maxGid = 0;
+        for (TileSet set : map.getTilesets()) {
+            maxGid = Math.max(maxGid, set.getFirstGid() + set.getMaxTileId());
+        }
+        final boolean wordIndices = maxGid > 0xff;
+
+        screensAcross = (map.getWidth() + ZXScreen.getWidth() - 1) / ZXScreen.getWidth();
+        screensDown = (map.getHeight() + ZXScreen.getHeight() - 1) / ZXScreen.getHeight();
+        screenLength = layers.size() * ZXScreen.getWidth() * ZXScreen.getHeight() *
+                (wordIndices ? 2 : 1);
+        if (screensAcross > 0xff || screensDown > 0xff || layers.size() > 0xff) {
+            throw new IOException("The map has too many screens or layers");
+        }
+        if (screenLength > 0xffff) {
+            throw new IOException("A screen holds more than 64K of data");
+        }
+
+        // One task per screen, each reading its part of the layers
+        final int screens = screensAcross * screensDown;
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<ForkJoinTask<byte[]>>(screens);
+        for (int s = 0; s < screens; s++) {
+            final int sx = s % screensAcross;
+            final int sy = s / screensAcross;
+            tasks.add(ForkJoinPool.commonPool().submit(new Callable<byte[]>() {
+                public byte[] call() {
+                    return compression.compress(
+                            getScreen(layers, sx, sy, wordIndices));
+                }
+            }));
+        }
+
+        final byte[][] data = new byte[screens][];
+        compressedSizes = new int[screens];
+        int offset = 0;
+        final int[] offsets = new int[screens + 1];
+        for (int s = 0; s < screens; s++) {
+            data[s] = tasks.get(s).join();
+            compressedSizes[s] = data[s].length;
+            offsets[s] = offset;
+            offset += data[s].length;
+        }
+        offsets[screens] = offset;
+        if (offset > 0xffff) {
+            throw new IOException("The compressed screens take more than 64K");
+        }
+
+        out.write(screensAcross);
+        out.write(screensDown);
+        out.write(layers.size());
+        out.write(compression.getId() | (wordIndices ? 0x80 : 0));
+        writeWord(out, screenLength);
+        for (int o : offsets) {
+            writeWord(out, o);
+        }
+        for (byte[] screen : data) {
+            out.write(screen);
+        }
+    }
+
+    /**
+     * Collects the tile indices of a screen, for each layer in turn.
+     */
+    private static byte[] getScreen(List<TileLayer> layers, int sx, int sy,
+                                    boolean wordIndices) {
+        final int width = ZXScreen.getWidth();
+        final int height = ZXScreen.getHeight();
+        final int x0 = sx * width;
+        final int y0 = sy * height;
+        final byte[] screen = new byte[layers.size() * width * height *
+                (wordIndices ? 2 : 1)];
+
+        int i = 0;
+        for (TileLayer layer : layers) {
+            for (int y = y0; y < y0 + height; y++) {
+                for (int x = x0; x < x0 + width; x++) {
+                    final int gid = getGidAt(layer, x, y);
+                    screen[i++] = (byte) gid;
+                    if (wordIndices) {
+                        screen[i++] = (byte) (gid >> 8);
+                    }
+                }
+            }
+        }
+        return screen;
+    }
+
+    private static int getGidAt(TileLayer layer, int x, int y) {
+        if (layer instanceof GidTileLayer) {
+            return ((GidTileLayer) layer).getGidAt(x, y);
+        }
+        final Tile tile = layer.getTileAt(x, y);
+        return tile != null ? tile.getGid() : 0;
+    }
+
+    private static void writeWord(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    /**
+     * Returns the number of screens across the map in the last export.
+     */
+    public int getScreensAcross() {
+        return screensAcross;
+    }
+
+    /**
+     * Returns the number of screens down the map in the last export.
+     */
+    public int getScreensDown() {
+        return screensDown;
+    }
+
+    /**
+     * Returns the length of the data of a screen before compression in the
+     * last export.
+     */
+    public int getScreenLength() {
+        return screenLength;
+    }
+
+    /**
+     * Returns the compressed size of each screen in the last export, left to
+     * right and top to bottom.
+     */
+    public int[] getCompressedSizes() {
+        return compressedSizes;
+    }
+}
@@ -26,10 +26,14 @@ import tiled.mapeditor.selection.SelectionLayer;
 import tiled.mapeditor.selection.SelectionSet;
 import tiled.mapeditor.selection.ToolSemantic;
 import tiled.mapeditor.undo.*;
+import tiled.mapeditor.util.AutoSaver;
+import tiled.mapeditor.util.FloodFill;
 import tiled.mapeditor.util.LayerTableModel;
 import tiled.mapeditor.util.MapEventAdapter;
 import tiled.mapeditor.util.TiledFileFilter;
+import tiled.mapeditor.util.TilesetWatcher;
 import tiled.mapeditor.widget.*;
+import tiled.util.TileMask;
 import tiled.util.TiledConfiguration;
 import tiled.view.MapView;
 
@@ -46,7 +50,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.ListIterator;
-import java.util.Stack;
 import java.util.Vector;
 import java.util.prefs.PreferenceChangeEvent;
 import java.util.prefs.PreferenceChangeListener;
@@ -99,6 +102,8 @@ public class MapEditor implements ActionListener, MouseListener,
     private static final String STATUS_LAYER_SELECTED_FORMAT = Resources.getString("status.layer.selectedformat_name_w_h_x_y_tilew_tileh");
     private static final String STATUS_LAYER_MOVED_FORMAT = Resources.getString("status.layer.movedformat_x_y");
     private final UndoHandler undoHandler;
+    private final AutoSaver autoSaver;
+    private final TilesetWatcher tilesetWatcher;
     private final UndoableEditSupport undoSupport;
     private final MapEventAdapter mapEventAdapter;
     private final PluginClassLoader pluginLoader;
@@ -172,6 +177,7 @@ public class MapEditor implements ActionListener, MouseListener,
     private TabbedTilesetsPane tabbedTilesetsPane;
     private AboutDialog aboutDialog;
     private MapLayerEdit paintEdit;
+    private TileDeltaEdit paintDeltaEdit;
     private FloatablePanel layersPanel;
     private FloatablePanel parallaxPanel;
     private FloatablePanel tilesetsPanel;
@@ -208,6 +214,8 @@ public class MapEditor implements ActionListener, MouseListener,
         undoHandler = new UndoHandler(this);
         undoSupport = new UndoableEditSupport();
         undoSupport.addUndoableEditListener(undoHandler);
+        autoSaver = new AutoSaver(this);
+        tilesetWatcher = new TilesetWatcher(this);
 
         cursorHighlight = new SelectionLayer(1, 1, 1, 1);
         cursorHighlight.select(0, 0);
@@ -266,6 +274,8 @@ public class MapEditor implements ActionListener, MouseListener,
         toggleParallaxModeAction.applyState();
 
         appFrame.setVisible(true);
+        autoSaver.start();
+        tilesetWatcher.start();
 
         //tileInstancePropertiesDialog = new TileInstancePropertiesDialog(this);
 
@@ -415,6 +425,7 @@ public class MapEditor implements ActionListener, MouseListener,
         JMenuItem save = new TMenuItem(saveAction);
         JMenuItem saveAs = new TMenuItem(saveAsAction);
         JMenuItem saveAsImage = new TMenuItem(saveAsImageAction);
+        JMenuItem exportZXScreens = new TMenuItem(new ExportZXScreensAction(this));
         JMenuItem close = new TMenuItem(new CloseMapAction(this, saveAction));
 
         recentMenu = new JMenu(Resources.getString("menu.file.recent"));
@@ -422,6 +433,7 @@ public class MapEditor implements ActionListener, MouseListener,
         mapEventAdapter.addListener(save);
         mapEventAdapter.addListener(saveAs);
         mapEventAdapter.addListener(saveAsImage);
+        mapEventAdapter.addListener(exportZXScreens);
         mapEventAdapter.addListener(close);
 
         JMenu fileMenu = new JMenu(Resources.getString("menu.file"));
@@ -432,6 +444,7 @@ public class MapEditor implements ActionListener, MouseListener,
         fileMenu.add(save);
         fileMenu.add(saveAs);
         fileMenu.add(saveAsImage);
+        fileMenu.add(exportZXScreens);
         fileMenu.addSeparator();
         fileMenu.add(close);
         fileMenu.add(new TMenuItem(exitAction));
@@ -683,13 +696,12 @@ public class MapEditor implements ActionListener, MouseListener,
         layerPopupMenu.add(showLayerPropertiesAction);
 
         //navigation and tool options
-        // TODO: the minimap is prohibitively slow, need to speed this up
-        // before it can be used
         miniMap = new MiniMapViewer();
-        //miniMap.setMainPanel(mapScrollPane);
+        miniMap.setMainPanel(mapScrollPane);
         JScrollPane miniMapSp = new JScrollPane();
         miniMapSp.getViewport().setView(miniMap);
         miniMapSp.setMinimumSize(new Dimension(0, 120));
+        miniMapSp.setPreferredSize(new Dimension(0, MiniMapViewer.MAX_HEIGHT));
 
         // Layer table
         layerTable = new JTable(new LayerTableModel());
@@ -764,7 +776,7 @@ public class MapEditor implements ActionListener, MouseListener,
         c.fill = GridBagConstraints.BOTH;
         c.gridx = 0;
         c.gridy = 0;
-        //layerPanel.add(miniMapSp, c);
+        layerPanel.add(miniMapSp, c);
         c.weighty = 0;
         c.gridy += 1;
         layerPanel.add(sliderPanel, c);
@@ -934,6 +946,7 @@ public class MapEditor implements ActionListener, MouseListener,
         setBrush(sb);
 
         tabbedTilesetsPane.setMap(currentMap);
+        tilesetWatcher.setMap(currentMap);
         parallaxEditorPanel.setCurrentMap(currentMap);
 
         if (!mapLoaded) {
@@ -961,6 +974,7 @@ public class MapEditor implements ActionListener, MouseListener,
             mapView.setZXScreenGridColor(new Color(display.getInt("gridZXScreenColor", MapView.DEFAULT_ZX_SCREEN_GRID_COLOR.getRGB())));
             mapView.setShowGrid(display.getBoolean("showGrid", false));
             mapView.setShowZXScreenGrid(display.getBoolean("showZXScreenGrid", false));
+            mapView.setScrollBuffered(true);
             JViewport mapViewport = new JViewport();
             mapViewport.setView(mapView);
             mapViewport.addChangeListener(this);
@@ -1005,11 +1019,9 @@ public class MapEditor implements ActionListener, MouseListener,
         zoomNormalAction.setEnabled(mapLoaded && mapView.getZoomLevel() !=
                 MapView.ZOOM_NORMALSIZE);
 
-        /*
-        if (miniMap != null && currentMap != null) {
-            miniMap.setView(MapView.createViewforMap(currentMap));
+        if (miniMap != null) {
+            miniMap.setView(mapView);
         }
-        */
 
         undoHandler.discardAllEdits();
         updateLayerTable();
@@ -1100,6 +1112,33 @@ public class MapEditor implements ActionListener, MouseListener,
         return undoHandler;
     }
 
+    /**
+     * Returns the {@link AutoSaver} that saves maps in the background.
+     *
+     * @return the background saver
+     */
+    public AutoSaver getAutoSaver() {
+        return autoSaver;
+    }
+
+    /**
+     * Shows an informational message in the status bar for a few seconds.
+     *
+     * @param text the message to show
+     */
+    public void showStatusText(String text) {
+        statusLabel.setInfoText(text);
+    }
+
+    /**
+     * Shows an error message in the status bar for a few seconds.
+     *
+     * @param text the message to show
+     */
+    public void showStatusError(String text) {
+        statusLabel.setErrorText(text);
+    }
+
     /**
      * Returns the {@link PluginClassLoader} instance.
      *
@@ -1200,11 +1239,10 @@ public class MapEditor implements ActionListener, MouseListener,
         } else if (mouseButton == MouseEvent.BUTTON1) {
             switch (currentPointerState) {
                 case PS_PAINT:
-                    paintEdit.setPresentationName(TOOL_PAINT);
+                    setPaintEditName(TOOL_PAINT);
                     if (layer instanceof TileLayer) {
                         try {
-                            mapView.repaintRegion(
-                                    layer, currentBrush.doPaint(tile.x, tile.y));
+                            currentBrush.doPaint(tile.x, tile.y);
                             statusLabel.clearText();
                         } catch (LayerLockedBrushException llx) {
                             statusLabel.setErrorText(STATUS_PAINT_ERROR_LAYER_LOCKED);
@@ -1218,20 +1256,22 @@ public class MapEditor implements ActionListener, MouseListener,
                     }
                     break;
                 case PS_ERASE:
-                    paintEdit.setPresentationName(TOOL_ERASE);
+                    setPaintEditName(TOOL_ERASE);
                     if (layer instanceof TileLayer) {
                         ((TileLayer) layer).setTileAt(tile.x, tile.y, null);
-                        mapView.repaintRegion(layer, new Rectangle(
-                                tile.x, tile.y, 1, 1));
                     }
                     break;
                 case PS_POUR:
                     paintEdit = null;
+                    if (paintDeltaEdit != null) {
+                        // The fill posts its own edit
+                        paintDeltaEdit.end();
+                        paintDeltaEdit = null;
+                    }
                     if (layer instanceof TileLayer) {
                         TileLayer tileLayer = (TileLayer) layer;
                         Tile oldTile = tileLayer.getTileAt(tile.x, tile.y);
                         pour(tileLayer, tile.x, tile.y, currentTile, oldTile);
-                        mapView.repaint();
                     }
                     break;
                 case PS_EYED:
@@ -1383,9 +1423,14 @@ public class MapEditor implements ActionListener, MouseListener,
                     }
                 case PS_ERASE:
                 case PS_POUR:
-                    paintEdit =
-                            new MapLayerEdit(layer, createLayerCopy(layer),
-                                    null);
+                    if (layer instanceof GidTileLayer) {
+                        // Record only the changed cells
+                        paintDeltaEdit = new TileDeltaEdit((GidTileLayer) layer);
+                    } else {
+                        paintEdit =
+                                new MapLayerEdit(layer, createLayerCopy(layer),
+                                        null);
+                    }
                     break;
                 default:
             }
@@ -1393,7 +1438,7 @@ public class MapEditor implements ActionListener, MouseListener,
 
         if (currentPointerState == PS_MARQUEE) {
             boolean contains = false;
-            if (marqueeSelection != null && marqueeSelection.getSelectedArea().contains(tile.x, tile.y)) {
+            if (marqueeSelection != null && marqueeSelection.isSelected(tile.x, tile.y)) {
                 contains = true;
             }
             if (marqueeSelection == null && !contains) {
@@ -1528,6 +1573,14 @@ public class MapEditor implements ActionListener, MouseListener,
             paintEdit = null;
         }
 
+        if (paintDeltaEdit != null) {
+            paintDeltaEdit.end();
+            if (!paintDeltaEdit.isEmpty()) {
+                undoSupport.postEdit(paintDeltaEdit);
+            }
+            paintDeltaEdit = null;
+        }
+
         currentObject = null;
 
         mouseButton = MouseEvent.NOBUTTON;
@@ -1575,8 +1628,13 @@ public class MapEditor implements ActionListener, MouseListener,
         boolean highlightActive = tile != null && prefs.getBoolean("cursorhighlight", true);
         cursorHighlight.setVisible(highlightActive);
 
-        if (!highlightActive)
+        if (!highlightActive) {
+            // Erase the brush preview drawn around the highlight
+            if (mapView != null) {
+                mapView.repaintRegion(cursorHighlight, cursorHighlight.getBounds());
+            }
             return;
+        }
         Rectangle redraw = cursorHighlight.getBounds();
         Rectangle brushRedraw = currentBrush.getBounds();
 
@@ -1796,6 +1854,10 @@ public class MapEditor implements ActionListener, MouseListener,
     public void layerChanged(MapChangedEvent e, MapLayerChangeEvent layerChangeEvent) {
     }
 
+    public void regionChanged(MapChangedEvent e) {
+        // The map view repaints the region itself
+    }
+
     public void tilesetAdded(MapChangedEvent e, TileSet tileset) {
     }
 
@@ -1876,6 +1938,9 @@ public class MapEditor implements ActionListener, MouseListener,
         mainSplit.save();
         paletteSplit.save();
         rightSplit.save();
+
+        autoSaver.shutdown();
+        tilesetWatcher.shutdown();
     }
 
     private void showAboutDialog() {
@@ -1905,64 +1970,31 @@ public class MapEditor implements ActionListener, MouseListener,
             currentToolSemantic.activate();
     }
 
+    private void setPaintEditName(String name) {
+        if (paintEdit != null) {
+            paintEdit.setPresentationName(name);
+        }
+        if (paintDeltaEdit != null) {
+            paintDeltaEdit.setPresentationName(name);
+        }
+    }
+
     private void pour(TileLayer layer, int x, int y,
                       Tile newTile, Tile oldTile) {
         if (newTile == oldTile || !layer.canEdit()) return;
 
-        Rectangle area;
-        TileLayer before = (TileLayer) createLayerCopy(layer);
-        TileLayer after;
-
-        // Check that the copy was succesfully created
-        if (before == null) {
+        if (marqueeSelection != null &&
+                !marqueeSelection.isSelected(x, y)) {
             return;
         }
 
-        if (marqueeSelection == null) {
-            area = new Rectangle(new Point(x, y));
-            Stack<Point> stack = new Stack<Point>();
-
-            stack.push(new Point(x, y));
-            while (!stack.empty()) {
-                // Remove the next tile from the stack
-                Point p = stack.pop();
-
-                // If the tile it meets the requirements, set it and push its
-                // neighbouring tiles on the stack.
-                if (layer.contains(p.x, p.y) &&
-                        layer.getTileAt(p.x, p.y) == oldTile) {
-                    layer.setTileAt(p.x, p.y, newTile);
-                    area.add(p);
-
-                    stack.push(new Point(p.x, p.y - 1));
-                    stack.push(new Point(p.x, p.y + 1));
-                    stack.push(new Point(p.x + 1, p.y));
-                    stack.push(new Point(p.x - 1, p.y));
-                }
-            }
-        } else {
-            if (marqueeSelection.getSelectedArea().contains(x, y)) {
-                area = marqueeSelection.getSelectedAreaBounds();
-                for (int i = area.y; i < area.height + area.y; i++) {
-                    for (int j = area.x; j < area.width + area.x; j++) {
-                        if (marqueeSelection.getSelectedArea().contains(j, i)) {
-                            layer.setTileAt(j, i, newTile);
-                        }
-                    }
-                }
-            } else {
-                return;
-            }
+        int[] spans = FloodFill.fill(layer, x, y, newTile, marqueeSelection);
+        if (spans.length == 0) {
+            return;
         }
 
-        Rectangle bounds = new Rectangle(
-                area.x, area.y, area.width + 1, area.height + 1);
-        after = new TileLayer(bounds, layer.getTileWidth(), layer.getTileHeight());
-        after.copyFrom(layer);
-
-        MapLayerEdit mle = new MapLayerEdit(layer, before, after);
-        mle.setPresentationName(TOOL_FILL);
-        undoSupport.postEdit(mle);
+        undoSupport.postEdit(
+                new FillEdit(layer, spans, oldTile, newTile, TOOL_FILL));
     }
 
     public void resetBrush() {
@@ -2222,7 +2254,7 @@ public class MapEditor implements ActionListener, MouseListener,
                 layer.setMap(currentMap);
                 layer.maskedCopyFrom(
                         currentLayer,
-                        marqueeSelection.getSelectedArea());
+                        marqueeSelection.getSelectionMask());
             }
 
             switch (transform) {
@@ -2430,7 +2462,7 @@ public class MapEditor implements ActionListener, MouseListener,
                 }
                 clipboardLayer.maskedCopyFrom(
                         getCurrentLayer(),
-                        marqueeSelection.getSelectedArea());
+                        marqueeSelection.getSelectionMask());
             }
         }
     }
@@ -2456,7 +2488,7 @@ public class MapEditor implements ActionListener, MouseListener,
                     if (layer instanceof TileLayer) {
                         clipboardLayer.maskedMergeOnto(
                                 layer,
-                                marqueeSelection.getSelectedArea());
+                                marqueeSelection.getSelectionMask());
                     }
                 }
             }
@@ -2484,10 +2516,10 @@ public class MapEditor implements ActionListener, MouseListener,
                             marqueeSelection.getSelectedAreaBounds());
                 }
                 clipboardLayer.maskedCopyFrom(
-                        ml, marqueeSelection.getSelectedArea());
+                        ml, marqueeSelection.getSelectionMask());
 
                 Rectangle area = marqueeSelection.getSelectedAreaBounds();
-                Area mask = marqueeSelection.getSelectedArea();
+                TileMask mask = marqueeSelection.getSelectionMask();
                 if (ml instanceof TileLayer) {
                     TileLayer tl = (TileLayer) ml;
                     for (int i = area.y; i < area.height + area.y; i++) {
@@ -48,7 +48,7 @@ public abstract class AbstractFileAction extends AbstractAction {
                     JOptionPane.YES_NO_CANCEL_OPTION);
 
             if (ret == JOptionPane.YES_OPTION) {
-                saveAction.actionPerformed(e);
+                saveAction.save();
 
                 // If saving was not cancelled and there are not still unsaved
                 // changes (which would indicate an error occured), continue
@@ -0,0 +1,129 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.actions;
+
+import tiled.io.zx.ZXCompression;
+import tiled.io.zx.ZXScreenExporter;
+import tiled.mapeditor.MapEditor;
+import tiled.mapeditor.Resources;
+import tiled.mapeditor.util.ConfirmingFileChooser;
+import tiled.util.TiledConfiguration;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.util.prefs.Preferences;
+
+/**
+ * Exports the tile layers of the current map as compressed ZX Spectrum
+ * screens, and reports the compressed size of each screen. The compression
+ * scheme is chosen in the file chooser and remembered in the "zxexport"
+ * preferences node.
+ *
+ * @version $Id$
+ */
+public class ExportZXScreensAction extends AbstractAction {
+    private static final long serialVersionUID = 1L;
+
+    private static final String ACTION_NAME = Resources.getString("action.map.exportzx.name");
+    private static final String ACTION_TOOLTIP = Resources.getString("action.map.exportzx.tooltip");
+    private static final String DIALOG_TITLE = Resources.getString("dialog.exportzx.title");
+    private static final String COMPRESSION_LABEL = Resources.getString("dialog.exportzx.compression.label");
+    private static final String ERROR_TITLE = Resources.getString("dialog.exportzx.error.title");
+    private static final String REPORT_TITLE = Resources.getString("dialog.exportzx.report.title");
+    private static final String REPORT_SCREEN_FORMAT = Resources.getString("dialog.exportzx.report.screen.format");
+    private static final String REPORT_SUMMARY_FORMAT = Resources.getString("dialog.exportzx.report.summary.format");
+
+    private static final Preferences prefs = TiledConfiguration.node("zxexport");
+
+    private final MapEditor editor;
+
+    public ExportZXScreensAction(MapEditor editor) {
+        super(ACTION_NAME);
+        putValue(SHORT_DESCRIPTION, ACTION_TOOLTIP);
+        this.editor = editor;
+    }
+
+    public void actionPerformed(ActionEvent event) {
+        if (editor.getCurrentMap() == null)
+            return;
+
+        final JComboBox<ZXCompression> compressionChooser =
+                new JComboBox<ZXCompression>(ZXCompression.values());
+        compressionChooser.setSelectedItem(ZXCompression.valueOf(
+                prefs.get("compression", ZXCompression.LZ.name())));
+
+        JPanel accessory = new JPanel(new BorderLayout(0, 5));
+        accessory.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 0));
+        accessory.add(new JLabel(COMPRESSION_LABEL), BorderLayout.NORTH);
+        accessory.add(compressionChooser, BorderLayout.CENTER);
+
+        JFileChooser chooser = new ConfirmingFileChooser(
+                prefs.get("directory", null));
+        chooser.setDialogTitle(DIALOG_TITLE);
+        chooser.setAccessory(accessory);
+
+        if (chooser.showSaveDialog(editor.getAppFrame()) !=
+                JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        final ZXCompression compression =
+                (ZXCompression) compressionChooser.getSelectedItem();
+        final String filename = chooser.getSelectedFile().getAbsolutePath();
+        prefs.put("compression", compression.name());
+        prefs.put("directory", chooser.getSelectedFile().getParent());
+
+        ZXScreenExporter exporter = new ZXScreenExporter(compression);
+        try {
+            exporter.export(editor.getCurrentMap(), filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(editor.getAppFrame(),
+                    "Error while exporting " + filename + ": " +
+                            e.getLocalizedMessage(),
+                    ERROR_TITLE,
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        showReport(exporter);
+    }
+
+    private void showReport(ZXScreenExporter exporter) {
+        final int[] sizes = exporter.getCompressedSizes();
+        final int across = exporter.getScreensAcross();
+        StringBuilder report = new StringBuilder();
+        int total = 0;
+        for (int s = 0; s < sizes.length; s++) {
+            report.append(String.format(REPORT_SCREEN_FORMAT,
+                    s % across, s / across, sizes[s])).append('\n');
+            total += sizes[s];
+        }
+
+        final long raw = (long) sizes.length * exporter.getScreenLength();
+        final String summary = String.format(REPORT_SUMMARY_FORMAT,
+                sizes.length, exporter.getScreenLength(), total,
+                raw > 0 ? total * 100 / raw : 100);
+
+        JTextArea text = new JTextArea(report.toString(), 12, 30);
+        text.setEditable(false);
+        JPanel panel = new JPanel(new BorderLayout(0, 5));
+        panel.add(new JLabel(summary), BorderLayout.NORTH);
+        panel.add(new JScrollPane(text), BorderLayout.CENTER);
+
+        JOptionPane.showMessageDialog(editor.getAppFrame(), panel,
+                REPORT_TITLE, JOptionPane.INFORMATION_MESSAGE);
+    }
+}
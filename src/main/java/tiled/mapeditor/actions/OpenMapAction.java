@@ -13,6 +13,7 @@
 package tiled.mapeditor.actions;
 
 import tiled.io.MapReader;
+import tiled.io.bin.BINMapReader;
 import tiled.mapeditor.MapEditor;
 import tiled.mapeditor.Resources;
 import tiled.mapeditor.util.TiledFileFilter;
@@ -56,6 +57,12 @@ public class OpenMapAction extends AbstractFileAction {
             e.printStackTrace();
         }
 
+        try {
+            chooser.addChoosableFileFilter(
+                    new TiledFileFilter(new BINMapReader()));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
         chooser.addChoosableFileFilter(
                 new TiledFileFilter(TiledFileFilter.FILTER_TMX));
 
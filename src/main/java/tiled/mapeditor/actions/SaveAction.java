@@ -16,6 +16,7 @@ import tiled.core.Map;
 import tiled.mapeditor.MapEditor;
 import tiled.mapeditor.Resources;
 import tiled.mapeditor.util.TiledFileFilter;
+import tiled.util.TiledConfiguration;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
@@ -38,6 +39,21 @@ public class SaveAction extends SaveAsAction {
         Map currentMap = editor.getCurrentMap();
         String filePath = currentMap.getFilename();
 
+        // TMX files are written in the background when so configured, other
+        // formats are left to plugins that may not expect that
+        if (filePath != null &&
+                (filePath.endsWith(".tmx") || filePath.endsWith(".tmx.gz")) &&
+                TiledConfiguration.node("saving").getBoolean("backgroundSave", true)) {
+            editor.getAutoSaver().save(currentMap, filePath);
+        } else {
+            save();
+        }
+    }
+
+    public void save() {
+        Map currentMap = editor.getCurrentMap();
+        String filePath = currentMap.getFilename();
+
         // todo: Fix the case where the plugin cannot be determined by the
         // todo: current filename. This can happen when the user has used
         // todo: "Save As" to save the file using a non-standard extension.
@@ -46,7 +62,7 @@ public class SaveAction extends SaveAsAction {
             saveFile(new TiledFileFilter(TiledFileFilter.FILTER_EXT),
                     filePath);
         } else {
-            super.actionPerformed(e);
+            super.save();
         }
     }
 }
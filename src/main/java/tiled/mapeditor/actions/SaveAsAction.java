@@ -14,6 +14,7 @@ package tiled.mapeditor.actions;
 
 import tiled.io.MapHelper;
 import tiled.io.MapWriter;
+import tiled.io.bin.BINMapWriter;
 import tiled.mapeditor.MapEditor;
 import tiled.mapeditor.Resources;
 import tiled.mapeditor.util.ConfirmingFileChooser;
@@ -44,6 +45,16 @@ public class SaveAsAction extends AbstractAction {
     }
 
     public void actionPerformed(ActionEvent e) {
+        save();
+    }
+
+    /**
+     * Saves the map, asking for a filename when needed. Unlike
+     * <code>actionPerformed</code>, this never saves in the background, so
+     * the map has been saved when this method returns, unless saving was
+     * cancelled or failed.
+     */
+    public void save() {
         showFileChooser();
     }
 
@@ -66,6 +77,13 @@ public class SaveAsAction extends AbstractAction {
         chooser.addChoosableFileFilter(byExtensionFilter);
         chooser.addChoosableFileFilter(tmxFilter);
 
+        try {
+            chooser.addChoosableFileFilter(
+                    new TiledFileFilter(new BINMapWriter()));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
         MapWriter[] writers = editor.getPluginLoader().getWriters();
         for (MapWriter writer : writers) {
             try {
@@ -95,6 +113,9 @@ public class SaveAsAction extends AbstractAction {
      * @param filename the filename to save the map to
      */
     protected void saveFile(TiledFileFilter saver, String filename) {
+        // Don't let a save still running in the background overwrite this one
+        editor.getAutoSaver().waitForSaves();
+
         try {
             // Either select the format by extension or use a specific format
             // when selected.
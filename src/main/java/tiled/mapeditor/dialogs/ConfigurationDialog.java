@@ -16,11 +16,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tiled.io.ImageHelper;
 import tiled.mapeditor.Resources;
+import tiled.mapeditor.undo.UndoHandler;
+import tiled.mapeditor.util.AutoSaver;
 import tiled.mapeditor.util.ConfirmableFileFilter;
 import tiled.mapeditor.util.ConfirmingFileChooser;
 import tiled.mapeditor.widget.IntegerSpinner;
 import tiled.mapeditor.widget.VerticalStaticJPanel;
+import tiled.util.ImageCache;
+import tiled.util.ScaledImageCache;
 import tiled.util.TiledConfiguration;
+import tiled.view.ChunkImageCache;
 import tiled.view.OrthoMapView;
 
 import javax.swing.*;
@@ -46,6 +51,7 @@ public class ConfigurationDialog extends JDialog {
     private static final Preferences savingPrefs = prefs.node("saving");
     private static final Preferences ioPrefs = prefs.node("io");
     private static final Preferences displayPrefs = prefs.node("display");
+    private static final Preferences autosavePrefs = prefs.node("autosave");
     private static final String DIALOG_TITLE = Resources.getString("dialog.preferences.title");
     private static final String CLOSE_BUTTON = Resources.getString("general.button.close");
     private static final String OPACITY_LABEL = Resources.getString("dialog.preferences.opacity.label");
@@ -65,6 +71,16 @@ public class ConfigurationDialog extends JDialog {
     private static final String GENERAL_SAVING_OPTIONS_TITLE = Resources.getString("dialog.preferences.general.tab");
     private static final String LAYER_OPTIONS_TITLE = Resources.getString("dialog.preferences.layer.options.title");
     private static final String UNDO_DEPTH_LABEL = Resources.getString("dialog.preferences.undo.depth.label");
+    private static final String UNDO_MEMORY_LABEL = Resources.getString("dialog.preferences.undo.memory.label");
+    private static final String CHUNK_CACHE_MEMORY_LABEL = Resources.getString("dialog.preferences.chunk.cache.memory.label");
+    private static final String SCALED_IMAGE_MEMORY_LABEL = Resources.getString("dialog.preferences.scaled.image.memory.label");
+    private static final String IMAGE_CACHE_MEMORY_LABEL = Resources.getString("dialog.preferences.image.cache.memory.label");
+    private static final String IMAGE_CACHE_STATS_FORMAT = Resources.getString("dialog.preferences.image.cache.stats.format");
+    private static final String BACKGROUND_SAVE_CHECKBOX = Resources.getString("dialog.preferences.background.save.checkbox");
+    private static final String AUTOSAVE_OPTIONS_TITLE = Resources.getString("dialog.preferences.autosave.title");
+    private static final String AUTOSAVE_CHECKBOX = Resources.getString("dialog.preferences.autosave.checkbox");
+    private static final String AUTOSAVE_INTERVAL_LABEL = Resources.getString("dialog.preferences.autosave.interval.label");
+    private static final String AUTOSAVE_KEEP_LABEL = Resources.getString("dialog.preferences.autosave.keep.label");
     private static final String TILESET_OPTIONS_TITLE = Resources.getString("dialog.preferences.tileset.options.title");
     private static final String GENERAL_TAB = Resources.getString("dialog.preferences.general.tab");
     private static final String SAVING_TAB = Resources.getString("dialog.preferences.saving.tab");
@@ -86,6 +102,13 @@ public class ConfigurationDialog extends JDialog {
                 }
             };
     private IntegerSpinner undoDepth;
+    private IntegerSpinner undoMemory;
+    private IntegerSpinner chunkCacheMemory;
+    private IntegerSpinner scaledImageMemory;
+    private IntegerSpinner imageCacheMemory;
+    private JLabel lbImageCacheStats;
+    private IntegerSpinner autosaveInterval;
+    private IntegerSpinner autosaveKeep;
     private JSlider gridOpacitySlider;
     private JCheckBox cbBinaryEncode;
     private JCheckBox cbCompressLayerData;
@@ -93,6 +116,8 @@ public class ConfigurationDialog extends JDialog {
     private JCheckBox cbEmbedImages;
     private JCheckBox cbReportIOWarnings;
     private JCheckBox cbAutoOpenLastFile;
+    private JCheckBox cbBackgroundSave;
+    private JCheckBox cbAutosave;
     private JRadioButton rbEmbedInTiles;
     private JRadioButton rbEmbedInSet;
     private JLabel lbImageFormat;
@@ -132,6 +157,8 @@ public class ConfigurationDialog extends JDialog {
         cbEmbedImages = new JCheckBox(EMBED_IMAGES_CHECKBOX);
         cbReportIOWarnings = new JCheckBox(REPORT_IO_WARNINGS_CHECKBOX);
         cbAutoOpenLastFile = new JCheckBox(AUTO_OPEN_LAST_FILE_CHECKBOX);
+        cbBackgroundSave = new JCheckBox(BACKGROUND_SAVE_CHECKBOX);
+        cbAutosave = new JCheckBox(AUTOSAVE_CHECKBOX);
         rbEmbedInTiles = new JRadioButton(EMBED_IN_TILES_CHECKBOX);
         rbEmbedInSet = new JRadioButton(EMBED_IN_SET_CHECKBOX);
         lbImageFormat = new JLabel(IMAGE_FORMAT_LABEL);
@@ -144,6 +171,13 @@ public class ConfigurationDialog extends JDialog {
         bg.add(rbEmbedInTiles);
         bg.add(rbEmbedInSet);
         undoDepth = new IntegerSpinner();
+        undoMemory = new IntegerSpinner(UndoHandler.DEFAULT_UNDO_MEMORY, 0);
+        chunkCacheMemory = new IntegerSpinner(ChunkImageCache.DEFAULT_MEMORY, 0);
+        scaledImageMemory = new IntegerSpinner(ScaledImageCache.DEFAULT_MEMORY, 0);
+        imageCacheMemory = new IntegerSpinner(ImageCache.DEFAULT_MEMORY, 0);
+        lbImageCacheStats = new JLabel();
+        autosaveInterval = new IntegerSpinner(AutoSaver.DEFAULT_INTERVAL, 1);
+        autosaveKeep = new IntegerSpinner(AutoSaver.DEFAULT_KEEP, 1);
         cbGridAA = new JCheckBox(ANTIALIASING_CHECKBOX);
         gridOpacitySlider = new JSlider(0, 255, 255);
         //gridColor = new JColorChooser();
@@ -183,9 +217,47 @@ public class ConfigurationDialog extends JDialog {
         generalOps.add(undoDepth, c);
         c.gridy = 1;
         c.gridx = 0;
-        generalOps.add(cbReportIOWarnings, c);
+        c.weightx = 0;
+        c.fill = GridBagConstraints.NONE;
+        generalOps.add(new JLabel(UNDO_MEMORY_LABEL), c);
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.gridx = 1;
+        c.weightx = 1;
+        generalOps.add(undoMemory, c);
         c.gridy = 2;
         c.gridx = 0;
+        c.weightx = 0;
+        c.fill = GridBagConstraints.NONE;
+        generalOps.add(new JLabel(CHUNK_CACHE_MEMORY_LABEL), c);
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.gridx = 1;
+        c.weightx = 1;
+        generalOps.add(chunkCacheMemory, c);
+        c.gridy = 3;
+        c.gridx = 0;
+        c.weightx = 0;
+        c.fill = GridBagConstraints.NONE;
+        generalOps.add(new JLabel(SCALED_IMAGE_MEMORY_LABEL), c);
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.gridx = 1;
+        c.weightx = 1;
+        generalOps.add(scaledImageMemory, c);
+        c.gridy = 4;
+        c.gridx = 0;
+        c.weightx = 0;
+        c.fill = GridBagConstraints.NONE;
+        generalOps.add(new JLabel(IMAGE_CACHE_MEMORY_LABEL), c);
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.gridx = 1;
+        c.weightx = 1;
+        generalOps.add(imageCacheMemory, c);
+        c.gridy = 5;
+        generalOps.add(lbImageCacheStats, c);
+        c.gridy = 6;
+        c.gridx = 0;
+        generalOps.add(cbReportIOWarnings, c);
+        c.gridy = 7;
+        c.gridx = 0;
         generalOps.add(cbAutoOpenLastFile, c);
 
         /* GENERAL SAVING OPTIONS */
@@ -201,6 +273,39 @@ public class ConfigurationDialog extends JDialog {
         c.gridy = 0;
         c.weightx = 1;
         generalSavingOps.add(cbUsefulComments, c);
+        c.gridy = 1;
+        generalSavingOps.add(cbBackgroundSave, c);
+
+        /* AUTOSAVE OPTIONS */
+        JPanel autosaveOps = new VerticalStaticJPanel();
+        autosaveOps.setLayout(new GridBagLayout());
+        autosaveOps.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createTitledBorder(AUTOSAVE_OPTIONS_TITLE),
+                BorderFactory.createEmptyBorder(0, 5, 5, 5)));
+        GridBagConstraints ac = new GridBagConstraints();
+        ac.fill = GridBagConstraints.HORIZONTAL;
+        ac.gridwidth = 2;
+        ac.weightx = 1;
+        autosaveOps.add(cbAutosave, ac);
+        ac.gridwidth = 1;
+        ac.gridy = 1;
+        ac.weightx = 0;
+        ac.fill = GridBagConstraints.NONE;
+        ac.anchor = GridBagConstraints.WEST;
+        autosaveOps.add(new JLabel(AUTOSAVE_INTERVAL_LABEL), ac);
+        ac.fill = GridBagConstraints.HORIZONTAL;
+        ac.gridx = 1;
+        ac.weightx = 1;
+        autosaveOps.add(autosaveInterval, ac);
+        ac.gridy = 2;
+        ac.gridx = 0;
+        ac.weightx = 0;
+        ac.fill = GridBagConstraints.NONE;
+        autosaveOps.add(new JLabel(AUTOSAVE_KEEP_LABEL), ac);
+        ac.fill = GridBagConstraints.HORIZONTAL;
+        ac.gridx = 1;
+        ac.weightx = 1;
+        autosaveOps.add(autosaveKeep, ac);
 
         /* TILESET OPTIONS */
         JPanel tilesetOps = new VerticalStaticJPanel();
@@ -292,6 +397,7 @@ public class ConfigurationDialog extends JDialog {
         saving.setBorder(BorderFactory.createEmptyBorder(0, 5, 0, 0));
         saving.setLayout(new BoxLayout(saving, BoxLayout.Y_AXIS));
         saving.add(generalSavingOps);
+        saving.add(autosaveOps);
         saving.add(layerOps);
         saving.add(tilesetOps);
 
@@ -389,6 +495,34 @@ public class ConfigurationDialog extends JDialog {
             }
         });
 
+        cbBackgroundSave.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent itemEvent) {
+                savingPrefs.putBoolean("backgroundSave",
+                        cbBackgroundSave.isSelected());
+            }
+        });
+
+        cbAutosave.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent itemEvent) {
+                final boolean selected = cbAutosave.isSelected();
+                autosavePrefs.putBoolean("enabled", selected);
+                autosaveInterval.setEnabled(selected);
+                autosaveKeep.setEnabled(selected);
+            }
+        });
+
+        autosaveInterval.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent changeEvent) {
+                autosavePrefs.putInt("interval", autosaveInterval.intValue());
+            }
+        });
+
+        autosaveKeep.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent changeEvent) {
+                autosavePrefs.putInt("keep", autosaveKeep.intValue());
+            }
+        });
+
         cbGridAA.addItemListener(new ItemListener() {
             public void itemStateChanged(ItemEvent itemEvent) {
                 displayPrefs.putBoolean("gridAntialias", cbGridAA.isSelected());
@@ -401,6 +535,30 @@ public class ConfigurationDialog extends JDialog {
             }
         });
 
+        undoMemory.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent changeEvent) {
+                prefs.putInt("undoMemory", undoMemory.intValue());
+            }
+        });
+
+        chunkCacheMemory.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent changeEvent) {
+                displayPrefs.putInt("chunkCacheMemory", chunkCacheMemory.intValue());
+            }
+        });
+
+        scaledImageMemory.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent changeEvent) {
+                displayPrefs.putInt("scaledImageMemory", scaledImageMemory.intValue());
+            }
+        });
+
+        imageCacheMemory.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent changeEvent) {
+                displayPrefs.putInt("imageCacheMemory", imageCacheMemory.intValue());
+            }
+        });
+
         gridOpacitySlider.addChangeListener(new ChangeListener() {
             public void stateChanged(ChangeEvent changeEvent) {
                 displayPrefs.putInt("gridOpacity", gridOpacitySlider.getValue());
@@ -436,6 +594,14 @@ public class ConfigurationDialog extends JDialog {
 
     private void updateFromConfiguration() {
         undoDepth.setValue(prefs.getInt("undoDepth", 30));
+        undoMemory.setValue(prefs.getInt("undoMemory", UndoHandler.DEFAULT_UNDO_MEMORY));
+        chunkCacheMemory.setValue(displayPrefs.getInt("chunkCacheMemory", ChunkImageCache.DEFAULT_MEMORY));
+        scaledImageMemory.setValue(displayPrefs.getInt("scaledImageMemory", ScaledImageCache.DEFAULT_MEMORY));
+        imageCacheMemory.setValue(displayPrefs.getInt("imageCacheMemory", ImageCache.DEFAULT_MEMORY));
+        ImageCache imageCache = ImageCache.getInstance();
+        lbImageCacheStats.setText(String.format(IMAGE_CACHE_STATS_FORMAT,
+                imageCache.getHits(), imageCache.getMisses(),
+                imageCache.getMemoryUsage() / 1024));
         gridOpacitySlider.setValue(displayPrefs.getInt("gridOpacity", 255));
 
         boolean embedImages = savingPrefs.getBoolean("embedImages", true);
@@ -454,6 +620,12 @@ public class ConfigurationDialog extends JDialog {
         cbGridAA.setSelected(displayPrefs.getBoolean("gridAntialias", true));
         cbReportIOWarnings.setSelected(ioPrefs.getBoolean("reportWarnings", false));
         cbAutoOpenLastFile.setSelected(ioPrefs.getBoolean("autoOpenLast", false));
+        cbBackgroundSave.setSelected(savingPrefs.getBoolean("backgroundSave", true));
+        cbAutosave.setSelected(autosavePrefs.getBoolean("enabled", true));
+        autosaveInterval.setValue(autosavePrefs.getInt("interval", AutoSaver.DEFAULT_INTERVAL));
+        autosaveKeep.setValue(autosavePrefs.getInt("keep", AutoSaver.DEFAULT_KEEP));
+        autosaveInterval.setEnabled(cbAutosave.isSelected());
+        autosaveKeep.setEnabled(cbAutosave.isSelected());
 
         coImageFormat.setSelectedItem(ImageHelper.ImageFormat.valueOf(savingPrefs.get("imageFormat", "PNG"), ImageHelper.ImageFormat.PNG));
         coPixelFormat.setSelectedItem(ImageHelper.PixelFormat.valueOf(savingPrefs.get("pixelFormat", "A1R5G5B5"), ImageHelper.PixelFormat.A1R5G5B5));
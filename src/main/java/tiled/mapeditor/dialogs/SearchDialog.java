@@ -163,14 +163,24 @@ public class SearchDialog extends JDialog implements ActionListener {
 
             sl = new SelectionLayer(map.getWidth(), map.getHeight(), map.getTileWidth(), map.getTileHeight());
             Rectangle bounds = new Rectangle();
+            final Object searchItem = searchCBox.getSelectedItem();
             final Iterator<MapLayer> itr = map.getLayers();
             while (itr.hasNext()) {
                 MapLayer layer = itr.next();
-                if (layer instanceof TileLayer) {
+                if (layer instanceof ChunkedTileLayer && searchItem instanceof Tile) {
+                    selectGid((ChunkedTileLayer) layer, (Tile) searchItem);
+                } else if (layer instanceof GidTileLayer && searchItem instanceof Tile) {
+                    // Compare global ids row by row
+                    final GidTileLayer gidLayer = (GidTileLayer) layer;
+                    gidLayer.updateGids();
+                    layer.getBounds(bounds);
+                    selectGid(gidLayer, ((Tile) searchItem).getGid(),
+                            bounds.x, bounds.y, bounds.width, bounds.height);
+                } else if (layer instanceof TileLayer) {
                     layer.getBounds(bounds);
-                    for (int y = 0; y < bounds.height; y++) {
-                        for (int x = 0; x < bounds.width; x++) {
-                            if (((TileLayer) layer).getTileAt(x, y) == searchCBox.getSelectedItem()) {
+                    for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                        for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                            if (((TileLayer) layer).getTileAt(x, y) == searchItem) {
                                 sl.select(x, y);
                             }
                         }
@@ -178,7 +188,6 @@ public class SearchDialog extends JDialog implements ActionListener {
                 }
             }
             map.addLayerSpecial(sl);
-            map.touch();
 
         } else if (command.equals(REPLACE_ALL_BUTTON)) {
             if (!(searchCBox.getSelectedItem() instanceof TileSet) && !(replaceCBox.getSelectedItem() instanceof TileSet))
@@ -211,14 +220,56 @@ public class SearchDialog extends JDialog implements ActionListener {
 
     private void replaceAll(Tile f, Tile r) {
         // TODO: Allow for "scopes" of one or more layers, rather than all layers
-        final Iterator<MapLayer> itr = map.getLayers();
-        while (itr.hasNext()) {
-            MapLayer layer = itr.next();
-            if (layer instanceof TileLayer) {
-                ((TileLayer) layer).replaceTile(f, r);
+        map.beginUpdate();
+        try {
+            final Iterator<MapLayer> itr = map.getLayers();
+            while (itr.hasNext()) {
+                MapLayer layer = itr.next();
+                if (layer instanceof TileLayer) {
+                    ((TileLayer) layer).replaceTile(f, r);
+                }
+            }
+        } finally {
+            map.endUpdate();
+        }
+    }
+
+    /**
+     * Selects the locations of the given tile in a chunked layer, comparing
+     * global ids chunk by chunk and skipping the empty chunks.
+     */
+    private void selectGid(ChunkedTileLayer layer, Tile tile) {
+        layer.updateGids();
+        final Rectangle bounds = layer.getBounds();
+        final int size = ChunkedTileLayer.CHUNK_SIZE;
+        for (int cy = 0; cy < layer.getChunkRows(); cy++) {
+            for (int cx = 0; cx < layer.getChunkColumns(); cx++) {
+                if (layer.hasChunk(cx, cy)) {
+                    final int x = cx * size;
+                    final int y = cy * size;
+                    selectGid(layer, tile.getGid(), bounds.x + x, bounds.y + y,
+                            Math.min(size, bounds.width - x),
+                            Math.min(size, bounds.height - y));
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects the locations within the given region, in map coordinates,
+     * where the layer holds the given global id.
+     */
+    private void selectGid(GidTileLayer layer, int gid,
+                           int tx, int ty, int width, int height) {
+        final int[] row = new int[width];
+        for (int y = ty; y < ty + height; y++) {
+            layer.getGidRow(tx, y, row);
+            for (int x = 0; x < width; x++) {
+                if (row[x] == gid) {
+                    sl.select(tx + x, y);
+                }
             }
         }
-        map.touch();
     }
 
     private void find(Tile f) {
@@ -226,7 +277,6 @@ public class SearchDialog extends JDialog implements ActionListener {
 
         if (sl != null) {
             map.removeLayerSpecial(sl);
-            map.touch();
         }
 
         sl = new SelectionLayer(map.getWidth(), map.getHeight(), map.getTileWidth(), map.getTileHeight());
@@ -262,7 +312,6 @@ public class SearchDialog extends JDialog implements ActionListener {
 
         if (bFound) {
             map.addLayerSpecial(sl);
-            map.touch();
         }
     }
 }
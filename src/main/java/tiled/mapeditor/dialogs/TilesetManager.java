@@ -45,6 +45,7 @@ public class TilesetManager extends JDialog implements ActionListener,
     private static final String SAVE_AS_BUTTON = Resources.getString("action.map.saveas.name");
     private static final String EDIT_BUTTON = Resources.getString("dialog.tilesetmanager.edit.button");
     private static final String SAVE_BUTTON = Resources.getString("action.map.save.name");
+    private static final String MERGE_BUTTON = Resources.getString("dialog.tilesetmanager.merge.button");
     private static final Icon REMOVE_BUTTON_ICON = Resources.getIcon("gnome-delete.png");
     private static final Icon EMBED_BUTTON_ICON = Resources.getIcon("insert-object.png");
     private static final Icon SAVE_AS_BUTTON_ICON = Resources.getIcon("document-save-as.png");
@@ -52,7 +53,7 @@ public class TilesetManager extends JDialog implements ActionListener,
     private static final Icon SAVE_BUTTON_ICON = Resources.getIcon("document-save.png");
     private final Map map;
     private JButton saveButton, saveAsButton, embedButton, removeButton, editButton;
-    private JButton moveUpButton, moveDownButton, closeButton;
+    private JButton moveUpButton, moveDownButton, mergeButton, closeButton;
     private TilesetTableModel tilesetTableModel;
     private JTable tilesetTable;
 
@@ -81,6 +82,7 @@ public class TilesetManager extends JDialog implements ActionListener,
         removeButton = new JButton(REMOVE_BUTTON_ICON);
         moveUpButton = new JButton(MOVE_UP_BUTTON);
         moveDownButton = new JButton(MOVE_DOWN_BUTTON);
+        mergeButton = new JButton(MERGE_BUTTON);
         closeButton = new JButton(CLOSE_BUTTON);
 
         saveButton.setActionCommand(SAVE_BUTTON);
@@ -108,6 +110,7 @@ public class TilesetManager extends JDialog implements ActionListener,
         editButton.addActionListener(this);
         moveUpButton.addActionListener(this);
         moveDownButton.addActionListener(this);
+        mergeButton.addActionListener(this);
         closeButton.addActionListener(this);
 
         // Create the main panel
@@ -137,6 +140,8 @@ public class TilesetManager extends JDialog implements ActionListener,
         buttonPanel.add(Box.createRigidArea(spacing));
         buttonPanel.add(moveDownButton);
         buttonPanel.add(Box.createRigidArea(spacing));
+        buttonPanel.add(mergeButton);
+        buttonPanel.add(Box.createRigidArea(spacing));
         buttonPanel.add(Box.createGlue());
         buttonPanel.add(closeButton);
         mainPanel.add(buttonPanel, BorderLayout.PAGE_END);
@@ -184,6 +189,27 @@ public class TilesetManager extends JDialog implements ActionListener,
                         Resources.getString("action.tileset.remove.error.title"),
                         JOptionPane.ERROR_MESSAGE);
             }
+        } else if (command.equals(MERGE_BUTTON)) {
+            int ret = JOptionPane.showConfirmDialog(this,
+                    Resources.getString("dialog.tilesetmanager.merge.confirm.message"),
+                    Resources.getString("dialog.tilesetmanager.merge.confirm.title"),
+                    JOptionPane.YES_NO_OPTION);
+            if (ret != JOptionPane.YES_OPTION) {
+                return;
+            }
+            try {
+                int merged = map.mergeDuplicateTiles(set);
+                JOptionPane.showMessageDialog(this,
+                        String.format(Resources.getString(
+                                "dialog.tilesetmanager.merge.result.message"), merged),
+                        Resources.getString("dialog.tilesetmanager.merge.confirm.title"),
+                        JOptionPane.INFORMATION_MESSAGE);
+            } catch (LayerLockedException e) {
+                JOptionPane.showMessageDialog(this,
+                        Resources.getString("dialog.tilesetmanager.merge.error.layer-locked.message"),
+                        Resources.getString("dialog.tilesetmanager.merge.confirm.title"),
+                        JOptionPane.ERROR_MESSAGE);
+            }
         } else if (command.equals(SAVE_AS_BUTTON)) {
             JFileChooser ch = new ConfirmingFileChooser(map.getFilename());
 
@@ -281,6 +307,7 @@ public class TilesetManager extends JDialog implements ActionListener,
 
         editButton.setEnabled(set != null);
         removeButton.setEnabled(set != null);
+        mergeButton.setEnabled(set != null);
         saveButton.setEnabled(set != null && set.getSource() != null);
         saveAsButton.setEnabled(set != null);
         embedButton.setEnabled(set != null && set.getSource() != null);
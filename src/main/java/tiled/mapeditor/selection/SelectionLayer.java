@@ -15,22 +15,28 @@ package tiled.mapeditor.selection;
 import tiled.core.MapLayer;
 import tiled.core.Tile;
 import tiled.core.TileLayer;
+import tiled.util.TileMask;
 import tiled.util.TiledConfiguration;
 
 import java.awt.*;
 import java.awt.geom.Area;
-import java.awt.geom.Rectangle2D;
 import java.util.prefs.Preferences;
 
 /**
  * A layer used to keep track of a selected area in another layer. To
  * Achieve this, the SelectionLayer keeps a reference to a parent layer
  * which it uses to determine tile dimensions and other things
+ * <p>
+ * The selection is stored as a {@link TileMask} relative to the origin of
+ * the layer, so that it moves along with the layer. Areas and masks are
+ * given and returned in these layer coordinates, single tile locations in
+ * map coordinates like for any other layer. For drawing, every selected
+ * location reads as a highlight tile.
  */
 public class SelectionLayer extends TileLayer {
     private Color highlightColor;
     private Tile selTile;
-    private Area selection;
+    private TileMask selection;
     private MapLayer parentLayer;
 
     public SelectionLayer(MapLayer parent) {
@@ -58,7 +64,28 @@ public class SelectionLayer extends TileLayer {
         }
 
         selTile = new Tile();
-        selection = new Area();
+    }
+
+    /**
+     * Creates an empty selection mask instead of an array of tiles.
+     */
+    protected void allocate(int width, int height) {
+        map = null;
+        selection = new TileMask(new Rectangle(0, 0, width, height));
+    }
+
+    public Tile getTileAt(int tx, int ty) {
+        return isSelected(tx, ty) ? selTile : null;
+    }
+
+    /**
+     * Selects or deselects a location, depending on whether the tile is
+     * <code>null</code>.
+     */
+    public void setTileAt(int tx, int ty, Tile ti) {
+        if (!getLocked()) {
+            selection.set(tx - bounds.x, ty - bounds.y, ti != null);
+        }
     }
 
     @Override
@@ -109,16 +136,52 @@ public class SelectionLayer extends TileLayer {
     }
 
     /**
-     * Returns the selected area.
+     * Returns the selected area, relative to the layer origin. The area is built from the selection mask
+     * when first asked for after a change, so prefer {@link #isSelected}
+     * and {@link #getSelectionMask} for testing locations.
      *
      * @return the selected area
      */
     public Area getSelectedArea() {
+        return selection.toArea();
+    }
+
+    /**
+     * Returns the mask of selected locations, relative to the layer origin.
+     * Changes to the mask change the selection.
+     *
+     * @return the selection mask
+     */
+    public TileMask getSelectionMask() {
         return selection;
     }
 
     /**
-     * Returns the bounds of the selected area.
+     * Returns whether the given tile location is selected.
+     *
+     * @param tx Tile-space x coordinate
+     * @param ty Tile-space y coordinate
+     * @return <code>true</code> if the location is part of the selection
+     */
+    public boolean isSelected(int tx, int ty) {
+        return selection.contains(tx - bounds.x, ty - bounds.y);
+    }
+
+    /**
+     * Returns the bounds of the selected area, since nothing else of a
+     * selection is shown.
+     *
+     * @return the bounds of the selected area
+     */
+    public Rectangle getContentBounds() {
+        Rectangle content = getSelectedAreaBounds();
+        content.translate(bounds.x, bounds.y);
+        return content;
+    }
+
+    /**
+     * Returns the bounds of the selected area, relative to the layer
+     * origin.
      *
      * @return A Rectangle instance
      * @see Area#getBounds()
@@ -131,11 +194,19 @@ public class SelectionLayer extends TileLayer {
      * Adds the given area via a union
      *
      * @param area The Area to union with the current selection
-     * @see Area#add(java.awt.geom.Area)
+     * @see TileMask#add(Shape)
      */
     public void add(Area area) {
         selection.add(area);
-        fillRegion(selection, selTile);
+    }
+
+    /**
+     * Adds the given selection via a union.
+     *
+     * @param mask a mask with the same extent as this selection
+     */
+    public void add(TileMask mask) {
+        selection.add(mask);
     }
 
     /**
@@ -145,19 +216,26 @@ public class SelectionLayer extends TileLayer {
      * @param area the Area to deselect
      */
     public void subtract(Area area) {
-        clearRegion(area);
         selection.subtract(area);
     }
 
+    /**
+     * Deselects the locations set in the given mask.
+     *
+     * @param mask a mask with the same extent as this selection
+     */
+    public void subtract(TileMask mask) {
+        selection.subtract(mask);
+    }
+
     /**
      * Sets the selected area to the given Shape.
      *
      * @param region
      */
     public void selectRegion(Shape region) {
-        clearRegion(selection);
-        selection = new Area(region);
-        fillRegion(selection, selTile);
+        selection.clear();
+        selection.add(region);
     }
 
     /**
@@ -168,17 +246,7 @@ public class SelectionLayer extends TileLayer {
      * @param ty
      */
     public void select(int tx, int ty) {
-        setTileAt(tx, ty, selTile);
-
-        Area a = new Area(new Rectangle2D.Double(tx, ty, 1, 1));
-
-        if (selection == null) {
-            selection = a;
-        } else {
-            if (!selection.contains(tx, ty)) {
-                selection.add(a);
-            }
-        }
+        selection.set(tx - bounds.x, ty - bounds.y, true);
     }
 
     /**
@@ -199,37 +267,55 @@ public class SelectionLayer extends TileLayer {
         highlightColor = c;
     }
 
-    private void fillRegion(Area region, Tile fill) {
-        Rectangle bounded = region.getBounds();
-        for (int i = bounded.y; i < bounded.y + bounded.height; i++) {
-            for (int j = bounded.x; j < bounded.x + bounded.width; j++) {
-                if (region.contains(j, i)) {
-                    setTileAt(j + bounds.x, i + bounds.y, fill);
-                } else {
-                    setTileAt(j + bounds.x, i + bounds.y, null);
-                }
-            }
+    /**
+     * Inverts the selected area.
+     */
+    public void invert() {
+        selection.invert();
+    }
+
+    public boolean isEmpty() {
+        return selection.isEmpty();
+    }
+
+    public boolean isUsed(Tile t) {
+        return t == selTile && !selection.isEmpty();
+    }
+
+    public void removeTile(Tile tile) {
+        if (tile == selTile && !getLocked()) {
+            selection.clear();
         }
     }
 
-    private void clearRegion(Area region) {
-        fillRegion(region, null);
+    public Object clone() throws CloneNotSupportedException {
+        SelectionLayer clone = (SelectionLayer) super.clone();
+        clone.selection = (TileMask) selection.clone();
+        return clone;
     }
 
-    /**
-     * Inverts the selected area.
-     */
-    public void invert() {
-        selection.exclusiveOr(new Area(bounds));
-
-        for (int i = bounds.y; i < bounds.y + bounds.height; i++) {
-            for (int j = bounds.x; j < bounds.x + bounds.width; j++) {
-                if (selection.contains(j, i)) {
-                    setTileAt(j, i, selTile);
-                } else {
-                    setTileAt(j, i, null);
+    public void resize(int width, int height, int dx, int dy) {
+        if (getLocked())
+            return;
+
+        TileMask old = selection;
+        allocate(width, height);
+        for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+                if (old.contains(x, y)) {
+                    selection.set(x + dx, y + dy, true);
                 }
             }
         }
+        bounds.width = width;
+        bounds.height = height;
+    }
+
+    public void rotate(int angle) {
+        // Rotating a selection is not supported
+    }
+
+    public void mirror(int dir) {
+        // Mirroring a selection is not supported
     }
 }
@@ -0,0 +1,78 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.undo;
+
+import tiled.core.Tile;
+import tiled.core.TileLayer;
+import tiled.mapeditor.util.FloodFill;
+
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+
+/**
+ * Makes a flood fill undoable. Since a fill replaces one tile by another,
+ * it is enough to remember the spans that were filled.
+ *
+ * @version $Id$
+ * @see FloodFill
+ */
+public class FillEdit extends AbstractUndoableEdit implements SizedEdit {
+    private static final long serialVersionUID = 1L;
+
+    private final TileLayer editedLayer;
+    private int[] spans;
+    private final Tile oldTile;
+    private final Tile newTile;
+    private final String name;
+
+    /**
+     * @param layer   the layer that was filled
+     * @param spans   the filled spans as (y, x0, x1) triples
+     * @param oldTile the tile that was replaced
+     * @param newTile the tile that was filled with
+     * @param name    the presentation name of the edit
+     */
+    public FillEdit(TileLayer layer, int[] spans, Tile oldTile, Tile newTile,
+                    String name) {
+        editedLayer = layer;
+        this.spans = spans;
+        this.oldTile = oldTile;
+        this.newTile = newTile;
+        this.name = name;
+    }
+
+    /* inherited methods */
+    public void undo() throws CannotUndoException {
+        super.undo();
+        FloodFill.fillSpans(editedLayer, spans, oldTile);
+    }
+
+    public void redo() throws CannotRedoException {
+        super.redo();
+        FloodFill.fillSpans(editedLayer, spans, newTile);
+    }
+
+    public void die() {
+        super.die();
+        spans = null;
+    }
+
+    public String getPresentationName() {
+        return name;
+    }
+
+    public long getMemoryUsage() {
+        return spans != null ? 4L * spans.length + 48 : 0;
+    }
+}
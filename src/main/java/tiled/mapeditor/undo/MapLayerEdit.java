@@ -12,7 +12,10 @@
 
 package tiled.mapeditor.undo;
 
+import tiled.core.ChunkedTileLayer;
+import tiled.core.GidTileLayer;
 import tiled.core.MapLayer;
+import tiled.core.TileLayer;
 
 import javax.swing.undo.AbstractUndoableEdit;
 import javax.swing.undo.CannotRedoException;
@@ -22,7 +25,7 @@ import javax.swing.undo.UndoableEdit;
 /**
  * @version $Id$
  */
-public class MapLayerEdit extends AbstractUndoableEdit {
+public class MapLayerEdit extends AbstractUndoableEdit implements SizedEdit {
     private final MapLayer editedLayer;
     private MapLayer layerUndo, layerRedo;
     private String name;
@@ -101,4 +104,25 @@ public class MapLayerEdit extends AbstractUndoableEdit {
     public void setPresentationName(String s) {
         name = s;
     }
+
+    public long getMemoryUsage() {
+        return estimateMemoryUsage(layerUndo) + estimateMemoryUsage(layerRedo);
+    }
+
+    /**
+     * Estimates the memory used by the tile data of a layer copy. Chunks a
+     * {@link ChunkedTileLayer} shares with other layers are counted in
+     * full, so this errs on the high side.
+     */
+    private static long estimateMemoryUsage(MapLayer layer) {
+        if (layer instanceof ChunkedTileLayer) {
+            return 4L * ChunkedTileLayer.CHUNK_SIZE * ChunkedTileLayer.CHUNK_SIZE *
+                    ((ChunkedTileLayer) layer).getAllocatedChunkCount();
+        } else if (layer instanceof GidTileLayer) {
+            return 4L * layer.getWidth() * layer.getHeight();
+        } else if (layer instanceof TileLayer) {
+            return 8L * layer.getWidth() * layer.getHeight();
+        }
+        return 0;
+    }
 }
@@ -0,0 +1,30 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.undo;
+
+/**
+ * An edit that knows roughly how much memory it keeps alive. The
+ * {@link UndoHandler} uses this to keep the undo history within its memory
+ * budget. Edits that don't implement this interface are considered to be
+ * negligible in size.
+ *
+ * @version $Id$
+ */
+public interface SizedEdit {
+    /**
+     * Returns an estimate of the memory used by this edit in bytes.
+     *
+     * @return the estimated size of this edit
+     */
+    long getMemoryUsage();
+}
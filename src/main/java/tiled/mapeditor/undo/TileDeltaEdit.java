@@ -0,0 +1,117 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.undo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tiled.core.GidTileLayer;
+import tiled.core.TileLayerDelta;
+
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import java.awt.*;
+
+/**
+ * Makes changes to a {@link GidTileLayer} undoable by recording only the
+ * cells that changed, rather than copying the layer. The recording starts
+ * when the edit is created and stops when {@link #end()} is called.
+ *
+ * @version $Id$
+ */
+public class TileDeltaEdit extends AbstractUndoableEdit implements SizedEdit {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(TileDeltaEdit.class);
+
+    private final GidTileLayer editedLayer;
+    private TileLayerDelta delta;
+    private String name;
+
+    /**
+     * Creates a new edit and starts recording the changes made to the
+     * given layer.
+     *
+     * @param layer the layer that is about to be edited
+     */
+    public TileDeltaEdit(GidTileLayer layer) {
+        editedLayer = layer;
+        editedLayer.startRecording();
+    }
+
+    /**
+     * Stops recording the changes made to the layer.
+     */
+    public void end() {
+        if (delta != null) {
+            log.warn("end called twice", new IllegalStateException());
+            return;
+        }
+        delta = editedLayer.stopRecording();
+        if (delta != null) {
+            delta.trimToSize();
+        }
+    }
+
+    /**
+     * Returns whether the edit didn't change any tiles, in which case there
+     * is no use in posting it.
+     */
+    public boolean isEmpty() {
+        return delta == null || delta.isEmpty();
+    }
+
+    /**
+     * Returns the area of the layer changed by this edit, in tiles, or
+     * <code>null</code> when nothing changed.
+     */
+    public Rectangle getArea() {
+        return delta != null ? delta.getArea() : null;
+    }
+
+    /* inherited methods */
+    public void undo() throws CannotUndoException {
+        super.undo();
+        delta.revert(editedLayer);
+    }
+
+    public boolean canUndo() {
+        return super.canUndo() && delta != null;
+    }
+
+    public void redo() throws CannotRedoException {
+        super.redo();
+        delta.apply(editedLayer);
+    }
+
+    public boolean canRedo() {
+        return super.canRedo() && delta != null;
+    }
+
+    public void die() {
+        super.die();
+        delta = null;
+    }
+
+    public String getPresentationName() {
+        return name;
+    }
+
+    public void setPresentationName(String s) {
+        name = s;
+    }
+
+    public long getMemoryUsage() {
+        return delta != null ? delta.getMemoryUsage() : 0;
+    }
+}
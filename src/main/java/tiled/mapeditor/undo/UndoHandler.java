@@ -25,9 +25,19 @@ import java.awt.event.ActionEvent;
 import java.util.Iterator;
 
 /**
+ * The undo history of a map. Besides the maximum number of edits, the
+ * history is limited by a memory budget (preference "undoMemory", in
+ * kilobytes). When the edits implementing {@link SizedEdit} exceed the
+ * budget, the oldest edits are discarded.
+ *
  * @version $Id$
  */
 public class UndoHandler extends UndoManager {
+    /**
+     * The default memory budget of the undo history in kilobytes.
+     */
+    public static final int DEFAULT_UNDO_MEMORY = 32 * 1024;
+
     private final Action undoAction = new UndoAction();
     private final Action redoAction = new RedoAction();
     private final MapEditor editor;
@@ -80,10 +90,52 @@ public class UndoHandler extends UndoManager {
 
     public void undoableEditHappened(UndoableEditEvent e) {
         super.undoableEditHappened(e);
+        trimToMemoryBudget();
         updateActions();
         editor.updateTitle();
     }
 
+    /**
+     * Returns the estimated memory used by the edits in the history.
+     *
+     * @return the memory used in bytes
+     */
+    public synchronized long getMemoryUsage() {
+        long total = 0;
+        for (UndoableEdit edit : edits) {
+            if (edit instanceof SizedEdit) {
+                total += ((SizedEdit) edit).getMemoryUsage();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Discards the oldest edits until the history fits in the configured
+     * memory budget. The most recent edit is always kept.
+     */
+    private synchronized void trimToMemoryBudget() {
+        final long budget = 1024L *
+                TiledConfiguration.root().getInt("undoMemory", DEFAULT_UNDO_MEMORY);
+        long total = getMemoryUsage();
+        int discard = 0;
+
+        while (total > budget && discard < edits.size() - 1) {
+            UndoableEdit edit = edits.get(discard++);
+            if (edit instanceof SizedEdit) {
+                total -= ((SizedEdit) edit).getMemoryUsage();
+            }
+        }
+
+        if (discard > 0) {
+            if (savedAt == null) {
+                // The unedited map can no longer be reached by undoing
+                savedAt = edits.get(0);
+            }
+            trimEdits(0, discard - 1);
+        }
+    }
+
     public boolean isAllSaved() {
         return editToBeUndone() == savedAt;
     }
@@ -92,6 +144,26 @@ public class UndoHandler extends UndoManager {
         savedAt = editToBeUndone();
     }
 
+    /**
+     * Returns the edit that {@link #commitSave()} would mark as saved now.
+     * Used to mark the right edit as saved once a map saved in the
+     * background has been written, regardless of the edits made meanwhile.
+     *
+     * @return the edit to be undone next, or <code>null</code>
+     */
+    public UndoableEdit getCurrentEdit() {
+        return editToBeUndone();
+    }
+
+    /**
+     * Marks the given edit as the one at which the map was saved.
+     *
+     * @param edit an edit returned by {@link #getCurrentEdit()}
+     */
+    public void commitSave(UndoableEdit edit) {
+        savedAt = edit;
+    }
+
     public String[] getEdits() {
         String[] list = new String[edits.size()];
         Iterator<UndoableEdit> itr = edits.iterator();
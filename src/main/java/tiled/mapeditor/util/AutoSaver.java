@@ -0,0 +1,384 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tiled.core.Map;
+import tiled.io.xml.XMLMapWriter;
+import tiled.mapeditor.MapEditor;
+import tiled.mapeditor.Resources;
+import tiled.util.TiledConfiguration;
+
+import javax.swing.*;
+import javax.swing.undo.UndoableEdit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.PreferenceChangeEvent;
+import java.util.prefs.PreferenceChangeListener;
+import java.util.prefs.Preferences;
+
+/**
+ * Saves maps on a background thread, so that the editor stays responsive
+ * while a map is being written. A snapshot of the map is taken on the event
+ * dispatch thread (see {@link Map#createSnapshot()}), which is then written
+ * on a worker thread while the user continues editing.
+ * <p>
+ * Besides saving on request, the current map is saved periodically to an
+ * autosave file when it has unsaved changes. Autosaving is configured in
+ * the "autosave" preferences node:
+ * <ul>
+ * <li>"enabled": whether to autosave at all</li>
+ * <li>"interval": the time between autosaves in minutes</li>
+ * <li>"keep": the number of autosave files kept per map</li>
+ * <li>"directory": where autosave files are written, by default the
+ * ".tiled/autosave" directory in the home directory of the user</li>
+ * </ul>
+ * <p>
+ * The time taken to capture the last snapshot and to write the last file
+ * are available through {@link #getLastSnapshotTime()} and
+ * {@link #getLastSaveDuration()}.
+ *
+ * @version $Id$
+ */
+public class AutoSaver {
+    public static final int DEFAULT_INTERVAL = 5;
+    public static final int DEFAULT_KEEP = 5;
+
+    private static final String STATUS_AUTOSAVED_FORMAT = Resources.getString("status.file.info.autosaved.format_ms_ms");
+    private static final String STATUS_SAVED_FORMAT = Resources.getString("status.file.info.saved.format_ms_ms");
+    private static final String STATUS_AUTOSAVE_FAILED = Resources.getString("status.file.error.autosave.failure");
+    private static final String SAVE_ERROR_MESSAGE = Resources.getString("dialog.saveas.error.message");
+    private static final String SAVE_ERROR_TITLE = Resources.getString("dialog.saveas.error.title");
+    private static final String AUTOSAVE_INFIX = ".autosave-";
+
+    private static final Preferences prefs = TiledConfiguration.node("autosave");
+
+    private final Logger log = LoggerFactory.getLogger(AutoSaver.class);
+    private final MapEditor editor;
+    private final Timer timer;
+    private final ExecutorService executor;
+
+    // Only accessed on the event dispatch thread
+    private boolean autosaving;
+    private Map lastAutosavedMap;
+    private UndoableEdit lastAutosavedEdit;
+    private int saveGeneration;
+
+    private volatile long lastSnapshotTime = -1;
+    private volatile long lastSaveDuration = -1;
+
+    public AutoSaver(MapEditor editor) {
+        this.editor = editor;
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Map saver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        timer = new Timer(getInterval(), new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                autosave();
+            }
+        });
+        timer.setRepeats(true);
+
+        prefs.addPreferenceChangeListener(new PreferenceChangeListener() {
+            public void preferenceChange(PreferenceChangeEvent evt) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        timer.setDelay(getInterval());
+                        timer.setInitialDelay(getInterval());
+                        timer.restart();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Starts saving the current map periodically.
+     */
+    public void start() {
+        timer.start();
+    }
+
+    /**
+     * Stops autosaving and waits for the saves in progress to finish. To be
+     * called when the editor exits.
+     */
+    public void shutdown() {
+        timer.stop();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for saves to finish", e);
+        }
+    }
+
+    /**
+     * Returns the time it took to capture the last snapshot.
+     *
+     * @return the time in nanoseconds, or -1 if no snapshot was taken yet
+     */
+    public long getLastSnapshotTime() {
+        return lastSnapshotTime;
+    }
+
+    /**
+     * Returns the time it took to write the last snapshot to a file.
+     *
+     * @return the time in nanoseconds, or -1 if no snapshot was written yet
+     */
+    public long getLastSaveDuration() {
+        return lastSaveDuration;
+    }
+
+    private static int getInterval() {
+        return Math.max(1, prefs.getInt("interval", DEFAULT_INTERVAL)) * 60 * 1000;
+    }
+
+    /**
+     * Returns the directory autosave files are written to.
+     */
+    public static File getDirectory() {
+        final String directory = prefs.get("directory", "");
+        if (directory.length() > 0) {
+            return new File(directory);
+        }
+        return new File(new File(System.getProperty("user.home"), ".tiled"),
+                "autosave");
+    }
+
+    /**
+     * Saves the given map to the given file in the background. When the map
+     * has been written, the undo history is marked as saved at the point
+     * the snapshot was taken. Errors are reported in a dialog.
+     *
+     * @param map      the map to save
+     * @param filename the TMX file to save the map to
+     */
+    public void save(final Map map, final String filename) {
+        final UndoableEdit edit = editor.getUndoHandler().getCurrentEdit();
+        final Map snapshot = takeSnapshot(map);
+        if (snapshot == null) {
+            return;
+        }
+        final int generation = ++saveGeneration;
+
+        executor.execute(new Runnable() {
+            public void run() {
+                final long start = System.nanoTime();
+                Exception error = null;
+                try {
+                    new XMLMapWriter().writeMap(snapshot, filename);
+                } catch (Exception e) {
+                    error = e;
+                }
+                lastSaveDuration = System.nanoTime() - start;
+
+                final Exception saveError = error;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        finishSave(map, filename, edit, generation, saveError);
+                    }
+                });
+            }
+        });
+    }
+
+    private void finishSave(Map map, String filename, UndoableEdit edit,
+                            int generation, Exception error) {
+        if (error != null) {
+            log.error("Could not save " + filename, error);
+            JOptionPane.showMessageDialog(editor.getAppFrame(),
+                    SAVE_ERROR_MESSAGE + " " + filename + ": " +
+                            error.getLocalizedMessage(),
+                    SAVE_ERROR_TITLE,
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        log.info("Saved " + filename + ": snapshot " +
+                lastSnapshotTime / 1000000 + " ms, writing " +
+                lastSaveDuration / 1000000 + " ms");
+
+        map.setFilename(filename);
+        editor.updateRecent(filename);
+
+        // A later save, or switching to another map, makes this one stale
+        if (generation == saveGeneration && editor.getCurrentMap() == map) {
+            editor.getUndoHandler().commitSave(edit);
+            editor.updateTitle();
+            editor.showStatusText(String.format(STATUS_SAVED_FORMAT,
+                    lastSnapshotTime / 1000000, lastSaveDuration / 1000000));
+        }
+    }
+
+    /**
+     * Waits for the saves in progress to finish. To be called before saving
+     * on the event dispatch thread, so that an earlier background save can
+     * not overwrite the file afterwards. Background saves that have not
+     * reported back yet will no longer mark the map as saved.
+     */
+    public void waitForSaves() {
+        saveGeneration++;
+        try {
+            executor.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for saves to finish", e);
+        } catch (ExecutionException e) {
+            log.warn("Waiting for saves to finish failed", e);
+        }
+    }
+
+    /**
+     * Saves the current map to an autosave file in the background, if it has
+     * changed since it was last saved or autosaved.
+     */
+    public void autosave() {
+        final Map map = editor.getCurrentMap();
+        if (map == null || autosaving || !prefs.getBoolean("enabled", true) ||
+                !editor.unsavedChanges()) {
+            return;
+        }
+
+        final UndoableEdit edit = editor.getUndoHandler().getCurrentEdit();
+        if (map == lastAutosavedMap && edit == lastAutosavedEdit) {
+            return;
+        }
+
+        final Map snapshot = takeSnapshot(map);
+        if (snapshot == null) {
+            return;
+        }
+        lastAutosavedMap = map;
+        lastAutosavedEdit = edit;
+        autosaving = true;
+
+        final File directory = getDirectory();
+        final String prefix = getAutosavePrefix(map);
+        final File file = new File(directory, prefix +
+                new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) +
+                ".tmx");
+        final int keep = Math.max(1, prefs.getInt("keep", DEFAULT_KEEP));
+
+        executor.execute(new Runnable() {
+            public void run() {
+                final long start = System.nanoTime();
+                Exception error = null;
+                try {
+                    directory.mkdirs();
+                    new XMLMapWriter().writeMap(snapshot, file.getPath());
+                    removeOldAutosaves(directory, prefix, keep);
+                } catch (Exception e) {
+                    error = e;
+                }
+                lastSaveDuration = System.nanoTime() - start;
+
+                final Exception saveError = error;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        finishAutosave(file, saveError);
+                    }
+                });
+            }
+        });
+    }
+
+    private void finishAutosave(File file, Exception error) {
+        autosaving = false;
+        if (error != null) {
+            log.warn("Could not autosave " + file, error);
+            // Try again next time
+            lastAutosavedEdit = null;
+            editor.showStatusError(STATUS_AUTOSAVE_FAILED);
+            return;
+        }
+
+        log.info("Autosaved " + file + ": snapshot " +
+                lastSnapshotTime / 1000000 + " ms, writing " +
+                lastSaveDuration / 1000000 + " ms");
+        editor.showStatusText(String.format(STATUS_AUTOSAVED_FORMAT,
+                lastSnapshotTime / 1000000, lastSaveDuration / 1000000));
+    }
+
+    private Map takeSnapshot(Map map) {
+        final long start = System.nanoTime();
+        try {
+            Map snapshot = map.createSnapshot();
+            lastSnapshotTime = System.nanoTime() - start;
+            return snapshot;
+        } catch (CloneNotSupportedException e) {
+            log.error("Could not take a snapshot of the map", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the start of the names of the autosave files of a map.
+     */
+    private static String getAutosavePrefix(Map map) {
+        String name = map.getFilename() != null ?
+                new File(map.getFilename()).getName() :
+                Resources.getString("general.file.untitled");
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".tmx")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return name + AUTOSAVE_INFIX;
+    }
+
+    /**
+     * Deletes the oldest autosave files with the given prefix, keeping the
+     * given number of files. The date in their names makes the oldest files
+     * sort first.
+     */
+    private void removeOldAutosaves(File directory, final String prefix,
+                                    int keep) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(".tmx");
+            }
+        });
+        if (files == null || files.length <= keep) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (int i = 0; i < files.length - keep; i++) {
+            if (!files[i].delete()) {
+                log.warn("Could not delete " + files[i]);
+            }
+        }
+    }
+}
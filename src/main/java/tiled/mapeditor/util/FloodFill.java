@@ -0,0 +1,180 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.util;
+
+import tiled.core.GidTileLayer;
+import tiled.core.Tile;
+import tiled.core.TileLayer;
+import tiled.mapeditor.selection.SelectionLayer;
+
+import java.awt.*;
+
+/**
+ * A scanline flood fill for tile layers. Rather than visiting every tile
+ * through an object stack, it fills whole horizontal spans at once and
+ * only remembers one seed position per span of the neighbouring rows, kept
+ * as packed coordinates on a primitive stack.
+ * <p>
+ * The filled spans are returned as packed (y, x0, x1) triples, with x1
+ * exclusive, so that the fill can be undone without copying the layer.
+ *
+ * @version $Id$
+ */
+public final class FloodFill {
+    private final TileLayer layer;
+    private final GidTileLayer gidLayer;
+    private final SelectionLayer mask;
+    private final Tile oldTile;
+    private final int oldGid;
+
+    private int[] seeds = new int[64];
+    private int seedCount;
+    private int[] spans = new int[3 * 16];
+    private int spanLength;
+
+    private FloodFill(TileLayer layer, int x, int y, SelectionLayer mask) {
+        this.layer = layer;
+        this.mask = mask;
+        if (layer instanceof GidTileLayer) {
+            gidLayer = (GidTileLayer) layer;
+            oldGid = gidLayer.getGidAt(x, y);
+            oldTile = null;
+        } else {
+            gidLayer = null;
+            oldGid = 0;
+            oldTile = layer.getTileAt(x, y);
+        }
+    }
+
+    /**
+     * Replaces the tile at the given position, and all tiles equal to it
+     * that are connected to it, by the new tile.
+     *
+     * @param layer   the layer to fill
+     * @param x       Tile-space x coordinate to start filling at
+     * @param y       Tile-space y coordinate to start filling at
+     * @param newTile the tile to fill with, may be <code>null</code>
+     * @param mask    when not <code>null</code>, the fill is limited to the
+     *                tiles selected in this layer
+     * @return the filled spans as (y, x0, x1) triples, empty when nothing
+     *         was changed
+     */
+    public static int[] fill(TileLayer layer, int x, int y, Tile newTile,
+                             SelectionLayer mask) {
+        FloodFill fill = new FloodFill(layer, x, y, mask);
+        if (fill.matches(newTile) || !layer.canEdit()) {
+            return new int[0];
+        }
+        return fill.run(x, y, newTile);
+    }
+
+    /**
+     * Sets all tiles in the given spans to the given tile.
+     *
+     * @param layer the layer to change
+     * @param spans (y, x0, x1) triples as returned by
+     *              {@link #fill(TileLayer, int, int, Tile, SelectionLayer)}
+     * @param tile  the tile to set, may be <code>null</code>
+     */
+    public static void fillSpans(TileLayer layer, int[] spans, Tile tile) {
+        for (int i = 0; i < spans.length; i += 3) {
+            layer.fillRegion(new Rectangle(spans[i + 1], spans[i],
+                    spans[i + 2] - spans[i + 1], 1), tile);
+        }
+    }
+
+    private boolean matches(Tile tile) {
+        if (gidLayer != null) {
+            return (tile != null ? tile.getGid() : 0) == oldGid;
+        }
+        return tile == oldTile;
+    }
+
+    private boolean isFillable(int x, int y) {
+        if (!layer.contains(x, y) || (mask != null && !mask.isSelected(x, y))) {
+            return false;
+        }
+        if (gidLayer != null) {
+            return gidLayer.getGidAt(x, y) == oldGid;
+        }
+        return layer.getTileAt(x, y) == oldTile;
+    }
+
+    private int[] run(int x, int y, Tile newTile) {
+        pushSeed(x, y);
+
+        while (seedCount > 0) {
+            seedCount -= 2;
+            final int sx = seeds[seedCount];
+            final int sy = seeds[seedCount + 1];
+            if (!isFillable(sx, sy)) {
+                continue;
+            }
+
+            // Extend the span to both sides and fill it
+            int x0 = sx;
+            while (isFillable(x0 - 1, sy)) {
+                x0--;
+            }
+            int x1 = sx + 1;
+            while (isFillable(x1, sy)) {
+                x1++;
+            }
+            layer.fillRegion(new Rectangle(x0, sy, x1 - x0, 1), newTile);
+            addSpan(sy, x0, x1);
+
+            // One seed for each run of fillable tiles above and below
+            pushRuns(x0, x1, sy - 1);
+            pushRuns(x0, x1, sy + 1);
+        }
+
+        int[] result = new int[spanLength];
+        System.arraycopy(spans, 0, result, 0, spanLength);
+        return result;
+    }
+
+    private void pushRuns(int x0, int x1, int y) {
+        boolean inRun = false;
+        for (int i = x0; i < x1; i++) {
+            if (isFillable(i, y)) {
+                if (!inRun) {
+                    pushSeed(i, y);
+                    inRun = true;
+                }
+            } else {
+                inRun = false;
+            }
+        }
+    }
+
+    private void pushSeed(int x, int y) {
+        if (seedCount + 2 > seeds.length) {
+            int[] grown = new int[seeds.length * 2];
+            System.arraycopy(seeds, 0, grown, 0, seedCount);
+            seeds = grown;
+        }
+        seeds[seedCount++] = x;
+        seeds[seedCount++] = y;
+    }
+
+    private void addSpan(int y, int x0, int x1) {
+        if (spanLength + 3 > spans.length) {
+            int[] grown = new int[spans.length * 2];
+            System.arraycopy(spans, 0, grown, 0, spanLength);
+            spans = grown;
+        }
+        spans[spanLength++] = y;
+        spans[spanLength++] = x0;
+        spans[spanLength++] = x1;
+    }
+}
@@ -166,4 +166,7 @@ public class TilesetTableModel extends AbstractTableModel implements MapChangeLi
 
     public void layerChanged(MapChangedEvent e, MapLayerChangeEvent layerChangeEvent) {
     }
+
+    public void regionChanged(MapChangedEvent e) {
+    }
 }
@@ -0,0 +1,412 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tiled.core.*;
+import tiled.core.Map;
+import tiled.io.PluginLogger;
+import tiled.io.xml.XMLMapReader;
+import tiled.mapeditor.MapEditor;
+import tiled.util.ImageHash;
+import tiled.view.MapView;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Reloads the tilesets of the current map when their files change on disk.
+ * A single background thread watches the directories of the tileset images
+ * and external tileset files with a {@link WatchService}.
+ * <p>
+ * Image editors often write a file in several steps, so a changed file is
+ * only reloaded once it has not changed for {@link #SETTLE_TIME}
+ * milliseconds. The file is decoded on the watcher thread, which also
+ * finds the tiles whose pixels changed by comparing hashes against the
+ * tile images taken on the event dispatch thread. Only those tiles are
+ * replaced on the event dispatch thread, and the map view is repainted
+ * where they are shown.
+ * <p>
+ * For external tilesets only the tile images are updated. Other changes to
+ * the tileset file, like its properties, are picked up when the map is
+ * opened again.
+ *
+ * @version $Id$
+ */
+public class TilesetWatcher {
+    public static final long SETTLE_TIME = 300;
+
+    private final Logger log = LoggerFactory.getLogger(TilesetWatcher.class);
+    private final MapEditor editor;
+    private WatchService watchService;
+
+    // Guarded by this
+    private final java.util.Map<Path, List<TileSet>> imageFiles =
+            new HashMap<Path, List<TileSet>>();
+    private final java.util.Map<Path, List<TileSet>> tilesetFiles =
+            new HashMap<Path, List<TileSet>>();
+    private final java.util.Map<Path, WatchKey> directories =
+            new HashMap<Path, WatchKey>();
+    private final java.util.Map<Path, Long> pending =
+            new HashMap<Path, Long>();
+
+    // Only accessed on the event dispatch thread
+    private Map map;
+
+    private final MapChangeListener mapListener = new MapChangeAdapter() {
+        public void tilesetAdded(MapChangedEvent e, TileSet tileset) {
+            tileset.addTilesetChangeListener(tilesetListener);
+            update();
+        }
+
+        public void tilesetRemoved(MapChangedEvent e, int index) {
+            update();
+        }
+    };
+
+    private final TilesetChangeListener tilesetListener = new TilesetChangeListener() {
+        public void tilesetChanged(TilesetChangedEvent event) {
+        }
+
+        public void nameChanged(TilesetChangedEvent event, String oldName, String newName) {
+        }
+
+        public void sourceChanged(TilesetChangedEvent event, String oldSource, String newSource) {
+            update();
+        }
+    };
+
+    public TilesetWatcher(MapEditor editor) {
+        this.editor = editor;
+    }
+
+    /**
+     * Starts the watcher thread. When the platform offers no way to watch
+     * files, tilesets are only reloaded on request.
+     */
+    public void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            log.warn("Tileset files will not be watched", e);
+            return;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "Tileset watcher");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops watching files. To be called when the editor exits.
+     */
+    public void shutdown() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("Could not stop watching tileset files", e);
+            }
+        }
+    }
+
+    /**
+     * Watches the tileset files of the given map instead of those of the
+     * previous one. To be called on the event dispatch thread.
+     *
+     * @param newMap the map to watch, or <code>null</code> to watch nothing
+     */
+    public void setMap(Map newMap) {
+        if (map != null) {
+            map.removeMapChangeListener(mapListener);
+            for (TileSet tileset : map.getTilesets()) {
+                tileset.removeTilesetChangeListener(tilesetListener);
+            }
+        }
+        map = newMap;
+        if (map != null) {
+            map.addMapChangeListener(mapListener);
+            for (TileSet tileset : map.getTilesets()) {
+                tileset.addTilesetChangeListener(tilesetListener);
+            }
+        }
+        update();
+    }
+
+    /**
+     * Collects the files used by the tilesets of the current map, and
+     * watches the directories they are in.
+     */
+    private void update() {
+        if (watchService == null) {
+            return;
+        }
+
+        java.util.Map<Path, List<TileSet>> images = new HashMap<Path, List<TileSet>>();
+        java.util.Map<Path, List<TileSet>> tilesets = new HashMap<Path, List<TileSet>>();
+        if (map != null) {
+            for (TileSet tileset : map.getTilesets()) {
+                if (tileset.isSetFromImage() && tileset.getTilebmpFile() != null) {
+                    add(images, tileset.getTilebmpFile(), tileset);
+                }
+                if (tileset.getSource() != null) {
+                    add(tilesets, tileset.getSource(), tileset);
+                }
+            }
+        }
+
+        Set<Path> dirs = new HashSet<Path>();
+        for (Path file : images.keySet()) {
+            dirs.add(file.getParent());
+        }
+        for (Path file : tilesets.keySet()) {
+            dirs.add(file.getParent());
+        }
+
+        synchronized (this) {
+            imageFiles.clear();
+            imageFiles.putAll(images);
+            tilesetFiles.clear();
+            tilesetFiles.putAll(tilesets);
+            Set<Path> files = new HashSet<Path>(images.keySet());
+            files.addAll(tilesets.keySet());
+            pending.keySet().retainAll(files);
+
+            Iterator<java.util.Map.Entry<Path, WatchKey>> it =
+                    directories.entrySet().iterator();
+            while (it.hasNext()) {
+                java.util.Map.Entry<Path, WatchKey> entry = it.next();
+                if (!dirs.remove(entry.getKey())) {
+                    entry.getValue().cancel();
+                    it.remove();
+                }
+            }
+            for (Path dir : dirs) {
+                try {
+                    directories.put(dir, dir.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY));
+                } catch (IOException e) {
+                    log.warn("Could not watch " + dir, e);
+                } catch (ClosedWatchServiceException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void add(java.util.Map<Path, List<TileSet>> files,
+                            String filename, TileSet tileset) {
+        final Path file = new File(filename).toPath().toAbsolutePath().normalize();
+        List<TileSet> sets = files.get(file);
+        if (sets == null) {
+            sets = new ArrayList<TileSet>(1);
+            files.put(file, sets);
+        }
+        sets.add(tileset);
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key;
+                final long wait = getWait();
+                if (wait < 0) {
+                    key = watchService.take();
+                } else {
+                    key = watchService.poll(wait, java.util.concurrent.TimeUnit.MILLISECONDS);
+                }
+                if (key != null) {
+                    collect(key);
+                }
+                for (Path file : takeSettled()) {
+                    reload(file);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop watching
+        } catch (ClosedWatchServiceException e) {
+            // Stop watching
+        }
+    }
+
+    /**
+     * Returns the time until the next pending file settles, or -1 when no
+     * files are pending.
+     */
+    private synchronized long getWait() {
+        long wait = -1;
+        final long now = System.currentTimeMillis();
+        for (long due : pending.values()) {
+            final long left = Math.max(1, due - now);
+            wait = wait < 0 ? left : Math.min(wait, left);
+        }
+        return wait;
+    }
+
+    /**
+     * Marks the watched files among the changes of the given key as
+     * pending, restarting their settle time.
+     */
+    private synchronized void collect(WatchKey key) {
+        final long due = System.currentTimeMillis() + SETTLE_TIME;
+        final Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                for (Path file : imageFiles.keySet()) {
+                    pending.put(file, due);
+                }
+                for (Path file : tilesetFiles.keySet()) {
+                    pending.put(file, due);
+                }
+                continue;
+            }
+            final Path file = dir.resolve((Path) event.context());
+            if (imageFiles.containsKey(file) || tilesetFiles.containsKey(file)) {
+                pending.put(file, due);
+            }
+        }
+        key.reset();
+    }
+
+    private synchronized List<Path> takeSettled() {
+        List<Path> settled = new ArrayList<Path>();
+        final long now = System.currentTimeMillis();
+        Iterator<java.util.Map.Entry<Path, Long>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            java.util.Map.Entry<Path, Long> entry = it.next();
+            if (entry.getValue() <= now) {
+                settled.add(entry.getKey());
+                it.remove();
+            }
+        }
+        return settled;
+    }
+
+    private void reload(Path file) throws InterruptedException {
+        List<TileSet> images;
+        List<TileSet> tilesets;
+        synchronized (this) {
+            images = imageFiles.get(file);
+            tilesets = tilesetFiles.get(file);
+        }
+
+        if (images != null) {
+            for (TileSet tileset : images) {
+                try {
+                    BufferedImage tilebmp = tileset.loadTileBitmap();
+                    Image[] current = getTileImages(tileset);
+                    if (current != null) {
+                        replace(tileset, tilebmp,
+                                tileset.findChangedTiles(tilebmp, current));
+                    }
+                } catch (IOException e) {
+                    log.warn("Could not reload " + file, e);
+                }
+            }
+        }
+
+        if (tilesets != null) {
+            TileSet reloaded;
+            try {
+                XMLMapReader reader = new XMLMapReader();
+                reader.setLogger(new PluginLogger());
+                reloaded = reader.readTileset(file.toString());
+            } catch (Exception e) {
+                log.warn("Could not reload " + file, e);
+                return;
+            }
+            for (TileSet tileset : tilesets) {
+                Image[] current = getTileImages(tileset);
+                if (current != null) {
+                    replace(tileset, null, findChangedTiles(current, reloaded));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the current tile images of the given tileset, taken on the
+     * event dispatch thread, which is where the tileset is changed.
+     *
+     * @return the tile images by tile id, or <code>null</code> when they
+     *         could not be taken
+     */
+    private Image[] getTileImages(final TileSet tileset)
+            throws InterruptedException {
+        final Image[][] images = new Image[1][];
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    images[0] = tileset.getTileImages();
+                }
+            });
+        } catch (InvocationTargetException e) {
+            log.error("Failed to read the tiles of " + tileset.getName(),
+                    e.getCause());
+        }
+        return images[0];
+    }
+
+    /**
+     * Returns the tile images of the reloaded tileset that differ from the
+     * given current images, by tile id.
+     */
+    private static java.util.Map<Integer, Image> findChangedTiles(
+            Image[] current, TileSet reloaded) {
+        java.util.Map<Integer, Image> changed = new TreeMap<Integer, Image>();
+        for (int id = 0; id <= reloaded.getMaxTileId(); id++) {
+            Tile tile = reloaded.getTile(id);
+            Image image = tile != null ? tile.getImage() : null;
+            if (image == null) {
+                continue;
+            }
+            Image oldImage = id < current.length ? current[id] : null;
+            if (oldImage == null ||
+                    ImageHash.hash(oldImage) != ImageHash.hash(image)) {
+                changed.put(id, image);
+            }
+        }
+        return changed;
+    }
+
+    private void replace(final TileSet tileset, final BufferedImage tilebmp,
+                         final java.util.Map<Integer, Image> changed) {
+        if (changed.isEmpty() && tilebmp == null) {
+            return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                Collection<Tile> tiles = tileset.replaceTileImages(tilebmp, changed);
+                MapView view = editor.getMapView();
+                if (!tiles.isEmpty() && view != null &&
+                        editor.getCurrentMap() == map) {
+                    view.repaintTiles(tiles);
+                }
+            }
+        });
+    }
+}
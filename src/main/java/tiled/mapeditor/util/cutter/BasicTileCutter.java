@@ -14,6 +14,8 @@ package tiled.mapeditor.util.cutter;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Cuts tiles from a tileset image according to a regular rectangular pattern.
@@ -62,6 +64,28 @@ public class BasicTileCutter implements TileCutter {
         return null;
     }
 
+    /**
+     * Returns the locations of the tiles in the image, in the order in
+     * which {@link #getNextTile()} returns them.
+     *
+     * @return the top left corner of each tile
+     */
+    public List<Point> getTileLocations() {
+        List<Point> locations = new ArrayList<Point>();
+        int x = tileMargin;
+        int y = tileMargin;
+        while (y + tileHeight + tileMargin <= image.getHeight()) {
+            locations.add(new Point(x, y));
+            x += tileWidth + tileSpacing;
+
+            if (x + tileWidth + tileMargin > image.getWidth()) {
+                x = tileMargin;
+                y += tileHeight + tileSpacing;
+            }
+        }
+        return locations;
+    }
+
     public void reset() {
         nextX = tileMargin;
         nextY = tileMargin;
@@ -13,23 +13,141 @@
 
 package tiled.mapeditor.widget;
 
+import tiled.core.*;
+import tiled.core.Map;
 import tiled.view.MapView;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.WeakHashMap;
 
-
+/**
+ * Shows an overview of the whole map, in which each tile is drawn as a
+ * block of the average colour of the tiles stacked on it. The part of the
+ * map visible in the main scroll pane is framed, and dragging the mouse
+ * over the overview moves the main view along.
+ * <p>
+ * The colours are kept in a low resolution raster with one pixel per
+ * tile, split in chunks of {@link #CHUNK_SIZE} by {@link #CHUNK_SIZE}
+ * tiles that are only allocated once they hold a tile. The raster is
+ * brought up to date on a background thread, which renders only the
+ * regions of the map that changed since. The map itself is only read on
+ * the event dispatch thread: the background thread has the tile images of
+ * each chunk collected there and only computes their colours itself.
+ *
+ * @version $Id$
+ */
 public class MiniMapViewer extends JPanel {
     public static final int MAX_HEIGHT = 150;
+    public static final int CHUNK_SIZE = 64;
+
+    private static final Color BACKGROUND_COLOR = new Color(64, 64, 64);
 
     private MapView myView;
     private JScrollPane mainPanel;
+    private final Logger log = LoggerFactory.getLogger(MiniMapViewer.class);
+
     private double scale = 0.0625;
-    private BufferedImage renderedMap;
+    private volatile ColorRaster raster;
+
+    // The tilesets of the shown map that are being listened to
+    private final ArrayList<TileSet> tilesets = new ArrayList<TileSet>();
+
+    // Region of the map that needs rendering, in tiles, guarded by itself
+    private final Rectangle dirty = new Rectangle();
+    private Thread renderer;
+
+    // Average colours of tile images, guarded by itself. The generation is
+    // increased whenever colours are dropped, so that colours computed from
+    // images that changed meanwhile are not stored.
+    private final WeakHashMap<Image, Integer> tileColors =
+            new WeakHashMap<Image, Integer>();
+    private int tileColorGeneration;
+
+    private final MapChangeListener mapListener = new MapChangeAdapter() {
+        public void mapChanged(MapChangedEvent e) {
+            refresh();
+        }
+
+        public void layerAdded(MapChangedEvent e) {
+            refresh();
+        }
+
+        public void layerRemoved(MapChangedEvent e) {
+            refresh();
+        }
+
+        public void layerMoved(MapChangedEvent e) {
+            refresh();
+        }
+
+        public void layerChanged(MapChangedEvent e, MapLayerChangeEvent mlce) {
+            refresh();
+        }
+
+        public void regionChanged(MapChangedEvent e) {
+            refresh(e.getLayer(), e.getRegion());
+        }
+
+        public void tilesetAdded(MapChangedEvent e, TileSet tileset) {
+            watchTilesets();
+            refresh();
+        }
+
+        public void tilesetRemoved(MapChangedEvent e, int index) {
+            watchTilesets();
+            refresh();
+        }
+    };
+
+    private final TilesetChangeListener tilesetListener = new TilesetChangeListener() {
+        public void tilesetChanged(TilesetChangedEvent event) {
+            dropTileColors(event.getTileset(), event.getChangedTiles());
+            refresh();
+        }
+
+        public void nameChanged(TilesetChangedEvent event, String oldName, String newName) {
+        }
+
+        public void sourceChanged(TilesetChangedEvent event, String oldSource, String newSource) {
+        }
+    };
+
+    private final AdjustmentListener scrollListener = new AdjustmentListener() {
+        public void adjustmentValueChanged(AdjustmentEvent e) {
+            repaint();
+        }
+    };
 
     public MiniMapViewer() {
         setSize(MAX_HEIGHT, MAX_HEIGHT);
+
+        MouseAdapter panner = new MouseAdapter() {
+            public void mousePressed(MouseEvent e) {
+                if (SwingUtilities.isLeftMouseButton(e)) {
+                    centerMainView(e.getX(), e.getY());
+                }
+            }
+
+            public void mouseDragged(MouseEvent e) {
+                if (SwingUtilities.isLeftMouseButton(e)) {
+                    centerMainView(e.getX(), e.getY());
+                }
+            }
+        };
+        addMouseListener(panner);
+        addMouseMotionListener(panner);
     }
 
     public MiniMapViewer(MapView view) {
@@ -37,20 +155,33 @@ public class MiniMapViewer extends JPanel {
         setView(view);
     }
 
+    /**
+     * Shows the map of the given view, which is the view shown in the main
+     * scroll pane.
+     *
+     * @param view the main map view, or <code>null</code> to show nothing
+     */
     public void setView(MapView view) {
+        if (myView != null) {
+            myView.getMap().removeMapChangeListener(mapListener);
+        }
         myView = view;
-        myView.setZoom(scale);
-        Dimension d = myView.getPreferredSize();
-        renderedMap = new BufferedImage(d.width, d.height, BufferedImage.TYPE_INT_ARGB);
-        //scale = MAX_HEIGHT / (double)d.height;
-        Graphics2D g = renderedMap.createGraphics();
-        g.setClip(0, 0, d.width, d.height);
-        myView.paint(g);
+        if (myView != null) {
+            myView.getMap().addMapChangeListener(mapListener);
+            raster = new ColorRaster(myView.getMap());
+        } else {
+            raster = null;
+        }
+        watchTilesets();
+        refresh();
+        revalidate();
+        repaint();
     }
 
     public Dimension getPreferredSize() {
-        if (myView != null) {
-            return myView.getPreferredSize();
+        final ColorRaster r = raster;
+        if (r != null) {
+            return new Dimension(r.width * r.cellWidth, r.height * r.cellHeight);
         }
         return new Dimension(0, 0);
     }
@@ -60,38 +191,459 @@ public class MiniMapViewer extends JPanel {
     }
 
     public void setMainPanel(JScrollPane main) {
+        if (mainPanel != null) {
+            mainPanel.getHorizontalScrollBar().removeAdjustmentListener(scrollListener);
+            mainPanel.getVerticalScrollBar().removeAdjustmentListener(scrollListener);
+        }
         mainPanel = main;
+        if (mainPanel != null) {
+            mainPanel.getHorizontalScrollBar().addAdjustmentListener(scrollListener);
+            mainPanel.getVerticalScrollBar().addAdjustmentListener(scrollListener);
+        }
     }
 
+    /**
+     * Listens to exactly the tilesets of the shown map.
+     */
+    private void watchTilesets() {
+        for (TileSet tileset : tilesets) {
+            tileset.removeTilesetChangeListener(tilesetListener);
+        }
+        tilesets.clear();
+        if (myView != null) {
+            tilesets.addAll(myView.getMap().getTilesets());
+            for (TileSet tileset : tilesets) {
+                tileset.addTilesetChangeListener(tilesetListener);
+            }
+        }
+    }
+
+    /**
+     * Drops the cached colours of the given tiles, which may have changed
+     * their images in place.
+     *
+     * @param tileset      the tileset that changed
+     * @param changedTiles the changed tiles, or <code>null</code> when any
+     *                     tile of the tileset may have changed
+     */
+    private void dropTileColors(TileSet tileset, Collection<Tile> changedTiles) {
+        synchronized (tileColors) {
+            tileColorGeneration++;
+            if (changedTiles == null) {
+                tileColors.clear();
+                return;
+            }
+            for (Tile tile : changedTiles) {
+                final Image image = tile.getImage();
+                if (image != null) {
+                    tileColors.remove(image);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the whole map again. When the map was resized, the raster is
+     * replaced by one of the new size.
+     */
     public void refresh() {
-        if (renderedMap != null && myView != null) {
-            Dimension d = myView.getPreferredSize();
-            Graphics2D g = renderedMap.createGraphics();
-            g.setClip(0, 0, d.width, d.height);
-            myView.paint(g);
+        final ColorRaster r = raster;
+        if (r == null) {
+            return;
+        }
+        final Map map = r.map;
+        if (map.getWidth() != r.width || map.getHeight() != r.height ||
+                map.getTileWidth() != r.tileWidth ||
+                map.getTileHeight() != r.tileHeight) {
+            raster = new ColorRaster(map);
+            revalidate();
         }
+        invalidateTiles(new Rectangle(0, 0, map.getWidth(), map.getHeight()));
+    }
+
+    /**
+     * Renders again the tiles of the map covered by the given region of a
+     * layer.
+     *
+     * @param layer  the layer that changed
+     * @param region the changed region, in tiles of the layer
+     */
+    public void refresh(MapLayer layer, Rectangle region) {
+        final ColorRaster r = raster;
+        if (r == null) {
+            return;
+        }
+
+        // Layers may have other tile sizes than the map
+        final int lw = Math.max(1, layer.getTileWidth());
+        final int lh = Math.max(1, layer.getTileHeight());
+        final int x1 = floorDiv(region.x * lw, r.tileWidth);
+        final int y1 = floorDiv(region.y * lh, r.tileHeight);
+        final int x2 = floorDiv((region.x + region.width) * lw - 1, r.tileWidth);
+        final int y2 = floorDiv((region.y + region.height) * lh - 1, r.tileHeight);
+        invalidateTiles(new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1));
+    }
+
+    private static int floorDiv(int a, int b) {
+        return a >= 0 ? a / b : -((-a + b - 1) / b);
+    }
+
+    /**
+     * Adds the given region, in tiles, to the region to be rendered by the
+     * background thread.
+     */
+    private void invalidateTiles(Rectangle region) {
+        if (region.isEmpty()) {
+            return;
+        }
+        synchronized (dirty) {
+            if (dirty.isEmpty()) {
+                dirty.setBounds(region);
+            } else {
+                dirty.add(region);
+            }
+            dirty.notifyAll();
+        }
+    }
+
+    public void addNotify() {
+        super.addNotify();
+        renderer = new Thread(new Runnable() {
+            public void run() {
+                render();
+            }
+        }, "Mini map renderer");
+        renderer.setDaemon(true);
+        renderer.setPriority(Thread.MIN_PRIORITY);
+        renderer.start();
+    }
+
+    public void removeNotify() {
+        renderer.interrupt();
+        renderer = null;
+        super.removeNotify();
+    }
+
+    /**
+     * Renders the dirty regions of the raster as they come in, until the
+     * thread is interrupted.
+     */
+    private void render() {
+        final Rectangle region = new Rectangle();
+        try {
+            while (true) {
+                ColorRaster r;
+                synchronized (dirty) {
+                    while (dirty.isEmpty()) {
+                        dirty.wait();
+                    }
+                    region.setBounds(dirty);
+                    dirty.setBounds(0, 0, 0, 0);
+                    r = raster;
+                }
+                if (r != null) {
+                    r.render(region);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stop rendering
+        }
+    }
+
+    /**
+     * Scrolls the main view so that the part of the map shown at the given
+     * point of this viewer is in its center.
+     */
+    private void centerMainView(int x, int y) {
+        if (mainPanel == null || getWidth() == 0 || getHeight() == 0) {
+            return;
+        }
+        final JViewport viewport = mainPanel.getViewport();
+        final Component view = viewport.getView();
+        if (view == null) {
+            return;
+        }
+        final Dimension viewSize = view.getSize();
+        final Dimension extent = viewport.getExtentSize();
+        final Dimension size = getPreferredSize();
+        int vx = (int) ((long) x * viewSize.width / Math.max(1, size.width)) - extent.width / 2;
+        int vy = (int) ((long) y * viewSize.height / Math.max(1, size.height)) - extent.height / 2;
+        vx = Math.max(0, Math.min(vx, viewSize.width - extent.width));
+        vy = Math.max(0, Math.min(vy, viewSize.height - extent.height));
+        viewport.setViewPosition(new Point(vx, vy));
     }
 
     public void paint(Graphics g) {
-        /*if (myView != null) {
-            myView.paint(g);
-        }*/
-        if (renderedMap != null) {
-            g.drawImage(renderedMap, 0, 0, null);
+        final ColorRaster r = raster;
+        final Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (r == null) {
+            return;
         }
 
-        if (mainPanel != null) {
+        final int chunkWidth = CHUNK_SIZE * r.cellWidth;
+        final int chunkHeight = CHUNK_SIZE * r.cellHeight;
+        final int cx1 = Math.max(0, clip.x / chunkWidth);
+        final int cy1 = Math.max(0, clip.y / chunkHeight);
+        final int cx2 = Math.min(r.chunksX - 1, (clip.x + clip.width - 1) / chunkWidth);
+        final int cy2 = Math.min(r.chunksY - 1, (clip.y + clip.height - 1) / chunkHeight);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                final int x = cx * chunkWidth;
+                final int y = cy * chunkHeight;
+                final int w = Math.min(CHUNK_SIZE, r.width - cx * CHUNK_SIZE) * r.cellWidth;
+                final int h = Math.min(CHUNK_SIZE, r.height - cy * CHUNK_SIZE) * r.cellHeight;
+                BufferedImage chunk = r.getChunk(cx, cy, false);
+                if (chunk != null) {
+                    g.drawImage(chunk, x, y, x + w, y + h,
+                            0, 0, w / r.cellWidth, h / r.cellHeight, null);
+                } else {
+                    g.setColor(BACKGROUND_COLOR);
+                    g.fillRect(x, y, w, h);
+                }
+            }
+        }
+
+        if (mainPanel != null && myView != null && myView.getWidth() > 0 &&
+                myView.getHeight() > 0) {
+            final Rectangle viewArea = mainPanel.getViewport().getViewRect();
+            final Dimension size = getPreferredSize();
+            final double sx = size.width / (double) myView.getWidth();
+            final double sy = size.height / (double) myView.getHeight();
             g.setColor(Color.yellow);
-            Rectangle viewArea = mainPanel.getViewport().getBounds();
-            //Rectangle viewArea = mainPanel.getViewportBorderBounds();
-            if (viewArea != null) {
-                //log.info(viewArea.x+","+viewArea.y);
-                g.drawRect(
-                        (int) ((viewArea.x - 1) * scale),
-                        (int) ((viewArea.y - 1) * scale),
-                        (int) ((viewArea.width - 1) * scale),
-                        (int) ((viewArea.height - 1) * scale));
+            g.drawRect(
+                    (int) (viewArea.x * sx),
+                    (int) (viewArea.y * sy),
+                    (int) (viewArea.width * sx) - 1,
+                    (int) (viewArea.height * sy) - 1);
+        }
+    }
+
+    /**
+     * Returns the average colour of the pixels of the given tile image,
+     * weighted by their opacity, as a non-premultiplied ARGB value.
+     */
+    private int getTileColor(Image image) {
+        final int generation;
+        synchronized (tileColors) {
+            final Integer color = tileColors.get(image);
+            if (color != null) {
+                return color;
+            }
+            generation = tileColorGeneration;
+        }
+        final int color = averageColor(image);
+        synchronized (tileColors) {
+            if (generation == tileColorGeneration) {
+                tileColors.put(image, color);
+            }
+        }
+        return color;
+    }
+
+    private static int averageColor(Image image) {
+        final int w = image.getWidth(null);
+        final int h = image.getHeight(null);
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        BufferedImage buffered;
+        if (image instanceof BufferedImage) {
+            buffered = (BufferedImage) image;
+        } else {
+            buffered = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = buffered.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+
+        long a = 0, r = 0, g = 0, b = 0;
+        final int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            buffered.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w; x++) {
+                final int alpha = row[x] >>> 24;
+                a += alpha;
+                r += alpha * ((row[x] >> 16) & 0xff);
+                g += alpha * ((row[x] >> 8) & 0xff);
+                b += alpha * (row[x] & 0xff);
+            }
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return (int) (a / ((long) w * h)) << 24 | (int) (r / a) << 16 |
+                (int) (g / a) << 8 | (int) (b / a);
+    }
+
+    /**
+     * The colours of the tiles of a map, one pixel per tile, in chunks that
+     * are allocated when first needed.
+     */
+    private class ColorRaster {
+        final Map map;
+        final int width;
+        final int height;
+        final int tileWidth;
+        final int tileHeight;
+        final int cellWidth;
+        final int cellHeight;
+        final int chunksX;
+        final int chunksY;
+        private final BufferedImage[] chunks;
+
+        ColorRaster(Map map) {
+            this.map = map;
+            width = map.getWidth();
+            height = map.getHeight();
+            tileWidth = Math.max(1, map.getTileWidth());
+            tileHeight = Math.max(1, map.getTileHeight());
+            cellWidth = Math.max(1, (int) Math.round(tileWidth * scale));
+            cellHeight = Math.max(1, (int) Math.round(tileHeight * scale));
+            chunksX = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            chunksY = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            chunks = new BufferedImage[chunksX * chunksY];
+        }
+
+        synchronized BufferedImage getChunk(int cx, int cy, boolean create) {
+            BufferedImage chunk = chunks[cy * chunksX + cx];
+            if (chunk == null && create) {
+                chunk = new BufferedImage(CHUNK_SIZE, CHUNK_SIZE,
+                        BufferedImage.TYPE_INT_RGB);
+                chunks[cy * chunksX + cx] = chunk;
+            }
+            return chunk;
+        }
+
+        /**
+         * Renders the given region, in tiles, chunk by chunk, repainting
+         * each chunk once it is done.
+         */
+        void render(Rectangle region) throws InterruptedException {
+            final int x1 = Math.max(0, region.x);
+            final int y1 = Math.max(0, region.y);
+            final int x2 = Math.min(width, region.x + region.width);
+            final int y2 = Math.min(height, region.y + region.height);
+            final int[] colors = new int[CHUNK_SIZE * CHUNK_SIZE];
+            final TileImages images = new TileImages();
+
+            for (int cy = y1 / CHUNK_SIZE; cy * CHUNK_SIZE < y2; cy++) {
+                for (int cx = x1 / CHUNK_SIZE; cx * CHUNK_SIZE < x2; cx++) {
+                    final int sx = Math.max(x1, cx * CHUNK_SIZE);
+                    final int sy = Math.max(y1, cy * CHUNK_SIZE);
+                    final int w = Math.min(x2, (cx + 1) * CHUNK_SIZE) - sx;
+                    final int h = Math.min(y2, (cy + 1) * CHUNK_SIZE) - sy;
+                    try {
+                        SwingUtilities.invokeAndWait(new Runnable() {
+                            public void run() {
+                                images.collect(ColorRaster.this, sx, sy, w, h);
+                            }
+                        });
+                    } catch (InvocationTargetException e) {
+                        log.error("Failed to read the map for the mini map",
+                                e.getCause());
+                        return;
+                    }
+                    final boolean empty = renderColors(images, w * h, colors);
+                    BufferedImage chunk = getChunk(cx, cy, !empty);
+                    if (chunk == null) {
+                        continue;
+                    }
+                    chunk.setRGB(sx - cx * CHUNK_SIZE, sy - cy * CHUNK_SIZE,
+                            w, h, colors, 0, w);
+                    repaint(sx * cellWidth, sy * cellHeight,
+                            w * cellWidth, h * cellHeight);
+                }
             }
         }
+
+        /**
+         * Computes the colours of the given tiles by blending the average
+         * colours of the collected tile images, layer by layer.
+         *
+         * @return whether all the tiles are empty
+         */
+        private boolean renderColors(TileImages images, int count, int[] colors) {
+            final int background = BACKGROUND_COLOR.getRGB();
+            for (int i = 0; i < count; i++) {
+                colors[i] = background;
+            }
+
+            boolean empty = true;
+            for (int l = 0; l < images.layers; l++) {
+                final Image[] layerImages = images.images[l];
+                final int opacity = images.opacities[l];
+                for (int i = 0; i < count; i++) {
+                    final Image image = layerImages[i];
+                    if (image == null) {
+                        continue;
+                    }
+                    empty = false;
+                    final int color = getTileColor(image);
+                    final int alpha = (color >>> 24) * opacity / 255;
+                    colors[i] = blend(colors[i], color, alpha);
+                }
+            }
+            return empty;
+        }
+    }
+
+    /**
+     * The tile images of a part of the map, per visible tile layer, as
+     * collected on the event dispatch thread for the renderer thread.
+     */
+    private static class TileImages {
+        Image[][] images = new Image[0][];
+        int[] opacities = new int[0];
+        int layers;
+
+        /**
+         * Collects the images of the given tiles of the raster. Must be
+         * called on the event dispatch thread.
+         */
+        void collect(ColorRaster r, int x, int y, int w, int h) {
+            final Map map = r.map;
+            final int layerCount = map.getTotalLayers();
+            if (images.length < layerCount) {
+                images = new Image[layerCount][];
+                opacities = new int[layerCount];
+            }
+            layers = 0;
+
+            for (int l = 0; l < layerCount; l++) {
+                final MapLayer layer = map.getLayer(l);
+                if (!(layer instanceof TileLayer) || !layer.isVisible() ||
+                        layer.getOpacity() <= 0.0f) {
+                    continue;
+                }
+                final TileLayer tileLayer = (TileLayer) layer;
+                final int lw = Math.max(1, layer.getTileWidth());
+                final int lh = Math.max(1, layer.getTileHeight());
+                if (images[layers] == null) {
+                    images[layers] = new Image[CHUNK_SIZE * CHUNK_SIZE];
+                }
+                final Image[] layerImages = images[layers];
+                opacities[layers] = (int) (layer.getOpacity() * 255);
+                layers++;
+
+                for (int ty = 0; ty < h; ty++) {
+                    // The tile of the layer under the center of the cell
+                    final int ly = ((y + ty) * r.tileHeight + r.tileHeight / 2) / lh;
+                    for (int tx = 0; tx < w; tx++) {
+                        final int lx = ((x + tx) * r.tileWidth + r.tileWidth / 2) / lw;
+                        final Tile tile = tileLayer.getTileAt(lx, ly);
+                        layerImages[ty * w + tx] = tile != null ? tile.getImage() : null;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int blend(int below, int above, int alpha) {
+        final int r = ((below >> 16) & 0xff) * (255 - alpha) + ((above >> 16) & 0xff) * alpha;
+        final int g = ((below >> 8) & 0xff) * (255 - alpha) + ((above >> 8) & 0xff) * alpha;
+        final int b = (below & 0xff) * (255 - alpha) + (above & 0xff) * alpha;
+        return 0xff000000 | (r / 255) << 16 | (g / 255) << 8 | (b / 255);
     }
 }
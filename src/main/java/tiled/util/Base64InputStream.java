@@ -0,0 +1,101 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Decodes base64 encoded characters read from a {@link Reader} while they
+ * are being read, so that the encoded text never needs to be held in memory
+ * as a whole. Like {@link Base64#decode(char[])}, any characters that are
+ * not part of the base64 alphabet, such as white space and padding, are
+ * skipped.
+ *
+ * @version $Id$
+ */
+public class Base64InputStream extends InputStream {
+    private static final byte[] codes = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) codes[i] = -1;
+        for (int i = 'A'; i <= 'Z'; i++) codes[i] = (byte) (i - 'A');
+        for (int i = 'a'; i <= 'z'; i++) codes[i] = (byte) (26 + i - 'a');
+        for (int i = '0'; i <= '9'; i++) codes[i] = (byte) (52 + i - '0');
+        codes['+'] = 62;
+        codes['/'] = 63;
+    }
+
+    private final Reader in;
+    private final char[] chars = new char[4096];
+    private final byte[] single = new byte[1];
+    private int charPos;
+    private int charCount;
+    private int accum;
+    private int shift;
+    private boolean eof;
+
+    /**
+     * @param in the reader providing the encoded characters
+     */
+    public Base64InputStream(Reader in) {
+        this.in = in;
+    }
+
+    public int read() throws IOException {
+        return read(single, 0, 1) == 1 ? single[0] & 0xff : -1;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        int n = 0;
+        while (n < len) {
+            if (charPos == charCount) {
+                if (eof || !fill()) {
+                    break;
+                }
+            }
+
+            final char c = chars[charPos++];
+            final int value = c > 255 ? -1 : codes[c];
+            if (value >= 0) {
+                accum = (accum << 6) | value;
+                shift += 6;
+                if (shift >= 8) {
+                    shift -= 8;
+                    b[off + n++] = (byte) (accum >> shift);
+                }
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    private boolean fill() throws IOException {
+        final int count = in.read(chars, 0, chars.length);
+        if (count <= 0) {
+            eof = true;
+            return false;
+        }
+        charPos = 0;
+        charCount = count;
+        return true;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes the bytes written to it as base64 characters and passes them on
+ * to a {@link Writer} while they are being written, so that neither the
+ * bytes nor the encoded text need to be held in memory as a whole. The
+ * output is the same as that of {@link Base64#encode(byte[])}.
+ * <p>
+ * Closing this stream writes the remaining characters and padding, but
+ * does not close the underlying writer.
+ *
+ * @version $Id$
+ */
+public class Base64OutputStream extends OutputStream {
+    private static final char[] alphabet =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+                    .toCharArray();
+
+    private final Writer out;
+    private final char[] chars = new char[4096];
+    private int charCount;
+    private int accum;
+    private int byteCount;
+    private boolean closed;
+
+    /**
+     * @param out the writer receiving the encoded characters
+     */
+    public Base64OutputStream(Writer out) {
+        this.out = out;
+    }
+
+    public void write(int b) throws IOException {
+        accum = (accum << 8) | (b & 0xff);
+        if (++byteCount == 3) {
+            encodeGroup();
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        final int end = off + len;
+        int i = off;
+
+        // Complete a partially filled group first
+        while (byteCount != 0 && i < end) {
+            write(b[i++]);
+        }
+
+        // Whole groups of three bytes
+        while (i + 3 <= end) {
+            if (charCount + 4 > chars.length) {
+                flushChars();
+            }
+            final int group = ((b[i] & 0xff) << 16) |
+                    ((b[i + 1] & 0xff) << 8) | (b[i + 2] & 0xff);
+            chars[charCount++] = alphabet[group >>> 18];
+            chars[charCount++] = alphabet[(group >>> 12) & 0x3f];
+            chars[charCount++] = alphabet[(group >>> 6) & 0x3f];
+            chars[charCount++] = alphabet[group & 0x3f];
+            i += 3;
+        }
+
+        while (i < end) {
+            write(b[i++]);
+        }
+    }
+
+    private void encodeGroup() throws IOException {
+        if (charCount + 4 > chars.length) {
+            flushChars();
+        }
+        chars[charCount++] = alphabet[accum >>> 18];
+        chars[charCount++] = alphabet[(accum >>> 12) & 0x3f];
+        chars[charCount++] = alphabet[(accum >>> 6) & 0x3f];
+        chars[charCount++] = alphabet[accum & 0x3f];
+        accum = 0;
+        byteCount = 0;
+    }
+
+    private void flushChars() throws IOException {
+        out.write(chars, 0, charCount);
+        charCount = 0;
+    }
+
+    /**
+     * Passes all complete groups of encoded characters on to the writer.
+     * Bytes that do not yet form a complete group are kept until more
+     * bytes are written or the stream is closed.
+     */
+    public void flush() throws IOException {
+        flushChars();
+        out.flush();
+    }
+
+    /**
+     * Writes the last group of characters, padded when necessary.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (byteCount > 0) {
+            if (charCount + 4 > chars.length) {
+                flushChars();
+            }
+            final int group = accum << (8 * (3 - byteCount));
+            chars[charCount++] = alphabet[group >>> 18];
+            chars[charCount++] = alphabet[(group >>> 12) & 0x3f];
+            chars[charCount++] = byteCount == 2 ?
+                    alphabet[(group >>> 6) & 0x3f] : '=';
+            chars[charCount++] = '=';
+            accum = 0;
+            byteCount = 0;
+        }
+        flushChars();
+    }
+}
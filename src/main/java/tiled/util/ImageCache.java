@@ -0,0 +1,276 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.prefs.Preferences;
+
+/**
+ * Keeps the images loaded from files, so that tilesets and objects using
+ * the same image file share a single decoded copy, and reloading a map does
+ * not decode its images again. Images are identified by the canonical path
+ * of their file, its modification time and the colour made transparent, so
+ * that a changed file is loaded again.
+ * <p>
+ * Loaded images are converted to the format of the default screen, which
+ * makes drawing them faster. The images are shared and must not be changed.
+ * <p>
+ * The least recently used images are dropped when the memory used by the
+ * cache exceeds the "imageCacheMemory" display preference, given in
+ * kilobytes.
+ *
+ * @version $Id$
+ */
+public class ImageCache {
+    public static final int DEFAULT_MEMORY = 32 * 1024;
+
+    private static ImageCache instance;
+
+    private final LinkedHashMap<Key, BufferedImage> images;
+    private final Preferences prefs = TiledConfiguration.node("display");
+    private long memoryUsage;
+    private long hits;
+    private long misses;
+
+    private ImageCache() {
+        images = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true);
+    }
+
+    public static synchronized ImageCache getInstance() {
+        if (instance == null) {
+            instance = new ImageCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the image in the given file, loading it when it is not cached
+     * or the file changed since it was cached.
+     *
+     * @param file             the image file
+     * @param transparentColor the colour to make transparent, or
+     *                         <code>null</code> to keep all pixels
+     * @return the shared image
+     * @throws IOException when the file can not be read or holds no image
+     */
+    public BufferedImage getImage(File file, Color transparentColor)
+            throws IOException {
+        final Key key = new Key(file.getCanonicalPath(), file.lastModified(),
+                transparentColor);
+        synchronized (this) {
+            BufferedImage image = images.get(key);
+            if (image != null) {
+                hits++;
+                return image;
+            }
+            misses++;
+        }
+
+        BufferedImage source = ImageIO.read(file);
+        if (source == null) {
+            throw new IOException("Failed to load " + file);
+        }
+        return store(key, convert(source, transparentColor));
+    }
+
+    /**
+     * Returns the image at the given location. Images in local files are
+     * cached, other images are loaded each time.
+     *
+     * @param url              the location of the image
+     * @param transparentColor the colour to make transparent, or
+     *                         <code>null</code> to keep all pixels
+     * @return the image
+     * @throws IOException when the image can not be read
+     */
+    public BufferedImage getImage(URL url, Color transparentColor)
+            throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return getImage(new File(url.toURI()), transparentColor);
+            } catch (URISyntaxException e) {
+                // Not a valid file location, load it as any other URL
+            } catch (IllegalArgumentException e) {
+                // Same
+            }
+        }
+
+        BufferedImage source = ImageIO.read(url);
+        if (source == null) {
+            throw new IOException("Failed to load " + url);
+        }
+        return convert(source, transparentColor);
+    }
+
+    /**
+     * Drops all cached images.
+     */
+    public synchronized void clear() {
+        images.clear();
+        memoryUsage = 0;
+    }
+
+    /**
+     * Returns the number of bytes used by the cached images.
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of requests that had to load the image.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Stores a loaded image, unless another thread loaded the same image in
+     * the meantime, in which case that image is returned so that it stays
+     * shared.
+     */
+    private synchronized BufferedImage store(Key key, BufferedImage image) {
+        BufferedImage existing = images.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        images.put(key, image);
+        memoryUsage += sizeOf(image);
+
+        final long limit = prefs.getInt("imageCacheMemory", DEFAULT_MEMORY) * 1024L;
+        Iterator<BufferedImage> it = images.values().iterator();
+        while (memoryUsage > limit && it.hasNext()) {
+            BufferedImage evicted = it.next();
+            if (evicted == image) {
+                break;
+            }
+            memoryUsage -= sizeOf(evicted);
+            it.remove();
+        }
+        return image;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Copies a loaded image into an image compatible with the default
+     * screen, clearing the pixels of the transparent colour.
+     */
+    private static BufferedImage convert(BufferedImage source,
+                                         Color transparentColor) {
+        final int w = source.getWidth();
+        final int h = source.getHeight();
+        BufferedImage image;
+        if (GraphicsEnvironment.isHeadless()) {
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        } else {
+            image = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration()
+                    .createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+        }
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(source, 0, 0, null);
+        g.dispose();
+
+        if (transparentColor != null) {
+            clearColor(image, transparentColor.getRGB());
+        }
+        return image;
+    }
+
+    /**
+     * Makes the pixels of the given opaque colour fully transparent. On
+     * integer ARGB rasters, premultiplied or not, an opaque colour has the
+     * same value as its ARGB value, so the pixels are compared right on the
+     * raster without converting them.
+     */
+    private static void clearColor(BufferedImage image, int trans) {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        final int type = image.getType();
+        final boolean raw = type == BufferedImage.TYPE_INT_ARGB ||
+                type == BufferedImage.TYPE_INT_ARGB_PRE;
+        final WritableRaster raster = image.getRaster();
+        final int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            if (raw) {
+                raster.getDataElements(0, y, w, 1, row);
+            } else {
+                image.getRGB(0, y, w, 1, row, 0, w);
+            }
+            boolean changed = false;
+            for (int x = 0; x < w; x++) {
+                if (row[x] == trans) {
+                    row[x] = 0;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                if (raw) {
+                    raster.setDataElements(0, y, w, 1, row);
+                } else {
+                    image.setRGB(0, y, w, 1, row, 0, w);
+                }
+            }
+        }
+    }
+
+    private static class Key {
+        final String path;
+        final long lastModified;
+        final int transparent;
+        final boolean hasTransparent;
+
+        Key(String path, long lastModified, Color transparentColor) {
+            this.path = path;
+            this.lastModified = lastModified;
+            hasTransparent = transparentColor != null;
+            transparent = hasTransparent ? transparentColor.getRGB() : 0;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.path.equals(path) && k.lastModified == lastModified &&
+                    k.hasTransparent == hasTransparent &&
+                    k.transparent == transparent;
+        }
+
+        public int hashCode() {
+            int hash = path.hashCode();
+            hash = hash * 31 + (int) (lastModified ^ (lastModified >>> 32));
+            return hash * 31 + (hasTransparent ? transparent : 1);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Computes hashes of the pixels of images, to tell whether two images look
+ * the same without keeping the pixels of both around. Images with equal
+ * pixels have equal hashes, whatever their format.
+ *
+ * @version $Id$
+ */
+public final class ImageHash {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ImageHash() {
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the size and the ARGB pixels of the
+     * given image.
+     *
+     * @param image the image, of which the size must be known
+     * @return the hash of the image
+     */
+    public static long hash(Image image) {
+        final int w = image.getWidth(null);
+        final int h = image.getHeight(null);
+        BufferedImage buffered;
+        if (image instanceof BufferedImage) {
+            buffered = (BufferedImage) image;
+        } else {
+            buffered = new BufferedImage(Math.max(1, w), Math.max(1, h),
+                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = buffered.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+
+        long hash = mix(mix(FNV_OFFSET, w), h);
+        final int[] row = new int[Math.max(0, w)];
+        for (int y = 0; y < h; y++) {
+            getRow(buffered, y, row);
+            for (int x = 0; x < w; x++) {
+                hash = mix(hash, row[x]);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns whether two images have the same size and ARGB pixels.
+     *
+     * @param a an image
+     * @param b another image
+     * @return <code>true</code> if the images look the same
+     */
+    public static boolean samePixels(BufferedImage a, BufferedImage b) {
+        final int w = a.getWidth();
+        final int h = a.getHeight();
+        if (b.getWidth() != w || b.getHeight() != h) {
+            return false;
+        }
+        final int[] rowA = new int[w];
+        final int[] rowB = new int[w];
+        for (int y = 0; y < h; y++) {
+            getRow(a, y, rowA);
+            getRow(b, y, rowB);
+            if (!Arrays.equals(rowA, rowB)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a row of ARGB pixels, straight from the raster when it holds
+     * them as they are.
+     */
+    private static void getRow(BufferedImage image, int y, int[] row) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            image.getRaster().getDataElements(0, y, row.length, 1, row);
+        } else {
+            image.getRGB(0, y, row.length, 1, row, 0, row.length);
+        }
+    }
+
+    private static long mix(long hash, int value) {
+        hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+        hash = (hash ^ ((value >>> 8) & 0xff)) * FNV_PRIME;
+        hash = (hash ^ ((value >>> 16) & 0xff)) * FNV_PRIME;
+        return (hash ^ (value >>> 24)) * FNV_PRIME;
+    }
+}
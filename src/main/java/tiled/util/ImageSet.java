@@ -0,0 +1,195 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+
+/**
+ * A {@link NumberedSet} of images that knows the images by their pixels.
+ * Looking up an image, by identity or by content, takes constant time, and
+ * {@link #findOrAdd(Object)} returns the id of an image with the same
+ * pixels when there is one, so that identical images are stored once.
+ * <p>
+ * Images are matched on the hash of their pixels (see {@link ImageHash})
+ * and then compared pixel by pixel. Images other than buffered images can
+ * only be found by identity.
+ *
+ * @version $Id$
+ */
+public class ImageSet extends NumberedSet {
+    private final IdentityHashMap<Object, Integer> ids =
+            new IdentityHashMap<Object, Integer>();
+    private final HashMap<Long, List<Integer>> idsByHash =
+            new HashMap<Long, List<Integer>>();
+    private final HashMap<Integer, Long> hashes = new HashMap<Integer, Long>();
+
+    public ImageSet() {
+    }
+
+    /**
+     * Constructs an ImageSet holding the same images at the same ids as the
+     * given set, without hashing the images again.
+     *
+     * @param set the set to copy
+     */
+    public ImageSet(ImageSet set) {
+        super(set);
+        ids.putAll(set.ids);
+        for (Map.Entry<Long, List<Integer>> entry : set.idsByHash.entrySet()) {
+            idsByHash.put(entry.getKey(), new ArrayList<Integer>(entry.getValue()));
+        }
+        hashes.putAll(set.hashes);
+    }
+
+    public int put(int id, Object o) throws IllegalArgumentException {
+        return put(id, o, hashOf(o));
+    }
+
+    /**
+     * Sets the image for the given id, of which the hash is already known.
+     *
+     * @param id    the id
+     * @param image the image
+     * @param hash  the {@link ImageHash#hash(Image) hash} of the image
+     * @return the id
+     */
+    public int put(int id, Object image, long hash) {
+        unindex(id);
+        super.put(id, image);
+        if (image != null) {
+            ids.put(image, id);
+            if (isComparable(image)) {
+                List<Integer> sameHash = idsByHash.get(hash);
+                if (sameHash == null) {
+                    sameHash = new ArrayList<Integer>(1);
+                    idsByHash.put(hash, sameHash);
+                }
+                sameHash.add(id);
+                hashes.put(id, hash);
+            }
+        }
+        return id;
+    }
+
+    public void remove(int id) {
+        unindex(id);
+        super.remove(id);
+    }
+
+    /**
+     * Returns the id of the given image, or else of an image with the same
+     * pixels, or -1 when there is no such image.
+     */
+    public int indexOf(Object o) {
+        return indexOf(o, hashOf(o));
+    }
+
+    /**
+     * Same as {@link #indexOf(Object)}, for an image of which the hash is
+     * already known.
+     */
+    public int indexOf(Object image, long hash) {
+        final Integer id = ids.get(image);
+        if (id != null) {
+            return id;
+        }
+        if (!isComparable(image)) {
+            return -1;
+        }
+        final List<Integer> sameHash = idsByHash.get(hash);
+        if (sameHash != null) {
+            for (int candidate : sameHash) {
+                if (ImageHash.samePixels((BufferedImage) image,
+                        (BufferedImage) get(candidate))) {
+                    return candidate;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(Object o) {
+        return indexOf(o) != -1;
+    }
+
+    public int findOrAdd(Object o) {
+        return findOrAdd(o, hashOf(o));
+    }
+
+    /**
+     * Same as {@link #findOrAdd(Object)}, for an image of which the hash is
+     * already known.
+     */
+    public int findOrAdd(Object image, long hash) {
+        final int id = indexOf(image, hash);
+        if (id != -1) {
+            return id;
+        }
+        return put(getMaxId() + 1, image, hash);
+    }
+
+    /**
+     * Returns the lowest id of an image with the same pixels as the image
+     * with the given id. Images put at a given id are not merged with equal
+     * images, so there may be several of them.
+     *
+     * @param id the id of an image
+     * @return the lowest id of an equal image, which may be <code>id</code>
+     */
+    public int getCanonicalId(int id) {
+        final Long hash = hashes.get(id);
+        if (hash == null) {
+            return id;
+        }
+        final BufferedImage image = (BufferedImage) get(id);
+        int canonical = id;
+        for (int candidate : idsByHash.get(hash)) {
+            if (candidate < canonical && ImageHash.samePixels(image,
+                    (BufferedImage) get(candidate))) {
+                canonical = candidate;
+            }
+        }
+        return canonical;
+    }
+
+    private void unindex(int id) {
+        final Object old = get(id);
+        if (old == null) {
+            return;
+        }
+        ids.remove(old);
+        final Long hash = hashes.remove(id);
+        if (hash != null) {
+            final List<Integer> sameHash = idsByHash.get(hash);
+            sameHash.remove(Integer.valueOf(id));
+            if (sameHash.isEmpty()) {
+                idsByHash.remove(hash);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the pixels of the given object can be compared, which
+     * requires a buffered image.
+     */
+    private static boolean isComparable(Object o) {
+        return o instanceof BufferedImage;
+    }
+
+    private static long hashOf(Object o) {
+        return isComparable(o) ? ImageHash.hash((Image) o) : 0;
+    }
+}
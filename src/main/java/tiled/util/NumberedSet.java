@@ -13,6 +13,7 @@
 package tiled.util;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Vector;
 
 /**
@@ -34,6 +35,16 @@ public class NumberedSet {
         data = new Vector<Object>();
     }
 
+    /**
+     * Constructs a NumberedSet holding the same elements at the same ids as
+     * the given set.
+     *
+     * @param set the set to copy
+     */
+    public NumberedSet(NumberedSet set) {
+        data = new Vector<Object>(set.data);
+    }
+
     /**
      * Returns the element for a specific element, or null if the id does not
      * identify any element in this NumberedSet.
@@ -78,19 +89,24 @@ public class NumberedSet {
             data.add(null);
         }
 
-        data.add(id, o);
+        if (id < data.size()) {
+            data.set(id, o);
+        } else {
+            data.add(o);
+        }
         return id;
     }
 
     /**
      * Removes the element associated with the given id from the NumberedSet.
-     * <p>
-     * todo: this function shifts the ids of any subsequent elements!
+     * The ids of the other elements do not change.
      *
      * @param id
      */
     public void remove(int id) {
-        data.remove(id);
+        if (id >= 0 && id < data.size()) {
+            data.set(id, null);
+        }
     }
 
     /**
@@ -113,12 +129,39 @@ public class NumberedSet {
     }
 
     /**
-     * Returns an iterator to iterate over the elements of the NumberedSet.
+     * Returns an iterator to iterate over the elements of the NumberedSet,
+     * in id order. Ids without an element are skipped.
      *
      * @return NumberedSetIterator
      */
     public Iterator<Object> iterator() {
-        return data.iterator();
+        return new Iterator<Object>() {
+            private int next = skipEmpty(0);
+
+            public boolean hasNext() {
+                return next < data.size();
+            }
+
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Object o = data.get(next);
+                next = skipEmpty(next + 1);
+                return o;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int skipEmpty(int id) {
+        while (id < data.size() && data.get(id) == null) {
+            id++;
+        }
+        return id;
     }
 
     /**
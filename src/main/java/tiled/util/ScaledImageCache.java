@@ -0,0 +1,268 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.prefs.Preferences;
+
+/**
+ * Keeps scaled copies of images for any number of zoom levels. Each tileset
+ * has its own cache, so that zooming a view does not throw away the images
+ * another view at a different zoom level is using.
+ * <p>
+ * Images are scaled with nearest-neighbour interpolation at integer zoom
+ * levels, which keeps pixel art crisp, and with bilinear interpolation
+ * otherwise. Scaled images can be requested without blocking, in which case
+ * the scaling is done on a background thread and the given observer is
+ * notified when the image is ready.
+ * <p>
+ * The least recently used images are dropped when the memory used by a
+ * cache exceeds the "scaledImageMemory" display preference, given in
+ * kilobytes.
+ *
+ * @version $Id$
+ */
+public class ScaledImageCache {
+    public static final int DEFAULT_MEMORY = 16 * 1024;
+
+    private static ExecutorService executor;
+
+    private final LinkedHashMap<Key, Image> images;
+    private final HashMap<Key, List<ImageObserver>> pending;
+    private final Preferences prefs = TiledConfiguration.node("display");
+    private long memoryUsage;
+
+    public ScaledImageCache() {
+        images = new LinkedHashMap<Key, Image>(64, 0.75f, true);
+        pending = new HashMap<Key, List<ImageObserver>>();
+    }
+
+    /**
+     * Returns the source image scaled by the given zoom level, scaling it on
+     * the calling thread if no scaled copy is cached yet.
+     *
+     * @param source the image to scale
+     * @param zoom   the zoom level
+     * @return the scaled image, or <code>null</code> when the size of the
+     *         source image is not known yet
+     */
+    public Image getScaledImage(Image source, double zoom) {
+        final Key key = new Key(source, zoom);
+        synchronized (this) {
+            Image image = images.get(key);
+            if (image != null) {
+                return image;
+            }
+        }
+
+        Image image = scale(source, zoom);
+        if (image != null) {
+            store(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Returns the source image scaled by the given zoom level if a scaled
+     * copy is cached, or schedules the scaling on a background thread and
+     * returns <code>null</code> otherwise.
+     *
+     * @param source   the image to scale
+     * @param zoom     the zoom level
+     * @param observer notified with {@link ImageObserver#ALLBITS} once the
+     *                 scaled image is ready, may be <code>null</code>
+     * @return the scaled image or <code>null</code> when it is not ready
+     */
+    public synchronized Image getScaledImage(Image source, double zoom,
+                                             ImageObserver observer) {
+        final Key key = new Key(source, zoom);
+        Image image = images.get(key);
+        if (image != null) {
+            return image;
+        }
+
+        List<ImageObserver> observers = pending.get(key);
+        if (observers == null) {
+            observers = new ArrayList<ImageObserver>(2);
+            pending.put(key, observers);
+            getExecutor().execute(new Runnable() {
+                public void run() {
+                    finish(key, scale(key.source, key.zoom));
+                }
+            });
+        }
+        if (observer != null && !observers.contains(observer)) {
+            observers.add(observer);
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a scaled copy of the source image is cached for the
+     * given zoom level.
+     *
+     * @param source the image
+     * @param zoom   the zoom level
+     * @return <code>true</code> if the scaled image is ready
+     */
+    public synchronized boolean isReady(Image source, double zoom) {
+        return images.containsKey(new Key(source, zoom));
+    }
+
+    /**
+     * Drops all scaled images.
+     */
+    public synchronized void clear() {
+        images.clear();
+        memoryUsage = 0;
+    }
+
+    /**
+     * Returns the number of bytes used by the scaled images.
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    private void finish(Key key, Image image) {
+        List<ImageObserver> observers;
+        synchronized (this) {
+            observers = pending.remove(key);
+        }
+        if (image == null) {
+            return;
+        }
+        store(key, image);
+
+        final int w = image.getWidth(null);
+        final int h = image.getHeight(null);
+        for (ImageObserver observer : observers) {
+            observer.imageUpdate(image, ImageObserver.ALLBITS, 0, 0, w, h);
+        }
+    }
+
+    private synchronized void store(Key key, Image image) {
+        Image old = images.put(key, image);
+        if (old != null) {
+            memoryUsage -= sizeOf(old);
+        }
+        memoryUsage += sizeOf(image);
+
+        final long limit = prefs.getInt("scaledImageMemory", DEFAULT_MEMORY) * 1024L;
+        Iterator<Image> it = images.values().iterator();
+        while (memoryUsage > limit && it.hasNext()) {
+            Image evicted = it.next();
+            if (evicted == image) {
+                break;
+            }
+            memoryUsage -= sizeOf(evicted);
+            it.remove();
+        }
+    }
+
+    private static long sizeOf(Image image) {
+        return 4L * image.getWidth(null) * image.getHeight(null);
+    }
+
+    /**
+     * Scales the given image. Integer zoom levels use nearest-neighbour
+     * interpolation, other zoom levels use bilinear interpolation, halving
+     * the image in steps when scaling down by more than a factor two.
+     *
+     * @param source the image to scale
+     * @param zoom   the zoom level
+     * @return the scaled image, or <code>null</code> when the size of the
+     *         source image is not known yet
+     */
+    public static BufferedImage scale(Image source, double zoom) {
+        final int sw = source.getWidth(null);
+        final int sh = source.getHeight(null);
+        if (sw <= 0 || sh <= 0) {
+            return null;
+        }
+        final int tw = Math.max(1, (int) (sw * zoom));
+        final int th = Math.max(1, (int) (sh * zoom));
+
+        if (zoom == Math.floor(zoom)) {
+            return draw(source, tw, th,
+                    RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+
+        Image current = source;
+        int w = sw;
+        int h = sh;
+        while (w / 2 >= tw && h / 2 >= th) {
+            w /= 2;
+            h /= 2;
+            current = draw(current, w, h,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        return draw(current, tw, th,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    }
+
+    private static BufferedImage draw(Image source, int w, int h, Object interpolation) {
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        g.drawImage(source, 0, 0, w, h, null);
+        g.dispose();
+        return image;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final int threads = Math.max(1,
+                    Runtime.getRuntime().availableProcessors() - 1);
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Tile scaler");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private static class Key {
+        final Image source;
+        final double zoom;
+
+        Key(Image source, double zoom) {
+            this.source = source;
+            this.zoom = zoom;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.source == source && k.zoom == zoom;
+        }
+
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(zoom);
+            return System.identityHashCode(source) * 31 + (int) (bits ^ (bits >>> 32));
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+
+/**
+ * A set of tile positions within a fixed rectangle, stored as one bit per
+ * tile. Rows are packed into 64-bit words, so that membership tests take
+ * constant time and combining masks of the same extent works on whole
+ * words at once.
+ * <p>
+ * An {@link Area} covering the set tiles is only built on request, for
+ * example to draw the outline of a selection, and is cached until the mask
+ * changes.
+ *
+ * @version $Id$
+ */
+public class TileMask implements Cloneable {
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private long[] bits;
+    private Area area;
+
+    /**
+     * Creates an empty mask covering the given rectangle of tiles.
+     *
+     * @param extent the tile positions that can be part of the mask
+     */
+    public TileMask(Rectangle extent) {
+        x = extent.x;
+        y = extent.y;
+        width = Math.max(0, extent.width);
+        height = Math.max(0, extent.height);
+        wordsPerRow = (width + 63) >>> 6;
+        bits = new long[wordsPerRow * height];
+    }
+
+    /**
+     * Returns the rectangle of tile positions that can be part of this mask.
+     */
+    public Rectangle getExtent() {
+        return new Rectangle(x, y, width, height);
+    }
+
+    /**
+     * Returns whether the given tile position is part of this mask.
+     *
+     * @param tx Tile-space x coordinate
+     * @param ty Tile-space y coordinate
+     * @return <code>true</code> if the position is set
+     */
+    public boolean contains(int tx, int ty) {
+        final int cx = tx - x;
+        final int cy = ty - y;
+        if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+            return false;
+        }
+        return (bits[cy * wordsPerRow + (cx >>> 6)] & (1L << cx)) != 0;
+    }
+
+    /**
+     * Adds the given tile position to or removes it from this mask.
+     * Positions outside of the extent of the mask are ignored.
+     *
+     * @param tx       Tile-space x coordinate
+     * @param ty       Tile-space y coordinate
+     * @param selected whether the position should be part of the mask
+     */
+    public void set(int tx, int ty, boolean selected) {
+        final int cx = tx - x;
+        final int cy = ty - y;
+        if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+            return;
+        }
+        final int i = cy * wordsPerRow + (cx >>> 6);
+        if (selected) {
+            bits[i] |= 1L << cx;
+        } else {
+            bits[i] &= ~(1L << cx);
+        }
+        area = null;
+    }
+
+    /**
+     * Adds all tile positions in the given rectangle.
+     *
+     * @param r a rectangle in tiles
+     */
+    public void add(Rectangle r) {
+        setRect(r, true);
+    }
+
+    /**
+     * Removes all tile positions in the given rectangle.
+     *
+     * @param r a rectangle in tiles
+     */
+    public void subtract(Rectangle r) {
+        setRect(r, false);
+    }
+
+    private void setRect(Rectangle r, boolean selected) {
+        final int x0 = Math.max(r.x - x, 0);
+        final int y0 = Math.max(r.y - y, 0);
+        final int x1 = Math.min(r.x + r.width - x, width);
+        final int y1 = Math.min(r.y + r.height - y, height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+
+        for (int cy = y0; cy < y1; cy++) {
+            final int row = cy * wordsPerRow;
+            for (int w = x0 >>> 6; w <= (x1 - 1) >>> 6; w++) {
+                final int from = Math.max(x0 - (w << 6), 0);
+                final int to = Math.min(x1 - (w << 6), 64);
+                final long m = to == 64 ? -1L << from : ((1L << to) - 1) & (-1L << from);
+                if (selected) {
+                    bits[row + w] |= m;
+                } else {
+                    bits[row + w] &= ~m;
+                }
+            }
+        }
+        area = null;
+    }
+
+    /**
+     * Adds the tile positions within the given shape. A tile is considered
+     * to be within the shape when the shape contains its top left corner.
+     *
+     * @param shape a shape in tile coordinates
+     */
+    public void add(Shape shape) {
+        setShape(shape, true);
+    }
+
+    /**
+     * Removes the tile positions within the given shape.
+     *
+     * @param shape a shape in tile coordinates
+     * @see #add(Shape)
+     */
+    public void subtract(Shape shape) {
+        setShape(shape, false);
+    }
+
+    private void setShape(Shape shape, boolean selected) {
+        if (shape instanceof Rectangle) {
+            setRect((Rectangle) shape, selected);
+            return;
+        }
+
+        final Rectangle b = shape.getBounds().intersection(getExtent());
+        for (int ty = b.y; ty < b.y + b.height; ty++) {
+            for (int tx = b.x; tx < b.x + b.width; tx++) {
+                if (shape.contains(tx, ty)) {
+                    set(tx, ty, selected);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds all tile positions set in the other mask.
+     *
+     * @param other a mask with the same extent as this one
+     */
+    public void add(TileMask other) {
+        checkExtent(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+        area = null;
+    }
+
+    /**
+     * Removes all tile positions set in the other mask.
+     *
+     * @param other a mask with the same extent as this one
+     */
+    public void subtract(TileMask other) {
+        checkExtent(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= ~other.bits[i];
+        }
+        area = null;
+    }
+
+    /**
+     * Toggles all tile positions set in the other mask.
+     *
+     * @param other a mask with the same extent as this one
+     */
+    public void exclusiveOr(TileMask other) {
+        checkExtent(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] ^= other.bits[i];
+        }
+        area = null;
+    }
+
+    /**
+     * Toggles all tile positions within the extent of this mask.
+     */
+    public void invert() {
+        final long last = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+        for (int row = 0; row < bits.length; row += wordsPerRow) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                bits[row + w] = ~bits[row + w];
+            }
+            bits[row + wordsPerRow - 1] &= last;
+        }
+        area = null;
+    }
+
+    /**
+     * Removes all tile positions from this mask.
+     */
+    public void clear() {
+        Arrays.fill(bits, 0);
+        area = null;
+    }
+
+    private void checkExtent(TileMask other) {
+        if (other.x != x || other.y != y ||
+                other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Mask extents differ");
+        }
+    }
+
+    /**
+     * Returns whether no tile position is set.
+     */
+    public boolean isEmpty() {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of tile positions set.
+     */
+    public int getCount() {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the smallest rectangle containing all set tile positions.
+     *
+     * @return the bounds of the set positions, empty when none are set
+     */
+    public Rectangle getBounds() {
+        int minX = Integer.MAX_VALUE, maxX = -1;
+        int minY = -1, maxY = -1;
+        for (int cy = 0; cy < height; cy++) {
+            final int row = cy * wordsPerRow;
+            for (int w = 0; w < wordsPerRow; w++) {
+                final long word = bits[row + w];
+                if (word != 0) {
+                    if (minY < 0) {
+                        minY = cy;
+                    }
+                    maxY = cy;
+                    minX = Math.min(minX, (w << 6) + Long.numberOfTrailingZeros(word));
+                    maxX = Math.max(maxX, (w << 6) + 63 - Long.numberOfLeadingZeros(word));
+                }
+            }
+        }
+        if (minY < 0) {
+            return new Rectangle();
+        }
+        return new Rectangle(x + minX, y + minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * Returns the end of the run of set positions starting at the given
+     * position, or the given x coordinate when that position is not set.
+     *
+     * @param tx Tile-space x coordinate of the first position
+     * @param ty Tile-space y coordinate of the row
+     * @return the x coordinate just past the run
+     */
+    public int getRunEnd(int tx, int ty) {
+        int end = tx;
+        while (contains(end, ty)) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns an area made up of all set tile positions. The area is cached
+     * until this mask changes.
+     *
+     * @return the area covered by this mask, in tile coordinates
+     */
+    public Area toArea() {
+        if (area == null) {
+            Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+            for (int ty = y; ty < y + height; ty++) {
+                int tx = x;
+                while (tx < x + width) {
+                    if (contains(tx, ty)) {
+                        int end = getRunEnd(tx, ty);
+                        path.append(new Rectangle(tx, ty, end - tx, 1), false);
+                        tx = end;
+                    } else {
+                        tx++;
+                    }
+                }
+            }
+            area = new Area(path);
+        }
+        return area;
+    }
+
+    public Object clone() {
+        try {
+            TileMask clone = (TileMask) super.clone();
+            clone.bits = bits.clone();
+            clone.area = null;
+            return clone;
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e.toString());
+        }
+    }
+}
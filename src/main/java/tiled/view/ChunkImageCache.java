@@ -0,0 +1,359 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.view;
+
+import tiled.core.*;
+import tiled.util.TiledConfiguration;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.WeakHashMap;
+import java.util.prefs.Preferences;
+
+/**
+ * Keeps pre-rendered images of the chunks of {@link ChunkedTileLayer}s, so
+ * that an orthogonal view can draw a whole chunk with a single image blit
+ * instead of drawing each of its tiles.
+ * <p>
+ * A cached image is valid as long as the modification stamp of its chunk
+ * and the zoom level it was rendered at do not change. Changes to the
+ * tilesets of a watched map drop all images, since they may change the
+ * look of any tile. The least recently used images are dropped when the
+ * memory used by the cache exceeds the "chunkCacheMemory" display
+ * preference, given in kilobytes.
+ * <p>
+ * Chunks containing tiles larger than the tile size of the layer are never
+ * cached, since those tiles reach into the neighbouring chunks. Chunks are
+ * also not cached while the scaled images of their tiles are still being
+ * prepared.
+ *
+ * @version $Id$
+ */
+public class ChunkImageCache {
+    public static final int DEFAULT_MEMORY = 64 * 1024;
+
+    private static final int CACHEABLE = 0;
+    private static final int UNCACHEABLE = 1;
+    private static final int PENDING = 2;
+
+    private static ChunkImageCache instance;
+
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Key lookupKey = new Key();
+    private final Rectangle layerBounds = new Rectangle();
+    private final WeakHashMap<Map, Boolean> watchedMaps = new WeakHashMap<Map, Boolean>();
+    private final Preferences prefs = TiledConfiguration.node("display");
+    private long memoryUsage;
+
+    private final MapChangeListener mapListener = new MapChangeAdapter() {
+        public void mapChanged(MapChangedEvent e) {
+            clear();
+        }
+
+        public void layerRemoved(MapChangedEvent e) {
+            clear();
+        }
+
+        public void tilesetAdded(MapChangedEvent e, TileSet tileset) {
+            tileset.addTilesetChangeListener(tilesetListener);
+            clear();
+        }
+
+        public void tilesetRemoved(MapChangedEvent e, int index) {
+            clear();
+        }
+
+        public void tilesetsSwapped(MapChangedEvent e, int index0, int index1) {
+            clear();
+        }
+    };
+
+    private final TilesetChangeListener tilesetListener = new TilesetChangeListener() {
+        public void tilesetChanged(TilesetChangedEvent event) {
+            clear();
+        }
+
+        public void nameChanged(TilesetChangedEvent event, String oldName, String newName) {
+        }
+
+        public void sourceChanged(TilesetChangedEvent event, String oldSource, String newSource) {
+        }
+    };
+
+    private ChunkImageCache() {
+        entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+    }
+
+    /**
+     * Returns the cache shared by all map views.
+     */
+    public static synchronized ChunkImageCache getInstance() {
+        if (instance == null) {
+            instance = new ChunkImageCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Makes the cache drop its images whenever the tilesets of the given map
+     * change. To be called once for every map that is displayed.
+     *
+     * @param map the map to watch
+     */
+    public void watch(Map map) {
+        if (watchedMaps.put(map, Boolean.TRUE) != null) {
+            return;
+        }
+        map.addMapChangeListener(mapListener);
+        for (TileSet tileset : map.getTilesets()) {
+            tileset.addTilesetChangeListener(tilesetListener);
+        }
+    }
+
+    /**
+     * Drops all cached images.
+     */
+    public void clear() {
+        entries.clear();
+        memoryUsage = 0;
+    }
+
+    /**
+     * Returns the number of bytes used by the cached images.
+     */
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Paints the tiles of the given layer within the given range, using the
+     * cached chunk images where possible.
+     *
+     * @param g2d      the graphics context to paint to
+     * @param layer    the layer to paint
+     * @param start    the first tile to paint
+     * @param end      the tile just past the last tile to paint
+     * @param tileSize the zoomed size of the tiles of the layer
+     * @param offset   the zoomed parallax offset of the layer
+     * @param zoom     the zoom level
+     * @param observer notified when scaled tile images become available
+     */
+    public void paintLayer(Graphics2D g2d, ChunkedTileLayer layer,
+                           Point start, Point end, Dimension tileSize,
+                           Point offset, double zoom, ImageObserver observer) {
+        final Rectangle bounds = layerBounds;
+        layer.getBounds(bounds);
+        final int size = ChunkedTileLayer.CHUNK_SIZE;
+        final int cx0 = Math.max(0, floorDiv(start.x - bounds.x, size));
+        final int cy0 = Math.max(0, floorDiv(start.y - bounds.y, size));
+        final int cx1 = Math.min(layer.getChunkColumns(),
+                floorDiv(end.x - 1 - bounds.x, size) + 1);
+        final int cy1 = Math.min(layer.getChunkRows(),
+                floorDiv(end.y - 1 - bounds.y, size) + 1);
+        final long limit = prefs.getInt("chunkCacheMemory", DEFAULT_MEMORY) * 1024L;
+        final long imageSize = 4L * size * tileSize.width * size * tileSize.height;
+
+        for (int cy = cy0; cy < cy1; cy++) {
+            for (int cx = cx0; cx < cx1; cx++) {
+                if (!layer.hasChunk(cx, cy)) {
+                    continue;
+                }
+
+                final int tx = bounds.x + cx * size;
+                final int ty = bounds.y + cy * size;
+                final int gx = tx * tileSize.width + offset.x;
+                final int gy = ty * tileSize.height + offset.y;
+
+                // Chunks that would take up a large part of the cache on
+                // their own are not worth caching
+                Entry entry = imageSize <= limit / 4 ?
+                        getEntry(layer, cx, cy, tileSize, zoom) : null;
+
+                if (entry != null && entry.image != null) {
+                    g2d.drawImage(entry.image, gx, gy, null);
+                } else {
+                    paintTiles(g2d, layer, tx, ty, gx, gy, tileSize, zoom, observer);
+                }
+            }
+        }
+
+        trim(limit);
+    }
+
+    private Entry getEntry(ChunkedTileLayer layer, int cx, int cy,
+                           Dimension tileSize, double zoom) {
+        final long stamp = layer.getChunkStamp(cx, cy);
+        lookupKey.set(layer, cx, cy, zoom);
+        Entry entry = entries.get(lookupKey);
+        if (entry != null && entry.stamp == stamp) {
+            return entry;
+        }
+        if (entry != null) {
+            memoryUsage -= entry.memoryUsage;
+        }
+
+        final int state = checkChunk(layer, cx, cy, zoom);
+        if (state == PENDING) {
+            // Try again once the tile images are ready
+            if (entry != null) {
+                entries.remove(lookupKey);
+            }
+            return null;
+        }
+
+        entry = new Entry();
+        entry.stamp = stamp;
+        if (state == CACHEABLE) {
+            entry.image = renderChunk(layer, cx, cy, tileSize, zoom);
+            entry.memoryUsage = 4L * entry.image.getWidth() * entry.image.getHeight();
+            memoryUsage += entry.memoryUsage;
+        }
+
+        Key key = new Key();
+        key.set(layer, cx, cy, zoom);
+        entries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Returns whether the tiles of a chunk can be rendered to an image now.
+     */
+    private static int checkChunk(ChunkedTileLayer layer, int cx, int cy,
+                                  double zoom) {
+        final Rectangle bounds = layer.getBounds();
+        final int size = ChunkedTileLayer.CHUNK_SIZE;
+        final int tx0 = bounds.x + cx * size;
+        final int ty0 = bounds.y + cy * size;
+        final int tx1 = Math.min(tx0 + size, bounds.x + bounds.width);
+        final int ty1 = Math.min(ty0 + size, bounds.y + bounds.height);
+
+        final int maxWidth = layer.getTileWidth();
+        final int maxHeight = layer.getTileHeight();
+        int state = CACHEABLE;
+        for (int ty = ty0; ty < ty1; ty++) {
+            for (int tx = tx0; tx < tx1; tx++) {
+                final int gid = layer.getGidAt(tx, ty);
+                if (gid == 0) {
+                    continue;
+                }
+                final Tile tile = layer.resolveGid(gid);
+                if (tile == null) {
+                    continue;
+                }
+                if (tile.getWidth() > maxWidth || tile.getHeight() > maxHeight) {
+                    return UNCACHEABLE;
+                }
+                if (!tile.isScaledImageReady(zoom)) {
+                    state = PENDING;
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Renders the tiles of a chunk to a new image.
+     */
+    private static BufferedImage renderChunk(ChunkedTileLayer layer, int cx, int cy,
+                                             Dimension tileSize, double zoom) {
+        final Rectangle bounds = layer.getBounds();
+        final int size = ChunkedTileLayer.CHUNK_SIZE;
+        final int tx0 = bounds.x + cx * size;
+        final int ty0 = bounds.y + cy * size;
+        final int tx1 = Math.min(tx0 + size, bounds.x + bounds.width);
+        final int ty1 = Math.min(ty0 + size, bounds.y + bounds.height);
+
+        BufferedImage image = new BufferedImage(
+                (tx1 - tx0) * tileSize.width, (ty1 - ty0) * tileSize.height,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        paintTiles(g, layer, tx0, ty0, 0, 0, tileSize, zoom, null);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Paints the tiles of the chunk starting at the given tile with its top
+     * left corner at the given position.
+     */
+    private static void paintTiles(Graphics2D g, ChunkedTileLayer layer,
+                                   int tx0, int ty0, int gx0, int gy0,
+                                   Dimension tileSize, double zoom,
+                                   ImageObserver observer) {
+        final Rectangle bounds = layer.getBounds();
+        final int size = ChunkedTileLayer.CHUNK_SIZE;
+        final int tx1 = Math.min(tx0 + size, bounds.x + bounds.width);
+        final int ty1 = Math.min(ty0 + size, bounds.y + bounds.height);
+
+        for (int ty = ty0, gy = gy0 + tileSize.height; ty < ty1;
+             ty++, gy += tileSize.height) {
+            for (int tx = tx0, gx = gx0; tx < tx1; tx++, gx += tileSize.width) {
+                final int gid = layer.getGidAt(tx, ty);
+                if (gid == 0) {
+                    continue;
+                }
+                final Tile tile = layer.resolveGid(gid);
+                if (tile != null) {
+                    tile.draw(g, gx, gy, zoom, observer);
+                }
+            }
+        }
+    }
+
+    private void trim(long limit) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (memoryUsage > limit && it.hasNext()) {
+            memoryUsage -= it.next().memoryUsage;
+            it.remove();
+        }
+    }
+
+    private static int floorDiv(int a, int b) {
+        return a >= 0 ? a / b : -((-a + b - 1) / b);
+    }
+
+    private static class Entry {
+        long stamp;
+        long memoryUsage;
+        BufferedImage image;
+    }
+
+    private static class Key {
+        ChunkedTileLayer layer;
+        int cx, cy;
+        double zoom;
+
+        void set(ChunkedTileLayer layer, int cx, int cy, double zoom) {
+            this.layer = layer;
+            this.cx = cx;
+            this.cy = cy;
+            this.zoom = zoom;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.layer == layer && k.cx == cx && k.cy == cy && k.zoom == zoom;
+        }
+
+        public int hashCode() {
+            return ((System.identityHashCode(layer) * 31 + cx) * 31 + cy) * 31 +
+                    (int) Double.doubleToLongBits(zoom);
+        }
+    }
+}
@@ -78,6 +78,13 @@ public class HexMapView extends MapView {
     private boolean hexEdgesToTheLeft;
     private boolean alignedToBottomOrRight;
 
+    // Scratch objects for painting, see MapView#paintClip
+    private final Point paintCorner = new Point();
+    private final Point gridCorner = new Point();
+    private final Polygon gridPolygon = new Polygon();
+    // Black with the grid opacity, made again when the opacity changes
+    private Color hexGridColor = Color.black;
+
     /**
      * Creates a new hexagonal map view that displays the specified map.
      *
@@ -233,10 +240,10 @@ public class HexMapView extends MapView {
      */
     protected void paintLayer(Graphics2D g2d, TileLayer layer) {
         // Determine area to draw from clipping rectangle
-        Dimension tsize = getEffectiveTileSize(layer);
+        Dimension tsize = getEffectiveTileSize(layer, paintTileSize);
         // int toffset = showGrid ? 1 : 0;
 
-        Rectangle clipRect = g2d.getClipBounds();
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
 
         //TiledLogger.getLogger().info("clip " + clipRect.x + "," + clipRect.y
         //    + "-" + clipRect.width + "," + clipRect.height);
@@ -265,7 +272,6 @@ public class HexMapView extends MapView {
         //TiledLogger.getLogger().info("index " + startX + "," + startY
         //    + "-" + endX + "," + endY);
 
-        Polygon gridPoly;
         double gx;
         double gy;
         for (int y = startY; y <= endY; y++) {
@@ -276,17 +282,17 @@ public class HexMapView extends MapView {
                     if (layer.getClass() == SelectionLayer.class) {
                         //TiledLogger.getLogger().info(
                         //    "selection tile at " + x + "," + y);
-                        gridPoly = createGridPolygon(tsize, x, y, 0);
-                        g2d.fillPolygon(gridPoly);
+                        createGridPolygon(tsize, x, y, 0, gridPolygon);
+                        g2d.fillPolygon(gridPolygon);
                     } else {
-                        Point screenCoords = getTopLeftCornerOfTile(tsize, x, y);
+                        Point screenCoords = getTopLeftCornerOfTile(tsize, x, y, paintCorner);
                         gx = screenCoords.getX();
                         gy = screenCoords.getY();
                         //TiledLogger.getLogger().info(
                         //    "image tile at " + x + "," + y
                         //    + " at " + gx + "," + gy);
                         t.draw(g2d, (int) gx, (int) (gy + tsize.height),
-                                zoom);
+                                zoom, this);
                     }
                 }
             }
@@ -319,11 +325,22 @@ public class HexMapView extends MapView {
      * @return The tile size in the view without border as Dimension.
      */
     private Dimension getEffectiveTileSize(MapLayer layer) {
+        return getEffectiveTileSize(layer, new Dimension());
+    }
+
+    /**
+     * Stores the tile size in the view without border in the given
+     * dimension.
+     *
+     * @return The given dimension.
+     */
+    private Dimension getEffectiveTileSize(MapLayer layer, Dimension result) {
         //TiledLogger.getLogger().info("size "
         //    + ((int)(map.getTileWidth() * zoom + 0.999)) + ","
         //    + ((int)(map.getTileHeight() * zoom + 0.999)));
-        return new Dimension((int) (layer.getTileWidth() * zoom + 0.999),
+        result.setSize((int) (layer.getTileWidth() * zoom + 0.999),
                 (int) (layer.getTileHeight() * zoom + 0.999));
+        return result;
     }
 
     /**
@@ -376,14 +393,21 @@ public class HexMapView extends MapView {
      * @param g2d The graphics context, i.e. where to paint.
      */
     protected void paintGrid(Graphics2D g2d) {
-        g2d.setColor(Color.black);
+        if (hexGridColor.getAlpha() != gridOpacity) {
+            hexGridColor = translucent(Color.black, gridOpacity);
+        }
+        g2d.setColor(hexGridColor);
+        // Opaque lines are drawn by loops that allocate nothing, unlike
+        // polygons. Translucent lines all go through the general pipeline
+        // though, which costs less for one polygon than for six lines.
+        final boolean opaque = hexGridColor.getAlpha() == 255;
         MapLayer currentLayer = getCurrentLayer();
         if (currentLayer == null)
             return;
-        Dimension tileSize = getEffectiveTileSize(currentLayer);
+        Dimension tileSize = getEffectiveTileSize(currentLayer, paintTileSize);
 
         // Determine area to draw from clipping rectangle
-        Rectangle clipRect = g2d.getClipBounds();
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
         Point topLeft = screenToTileCoords(
                 currentLayer, (int) clipRect.getMinX(), (int) clipRect.getMinY());
         Point bottomRight = screenToTileCoords(
@@ -417,27 +441,47 @@ public class HexMapView extends MapView {
 
         int dy = 0;
         int dx = 0;
-        Polygon grid;
+        Polygon grid = gridPolygon;
 
         if (hexEdgesToTheLeft) {
             for (int x = startX; x <= endX; x++) {
-                grid = createGridPolygon(tileSize, x, startY, 1);
+                createGridPolygon(tileSize, x, startY, 1, grid);
                 for (int y = startY; y <= endY; y++) {
-                    g2d.drawPolygon(grid);
+                    if (opaque) {
+                        drawOutline(g2d, grid);
+                    } else {
+                        g2d.drawPolygon(grid);
+                    }
                     grid.translate(0, tileSize.height + 1);
                 }
             }
         } else {
             for (int y = startY; y <= endY; y++) {
-                grid = createGridPolygon(tileSize, startX, y, 1);
+                createGridPolygon(tileSize, startX, y, 1, grid);
                 for (int x = startX; x <= endX; x++) {
-                    g2d.drawPolygon(grid);
+                    if (opaque) {
+                        drawOutline(g2d, grid);
+                    } else {
+                        g2d.drawPolygon(grid);
+                    }
                     grid.translate(tileSize.width + 1, 0);
                 }
             }
         }
     }
 
+    /**
+     * Draws the edges of the polygon one line at a time.
+     */
+    private static void drawOutline(Graphics2D g2d, Polygon polygon) {
+        final int[] xs = polygon.xpoints;
+        final int[] ys = polygon.ypoints;
+        final int n = polygon.npoints;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            g2d.drawLine(xs[j], ys[j], xs[i], ys[i]);
+        }
+    }
+
     @Override
     protected void paintZXScreenGrid(Graphics2D g2d) {
 
@@ -593,8 +637,20 @@ public class HexMapView extends MapView {
      * @return A hexagon structure as Polygon.
      */
     protected Polygon createGridPolygon(Dimension tileSize, int tx, int ty, int border) {
-        Polygon poly = new Polygon();
-        Point p = getTopLeftCornerOfTile(tileSize, tx, ty);
+        return createGridPolygon(tileSize, tx, ty, border, new Polygon());
+    }
+
+    /**
+     * Stores a hexagon at the given tile coordinates in the given polygon,
+     * replacing its points.
+     *
+     * @param poly The polygon to store the hexagon in.
+     * @return The given polygon.
+     */
+    private Polygon createGridPolygon(Dimension tileSize, int tx, int ty,
+                                      int border, Polygon poly) {
+        poly.reset();
+        Point p = getTopLeftCornerOfTile(tileSize, tx, ty, gridCorner);
         int topLeftX = (int) (p.getX());
         int topLeftY = (int) (p.getY());
 
@@ -637,6 +693,11 @@ public class HexMapView extends MapView {
      * in screen coordinates as Point.
      */
     private Point getTopLeftCornerOfTile(Dimension tileSize, int x, int y) {
+        return getTopLeftCornerOfTile(tileSize, x, y, new Point());
+    }
+
+    private Point getTopLeftCornerOfTile(Dimension tileSize, int x, int y,
+                                         Point result) {
         //TiledLogger.getLogger().info("tile coords " + x + "," + y);
 
         int w = tileSize.width;
@@ -669,7 +730,8 @@ public class HexMapView extends MapView {
         //TiledLogger.getLogger().info(
         //    "  -> screen coords " + xx + "," + yy + " zoom " + zoom);
 
-        return new Point(xx, yy);
+        result.setLocation(xx, yy);
+        return result;
     }
 
     /**
@@ -20,14 +20,20 @@ import tiled.mapeditor.selection.SelectionLayer;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.font.FontRenderContext;
-import java.awt.geom.Rectangle2D;
 import java.util.Iterator;
 
 /**
  * Isometric map view implementation.
  */
 public class IsoMapView extends MapView {
+    // Scratch objects for painting, see MapView#paintClip
+    private final Dimension paintMapTileSize = new Dimension();
+    private final Point paintRow = new Point();
+    private final Point paintLocation = new Point();
+    private final Point paintEnd = new Point();
+    private final Dimension selectionPolySize = new Dimension();
+    private Polygon selectionPoly;
+
     /**
      * Creates a new isometric map view that displays the specified map.
      *
@@ -67,15 +73,18 @@ public class IsoMapView extends MapView {
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                 RenderingHints.VALUE_ANTIALIAS_ON);
 
-        Rectangle clipRect = g2d.getClipBounds();
-        Dimension tileSize = new Dimension(layer.getTileWidth(), layer.getTileHeight());
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
+        Dimension tileSize = paintTileSize;
+        tileSize.setSize(layer.getTileWidth(), layer.getTileHeight());
         int tileStepY = tileSize.height / 2 == 0 ? 1 : tileSize.height / 2;
-        Polygon gridPoly = createGridPolygon(tileSize, 0, -tileSize.height, 0);
+        Polygon gridPoly = layer instanceof SelectionLayer ?
+                getSelectionPolygon(tileSize) : null;
 
-        Point rowItr = screenToTileCoords(layer, clipRect.x, clipRect.y);
+        Point rowItr = screenToTileCoords(getTileSize(paintMapTileSize),
+                clipRect.x, clipRect.y, paintRow);
         rowItr.x--;
-        Point offset = calculateParallaxOffsetZoomed(layer);
-        Point drawLoc = tileToScreenCoords(offset, tileSize, rowItr.x, rowItr.y);
+        Point offset = calculateParallaxOffsetZoomed(layer, paintOffset);
+        Point drawLoc = tileToScreenCoords(offset, tileSize, rowItr.x, rowItr.y, paintLocation);
         drawLoc.x -= tileSize.width / 2;
         drawLoc.y += tileSize.height;
 
@@ -86,10 +95,11 @@ public class IsoMapView extends MapView {
 
         // Draw this map layer
         for (int y = 0; y < rows; y++) {
-            Point columnItr = new Point(rowItr);
+            int columnX = rowItr.x;
+            int columnY = rowItr.y;
 
             for (int x = 0; x < columns; x++) {
-                Tile tile = layer.getTileAt(columnItr.x, columnItr.y);
+                Tile tile = layer.getTileAt(columnX, columnY);
 
                 if (tile != null) {
                     if (layer instanceof SelectionLayer) {
@@ -100,13 +110,13 @@ public class IsoMapView extends MapView {
                         gridPoly.translate(-drawLoc.x, -drawLoc.y);
                         //paintEdge(g2d, layer, drawLoc.x, drawLoc.y);
                     } else {
-                        tile.draw(g2d, drawLoc.x, drawLoc.y, zoom);
+                        tile.draw(g2d, drawLoc.x, drawLoc.y, zoom, this);
                     }
                 }
 
                 // Advance to the next tile
-                columnItr.x++;
-                columnItr.y--;
+                columnX++;
+                columnY--;
                 drawLoc.x += tileSize.width;
             }
 
@@ -187,31 +197,32 @@ public class IsoMapView extends MapView {
         if (currentLayer == null)
             return;
 
-        Dimension tileSize = getTileSize();
-        Point offset = calculateParallaxOffsetZoomed(currentLayer);
-        Rectangle clipRect = g2d.getClipBounds();
+        Dimension tileSize = getTileSize(paintTileSize);
+        Point offset = calculateParallaxOffsetZoomed(currentLayer, paintOffset);
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
 
         clipRect.x -= tileSize.width / 2;
         clipRect.width += tileSize.width;
         clipRect.height += tileSize.height / 2;
 
-        int startX = Math.max(0, screenToTileCoords(currentLayer, clipRect.x, clipRect.y).x);
-        int startY = Math.max(0, screenToTileCoords(
-                currentLayer, clipRect.x + clipRect.width, clipRect.y).y);
-        int endX = Math.min(map.getWidth(), screenToTileCoords(
-                currentLayer, clipRect.x + clipRect.width,
-                clipRect.y + clipRect.height).x);
-        int endY = Math.min(map.getHeight(), screenToTileCoords(
-                currentLayer, clipRect.x, clipRect.y + clipRect.height).y);
+        Point p = paintLocation;
+        int startX = Math.max(0, screenToTileCoords(tileSize,
+                clipRect.x, clipRect.y, p).x);
+        int startY = Math.max(0, screenToTileCoords(tileSize,
+                clipRect.x + clipRect.width, clipRect.y, p).y);
+        int endX = Math.min(map.getWidth(), screenToTileCoords(tileSize,
+                clipRect.x + clipRect.width, clipRect.y + clipRect.height, p).x);
+        int endY = Math.min(map.getHeight(), screenToTileCoords(tileSize,
+                clipRect.x, clipRect.y + clipRect.height, p).y);
 
         for (int y = startY; y <= endY; y++) {
-            Point start = tileToScreenCoords(offset, tileSize, startX, y);
-            Point end = tileToScreenCoords(offset, tileSize, endX, y);
+            Point start = tileToScreenCoords(offset, tileSize, startX, y, paintLocation);
+            Point end = tileToScreenCoords(offset, tileSize, endX, y, paintEnd);
             g2d.drawLine(start.x, start.y, end.x, end.y);
         }
         for (int x = startX; x <= endX; x++) {
-            Point start = tileToScreenCoords(offset, tileSize, x, startY);
-            Point end = tileToScreenCoords(offset, tileSize, x, endY);
+            Point start = tileToScreenCoords(offset, tileSize, x, startY, paintLocation);
+            Point end = tileToScreenCoords(offset, tileSize, x, endY, paintEnd);
             g2d.drawLine(start.x, start.y, end.x, end.y);
         }
     }
@@ -228,17 +239,16 @@ public class IsoMapView extends MapView {
         g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
-        Rectangle clipRect = g2d.getClipBounds();
-        Dimension tileSize = getTileSize();
-        Point offset = calculateParallaxOffsetZoomed(currentLayer);
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
+        Dimension tileSize = getTileSize(paintTileSize);
+        Point offset = calculateParallaxOffsetZoomed(currentLayer, paintOffset);
         int tileStepY = tileSize.height / 2 == 0 ? 1 : tileSize.height / 2;
-        Font font = new Font("SansSerif", Font.PLAIN, tileSize.height / 4);
-        g2d.setFont(font);
-        FontRenderContext fontRenderContext = g2d.getFontRenderContext();
+        final float textHeight = setCoordinatesFont(g2d, tileSize.height / 4);
+        FontMetrics fontMetrics = g2d.getFontMetrics();
 
-        Point rowItr = screenToTileCoords(currentLayer, clipRect.x, clipRect.y);
+        Point rowItr = screenToTileCoords(tileSize, clipRect.x, clipRect.y, paintRow);
         rowItr.x--;
-        Point drawLoc = tileToScreenCoords(offset, tileSize, rowItr.x, rowItr.y);
+        Point drawLoc = tileToScreenCoords(offset, tileSize, rowItr.x, rowItr.y, paintLocation);
         drawLoc.y += tileSize.height / 2;
 
         // Determine area to draw from clipping rectangle
@@ -247,24 +257,23 @@ public class IsoMapView extends MapView {
 
         // Draw the coordinates
         for (int y = 0; y < rows; y++) {
-            Point columnItr = new Point(rowItr);
+            int columnX = rowItr.x;
+            int columnY = rowItr.y;
 
             for (int x = 0; x < columns; x++) {
-                if (map.contains(columnItr.x, columnItr.y)) {
-                    String coords =
-                            "(" + columnItr.x + "," + columnItr.y + ")";
-                    Rectangle2D textSize =
-                            font.getStringBounds(coords, fontRenderContext);
+                if (map.contains(columnX, columnY)) {
+                    final int length = formatCoordinates(paintText, columnX, columnY);
+                    final int textWidth = fontMetrics.charsWidth(paintText, 0, length);
 
-                    int fx = drawLoc.x - (int) (textSize.getWidth() / 2);
-                    int fy = drawLoc.y + (int) (textSize.getHeight() / 2);
+                    int fx = drawLoc.x - textWidth / 2;
+                    int fy = drawLoc.y + (int) (textHeight / 2);
 
-                    g2d.drawString(coords, fx, fy);
+                    g2d.drawChars(paintText, 0, length, fx, fy);
                 }
 
                 // Advance to the next tile
-                columnItr.x++;
-                columnItr.y--;
+                columnX++;
+                columnY--;
                 drawLoc.x += tileSize.width;
             }
 
@@ -320,7 +329,14 @@ public class IsoMapView extends MapView {
      * Returns the coordinates of the tile at the given screen coordinates.
      */
     public Point screenToTileCoords(MapLayer layer, int x, int y) {
-        Dimension tileSize = getTileSize();
+        return screenToTileCoords(getTileSize(), x, y, new Point());
+    }
+
+    /**
+     * Stores the coordinates of the tile at the given screen coordinates in
+     * the given point, for the given zoomed map tile size.
+     */
+    private Point screenToTileCoords(Dimension tileSize, int x, int y, Point result) {
         double r = getTileRatio();
 
         // Translate origin to top-center
@@ -330,9 +346,10 @@ public class IsoMapView extends MapView {
 
         // Calculate map coords and divide by tile size (tiles assumed to
         // be square in normal projection)
-        return new Point(
+        result.setLocation(
                 (mx < 0 ? mx - tileSize.height : mx) / tileSize.height,
                 (my < 0 ? my - tileSize.height : my) / tileSize.height);
+        return result;
     }
 
     /**
@@ -375,9 +392,26 @@ public class IsoMapView extends MapView {
     }
 
     protected Dimension getTileSize() {
-        return new Dimension(
+        return getTileSize(new Dimension());
+    }
+
+    protected Dimension getTileSize(Dimension result) {
+        result.setSize(
                 (int) (map.getTileWidth() * zoom),
                 (int) (map.getTileHeight() * zoom));
+        return result;
+    }
+
+    /**
+     * Returns the polygon filled for the cells of selection layers, which is
+     * kept until the tile size changes.
+     */
+    private Polygon getSelectionPolygon(Dimension tileSize) {
+        if (selectionPoly == null || !selectionPolySize.equals(tileSize)) {
+            selectionPolySize.setSize(tileSize);
+            selectionPoly = createGridPolygon(tileSize, 0, -tileSize.height, 0);
+        }
+        return selectionPoly;
     }
 
     protected double getTileRatio() {
@@ -433,9 +467,15 @@ public class IsoMapView extends MapView {
      * Returns the location on the screen of the top corner of a tile.
      */
     public Point tileToScreenCoords(Point offset, Dimension tileSize, int x, int y) {
+        return tileToScreenCoords(offset, tileSize, x, y, new Point());
+    }
+
+    private Point tileToScreenCoords(Point offset, Dimension tileSize,
+                                     int x, int y, Point result) {
         int originX = (map.getHeight() * tileSize.width) / 2;
-        return new Point(
+        result.setLocation(
                 offset.x + ((x - y) * tileSize.width / 2) + originX,
                 offset.y + ((x + y) * tileSize.height / 2));
+        return result;
     }
 }
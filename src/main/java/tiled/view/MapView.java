@@ -21,7 +21,11 @@ import tiled.mapeditor.selection.*;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 /**
  * The base class for map views. This is meant to be extended for different
@@ -44,6 +48,14 @@ public abstract class MapView extends JPanel implements Scrollable {
     public static final Color DEFAULT_ZX_SCREEN_GRID_COLOR = Color.green;
     private static final float SELECTIONRUBBERBAND_OUTER_WIDTH = 3.0f;
     private static final float SELECTIONRUBBERBAND_INNER_WIDTH = 1.0f;
+    private static final Stroke LAYER_STROKE = new BasicStroke(2.0f);
+    private static final Stroke GRID_STROKE = new BasicStroke();
+    private static final Stroke SELECTION_OUTER_STROKE =
+            new BasicStroke(SELECTIONRUBBERBAND_OUTER_WIDTH);
+    private static final Stroke SELECTION_INNER_STROKE =
+            new BasicStroke(SELECTIONRUBBERBAND_INNER_WIDTH,
+                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 10,
+                    new float[]{0.0f, 3.0f, 6.0f}, 0.0f);
     private static final Color DEFAULT_BACKGROUND_COLOR = new Color(64, 64, 64);
     public static int ZOOM_NORMALSIZE = 5;
     protected static double[] zoomLevels = {0.0625, 0.125, 0.25, 0.5, 0.75, 1.0, 1.5, 2.0, 3.0, 4.0};
@@ -68,6 +80,15 @@ public abstract class MapView extends JPanel implements Scrollable {
     protected Color gridColor;
     protected Color gridZXScreenColor;
     protected int gridOpacity;
+    // The grid colours with the grid opacity applied. The map is painted on
+    // an opaque background, so drawing in a translucent colour gives the
+    // same pixels as a source-atop composite, and an opaque grid stays on
+    // the Java2D loops that allocate nothing.
+    private Color gridPaintColor;
+    private Color gridZXScreenPaintColor;
+    // The last selection highlight colour and its translucent version
+    private Color highlightColor;
+    private Color highlightPaintColor;
     private MapLayer currentLayer;    // the currently selected layer
     // viewport display properties
     private boolean parallaxModeEnabled;
@@ -75,6 +96,65 @@ public abstract class MapView extends JPanel implements Scrollable {
     private MapLayer selectionRubberBandLayer;
     private SelectionSet selectionSet;
 
+    // Scratch objects for the paint methods, which only run on the event
+    // dispatch thread, so that painting a frame does not allocate them
+    protected final Rectangle paintClip = new Rectangle();
+    protected final Point paintOffset = new Point();
+    protected final Dimension paintTileSize = new Dimension();
+    protected final char[] paintText = new char[32];
+    private Font coordinatesFont;
+    private float coordinatesTextHeight;
+
+    // Back buffer holding the visible part of the view, see
+    // setScrollBuffered(). The buffer holds the area of the view given by
+    // bufferBounds, and bufferDirty collects the areas that were asked to
+    // be repainted since it was last brought up to date.
+    private boolean scrollBuffered;
+    private BufferedImage buffer;
+    private final Rectangle bufferBounds = new Rectangle();
+    private final Rectangle bufferDirty = new Rectangle();
+    private final Rectangle bufferVisible = new Rectangle();
+    private final Rectangle bufferClip = new Rectangle();
+    private final Rectangle bufferArea = new Rectangle();
+
+    /**
+     * Repaints the regions of the map that change, while this view is
+     * displayed.
+     */
+    private final MapChangeListener regionListener = new MapChangeAdapter() {
+        public void mapChanged(MapChangedEvent e) {
+            repaint();
+        }
+
+        public void layerAdded(MapChangedEvent e) {
+            repaint();
+        }
+
+        public void layerRemoved(MapChangedEvent e) {
+            repaint();
+        }
+
+        public void layerMoved(MapChangedEvent e) {
+            repaint();
+        }
+
+        public void layerChanged(MapChangedEvent e, MapLayerChangeEvent layerChangeEvent) {
+            repaint();
+        }
+
+        public void regionChanged(MapChangedEvent e) {
+            repaintRegion(e.getLayer(), e.getRegion());
+        }
+
+        public void tilesetRemoved(MapChangedEvent e, int index) {
+            repaint();
+        }
+
+        public void tilesetsSwapped(MapChangedEvent e, int index0, int index1) {
+            repaint();
+        }
+    };
+
     /**
      * Creates a new <code>MapView</code> that displays the specified map.
      *
@@ -98,6 +178,16 @@ public abstract class MapView extends JPanel implements Scrollable {
         setOpaque(true);
     }
 
+    public void addNotify() {
+        super.addNotify();
+        map.addMapChangeListener(regionListener);
+    }
+
+    public void removeNotify() {
+        map.removeMapChangeListener(regionListener);
+        super.removeNotify();
+    }
+
     /**
      * Creates a MapView instance that will render the map in the right
      * orientation.
@@ -152,10 +242,10 @@ public abstract class MapView extends JPanel implements Scrollable {
 
         g2d.setComposite(AlphaComposite.SrcOver);
 
-        g2d.setStroke(new BasicStroke(3));
+        g2d.setStroke(SELECTION_OUTER_STROKE);
         g2d.setColor(Color.WHITE);
         g2d.draw(r);
-        g2d.setStroke(new BasicStroke(1, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 10, new float[]{0.0f, 3.0f, 6.0f}, 0.0f));
+        g2d.setStroke(SELECTION_INNER_STROKE);
         g2d.setColor(Color.BLACK);
         g2d.draw(r);
 
@@ -234,6 +324,15 @@ public abstract class MapView extends JPanel implements Scrollable {
     /// @see isParallaxModeEnabled()
     /// @see setViewCenter()
     protected Point calculateParallaxOffset(MapLayer layer) {
+        return calculateParallaxOffset(layer, new Point());
+    }
+
+    /// Same as calculateParallaxOffset(MapLayer), storing the offset in the
+    /// given point instead of a new one.
+    /// @param    layer    The layer to calculate the parallax offset for
+    /// @param    result    The point to store the offset in
+    /// @returns    The given point
+    protected Point calculateParallaxOffset(MapLayer layer, Point result) {
         // the parallax effect imitates a sense of depth by moving layers
         // that are 'behind' a base plane (we call it the view plane) slower
         // than than the base plane. Layers 'above' the base plane are moved
@@ -262,8 +361,10 @@ public abstract class MapView extends JPanel implements Scrollable {
         // view plane distance setting.
         // The map's coordinate system is assumed to be the same as the view
         // plane's.
-        if (!isParallaxModeEnabled())
-            return new Point(0, 0);
+        if (!isParallaxModeEnabled()) {
+            result.setLocation(0, 0);
+            return result;
+        }
 
         int mapWidthPx = map.getWidth() * map.getTileWidth();
         int mapHeightPx = map.getHeight() * map.getTileHeight();
@@ -286,7 +387,8 @@ public abstract class MapView extends JPanel implements Scrollable {
         float x = layerOffsetX + originPosX - layerWidthPx / 2;
         float y = layerOffsetY + originPosY - layerHeightPx / 2;
 
-        return new Point((int) x, (int) y);
+        result.setLocation((int) x, (int) y);
+        return result;
     }
 
     /// This function is effectively the same as calculateParallaxOffset(),
@@ -295,10 +397,85 @@ public abstract class MapView extends JPanel implements Scrollable {
     /// @param    layer    The layer to calculate the parallax offset for
     /// @returns    The parallax offset to shift this layer by
     protected Point calculateParallaxOffsetZoomed(MapLayer layer) {
-        Point p = calculateParallaxOffset(layer);
-        p.x *= zoom;
-        p.y *= zoom;
-        return p;
+        return calculateParallaxOffsetZoomed(layer, new Point());
+    }
+
+    /// Same as calculateParallaxOffsetZoomed(MapLayer), storing the offset
+    /// in the given point instead of a new one.
+    /// @param    layer    The layer to calculate the parallax offset for
+    /// @param    result    The point to store the offset in
+    /// @returns    The given point
+    protected Point calculateParallaxOffsetZoomed(MapLayer layer, Point result) {
+        calculateParallaxOffset(layer, result);
+        result.x *= zoom;
+        result.y *= zoom;
+        return result;
+    }
+
+    /**
+     * Sets the font to draw coordinates with on the given graphics context.
+     * The font, and the height of its text, are kept until a different size
+     * is asked for.
+     *
+     * @param g2d  the graphics context to draw the coordinates onto
+     * @param size the point size of the font
+     * @return the height of a line of text in the font
+     */
+    protected float setCoordinatesFont(Graphics2D g2d, int size) {
+        if (coordinatesFont == null || coordinatesFont.getSize() != size) {
+            coordinatesFont = new Font("SansSerif", Font.PLAIN, size);
+            coordinatesTextHeight = coordinatesFont.getLineMetrics(
+                    "0", g2d.getFontRenderContext()).getHeight();
+        }
+        g2d.setFont(coordinatesFont);
+        return coordinatesTextHeight;
+    }
+
+    /**
+     * Writes the text "(x,y)" to the given buffer, which must have room for
+     * at least 25 characters, so that it can be drawn without creating a
+     * string.
+     *
+     * @param buffer the buffer to write to
+     * @param x      the x coordinate
+     * @param y      the y coordinate
+     * @return the number of characters written
+     */
+    protected static int formatCoordinates(char[] buffer, int x, int y) {
+        int length = 0;
+        buffer[length++] = '(';
+        length = formatNumber(buffer, length, x);
+        buffer[length++] = ',';
+        length = formatNumber(buffer, length, y);
+        buffer[length++] = ')';
+        return length;
+    }
+
+    /**
+     * Writes the decimal digits of a number to the given buffer.
+     *
+     * @param buffer the buffer to write to
+     * @param offset the position to write the number at
+     * @param number the number
+     * @return the position after the number
+     */
+    protected static int formatNumber(char[] buffer, int offset, int number) {
+        long value = number;
+        if (value < 0) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+        final int start = offset;
+        do {
+            buffer[offset++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = offset - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+        return offset;
     }
 
     public void toggleMode(int modeModifier) {
@@ -323,19 +500,51 @@ public abstract class MapView extends JPanel implements Scrollable {
 
     public void setGridColor(Color gridColor) {
         this.gridColor = gridColor;
+        gridPaintColor = translucent(gridColor, gridOpacity);
         repaint();
     }
 
     public void setZXScreenGridColor(Color gridColor) {
         this.gridZXScreenColor = gridColor;
+        gridZXScreenPaintColor = translucent(gridColor, gridOpacity);
         repaint();
     }
 
     public void setGridOpacity(int gridOpacity) {
         this.gridOpacity = gridOpacity;
+        gridPaintColor = translucent(gridColor, gridOpacity);
+        gridZXScreenPaintColor = translucent(gridZXScreenColor, gridOpacity);
         repaint();
     }
 
+    /**
+     * Returns the given colour with the given alpha, or <code>null</code>
+     * for no colour.
+     */
+    protected static Color translucent(Color color, int alpha) {
+        if (color == null) {
+            return null;
+        }
+        alpha = Math.max(0, Math.min(255, alpha));
+        if (color.getAlpha() == alpha) {
+            return color;
+        }
+        return new Color(color.getRed(), color.getGreen(), color.getBlue(),
+                alpha);
+    }
+
+    /**
+     * Returns the colour to fill selected tiles with, which is the given
+     * highlight colour at 30% opacity.
+     */
+    private Color getHighlightPaintColor(Color color) {
+        if (color != highlightColor) {
+            highlightColor = color;
+            highlightPaintColor = translucent(color, (int) (0.3f * 255));
+        }
+        return highlightPaintColor;
+    }
+
     public void setAntialiasGrid(boolean antialiasGrid) {
         this.antialiasGrid = antialiasGrid;
         repaint();
@@ -389,6 +598,10 @@ public abstract class MapView extends JPanel implements Scrollable {
         return zoomLevel > 0;
     }
 
+    public Map getMap() {
+        return map;
+    }
+
     public double getZoom() {
         return zoom;
     }
@@ -398,6 +611,7 @@ public abstract class MapView extends JPanel implements Scrollable {
             this.zoom = zoom;
             //revalidate();
             setSize(getPreferredSize());
+            repaint();
         }
     }
 
@@ -417,6 +631,49 @@ public abstract class MapView extends JPanel implements Scrollable {
 
     public abstract Dimension getPreferredSize();
 
+    public boolean isScrollBuffered() {
+        return scrollBuffered;
+    }
+
+    /**
+     * Sets whether the visible part of this view is kept in a back buffer.
+     * When the view is scrolled, the pixels in the buffer are moved along
+     * and only the newly exposed strips are rendered, instead of the whole
+     * visible area. Areas asked to be repainted are rendered into the
+     * buffer again.
+     * <p>
+     * Meant for the view shown in the scroll pane of the editor. Views that
+     * are painted elsewhere, like into an image, should not buffer.
+     *
+     * @param scrollBuffered whether to keep a back buffer
+     */
+    public void setScrollBuffered(boolean scrollBuffered) {
+        this.scrollBuffered = scrollBuffered;
+        if (!scrollBuffered) {
+            buffer = null;
+        }
+        repaint();
+    }
+
+    /**
+     * Marks the given area as in need of rendering into the back buffer,
+     * besides scheduling it for painting.
+     */
+    public void repaint(long tm, int x, int y, int width, int height) {
+        // Called from the superclass constructor before the fields are set
+        if (bufferDirty != null && width > 0 && height > 0) {
+            synchronized (bufferDirty) {
+                if (bufferDirty.isEmpty()) {
+                    bufferDirty.setBounds(x, y, width, height);
+                } else {
+                    bufferDirty.add(x, y);
+                    bufferDirty.add(x + width, y + height);
+                }
+            }
+        }
+        super.repaint(tm, x, y, width, height);
+    }
+
     public Dimension getPreferredScrollableViewportSize() {
         return getPreferredSize();
     }
@@ -446,12 +703,102 @@ public abstract class MapView extends JPanel implements Scrollable {
      */
     @Override
     public void paintComponent(Graphics g) {
+        if (scrollBuffered && !isPaintingForPrint()) {
+            Rectangle visible = bufferVisible;
+            computeVisibleRect(visible);
+            Rectangle clip = g.getClipBounds(bufferClip);
+            if (!visible.isEmpty() && clip != null && visible.contains(clip)) {
+                updateBuffer(visible);
+                g.drawImage(buffer, visible.x, visible.y, null);
+                return;
+            }
+        }
+        paintMap(g);
+    }
+
+    /**
+     * Brings the back buffer up to date for the given visible area. Pixels
+     * still valid after scrolling are moved with a single area copy, so
+     * that only the exposed strips and the areas asked to be repainted are
+     * rendered.
+     *
+     * @param visible the visible area of the view
+     */
+    private void updateBuffer(Rectangle visible) {
+        final Rectangle dirty = bufferArea;
+        synchronized (bufferDirty) {
+            dirty.setBounds(bufferDirty);
+            bufferDirty.setBounds(0, 0, 0, 0);
+        }
+
+        final int w = visible.width;
+        final int h = visible.height;
+        if (buffer == null || buffer.getWidth() != w || buffer.getHeight() != h) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            if (gc != null) {
+                buffer = gc.createCompatibleImage(w, h);
+            } else {
+                buffer = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            }
+            bufferBounds.setBounds(visible);
+            renderBuffer(visible);
+            return;
+        }
+
+        final int dx = bufferBounds.x - visible.x;
+        final int dy = bufferBounds.y - visible.y;
+        bufferBounds.setLocation(visible.x, visible.y);
+        if (Math.abs(dx) >= w || Math.abs(dy) >= h) {
+            renderBuffer(visible);
+            return;
+        }
+        if (dx != 0 || dy != 0) {
+            Graphics2D g = buffer.createGraphics();
+            g.copyArea(0, 0, w, h, dx, dy);
+            g.dispose();
+            if (dx > 0) {
+                renderBuffer(new Rectangle(visible.x, visible.y, dx, h));
+            } else if (dx < 0) {
+                renderBuffer(new Rectangle(visible.x + w + dx, visible.y, -dx, h));
+            }
+            if (dy > 0) {
+                renderBuffer(new Rectangle(visible.x, visible.y, w, dy));
+            } else if (dy < 0) {
+                renderBuffer(new Rectangle(visible.x, visible.y + h + dy, w, -dy));
+            }
+        }
+
+        // Areas outside the buffer are rendered when they are scrolled in
+        Rectangle.intersect(dirty, visible, dirty);
+        if (!dirty.isEmpty()) {
+            renderBuffer(dirty);
+        }
+    }
+
+    /**
+     * Renders the given area of the view into the back buffer.
+     */
+    private void renderBuffer(Rectangle area) {
+        Graphics2D g = buffer.createGraphics();
+        g.translate(-bufferBounds.x, -bufferBounds.y);
+        g.clipRect(area.x, area.y, area.width, area.height);
+        paintMap(g);
+        g.dispose();
+    }
+
+    /**
+     * Paints the map and everything shown on top of it within the clip of
+     * the given graphics context.
+     *
+     * @param g the graphics context to paint to
+     */
+    protected void paintMap(Graphics g) {
         Graphics2D g2d = (Graphics2D) g.create();
 
         MapLayer layer;
-        Rectangle clip = g2d.getClipBounds();
+        Rectangle clip = g2d.getClipBounds(paintClip);
 
-        g2d.setStroke(new BasicStroke(2.0f));
+        g2d.setStroke(LAYER_STROKE);
 
         // Do an initial fill with the background color
         // todo: make background color configurable
@@ -472,10 +819,9 @@ public abstract class MapView extends JPanel implements Scrollable {
                 layer = (MapLayer) li.next();
                 if (layer.isVisible()) {
                     if (layer instanceof SelectionLayer) {
-                        g2d.setComposite(AlphaComposite.getInstance(
-                                AlphaComposite.SRC_ATOP, 0.3f));
-                        g2d.setColor(
-                                ((SelectionLayer) layer).getHighlightColor());
+                        g2d.setComposite(AlphaComposite.SrcOver);
+                        g2d.setColor(getHighlightPaintColor(
+                                ((SelectionLayer) layer).getHighlightColor()));
                     }
                     paintLayer(g2d, (TileLayer) layer);
                 }
@@ -489,15 +835,8 @@ public abstract class MapView extends JPanel implements Scrollable {
 
         // Grid color (also used for coordinates)
         if (showGrid) {
-            g2d.setColor(gridColor);
-            // Grid opacity
-            if (gridOpacity < 255) {
-                g2d.setComposite(AlphaComposite.getInstance(
-                        AlphaComposite.SRC_ATOP,
-                        (float) gridOpacity / 255.0f));
-            } else {
-                g2d.setComposite(AlphaComposite.SrcOver);
-            }
+            g2d.setColor(gridPaintColor);
+            g2d.setComposite(AlphaComposite.SrcOver);
 
             // Configure grid antialiasing
             if (antialiasGrid) {
@@ -508,18 +847,13 @@ public abstract class MapView extends JPanel implements Scrollable {
                         RenderingHints.VALUE_ANTIALIAS_OFF);
             }
 
-            g2d.setStroke(new BasicStroke());
+            g2d.setStroke(GRID_STROKE);
             paintGrid(g2d);
         }
 
         if (showZXScreenGrid) {
-            g2d.setColor(gridZXScreenColor);
-            // Grid opacity
-            if (gridOpacity < 255) {
-                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_ATOP, (float) gridOpacity / 255.0f));
-            } else {
-                g2d.setComposite(AlphaComposite.SrcOver);
-            }
+            g2d.setColor(gridZXScreenPaintColor);
+            g2d.setComposite(AlphaComposite.SrcOver);
 
             // Configure grid antialiasing
             if (antialiasGrid) {
@@ -528,7 +862,7 @@ public abstract class MapView extends JPanel implements Scrollable {
                 g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
             }
 
-            g2d.setStroke(new BasicStroke());
+            g2d.setStroke(GRID_STROKE);
             paintZXScreenGrid(g2d);
         }
 
@@ -592,11 +926,12 @@ public abstract class MapView extends JPanel implements Scrollable {
 
     public void paintSubMap(MultilayerPlane m, Graphics2D g2d,
                             float mapOpacity) {
-        Iterator li = m.getLayers();
+        // Layers are looked up by index, which needs no iterator
+        final int layerCount = m.getTotalLayers();
         MapLayer layer;
 
-        while (li.hasNext()) {
-            layer = (MapLayer) li.next();
+        for (int i = 0; i < layerCount; i++) {
+            layer = m.getLayer(i);
             if (layer != null) {
                 float opacity = layer.getOpacity() * mapOpacity;
                 if (layer.isVisible() && opacity > 0.0f) {
@@ -700,6 +1035,54 @@ public abstract class MapView extends JPanel implements Scrollable {
         repaint();
     }
 
+    /**
+     * Repaints the visible cells showing any of the given tiles, for
+     * example after the images of those tiles changed.
+     *
+     * @param tiles the tiles to repaint
+     */
+    public void repaintTiles(Collection<Tile> tiles) {
+        final Set<Tile> changed = new HashSet<Tile>(tiles);
+        final Rectangle visible = getVisibleRect();
+
+        Iterator<MapLayer> it = map.getLayers();
+        while (it.hasNext()) {
+            MapLayer layer = it.next();
+            if (!(layer instanceof TileLayer) || !layer.isVisible()) {
+                continue;
+            }
+
+            // The bounds in tiles of the visible corners, which covers the
+            // visible cells for any orientation
+            Rectangle area = null;
+            final int[] xs = {visible.x, visible.x + visible.width};
+            final int[] ys = {visible.y, visible.y + visible.height};
+            for (int x : xs) {
+                for (int y : ys) {
+                    Point p = screenToTileCoords(layer, x, y);
+                    if (area == null) {
+                        area = new Rectangle(p);
+                    } else {
+                        area.add(p);
+                    }
+                }
+            }
+            area.width++;
+            area.height++;
+            area = area.intersection(layer.getBounds());
+
+            final TileLayer tl = (TileLayer) layer;
+            for (int y = area.y; y < area.y + area.height; y++) {
+                for (int x = area.x; x < area.x + area.width; x++) {
+                    Tile tile = tl.getTileAt(x, y);
+                    if (tile != null && changed.contains(tile)) {
+                        repaintRegion(layer, new Rectangle(x, y, 1, 1));
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Draws the grid for the given layer.
      *
@@ -19,8 +19,6 @@ import tiled.mapeditor.selection.SelectionLayer;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.font.FontRenderContext;
-import java.awt.geom.Rectangle2D;
 import java.util.Iterator;
 import java.util.Properties;
 
@@ -34,6 +32,14 @@ public class OrthoZXMapView extends ZXMapView {
 
     private final Polygon propPoly;
 
+    // Scratch objects for painting, see MapView#paintClip
+    private final Point paintStart = new Point();
+    private final Point paintEnd = new Point();
+    private final Point paintLocation = new Point();
+    private final Dimension paintScreenSize = new Dimension();
+    private final Dimension selectionPolySize = new Dimension();
+    private Polygon selectionPoly;
+
     /**
      * Creates a new orthographic map view that displays the specified map.
      *
@@ -46,6 +52,8 @@ public class OrthoZXMapView extends ZXMapView {
         propPoly.addPoint(0, 0);
         propPoly.addPoint(12, 0);
         propPoly.addPoint(12, 12);
+
+        ChunkImageCache.getInstance().watch(map);
     }
 
     public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
@@ -75,31 +83,59 @@ public class OrthoZXMapView extends ZXMapView {
 
     protected void paintLayer(Graphics2D g2d, TileLayer layer) {
         // Determine tile size and offset
-        Dimension tileSize = getLayerTileSize(layer);
+        Dimension tileSize = getLayerTileSize(layer, paintTileSize);
         if (tileSize.width <= 0 || tileSize.height <= 0) {
             return;
         }
 
-        Polygon gridPoly = createGridPolygon(tileSize, 0, -tileSize.height, 0);
-
-        Point pointOffset = calculateParallaxOffsetZoomed(layer);
+        Point pointOffset = calculateParallaxOffsetZoomed(layer, paintOffset);
 
         // Determine area to draw from clipping rectangle
-        Rectangle clipRect = g2d.getClipBounds();
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
 
-        Point start = this.screenToTileCoords(layer, clipRect.x, clipRect.y);
-        Point end = this.screenToTileCoords(layer, (clipRect.x + clipRect.width), (clipRect.y + clipRect.height));
+        Point start = screenToTileCoords(tileSize, pointOffset,
+                clipRect.x, clipRect.y, paintStart);
+        Point end = screenToTileCoords(tileSize, pointOffset,
+                clipRect.x + clipRect.width, clipRect.y + clipRect.height, paintEnd);
         end.x += 1;
         end.y += 3;
 
         boolean isSelectionLayer = layer instanceof SelectionLayer;
+        Polygon gridPoly = isSelectionLayer ? getSelectionPolygon(tileSize) : null;
+
+        // Layers storing global ids are read directly, so that empty cells
+        // are skipped without resolving them to a tile
+        GidTileLayer gidLayer =
+                layer instanceof GidTileLayer ? (GidTileLayer) layer : null;
+        ChunkedTileLayer chunkedLayer =
+                layer instanceof ChunkedTileLayer ? (ChunkedTileLayer) layer : null;
+
+        if (chunkedLayer != null && !isSelectionLayer) {
+            ChunkImageCache.getInstance().paintLayer(
+                    g2d, chunkedLayer, start, end, tileSize, pointOffset, zoom, this);
+            return;
+        }
 
         // Draw this map layer
         for (int y = start.y, gy = (start.y + 1) * tileSize.height + pointOffset.y;
              y < end.y; y++, gy += tileSize.height) {
-            for (int x = start.x, gx = start.x * tileSize.width + pointOffset.x;
-                 x < end.x; x++, gx += tileSize.width) {
-                Tile tile = layer.getTileAt(x, y);
+            for (int x = start.x; x < end.x; x++) {
+                if (chunkedLayer != null && !chunkedLayer.hasChunkAt(x, y)) {
+                    // Skip the rest of this empty chunk
+                    x = chunkedLayer.getChunkStartX(x) + ChunkedTileLayer.CHUNK_SIZE - 1;
+                    continue;
+                }
+
+                int gx = x * tileSize.width + pointOffset.x;
+                Tile tile;
+                if (gidLayer != null) {
+                    int gid = gidLayer.getGidAt(x, y);
+                    if (gid == 0)
+                        continue;
+                    tile = gidLayer.resolveGid(gid);
+                } else {
+                    tile = layer.getTileAt(x, y);
+                }
 
                 if (tile == null)
                     continue;
@@ -110,7 +146,7 @@ public class OrthoZXMapView extends ZXMapView {
                     gridPoly.translate(-gx, -gy);
                     //paintEdge(g, layer, gx, gy);
                 } else {
-                    tile.draw(g2d, gx, gy, zoom);
+                    tile.draw(g2d, gx, gy, zoom, this);
                 }
             }
         }
@@ -179,27 +215,28 @@ public class OrthoZXMapView extends ZXMapView {
             return;
 
         // Determine tile size
-        Dimension tsize = getLayerTileSize(currentLayer);
+        Dimension tsize = getLayerTileSize(currentLayer, paintTileSize);
         if (tsize.width <= 0 || tsize.height <= 0) {
             return;
         }
-        Point offset = calculateParallaxOffsetZoomed(currentLayer);
+        Point offset = calculateParallaxOffsetZoomed(currentLayer, paintOffset);
 
         // Determine lines to draw from clipping rectangle
-        Rectangle clipRect = g2d.getClipBounds();
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
 
         // transforming coordinates back and forth between screen and tile 
         // coordinates to quantise the given screen rectangle to coordinates bla 
         // that match the grid lines
-        Point startTile = screenToTileCoords(currentLayer, clipRect.x, clipRect.y);
+        Point startTile = screenToTileCoords(tsize, offset, clipRect.x, clipRect.y, paintStart);
 
-        Point start = tileToScreenCoords(offset, tsize, startTile.x, startTile.y);
-        Point end = new Point(clipRect.x + clipRect.width, clipRect.y + clipRect.height);
+        Point start = tileToScreenCoords(offset, tsize, startTile.x, startTile.y, paintStart);
+        final int endX = clipRect.x + clipRect.width;
+        final int endY = clipRect.y + clipRect.height;
 
-        for (int x = start.x; x < end.x; x += tsize.width) {
+        for (int x = start.x; x < endX; x += tsize.width) {
             g2d.drawLine(x, clipRect.y, x, clipRect.y + clipRect.height - 1);
         }
-        for (int y = start.y; y < end.y; y += tsize.height) {
+        for (int y = start.y; y < endY; y += tsize.height) {
             g2d.drawLine(clipRect.x, y, clipRect.x + clipRect.width - 1, y);
         }
     }
@@ -212,28 +249,29 @@ public class OrthoZXMapView extends ZXMapView {
             return;
 
         // Determine tile size
-        Dimension tileSize = getLayerTileSize(currentLayer);
-        Dimension zxScreenSize = getLayerZXScreenSize(currentLayer, tileSize);
+        Dimension tileSize = getLayerTileSize(currentLayer, paintTileSize);
+        Dimension zxScreenSize = getLayerZXScreenSize(currentLayer, tileSize, paintScreenSize);
         if (zxScreenSize.width <= 0 || zxScreenSize.height <= 0) {
             return;
         }
-        Point offset = calculateParallaxOffsetZoomed(currentLayer);
+        Point offset = calculateParallaxOffsetZoomed(currentLayer, paintOffset);
 
         // Determine lines to draw from clipping rectangle
-        Rectangle clipRect = g2d.getClipBounds();
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
 
         // transforming coordinates back and forth between screen and tile
         // coordinates to quantise the given screen rectangle to coordinates bla
         // that match the grid lines
-        Point startTile = screenToTileCoords(currentLayer, clipRect.x, clipRect.y);
+        Point startTile = screenToTileCoords(tileSize, offset, clipRect.x, clipRect.y, paintStart);
 
-        Point start = tileToScreenCoords(offset, zxScreenSize, startTile.x, startTile.y);
-        Point end = new Point(clipRect.x + clipRect.width, clipRect.y + clipRect.height);
+        Point start = tileToScreenCoords(offset, zxScreenSize, startTile.x, startTile.y, paintStart);
+        final int endX = clipRect.x + clipRect.width;
+        final int endY = clipRect.y + clipRect.height;
 
-        for (int x = start.x; x < end.x; x += zxScreenSize.width) {
+        for (int x = start.x; x < endX; x += zxScreenSize.width) {
             g2d.drawLine(x, clipRect.y, x, clipRect.y + clipRect.height - 1);
         }
-        for (int y = start.y; y < end.y; y += zxScreenSize.height) {
+        for (int y = start.y; y < endY; y += zxScreenSize.height) {
             g2d.drawLine(clipRect.x, y, clipRect.x + clipRect.width - 1, y);
         }
     }
@@ -245,39 +283,38 @@ public class OrthoZXMapView extends ZXMapView {
         if (currentLayer == null)
             return;
 
-        Dimension tileSize = getLayerTileSize(currentLayer);
+        Dimension tileSize = getLayerTileSize(currentLayer, paintTileSize);
         if (tileSize.width <= 0 || tileSize.height <= 0) {
             return;
         }
-        Point offset = calculateParallaxOffsetZoomed(currentLayer);
+        Point offset = calculateParallaxOffsetZoomed(currentLayer, paintOffset);
 
         g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
         // Determine tile size and offset
         int minTileExtents = min(tileSize.width, tileSize.height);
-        Font font = new Font("SansSerif", Font.PLAIN, minTileExtents / 4);
-        g2d.setFont(font);
-        FontRenderContext fontRenderContext = g2d.getFontRenderContext();
+        final float textHeight = setCoordinatesFont(g2d, minTileExtents / 4);
+        FontMetrics fontMetrics = g2d.getFontMetrics();
 
         // Determine area to draw from clipping rectangle
-        Rectangle clipRect = g2d.getClipBounds();
-        Point start = screenToTileCoords(currentLayer, clipRect.x, clipRect.y);
-        Point end = screenToTileCoords(currentLayer, clipRect.x + clipRect.width, clipRect.y + clipRect.height);
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
+        Point start = screenToTileCoords(tileSize, offset, clipRect.x, clipRect.y, paintStart);
+        Point end = screenToTileCoords(tileSize, offset,
+                clipRect.x + clipRect.width, clipRect.y + clipRect.height, paintEnd);
         end.x += 1;
         end.y += 1;
 
         // Draw the coordinates
         for (int y = start.y; y < end.y; y++) {
-            Point g = tileToScreenCoords(offset, tileSize, start.x, y);
+            Point g = tileToScreenCoords(offset, tileSize, start.x, y, paintLocation);
             for (int x = start.x; x < end.x; x++) {
-                String coords = "(" + x + "," + y + ")";
-                Rectangle2D textSize =
-                        font.getStringBounds(coords, fontRenderContext);
+                final int length = formatCoordinates(paintText, x, y);
+                final int textWidth = fontMetrics.charsWidth(paintText, 0, length);
 
-                int fx = g.x + (int) ((tileSize.width - textSize.getWidth()) / 2);
-                int fy = g.y + (int) ((tileSize.height + textSize.getHeight()) / 2);
+                int fx = g.x + (tileSize.width - textWidth) / 2;
+                int fy = g.y + (int) ((tileSize.height + textHeight) / 2);
 
-                g2d.drawString(coords, fx, fy);
+                g2d.drawChars(paintText, 0, length, fx, fy);
                 g.x += tileSize.width;
             }
         }
@@ -291,39 +328,39 @@ public class OrthoZXMapView extends ZXMapView {
         if (currentLayer == null)
             return;
 
-        Dimension tileSize = getLayerTileSize(currentLayer);
-        Dimension zxScreenSize = getLayerZXScreenSize(currentLayer, tileSize);
+        Dimension tileSize = getLayerTileSize(currentLayer, paintTileSize);
+        Dimension zxScreenSize = getLayerZXScreenSize(currentLayer, tileSize, paintScreenSize);
 
         if (zxScreenSize.width <= 0 || zxScreenSize.height <= 0) {
             return;
         }
-        Point offset = calculateParallaxOffsetZoomed(currentLayer);
+        Point offset = calculateParallaxOffsetZoomed(currentLayer, paintOffset);
 
         g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 
         // Determine tile size and offset
         int minTileExtents = min(zxScreenSize.width, zxScreenSize.height);
-        Font font = new Font("SansSerif", Font.PLAIN, minTileExtents / 4);
-        g2d.setFont(font);
-        FontRenderContext fontRenderContext = g2d.getFontRenderContext();
+        final float textHeight = setCoordinatesFont(g2d, minTileExtents / 4);
+        FontMetrics fontMetrics = g2d.getFontMetrics();
 
         // Determine area to draw from clipping rectangle
-        Rectangle clipRect = g2d.getClipBounds();
-        Point start = screenToZXScreenCoords(currentLayer, clipRect.x, clipRect.y);
-        Point end = screenToZXScreenCoords(currentLayer, clipRect.x + clipRect.width, clipRect.y + clipRect.height);
+        Rectangle clipRect = g2d.getClipBounds(paintClip);
+        Point start = screenToTileCoords(zxScreenSize, offset, clipRect.x, clipRect.y, paintStart);
+        Point end = screenToTileCoords(zxScreenSize, offset,
+                clipRect.x + clipRect.width, clipRect.y + clipRect.height, paintEnd);
 
         int number = 0;
         // Draw the coordinates
         for (int y = start.y; y < end.y; y++) {
-            Point g = tileToScreenCoords(offset, zxScreenSize, start.x, y);
+            Point g = tileToScreenCoords(offset, zxScreenSize, start.x, y, paintLocation);
             for (int x = start.x; x < end.x; x++) {
-                String screenNumber = String.valueOf(number);//"(" + x + "," + y + ")";
+                final int length = formatNumber(paintText, 0, number);
+                final int textWidth = fontMetrics.charsWidth(paintText, 0, length);
 
-                Rectangle2D textSize = font.getStringBounds(screenNumber, fontRenderContext);
-                int fx = g.x + (int) ((zxScreenSize.width - textSize.getWidth()) / 2);
-                int fy = g.y + (int) ((zxScreenSize.height + textSize.getHeight()) / 2);
+                int fx = g.x + (zxScreenSize.width - textWidth) / 2;
+                int fy = g.y + (int) ((zxScreenSize.height + textHeight) / 2);
 
-                g2d.drawString(screenNumber, fx, fy);
+                g2d.drawChars(paintText, 0, length, fx, fy);
                 g.x += zxScreenSize.width;
                 number+=1;
             }
@@ -401,33 +438,68 @@ public class OrthoZXMapView extends ZXMapView {
     }
 
     public Point screenToTileCoords(MapLayer layer, int x, int y) {
-        Dimension tsize = getLayerTileSize(layer);
-        Point poffset = calculateParallaxOffsetZoomed(layer);
-        return new Point((x - poffset.x) / tsize.width, (y - poffset.y) / tsize.height);
+        return screenToTileCoords(getLayerTileSize(layer),
+                calculateParallaxOffsetZoomed(layer), x, y, new Point());
+    }
+
+    /**
+     * Converts screen coordinates to the coordinates of the cells of the
+     * given size, for a layer with the given zoomed parallax offset.
+     *
+     * @param cellSize the zoomed size of the cells
+     * @param offset   the zoomed parallax offset of the layer
+     * @param x        x in screen coordinates
+     * @param y        y in screen coordinates
+     * @param result   the point to store the cell coordinates in
+     * @return the given point
+     */
+    private static Point screenToTileCoords(Dimension cellSize, Point offset,
+                                           int x, int y, Point result) {
+        result.setLocation((x - offset.x) / cellSize.width,
+                (y - offset.y) / cellSize.height);
+        return result;
     }
 
     public Point screenToZXScreenCoords(MapLayer layer, int x, int y) {
         Dimension tileSize = getLayerTileSize(layer);
         Dimension zxScreenSize = getLayerZXScreenSize(layer, tileSize);
 
-        Point poffset = calculateParallaxOffsetZoomed(layer);
-        return new Point((x - poffset.x) / zxScreenSize.width, (y - poffset.y) / zxScreenSize.height);
+        return screenToTileCoords(zxScreenSize,
+                calculateParallaxOffsetZoomed(layer), x, y, new Point());
     }
 
     public Point tileToScreenCoords(Point offset, Dimension tileDimension, int x, int y) {
-        return new Point(offset.x + x * tileDimension.width, offset.y + y * tileDimension.height);
+        return tileToScreenCoords(offset, tileDimension, x, y, new Point());
+    }
+
+    private static Point tileToScreenCoords(Point offset, Dimension tileDimension,
+                                            int x, int y, Point result) {
+        result.setLocation(offset.x + x * tileDimension.width,
+                offset.y + y * tileDimension.height);
+        return result;
     }
 
     protected Dimension getLayerTileSize(MapLayer layer) {
-        return new Dimension(
+        return getLayerTileSize(layer, new Dimension());
+    }
+
+    protected Dimension getLayerTileSize(MapLayer layer, Dimension result) {
+        result.setSize(
                 (int) (layer.getTileWidth() * zoom),
                 (int) (layer.getTileHeight() * zoom));
+        return result;
     }
 
     protected Dimension getLayerZXScreenSize(MapLayer layer, Dimension tileSize) {
-        return new Dimension(
+        return getLayerZXScreenSize(layer, tileSize, new Dimension());
+    }
+
+    protected Dimension getLayerZXScreenSize(MapLayer layer, Dimension tileSize,
+                                             Dimension result) {
+        result.setSize(
                 (int) (ZXScreen.getWidthInPixelsBySizeTile(tileSize.width) * zoom),
                 (int) (ZXScreen.getHeightInPixelsBySizeTile(tileSize.height) * zoom));
+        return result;
     }
 
     protected Dimension getMapTileSize() {
@@ -436,6 +508,18 @@ public class OrthoZXMapView extends ZXMapView {
                 (int) (map.getTileHeight() * zoom));
     }
 
+    /**
+     * Returns the polygon filled for the cells of selection layers, which is
+     * kept until the tile size changes.
+     */
+    private Polygon getSelectionPolygon(Dimension tileSize) {
+        if (selectionPoly == null || !selectionPolySize.equals(tileSize)) {
+            selectionPoly = createGridPolygon(tileSize, 0, -tileSize.height, 0);
+            selectionPolySize.setSize(tileSize);
+        }
+        return selectionPoly;
+    }
+
     protected Polygon createGridPolygon(Dimension tileDimension, int tx, int ty, int border) {
         Polygon poly = new Polygon();
         poly.addPoint(tx - border, ty - border);
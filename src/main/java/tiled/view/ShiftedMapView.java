@@ -136,9 +136,6 @@ public class ShiftedMapView extends MapView {
         throw new RuntimeException("Not yet implemented");    // todo
     }
 
-    public void repaintRegion(MapLayer layer, Rectangle region) {
-    }
-
     public Point screenToTileCoords(MapLayer layer, int x, int y) {
         return new Point(0, 0);
     }
@@ -44,6 +44,14 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
     public static final Color DEFAULT_ZX_SCREEN_GRID_COLOR = Color.green;
     private static final float SELECTIONRUBBERBAND_OUTER_WIDTH = 3.0f;
     private static final float SELECTIONRUBBERBAND_INNER_WIDTH = 1.0f;
+    private static final Stroke LAYER_STROKE = new BasicStroke(2.0f);
+    private static final Stroke GRID_STROKE = new BasicStroke();
+    private static final Stroke SELECTION_OUTER_STROKE =
+            new BasicStroke(SELECTIONRUBBERBAND_OUTER_WIDTH);
+    private static final Stroke SELECTION_INNER_STROKE =
+            new BasicStroke(SELECTIONRUBBERBAND_INNER_WIDTH,
+                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 10,
+                    new float[]{0.0f, 3.0f, 6.0f}, 0.0f);
     private static final Color DEFAULT_BACKGROUND_COLOR = new Color(64, 64, 64);
     public static int ZOOM_NORMALSIZE = 5;
     protected static double[] zoomLevels = {0.0625, 0.125, 0.25, 0.5, 0.75, 1.0, 1.5, 2.0, 3.0, 4.0};
@@ -68,6 +76,15 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
     protected Color gridColor;
     protected Color gridZXScreenColor;
     protected int gridOpacity;
+    // The grid colours with the grid opacity applied. The map is painted on
+    // an opaque background, so drawing in a translucent colour gives the
+    // same pixels as a source-atop composite, and an opaque grid stays on
+    // the Java2D loops that allocate nothing.
+    private Color gridPaintColor;
+    private Color gridZXScreenPaintColor;
+    // The last selection highlight colour and its translucent version
+    private Color highlightColor;
+    private Color highlightPaintColor;
     private MapLayer currentLayer;    // the currently selected layer
     // viewport display properties
     private boolean parallaxModeEnabled;
@@ -75,6 +92,15 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
     private MapLayer selectionRubberBandLayer;
     private SelectionSet selectionSet;
 
+    // Scratch objects for the paint methods, which only run on the event
+    // dispatch thread, so that painting a frame does not allocate them
+    protected final Rectangle paintClip = new Rectangle();
+    protected final Point paintOffset = new Point();
+    protected final Dimension paintTileSize = new Dimension();
+    protected final char[] paintText = new char[32];
+    private Font coordinatesFont;
+    private float coordinatesTextHeight;
+
     /**
      * Creates a new <code>MapView</code> that displays the specified map.
      *
@@ -146,10 +172,10 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
 
         g2d.setComposite(AlphaComposite.SrcOver);
 
-        g2d.setStroke(new BasicStroke(3));
+        g2d.setStroke(SELECTION_OUTER_STROKE);
         g2d.setColor(Color.WHITE);
         g2d.draw(r);
-        g2d.setStroke(new BasicStroke(1, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND, 10, new float[]{0.0f, 3.0f, 6.0f}, 0.0f));
+        g2d.setStroke(SELECTION_INNER_STROKE);
         g2d.setColor(Color.BLACK);
         g2d.draw(r);
 
@@ -228,6 +254,15 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
     /// @see isParallaxModeEnabled()
     /// @see setViewCenter()
     protected Point calculateParallaxOffset(MapLayer layer) {
+        return calculateParallaxOffset(layer, new Point());
+    }
+
+    /// Same as calculateParallaxOffset(MapLayer), storing the offset in the
+    /// given point instead of a new one.
+    /// @param    layer    The layer to calculate the parallax offset for
+    /// @param    result    The point to store the offset in
+    /// @returns    The given point
+    protected Point calculateParallaxOffset(MapLayer layer, Point result) {
         // the parallax effect imitates a sense of depth by moving layers
         // that are 'behind' a base plane (we call it the view plane) slower
         // than than the base plane. Layers 'above' the base plane are moved
@@ -256,8 +291,10 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
         // view plane distance setting.
         // The map's coordinate system is assumed to be the same as the view
         // plane's.
-        if (!isParallaxModeEnabled())
-            return new Point(0, 0);
+        if (!isParallaxModeEnabled()) {
+            result.setLocation(0, 0);
+            return result;
+        }
 
         int mapWidthPx = map.getWidth() * map.getTileWidth();
         int mapHeightPx = map.getHeight() * map.getTileHeight();
@@ -280,7 +317,8 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
         float x = layerOffsetX + originPosX - layerWidthPx / 2;
         float y = layerOffsetY + originPosY - layerHeightPx / 2;
 
-        return new Point((int) x, (int) y);
+        result.setLocation((int) x, (int) y);
+        return result;
     }
 
     /// This function is effectively the same as calculateParallaxOffset(),
@@ -289,10 +327,85 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
     /// @param    layer    The layer to calculate the parallax offset for
     /// @returns    The parallax offset to shift this layer by
     protected Point calculateParallaxOffsetZoomed(MapLayer layer) {
-        Point p = calculateParallaxOffset(layer);
-        p.x *= zoom;
-        p.y *= zoom;
-        return p;
+        return calculateParallaxOffsetZoomed(layer, new Point());
+    }
+
+    /// Same as calculateParallaxOffsetZoomed(MapLayer), storing the offset
+    /// in the given point instead of a new one.
+    /// @param    layer    The layer to calculate the parallax offset for
+    /// @param    result    The point to store the offset in
+    /// @returns    The given point
+    protected Point calculateParallaxOffsetZoomed(MapLayer layer, Point result) {
+        calculateParallaxOffset(layer, result);
+        result.x *= zoom;
+        result.y *= zoom;
+        return result;
+    }
+
+    /**
+     * Sets the font to draw coordinates with on the given graphics context.
+     * The font, and the height of its text, are kept until a different size
+     * is asked for.
+     *
+     * @param g2d  the graphics context to draw the coordinates onto
+     * @param size the point size of the font
+     * @return the height of a line of text in the font
+     */
+    protected float setCoordinatesFont(Graphics2D g2d, int size) {
+        if (coordinatesFont == null || coordinatesFont.getSize() != size) {
+            coordinatesFont = new Font("SansSerif", Font.PLAIN, size);
+            coordinatesTextHeight = coordinatesFont.getLineMetrics(
+                    "0", g2d.getFontRenderContext()).getHeight();
+        }
+        g2d.setFont(coordinatesFont);
+        return coordinatesTextHeight;
+    }
+
+    /**
+     * Writes the text "(x,y)" to the given buffer, which must have room for
+     * at least 25 characters, so that it can be drawn without creating a
+     * string.
+     *
+     * @param buffer the buffer to write to
+     * @param x      the x coordinate
+     * @param y      the y coordinate
+     * @return the number of characters written
+     */
+    protected static int formatCoordinates(char[] buffer, int x, int y) {
+        int length = 0;
+        buffer[length++] = '(';
+        length = formatNumber(buffer, length, x);
+        buffer[length++] = ',';
+        length = formatNumber(buffer, length, y);
+        buffer[length++] = ')';
+        return length;
+    }
+
+    /**
+     * Writes the decimal digits of a number to the given buffer.
+     *
+     * @param buffer the buffer to write to
+     * @param offset the position to write the number at
+     * @param number the number
+     * @return the position after the number
+     */
+    protected static int formatNumber(char[] buffer, int offset, int number) {
+        long value = number;
+        if (value < 0) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+        final int start = offset;
+        do {
+            buffer[offset++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = offset - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+        return offset;
     }
 
     public void toggleMode(int modeModifier) {
@@ -317,19 +430,51 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
 
     public void setGridColor(Color gridColor) {
         this.gridColor = gridColor;
+        gridPaintColor = translucent(gridColor, gridOpacity);
         repaint();
     }
 
     public void setZXScreenGridColor(Color gridColor) {
         this.gridZXScreenColor = gridColor;
+        gridZXScreenPaintColor = translucent(gridColor, gridOpacity);
         repaint();
     }
 
     public void setGridOpacity(int gridOpacity) {
         this.gridOpacity = gridOpacity;
+        gridPaintColor = translucent(gridColor, gridOpacity);
+        gridZXScreenPaintColor = translucent(gridZXScreenColor, gridOpacity);
         repaint();
     }
 
+    /**
+     * Returns the given colour with the given alpha, or <code>null</code>
+     * for no colour.
+     */
+    private static Color translucent(Color color, int alpha) {
+        if (color == null) {
+            return null;
+        }
+        alpha = Math.max(0, Math.min(255, alpha));
+        if (color.getAlpha() == alpha) {
+            return color;
+        }
+        return new Color(color.getRed(), color.getGreen(), color.getBlue(),
+                alpha);
+    }
+
+    /**
+     * Returns the colour to fill selected tiles with, which is the given
+     * highlight colour at 30% opacity.
+     */
+    private Color getHighlightPaintColor(Color color) {
+        if (color != highlightColor) {
+            highlightColor = color;
+            highlightPaintColor = translucent(color, (int) (0.3f * 255));
+        }
+        return highlightPaintColor;
+    }
+
     public void setAntialiasGrid(boolean antialiasGrid) {
         this.antialiasGrid = antialiasGrid;
         repaint();
@@ -443,9 +588,9 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
         Graphics2D g2d = (Graphics2D) g.create();
 
         MapLayer layer;
-        Rectangle clip = g2d.getClipBounds();
+        Rectangle clip = g2d.getClipBounds(paintClip);
 
-        g2d.setStroke(new BasicStroke(2.0f));
+        g2d.setStroke(LAYER_STROKE);
 
         // Do an initial fill with the background color
         // todo: make background color configurable
@@ -466,10 +611,9 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
                 layer = (MapLayer) li.next();
                 if (layer.isVisible()) {
                     if (layer instanceof SelectionLayer) {
-                        g2d.setComposite(AlphaComposite.getInstance(
-                                AlphaComposite.SRC_ATOP, 0.3f));
-                        g2d.setColor(
-                                ((SelectionLayer) layer).getHighlightColor());
+                        g2d.setComposite(AlphaComposite.SrcOver);
+                        g2d.setColor(getHighlightPaintColor(
+                                ((SelectionLayer) layer).getHighlightColor()));
                     }
                     paintLayer(g2d, (TileLayer) layer);
                 }
@@ -483,15 +627,8 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
 
         // Grid color (also used for coordinates)
         if (showGrid) {
-            g2d.setColor(gridColor);
-            // Grid opacity
-            if (gridOpacity < 255) {
-                g2d.setComposite(AlphaComposite.getInstance(
-                        AlphaComposite.SRC_ATOP,
-                        (float) gridOpacity / 255.0f));
-            } else {
-                g2d.setComposite(AlphaComposite.SrcOver);
-            }
+            g2d.setColor(gridPaintColor);
+            g2d.setComposite(AlphaComposite.SrcOver);
 
             // Configure grid antialiasing
             if (antialiasGrid) {
@@ -502,18 +639,13 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
                         RenderingHints.VALUE_ANTIALIAS_OFF);
             }
 
-            g2d.setStroke(new BasicStroke());
+            g2d.setStroke(GRID_STROKE);
             paintGrid(g2d);
         }
 
         if (showZXScreenGrid) {
-            g2d.setColor(gridZXScreenColor);
-            // Grid opacity
-            if (gridOpacity < 255) {
-                g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_ATOP, (float) gridOpacity / 255.0f));
-            } else {
-                g2d.setComposite(AlphaComposite.SrcOver);
-            }
+            g2d.setColor(gridZXScreenPaintColor);
+            g2d.setComposite(AlphaComposite.SrcOver);
 
             // Configure grid antialiasing
             if (antialiasGrid) {
@@ -522,7 +654,7 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
                 g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
             }
 
-            g2d.setStroke(new BasicStroke());
+            g2d.setStroke(GRID_STROKE);
             paintScreenGrid(g2d);
         }
 
@@ -593,11 +725,12 @@ public abstract class ZXMapView extends JPanel implements Scrollable {
 
     public void paintSubMap(MultilayerPlane m, Graphics2D g2d,
                             float mapOpacity) {
-        Iterator li = m.getLayers();
+        // Layers are looked up by index, which needs no iterator
+        final int layerCount = m.getTotalLayers();
         MapLayer layer;
 
-        while (li.hasNext()) {
-            layer = (MapLayer) li.next();
+        for (int i = 0; i < layerCount; i++) {
+            layer = m.getLayer(i);
             if (layer != null) {
                 float opacity = layer.getOpacity() * mapOpacity;
                 if (layer.isVisible() && opacity > 0.0f) {
@@ -0,0 +1,107 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import tiled.mapeditor.util.cutter.BasicTileCutter;
+import tiled.util.Benchmark;
+import tiled.util.ImageCache;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Times importing a 4096x4096 tileset image: loading it with a colour made
+ * transparent, and cutting it into tiles that share the images of tiles
+ * with the same pixels.
+ *
+ * @version $Id$
+ */
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+public class TileSetImportBenchmark {
+    private static final int SHEET_SIZE = 4096;
+    private static final int TILE_SIZE = 32;
+    private static final int PATTERNS = 200;
+    private static final Color KEY = Color.magenta;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void importLargeSheet() throws Exception {
+        final File sheet = new File(tempDir, "sheet.png");
+        ImageIO.write(createSheet(), "png", sheet);
+        final String filename = sheet.getPath();
+
+        TileSet imported = importSheet(filename);
+        final int tilesPerRow = SHEET_SIZE / TILE_SIZE;
+        assertEquals(tilesPerRow * tilesPerRow, imported.size());
+        assertEquals(PATTERNS, imported.getTotalImages());
+        BufferedImage tile = (BufferedImage) imported.getTile(0).getImage();
+        assertEquals(0, tile.getRGB(0, 0) >>> 24, "The key colour is opaque");
+
+        Benchmark.measure("Load and colour key a " + SHEET_SIZE + "x" +
+                SHEET_SIZE + " sheet", 2, 5, new Benchmark.Task() {
+            public void run() throws Exception {
+                ImageCache.getInstance().clear();
+                ImageCache.getInstance().getImage(sheet, KEY);
+            }
+        });
+
+        // The sheet stays cached, so this times cutting alone
+        Benchmark.measure("Cut a " + SHEET_SIZE + "x" + SHEET_SIZE +
+                " sheet into " + imported.size() + " tiles", 3, 10,
+                new Benchmark.Task() {
+                    public void run() throws Exception {
+                        importSheet(filename);
+                    }
+                });
+    }
+
+    private static TileSet importSheet(String filename) throws Exception {
+        TileSet tileset = new TileSet();
+        tileset.setTransparentColor(KEY);
+        tileset.importTileBitmap(filename,
+                new BasicTileCutter(TILE_SIZE, TILE_SIZE, 0, 0));
+        return tileset;
+    }
+
+    /**
+     * Creates a sheet of tiles showing one of a number of patterns each,
+     * with a key coloured corner.
+     */
+    private static BufferedImage createSheet() {
+        BufferedImage sheet = new BufferedImage(SHEET_SIZE, SHEET_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = sheet.createGraphics();
+        for (int y = 0; y < SHEET_SIZE; y += TILE_SIZE) {
+            for (int x = 0; x < SHEET_SIZE; x += TILE_SIZE) {
+                final int pattern = (x / TILE_SIZE * 7 + y / TILE_SIZE * 13) % PATTERNS;
+                g.setColor(new Color(pattern, 255 - pattern, 64));
+                g.fillRect(x, y, TILE_SIZE, TILE_SIZE);
+                g.setColor(new Color(255 - pattern, 32, pattern));
+                g.fillRect(x + 4, y + 4 + pattern % 8, TILE_SIZE / 2, 4);
+                g.setColor(KEY);
+                g.fillRect(x, y, 4, 4);
+            }
+        }
+        g.dispose();
+        return sheet;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.xml;
+
+import tiled.core.GidTileLayer;
+import tiled.core.Map;
+import tiled.core.MapLayer;
+import tiled.core.Tile;
+import tiled.core.TileLayer;
+import tiled.core.TileSet;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Builds the maps the TMX benchmarks load and save, and compares them.
+ *
+ * @version $Id$
+ */
+class BenchmarkMaps {
+    static final int TILE_SIZE = 16;
+    static final int TILE_COUNT = 64;
+
+    private BenchmarkMaps() {
+    }
+
+    /**
+     * Creates a square map with the given number of tile layers, filled
+     * with runs of tiles and empty cells, so that the layer data compresses
+     * about as well as that of a real map.
+     */
+    static Map createMap(int layers, int size) {
+        Map map = new Map(size, size);
+        map.setTileWidth(TILE_SIZE);
+        map.setTileHeight(TILE_SIZE);
+
+        TileSet tileset = new TileSet();
+        tileset.setName("benchmark");
+        for (int i = 0; i < TILE_COUNT; i++) {
+            BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(new Color(i * 4, 255 - i * 4, 128));
+            g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+            g.dispose();
+            Tile tile = new Tile();
+            tile.setImage(tileset.addImage(image));
+            tileset.addNewTile(tile);
+        }
+        map.addTileset(tileset);
+        map.assignTilesetFirstGids();
+        final int firstGid = tileset.getFirstGid();
+
+        final int[] row = new int[size];
+        int seed = 12345;
+        for (int l = 0; l < layers; l++) {
+            GidTileLayer layer = new GidTileLayer(map, size, size);
+            layer.setName("Layer " + l);
+            for (int y = 0; y < size; y++) {
+                int x = 0;
+                while (x < size) {
+                    seed = seed * 1103515245 + 12345;
+                    final int run = 1 + ((seed >>> 16) & 15);
+                    final int tile = (seed >>> 8) % (TILE_COUNT + 8);
+                    final int gid = tile < TILE_COUNT ? firstGid + tile : 0;
+                    for (int end = Math.min(size, x + run); x < end; x++) {
+                        row[x] = gid;
+                    }
+                }
+                layer.setGidRow(0, y, row);
+            }
+            map.addLayer(layer);
+        }
+        return map;
+    }
+
+    /**
+     * Asserts that the tile layers of both maps hold the same global ids.
+     */
+    static void assertSameLayers(Map expected, Map actual) {
+        assertEquals(expected.getTotalLayers(), actual.getTotalLayers());
+        for (int l = 0; l < expected.getTotalLayers(); l++) {
+            MapLayer expectedLayer = expected.getLayer(l);
+            MapLayer actualLayer = actual.getLayer(l);
+            assertEquals(expectedLayer.getBounds(), actualLayer.getBounds());
+            if (!(expectedLayer instanceof TileLayer)) {
+                continue;
+            }
+            final int width = expectedLayer.getWidth();
+            final int[] expectedRow = new int[width];
+            final int[] actualRow = new int[width];
+            for (int y = 0; y < expectedLayer.getHeight(); y++) {
+                ((GidTileLayer) expectedLayer).getGidRow(0, y, expectedRow);
+                ((GidTileLayer) actualLayer).getGidRow(0, y, actualRow);
+                assertArrayEquals(expectedRow, actualRow,
+                        "Layer " + l + " differs in row " + y);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.xml;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import tiled.core.Map;
+import tiled.util.Benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares loading a gzip compressed map with its layer data inflated on
+ * the parsing thread against inflating it on the common fork/join pool.
+ *
+ * @version $Id$
+ */
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+public class XMLMapReaderBenchmark {
+    private static final int LAYERS = 12;
+    private static final int SIZE = 1024;
+
+    @Test
+    public void serialAndParallelDecoding() throws Exception {
+        final Map original = BenchmarkMaps.createMap(LAYERS, SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XMLMapWriter().writeMap(original, out);
+        final byte[] tmx = out.toByteArray();
+
+        BenchmarkMaps.assertSameLayers(original, read(tmx, null));
+        BenchmarkMaps.assertSameLayers(original,
+                read(tmx, ForkJoinPool.commonPool()));
+
+        final String size = LAYERS + " layers of " + SIZE + "x" + SIZE;
+        Benchmark.measure("Load " + size + ", serial", 3, 10,
+                new Benchmark.Task() {
+                    public void run() throws Exception {
+                        read(tmx, null);
+                    }
+                });
+        Benchmark.measure("Load " + size + ", parallel", 3, 10,
+                new Benchmark.Task() {
+                    public void run() throws Exception {
+                        read(tmx, ForkJoinPool.commonPool());
+                    }
+                });
+    }
+
+    private static Map read(byte[] tmx, ForkJoinPool decodePool)
+            throws Exception {
+        XMLMapReader reader = new XMLMapReader();
+        reader.setDecodePool(decodePool);
+        return reader.readMap(new ByteArrayInputStream(tmx));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.xml;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import tiled.core.Map;
+import tiled.util.Benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+
+/**
+ * Times saving large maps as gzip compressed TMX, both to a file and to a
+ * stream that discards its output, the latter to leave out the disk.
+ * <p>
+ * The layers are plain {@link tiled.core.GidTileLayer}s, which do not keep
+ * track of their changes, so that the writer encodes all of them on every
+ * save instead of reusing the text written before.
+ *
+ * @version $Id$
+ */
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+public class XMLMapWriterBenchmark {
+    private static final int LAYERS = 10;
+    private static final int SIZE = 2048;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void writtenMapReadsBack() throws Exception {
+        final Map original = BenchmarkMaps.createMap(LAYERS, 256);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XMLMapWriter().writeMap(original, out);
+        BenchmarkMaps.assertSameLayers(original, new XMLMapReader().readMap(
+                new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void saveLargeMap() throws Exception {
+        final Map map = BenchmarkMaps.createMap(LAYERS, SIZE);
+        final XMLMapWriter writer = new XMLMapWriter();
+        final String filename = new File(tempDir, "benchmark.tmx").getPath();
+        final String size = LAYERS + " layers of " + SIZE + "x" + SIZE;
+
+        Benchmark.measure("Save " + size + " to a file", 2, 5,
+                new Benchmark.Task() {
+                    public void run() throws Exception {
+                        writer.writeMap(map, filename);
+                    }
+                });
+        Benchmark.measure("Save " + size + " to a null stream", 2, 5,
+                new Benchmark.Task() {
+                    public void run() throws Exception {
+                        writer.writeMap(map, new NullOutputStream());
+                    }
+                });
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.io.zx;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import tiled.util.Benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Times the reference decoders of the compression schemes on screens
+ * shaped like those of a map, to compare their decoding cost against the
+ * size they save.
+ *
+ * @version $Id$
+ */
+@EnabledIfSystemProperty(named = Benchmark.PROPERTY, matches = "true")
+public class ZXCompressionBenchmark {
+    private static final int SCREENS = 256;
+    private static final int LAYERS = 3;
+    private static final int SCREEN_WIDTH = 15;
+    private static final int SCREEN_HEIGHT = 10;
+    private static final int SCREEN_LENGTH = LAYERS * SCREEN_WIDTH * SCREEN_HEIGHT;
+    private static final int PASSES = 200;
+
+    @Test
+    public void decompressScreens() throws Exception {
+        final byte[][] screens = createScreens();
+
+        for (final ZXCompression compression : ZXCompression.values()) {
+            final byte[][] compressed = new byte[SCREENS][];
+            int size = 0;
+            for (int i = 0; i < SCREENS; i++) {
+                compressed[i] = compression.compress(screens[i]);
+                size += compressed[i].length;
+                assertArrayEquals(screens[i],
+                        compression.decompress(compressed[i], SCREEN_LENGTH),
+                        compression + " changed screen " + i);
+            }
+
+            Benchmark.measure("Decompress " + SCREENS + " screens " + PASSES +
+                    " times with " + compression + ", " + size + " of " +
+                    SCREENS * SCREEN_LENGTH + " bytes", 3, 10,
+                    new Benchmark.Task() {
+                        public void run() throws Exception {
+                            for (int pass = 0; pass < PASSES; pass++) {
+                                for (int i = 0; i < SCREENS; i++) {
+                                    compression.decompress(compressed[i],
+                                            SCREEN_LENGTH);
+                                }
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Creates screens with byte sized tile indices: a background layer of
+     * mostly one floor tile, a layer of walls along the rows and a sparse
+     * layer of items.
+     */
+    private static byte[][] createScreens() {
+        final byte[][] screens = new byte[SCREENS][SCREEN_LENGTH];
+        int seed = 4711;
+        for (int s = 0; s < SCREENS; s++) {
+            final byte[] screen = screens[s];
+            final int floor = 1 + s % 4;
+            int i = 0;
+            for (int layer = 0; layer < LAYERS; layer++) {
+                for (int y = 0; y < SCREEN_HEIGHT; y++) {
+                    for (int x = 0; x < SCREEN_WIDTH; x++) {
+                        seed = seed * 1103515245 + 12345;
+                        final int random = (seed >>> 16) & 0xff;
+                        int tile = 0;
+                        if (layer == 0) {
+                            tile = random < 32 ? 5 + random % 8 : floor;
+                        } else if (layer == 1) {
+                            tile = y == 0 || y == SCREEN_HEIGHT - 1 ||
+                                    (y == 5 && random < 160) ? 20 + x % 3 : 0;
+                        } else if (random < 12) {
+                            tile = 40 + random;
+                        }
+                        screen[i++] = (byte) tile;
+                    }
+                }
+            }
+        }
+        return screens;
+    }
+}
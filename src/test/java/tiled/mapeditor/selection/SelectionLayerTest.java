@@ -0,0 +1,74 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.mapeditor.selection;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the selection of a selection layer moves along with it, as
+ * the cursor highlight does with every mouse move.
+ *
+ * @version $Id$
+ */
+public class SelectionLayerTest {
+    @Test
+    public void selectedTileMovesWithOffset() {
+        SelectionLayer layer = new SelectionLayer(1, 1, 32, 32);
+        layer.select(0, 0);
+        layer.setOffset(5, 5);
+
+        assertNotNull(layer.getTileAt(5, 5));
+        assertTrue(layer.isSelected(5, 5));
+        assertNull(layer.getTileAt(0, 0));
+        assertFalse(layer.isSelected(0, 0));
+        assertEquals(new Rectangle(5, 5, 1, 1), layer.getContentBounds());
+    }
+
+    @Test
+    public void selectAfterOffsetUsesMapCoordinates() {
+        SelectionLayer layer = new SelectionLayer(4, 4, 32, 32);
+        layer.setOffset(10, 20);
+        layer.select(11, 22);
+
+        assertTrue(layer.isSelected(11, 22));
+        assertEquals(new Rectangle(1, 2, 1, 1), layer.getSelectedAreaBounds());
+
+        layer.setOffset(0, 0);
+        assertTrue(layer.isSelected(1, 2));
+    }
+
+    @Test
+    public void selectedRegionMovesWithOffset() {
+        // As the brush preview: resized, filled and then moved around
+        SelectionLayer layer = new SelectionLayer(1, 1, 32, 32);
+        layer.resize(3, 2, 0, 0);
+        layer.selectRegion(new Rectangle(0, 0, 3, 2));
+        layer.setOffset(7, 4);
+
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertNotNull(layer.getTileAt(7 + x, 4 + y));
+            }
+        }
+        assertNull(layer.getTileAt(10, 4));
+        assertNull(layer.getTileAt(6, 4));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Times a task over a number of runs after warming it up, and logs the
+ * fastest and the median run.
+ * <p>
+ * Benchmarks only run when the "tiled.benchmarks" system property is set
+ * to <code>true</code>, for example with
+ * <code>gradle test -Dtiled.benchmarks=true</code>.
+ *
+ * @version $Id$
+ */
+public final class Benchmark {
+    /**
+     * The system property enabling the benchmarks.
+     */
+    public static final String PROPERTY = "tiled.benchmarks";
+
+    private static final Logger log = LoggerFactory.getLogger(Benchmark.class);
+
+    /**
+     * A piece of work to be timed.
+     */
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * Runs the given task <code>warmups</code> times untimed and then
+     * <code>runs</code> times timed.
+     *
+     * @param name    the name to log the timings under
+     * @param warmups the number of untimed runs
+     * @param runs    the number of timed runs
+     * @param task    the task to time
+     * @return the median time of the timed runs, in milliseconds
+     * @throws Exception when the task fails
+     */
+    public static double measure(String name, int warmups, int runs, Task task)
+            throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            task.run();
+        }
+
+        final long[] times = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            final long start = System.nanoTime();
+            task.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+
+        final double best = times[0] / 1e6;
+        final double median = times[runs / 2] / 1e6;
+        log.info(String.format("%s: best %.1f ms, median %.1f ms over %d runs",
+                name, best, median, runs));
+        return median;
+    }
+}
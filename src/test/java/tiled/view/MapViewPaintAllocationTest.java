@@ -0,0 +1,224 @@
+/*
+ *  Tiled Map Editor, (c) 2004-2006
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Adam Turk <aturk@biggeruniverse.com>
+ *  Bjorn Lindeijer <bjorn@lindeijer.nl>
+ */
+
+package tiled.view;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import tiled.core.Map;
+import tiled.core.Tile;
+import tiled.core.TileLayer;
+import tiled.core.TileSet;
+import tiled.mapeditor.selection.SelectionSet;
+import tiled.util.TiledConfiguration;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.prefs.Preferences;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Renders frames of the map views headlessly, set up like the editor shows
+ * them with the grid and coordinates on, and checks that no frame
+ * allocates more than a little once the view is warmed up. Every view is
+ * painted both with and without the chunk image cache.
+ *
+ * @version $Id$
+ */
+public class MapViewPaintAllocationTest {
+    private static final int MAP_SIZE = 40;
+    private static final int TILE_SIZE = 32;
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+
+    // Until the paint path is compiled, its scratch objects are not all
+    // optimized away yet
+    private static final int WARMUP_FRAMES = 100;
+    private static final int MEASURED_FRAMES = 100;
+
+    /**
+     * Bytes any measured frame may allocate. Painting the map itself
+     * allocates nothing; what remains is allocated by Java2D and differs
+     * per JDK.
+     */
+    private static final long FRAME_BUDGET = 4 * 1024;
+
+    private static final String CHUNK_CACHE_MEMORY = "chunkCacheMemory";
+
+    @BeforeAll
+    public static void setHeadless() {
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    @Test
+    public void orthogonalPaintStaysWithinBudget() {
+        assertWithinBudget(Map.MDO_ORTHO, true);
+    }
+
+    @Test
+    public void orthogonalUncachedPaintStaysWithinBudget() {
+        assertWithinBudget(Map.MDO_ORTHO, false);
+    }
+
+    @Test
+    public void isometricPaintStaysWithinBudget() {
+        assertWithinBudget(Map.MDO_ISO, true);
+    }
+
+    @Test
+    public void isometricUncachedPaintStaysWithinBudget() {
+        assertWithinBudget(Map.MDO_ISO, false);
+    }
+
+    @Test
+    public void hexagonalPaintStaysWithinBudget() {
+        assertWithinBudget(Map.MDO_HEX, true);
+    }
+
+    @Test
+    public void hexagonalUncachedPaintStaysWithinBudget() {
+        assertWithinBudget(Map.MDO_HEX, false);
+    }
+
+    @Test
+    public void shiftedPaintStaysWithinBudget() {
+        assertWithinBudget(Map.MDO_SHIFTED, true);
+    }
+
+    @Test
+    public void shiftedUncachedPaintStaysWithinBudget() {
+        assertWithinBudget(Map.MDO_SHIFTED, false);
+    }
+
+    @Test
+    public void zxPaintStaysWithinBudget() {
+        assertZXWithinBudget(true);
+    }
+
+    @Test
+    public void zxUncachedPaintStaysWithinBudget() {
+        assertZXWithinBudget(false);
+    }
+
+    private static Map createMap(int orientation) {
+        Map map = new Map(MAP_SIZE, MAP_SIZE);
+        map.setTileWidth(TILE_SIZE);
+        map.setTileHeight(TILE_SIZE);
+        map.setOrientation(orientation);
+
+        TileSet tileset = new TileSet();
+        for (int i = 0; i < 4; i++) {
+            BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(new Color(60 * i, 255 - 50 * i, 100));
+            g.fillRect(2, 2, TILE_SIZE - 4, TILE_SIZE - 4);
+            g.dispose();
+            Tile tile = new Tile();
+            tile.setImage(tileset.addImage(image));
+            tileset.addNewTile(tile);
+        }
+        map.addTileset(tileset);
+
+        // Leave some cells empty, so that the empty tile path is painted too
+        TileLayer layer = (TileLayer) map.addLayer();
+        for (int y = 0; y < MAP_SIZE; y++) {
+            for (int x = 0; x < MAP_SIZE; x++) {
+                if ((x * 7 + y * 3) % 5 != 0) {
+                    layer.setTileAt(x, y, tileset.getTile((x + y) % 4));
+                }
+            }
+        }
+        return map;
+    }
+
+    private static void assertWithinBudget(int orientation, boolean cached) {
+        final Map map = createMap(orientation);
+        final MapView view = MapView.createViewforMap(map);
+        view.setCurrentLayer(map.getLayer(0));
+        view.setSelectionSet(new SelectionSet());
+        // As the editor sets up its views by default
+        view.setShowGrid(true);
+        view.setShowZXScreenGrid(true);
+        view.setMode(MapView.PF_COORDINATES, true);
+        view.setGridColor(Color.black);
+        view.setZXScreenGridColor(Color.red);
+        view.setGridOpacity(255);
+        assertWithinBudget(view, cached);
+    }
+
+    private static void assertZXWithinBudget(boolean cached) {
+        final Map map = createMap(Map.MDO_ORTHO);
+        final ZXMapView view = ZXMapView.createViewforMap(map);
+        view.setCurrentLayer(map.getLayer(0));
+        view.setSelectionSet(new SelectionSet());
+        view.setShowGrid(true);
+        view.setShowZXScreenGrid(true);
+        view.setMode(ZXMapView.PF_COORDINATES, true);
+        view.setGridColor(Color.black);
+        view.setZXScreenGridColor(Color.red);
+        view.setGridOpacity(255);
+        assertWithinBudget(view, cached);
+    }
+
+    private static void assertWithinBudget(JComponent view, boolean cached) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final Preferences prefs = TiledConfiguration.node("display");
+        final String cacheMemory = prefs.get(CHUNK_CACHE_MEMORY, null);
+        if (!cached) {
+            prefs.putInt(CHUNK_CACHE_MEMORY, 0);
+        }
+
+        final long[] allocated = new long[MEASURED_FRAMES];
+        try {
+            view.setSize(view.getPreferredSize());
+
+            final BufferedImage frame = new BufferedImage(FRAME_WIDTH,
+                    FRAME_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            final long thread = Thread.currentThread().getId();
+            for (int i = 0; i < WARMUP_FRAMES + MEASURED_FRAMES; i++) {
+                Graphics2D g = frame.createGraphics();
+                g.setClip(0, 0, FRAME_WIDTH, FRAME_HEIGHT);
+                final long before = threads.getThreadAllocatedBytes(thread);
+                view.paint(g);
+                final long after = threads.getThreadAllocatedBytes(thread);
+                g.dispose();
+                if (i >= WARMUP_FRAMES) {
+                    allocated[i - WARMUP_FRAMES] = after - before;
+                }
+            }
+        } finally {
+            if (cacheMemory == null) {
+                prefs.remove(CHUNK_CACHE_MEMORY);
+            } else {
+                prefs.put(CHUNK_CACHE_MEMORY, cacheMemory);
+            }
+        }
+
+        Arrays.sort(allocated);
+        final long most = allocated[MEASURED_FRAMES - 1];
+        assertTrue(most <= FRAME_BUDGET, view.getClass().getSimpleName() +
+                (cached ? "" : " without chunk cache") + " allocated up to " +
+                most + " bytes per frame (median " +
+                allocated[MEASURED_FRAMES / 2] + "), more than " +
+                FRAME_BUDGET);
+    }
+}